@@ -28,9 +28,13 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.util.List;
 
+import static org.jboss.aerogear.unifiedpush.rest.util.CommonUtils.getCursorLinkHeader;
 import static org.jboss.aerogear.unifiedpush.rest.util.CommonUtils.isAscendingOrder;
 
 @Path("/metrics/messages")
@@ -46,12 +50,16 @@ public class PushMetricsEndpoint {
      *
      * @param id        id of {@link org.jboss.aerogear.unifiedpush.api.PushApplication}
      * @param page      page number
+     * @param after     id of the last push message of the previous page, empty for the first page; when given,
+     *                  the push messages are paged by their date and id instead of the page number
      * @param pageSize  number of items per page
      * @param sorting   sorting order: {@code asc} (default) or {@code desc}
      * @param search    search query
+     * @param uri       uri
      * @return          list of {@link FlatPushMessageInformation}s
      *
-     * @responseheader total            Total count of items
+     * @responseheader Link             Links to the "first" and "next" page when paging by id
+     * @responseheader total            Total count of items, approximate when paging by id
      * @responseheader receivers        Receivers
      * @responseheader appOpenedCounter App Opened Counter
      *
@@ -63,9 +71,11 @@ public class PushMetricsEndpoint {
     public Response pushMessageInformationPerApplication(
             @PathParam("id") String id,
             @QueryParam("page") Integer page,
+            @QueryParam("after") String after,
             @QueryParam("per_page") Integer pageSize,
             @QueryParam("sort") String sorting,
-            @QueryParam("search") String search) {
+            @QueryParam("search") String search,
+            @Context UriInfo uri) {
 
         pageSize = parsePageSize(pageSize);
 
@@ -77,6 +87,22 @@ public class PushMetricsEndpoint {
             return Response.status(Response.Status.NOT_FOUND).entity(ErrorBuilder.forMetrics().notFound().build()).build();
         }
 
+        // the push messages following the last one of the previous page, without computing the metrics on every page
+        if (after != null) {
+            PageResult<FlatPushMessageInformation, MessageMetrics> pageResult =
+                    metricsService.findFlatsForPushApplicationAfter(id, search, isAscendingOrder(sorting), after.isEmpty() ? null : after, pageSize);
+
+            final List<FlatPushMessageInformation> messages = pageResult.getResultList();
+            final String lastId = messages.size() < pageSize ? null : messages.get(messages.size() - 1).getId();
+
+            return Response.ok(messages)
+                    .header("Link", getCursorLinkHeader(after, lastId, uri).toString())
+                    .header("total", pageResult.getAggregate().getCount())
+                    .header("receivers", "0")
+                    .header("appOpenedCounter", pageResult.getAggregate().getAppOpenedCounter())
+                    .build();
+        }
+
         PageResult<FlatPushMessageInformation, MessageMetrics> pageResult =
                 metricsService.findAllFlatsForPushApplication(id, search, isAscendingOrder(sorting), page, pageSize);
 
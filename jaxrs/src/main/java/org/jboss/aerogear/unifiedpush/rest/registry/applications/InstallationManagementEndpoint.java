@@ -31,6 +31,9 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import java.util.List;
+
+import static org.jboss.aerogear.unifiedpush.rest.util.CommonUtils.getCursorLinkHeader;
 
 
 @Path("/applications/{variantID}/installations/")
@@ -49,13 +52,18 @@ public class InstallationManagementEndpoint {
      *
      * @param variantId id of {@link org.jboss.aerogear.unifiedpush.api.Variant}
      * @param page      page number
+     * @param after     id of the last installation of the previous page, empty for the first page; when given,
+     *                  the installations are paged by their id instead of the page number
      * @param pageSize  number of items per page
-     * @param search    search query
+     * @param search    search query, matched anywhere in the device metadata; <code>alias:value</code> matches the installations
+     *                  with exactly that alias and <code>value*</code> the ones whose device token or alias starts with the value,
+     *                  so both forms are no longer matched literally, unless the query is in double quotes. Only the two
+     *                  forms are served by indexes on all databases, MySQL scans the installations of the variant for the others
      * @param uri       uri
      * @return          list of {@link Installation}s
      *
-     * @responseheader Link     Links to "prev", "first", "next" and "last" pages
-     * @responseheader total    Total count of items
+     * @responseheader Link     Links to "prev", "first", "next" and "last" pages, or to the "first" and "next" page when paging by id
+     * @responseheader total    Total count of items, approximate when paging by id
      *
      * @statuscode 404 The requested Variant resource does not exist
      */
@@ -63,6 +71,7 @@ public class InstallationManagementEndpoint {
     @Produces(MediaType.APPLICATION_JSON)
     public Response findInstallations(@PathParam("variantID") String variantId,
                                       @QueryParam("page") Integer page,
+                                      @QueryParam("after") String after,
                                       @QueryParam("per_page") Integer pageSize,
                                       @QueryParam("search") String search,
                                       @Context UriInfo uri) {
@@ -85,6 +94,20 @@ public class InstallationManagementEndpoint {
             return Response.status(Response.Status.NOT_FOUND).entity(ErrorBuilder.forVariants().notFound().build()).build();
         }
 
+        //Find the installations following the last one of the previous page, without counting them on every page
+        if (after != null) {
+            PageResult<Installation, Count> pageResult = searchManager.getSearchService()
+                    .findAllInstallationsByVariantForDeveloperAfter(variantId, after.isEmpty() ? null : after, pageSize, search);
+
+            final List<Installation> installations = pageResult.getResultList();
+            final String lastId = installations.size() < pageSize ? null : installations.get(installations.size() - 1).getId();
+
+            return Response.ok(installations)
+                    .header("Link", getCursorLinkHeader(after, lastId, uri).toString())
+                    .header("total", pageResult.getAggregate().getCount())
+                    .build();
+        }
+
         //Find the installations using the variantID
         PageResult<Installation, Count> pageResult = searchManager.getSearchService().findAllInstallationsByVariantForDeveloper(variantId, page, pageSize, search);
 
@@ -133,7 +156,7 @@ public class InstallationManagementEndpoint {
     @Produces(MediaType.APPLICATION_JSON)
     public Response findInstallation(@PathParam("variantID") String variantId, @PathParam("installationID") String installationId) {
 
-        Installation installation = clientInstallationService.findById(installationId);
+        Installation installation = clientInstallationService.findByIdWithCategories(installationId);
 
         if (installation == null) {
             return Response.status(Response.Status.NOT_FOUND).entity(ErrorBuilder.forInstallations().notFound().build()).build();
@@ -20,6 +20,9 @@ import org.jboss.aerogear.unifiedpush.api.PushApplication;
 import org.jboss.aerogear.unifiedpush.auth.HttpBasicHelper;
 import org.jboss.aerogear.unifiedpush.message.InternalUnifiedPushMessage;
 import org.jboss.aerogear.unifiedpush.message.NotificationRouter;
+import org.jboss.aerogear.unifiedpush.message.idempotency.IdempotencyKeyReservation;
+import org.jboss.aerogear.unifiedpush.message.idempotency.IdempotencyKeyStore;
+import org.jboss.aerogear.unifiedpush.message.schedule.PushMessageScheduler;
 import org.jboss.aerogear.unifiedpush.rest.EmptyJSON;
 import org.jboss.aerogear.unifiedpush.rest.util.HttpRequestUtil;
 import org.jboss.aerogear.unifiedpush.rest.util.error.ErrorBuilder;
@@ -38,16 +41,24 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import java.util.Date;
 
 @Path("/sender")
 public class PushNotificationSenderEndpoint {
 
     private static final Logger logger = LoggerFactory.getLogger(PushNotificationSenderEndpoint.class);
 
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 200;
+
     @Inject
     private PushApplicationService pushApplicationService;
     @Inject
     private NotificationRouter notificationRouter;
+    @Inject
+    private PushMessageScheduler pushMessageScheduler;
+    @Inject
+    private IdempotencyKeyStore idempotencyKeyStore;
 
     /**
      * RESTful API for sending Push Notifications.
@@ -74,15 +85,25 @@ public class PushNotificationSenderEndpoint {
      * <p>
      *
      * <b>Request Header</b> {@code aerogear-sender} uses to identify the used client. If the header is not present, the standard "user-agent" header is used.
+     * <p>
+     *
+     * When the {@code config} of the message contains a {@code deliverAt} time in the future, the message is stored and delivered at that time.
+     * <p>
+     *
+     * <b>Request Header</b> {@code Idempotency-Key} makes retries of a request safe: a request with a key that was already used for the same
+     * push application is not sent again, but answered with the ID of the original push message.
      *
      * @param message   message to send
      * @param request the request
      * @return          empty JSON body
      *
      * @responseheader WWW-Authenticate Basic realm="AeroGear UnifiedPush Server" (only for 401 response)
+     * @responseheader aerogear-push-id ID of the push message, or of the scheduled message when it is delivered later (only for 202 response)
      *
      * @statuscode 202 Indicates the Job has been accepted and is being process by the AeroGear UnifiedPush Server
+     * @statuscode 400 The Idempotency-Key is empty or too long
      * @statuscode 401 The request requires authentication
+     * @statuscode 409 A request with the same Idempotency-Key is still being processed
      */
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
@@ -105,11 +126,62 @@ public class PushNotificationSenderEndpoint {
         // add the client identifier
         message.setClientIdentifier(HttpRequestUtil.extractAeroGearSenderInformation(request));
 
+        final String idempotencyKey = request.getHeader(IDEMPOTENCY_KEY_HEADER);
+        if (idempotencyKey != null) {
+            if (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+                return Response.status(Status.BAD_REQUEST)
+                        .entity(ErrorBuilder.forSender().invalidIdempotencyKey().build())
+                        .build();
+            }
+
+            final IdempotencyKeyReservation reservation = idempotencyKeyStore.reserve(pushApplication.getPushApplicationID(), idempotencyKey);
+            if (reservation.isInProgress()) {
+                return Response.status(Status.CONFLICT)
+                        .entity(ErrorBuilder.forSender().requestInProgress().build())
+                        .build();
+            }
+            if (!reservation.isReserved()) {
+                logger.debug("Push Message Request from [{}] API was already submitted as {}", message.getClientIdentifier(), reservation.getPushMessageId());
+                return accepted(reservation.getPushMessageId());
+            }
+        }
+
+        final String pushMessageId;
+        try {
+            pushMessageId = submit(pushApplication, message);
+        } catch (RuntimeException e) {
+            if (idempotencyKey != null) {
+                idempotencyKeyStore.release(pushApplication.getPushApplicationID(), idempotencyKey);
+            }
+            throw e;
+        }
+        if (idempotencyKey != null) {
+            idempotencyKeyStore.complete(pushApplication.getPushApplicationID(), idempotencyKey, pushMessageId);
+        }
+
+        return accepted(pushMessageId);
+    }
+
+    private String submit(PushApplication pushApplication, InternalUnifiedPushMessage message) {
+        // kept until it is due:
+        final Date deliverAt = message.getConfig().getDeliverAt();
+        if (deliverAt != null && deliverAt.after(new Date())) {
+            final String scheduledMessageId = pushMessageScheduler.schedule(pushApplication, message);
+            logger.debug("Push Message Request from [{}] API was scheduled for delivery at {}", message.getClientIdentifier(), deliverAt);
+            return scheduledMessageId;
+        }
+
         // submitted to EJB:
-        notificationRouter.submit(pushApplication, message);
+        final String pushMessageId = notificationRouter.submit(pushApplication, message);
         logger.debug("Push Message Request from [{}] API was internally submitted for further processing", message.getClientIdentifier());
+        return pushMessageId;
+    }
 
-        return Response.status(Status.ACCEPTED).entity(EmptyJSON.STRING).build();
+    private static Response accepted(String pushMessageId) {
+        return Response.status(Status.ACCEPTED)
+                .header(InternalUnifiedPushMessage.PUSH_MESSAGE_ID, pushMessageId)
+                .entity(EmptyJSON.STRING)
+                .build();
     }
 
     /**
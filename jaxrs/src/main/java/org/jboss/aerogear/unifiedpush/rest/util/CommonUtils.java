@@ -16,6 +16,10 @@
  */
 package org.jboss.aerogear.unifiedpush.rest.util;
 
+import org.jboss.resteasy.spi.Link;
+import org.jboss.resteasy.spi.LinkHeader;
+
+import javax.ws.rs.core.UriInfo;
 import java.net.MalformedURLException;
 import java.net.URL;
 
@@ -36,6 +40,35 @@ public class CommonUtils {
         return "desc".equalsIgnoreCase(sorting) ? Boolean.FALSE : Boolean.TRUE;
     }
 
+    /**
+     * Builds the "first" and "next" links of a page that is located through the id of the last item of the previous page,
+     * given as the <code>after</code> query parameter.
+     *
+     * @param after the <code>after</code> query parameter of the current request
+     * @param lastId the id of the last item of the current page, or null if there is no next page
+     * @param uri uri of the current request
+     * @return the link header
+     */
+    public static LinkHeader getCursorLinkHeader(String after, String lastId, UriInfo uri) {
+        LinkHeader header = new LinkHeader();
+
+        if (after != null && !after.isEmpty()) {
+            header.addLink(buildCursorLink("first", "", uri));
+        }
+
+        if (lastId != null) {
+            header.addLink(buildCursorLink("next", lastId, uri));
+        }
+        return header;
+    }
+
+    private static Link buildCursorLink(String rel, String after, UriInfo uri) {
+        Link link = new Link();
+        link.setHref(uri.getRequestUriBuilder().replaceQueryParam("page").replaceQueryParam("after", after).build().toASCIIString());
+        link.setRelationship(rel);
+        return link;
+    }
+
     public static String removeDefaultHttpPorts(final String uri) {
         URL url;
         try {
@@ -38,6 +38,10 @@ public abstract class ErrorBuilder {
         return new ValidationErrorBuilder();
     }
 
+    public static SenderErrorBuilder forSender() {
+        return new SenderErrorBuilder();
+    }
+
 
     // Actual builders
     private static class AbstractErrorBuilder<T extends AbstractErrorBuilder<T>> {
@@ -97,6 +101,19 @@ public abstract class ErrorBuilder {
         }
     }
 
+    public static class SenderErrorBuilder extends AbstractErrorBuilder<SenderErrorBuilder> {
+        private SenderErrorBuilder() {
+        }
+
+        public SenderErrorBuilder invalidIdempotencyKey() {
+            return this.setError(new UnifiedPushError("Idempotency-Key must not be empty or longer than 200 characters"));
+        }
+
+        public SenderErrorBuilder requestInProgress() {
+            return this.setError(new UnifiedPushError("A request with the same Idempotency-Key is still being processed"));
+        }
+    }
+
     public static class AuthErrorBuilder extends AbstractErrorBuilder<AuthErrorBuilder> {
         private AuthErrorBuilder() {
         }
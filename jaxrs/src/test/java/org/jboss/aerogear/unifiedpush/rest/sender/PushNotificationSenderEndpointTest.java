@@ -0,0 +1,100 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.rest.sender;
+
+import org.jboss.aerogear.unifiedpush.api.PushApplication;
+import org.jboss.aerogear.unifiedpush.message.InternalUnifiedPushMessage;
+import org.jboss.aerogear.unifiedpush.message.NotificationRouter;
+import org.jboss.aerogear.unifiedpush.message.idempotency.IdempotencyKeyReservation;
+import org.jboss.aerogear.unifiedpush.message.idempotency.IdempotencyKeyStore;
+import org.jboss.aerogear.unifiedpush.message.schedule.PushMessageScheduler;
+import org.jboss.aerogear.unifiedpush.service.PushApplicationService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.Response;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PushNotificationSenderEndpointTest {
+
+    private static final String APP_ID = "push-app-id";
+    private static final String MASTER_SECRET = "master-secret";
+
+    @Mock
+    private PushApplicationService pushApplicationService;
+
+    @Mock
+    private NotificationRouter notificationRouter;
+
+    @Mock
+    private PushMessageScheduler pushMessageScheduler;
+
+    @Mock
+    private IdempotencyKeyStore idempotencyKeyStore;
+
+    @Mock
+    private HttpServletRequest request;
+
+    @InjectMocks
+    private PushNotificationSenderEndpoint endpoint;
+
+    @Before
+    public void before() {
+        final PushApplication pushApplication = new PushApplication();
+        pushApplication.setPushApplicationID(APP_ID);
+        pushApplication.setMasterSecret(MASTER_SECRET);
+        when(pushApplicationService.findByPushApplicationID(APP_ID)).thenReturn(pushApplication);
+
+        final String credentials = Base64.getEncoder().encodeToString((APP_ID + ":" + MASTER_SECRET).getBytes(StandardCharsets.UTF_8));
+        when(request.getHeader("Authorization")).thenReturn("Basic " + credentials);
+        when(request.getHeader("Idempotency-Key")).thenReturn("key-1");
+    }
+
+    @Test
+    public void shouldRejectRequestInProgress() {
+        when(idempotencyKeyStore.reserve(APP_ID, "key-1")).thenReturn(IdempotencyKeyReservation.inProgress());
+
+        final Response response = endpoint.send(new InternalUnifiedPushMessage(), request);
+
+        assertEquals(409, response.getStatus());
+        verify(notificationRouter, never()).submit(any(PushApplication.class), any(InternalUnifiedPushMessage.class));
+    }
+
+    @Test
+    public void shouldAnswerDuplicateWithOriginalMessage() {
+        when(idempotencyKeyStore.reserve(APP_ID, "key-1")).thenReturn(IdempotencyKeyReservation.duplicateOf("msg-1"));
+
+        final Response response = endpoint.send(new InternalUnifiedPushMessage(), request);
+
+        assertEquals(202, response.getStatus());
+        assertEquals("msg-1", response.getMetadata().getFirst(InternalUnifiedPushMessage.PUSH_MESSAGE_ID));
+        verify(notificationRouter, never()).submit(any(PushApplication.class), any(InternalUnifiedPushMessage.class));
+    }
+}
@@ -16,9 +16,16 @@
  */
 package org.jboss.aerogear.unifiedpush.rest.util;
 
+import org.jboss.resteasy.spi.Link;
+import org.jboss.resteasy.spi.LinkHeader;
+import org.jboss.resteasy.spi.ResteasyUriInfo;
 import org.junit.Test;
 
+import java.net.URI;
+import java.net.URISyntaxException;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.jboss.aerogear.unifiedpush.rest.util.CommonUtils.getCursorLinkHeader;
 import static org.jboss.aerogear.unifiedpush.rest.util.CommonUtils.isAscendingOrder;
 import static org.jboss.aerogear.unifiedpush.rest.util.CommonUtils.removeDefaultHttpPorts;
 
@@ -58,4 +65,23 @@ public class CommonUtilsTest {
         assertThat(removeDefaultHttpPorts("localhost/auth")).isNull();
     }
 
-}
\ No newline at end of file
+    @Test
+    public void cursorLinksOfFirstPage() throws URISyntaxException {
+        final LinkHeader linkHeader = getCursorLinkHeader(null, "42", new ResteasyUriInfo(new URI("/"), new URI("?per_page=10")));
+
+        assertThat(linkHeader.getLinkByRelationship("first")).isNull();
+        final Link next = linkHeader.getLinkByRelationship("next");
+        assertThat(next).isNotNull();
+        assertThat(next.getHref()).contains("per_page=10").contains("after=42");
+    }
+
+    @Test
+    public void cursorLinksOfLastPage() throws URISyntaxException {
+        final LinkHeader linkHeader = getCursorLinkHeader("42", null, new ResteasyUriInfo(new URI("/"), new URI("?page=3&after=42")));
+
+        assertThat(linkHeader.getLinkByRelationship("next")).isNull();
+        final Link first = linkHeader.getLinkByRelationship("first");
+        assertThat(first).isNotNull();
+        assertThat(first.getHref()).doesNotContain("page=").doesNotContain("after=42");
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.migrator;
+
+import liquibase.change.custom.CustomTaskChange;
+import liquibase.database.Database;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.exception.CustomChangeException;
+import liquibase.exception.SetupException;
+import liquibase.exception.ValidationErrors;
+import liquibase.resource.ResourceAccessor;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Locale;
+import java.util.StringJoiner;
+
+/**
+ * Fills the search text of the stored push messages from their JSON: the alert and the variants and device types of the criteria,
+ * the same values as for new messages, except the aliases and categories, which are not part of the stored JSON.
+ */
+public class SearchTextMigration implements CustomTaskChange {
+
+    private static final int MAX_SEARCH_TEXT_LENGTH = 1024;
+    private static final int BATCH_SIZE = 500;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private String confirmationMessage = "";
+
+    @Override
+    public String getConfirmationMessage() {
+        return confirmationMessage;
+    }
+
+    @Override
+    public void setUp() throws SetupException {
+
+    }
+
+    @Override
+    public void setFileOpener(ResourceAccessor resourceAccessor) {
+
+    }
+
+    @Override
+    public ValidationErrors validate(Database database) {
+        return null;
+    }
+
+    @Override
+    public void execute(Database database) throws CustomChangeException {
+        try {
+            Connection conn = ((JdbcConnection) (database.getConnection())).getWrappedConnection();
+
+            int updated = 0;
+            String lastId = "";
+            try (PreparedStatement select = conn.prepareStatement("SELECT id, raw_json_message FROM flat_push_message_info WHERE id > ? ORDER BY id");
+                 PreparedStatement update = conn.prepareStatement("UPDATE flat_push_message_info SET search_text = ? WHERE id = ?")) {
+                select.setMaxRows(BATCH_SIZE);
+                while (true) {
+                    // the messages are read page by page, so that all of them are never held at once
+                    select.setString(1, lastId);
+                    int read = 0;
+                    try (ResultSet resultSet = select.executeQuery()) {
+                        while (resultSet.next()) {
+                            lastId = resultSet.getString("id");
+                            update.setString(1, toSearchText(resultSet.getString("raw_json_message")));
+                            update.setString(2, lastId);
+                            update.addBatch();
+                            read++;
+                        }
+                    }
+                    if (read == 0) {
+                        break;
+                    }
+                    update.executeBatch();
+                    updated += read;
+                }
+            }
+            confirmationMessage = "filled the search text of " + updated + " push messages";
+        } catch (Exception e) {
+            throw new CustomChangeException("Failed to fill the search text of the push messages", e);
+        }
+    }
+
+    /**
+     * @param json the stored JSON of a push message
+     * @return the lower case alert, variants and device types of the message, or null if the JSON can't be read
+     */
+    static String toSearchText(String json) {
+        if (json == null) {
+            return null;
+        }
+        final JsonNode message;
+        try {
+            message = OBJECT_MAPPER.readTree(json);
+        } catch (IOException e) {
+            return null;
+        }
+        if (message == null || !message.isObject()) {
+            return null;
+        }
+        final StringJoiner text = new StringJoiner(" ");
+        addValues(text, message.path("alert"));
+        final JsonNode criteria = message.path("criteria");
+        addValues(text, criteria.path("variants"));
+        addValues(text, criteria.path("deviceType"));
+        final String searchText = text.toString().toLowerCase(Locale.ROOT);
+        return searchText.length() > MAX_SEARCH_TEXT_LENGTH ? searchText.substring(0, MAX_SEARCH_TEXT_LENGTH) : searchText;
+    }
+
+    private static void addValues(StringJoiner text, JsonNode value) {
+        if (value.isTextual()) {
+            text.add(value.asText());
+        } else if (value.isArray()) {
+            for (JsonNode element : value) {
+                addValues(text, element);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.migrator;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SearchTextMigrationTest {
+
+    @Test
+    public void searchTextHoldsValuesOnly() {
+        final String json = "{\"alert\":\"Hello \\\"World\\\"\",\"badge\":\"2\",\"config\":{\"ttl\":3600},"
+                + "\"criteria\":{\"variants\":[\"Variant-1\"],\"deviceType\":[\"iPhone\",\"iPad\"]}}";
+
+        assertEquals("hello \"world\" variant-1 iphone ipad", SearchTextMigration.toSearchText(json));
+    }
+
+    @Test
+    public void keysAreNotSearched() {
+        final String json = "{\"alert\":null,\"config\":{\"ttl\":-1},\"criteria\":{\"variants\":null,\"deviceType\":null}}";
+
+        assertEquals("", SearchTextMigration.toSearchText(json));
+    }
+
+    @Test
+    public void unreadableJsonHasNoSearchText() {
+        assertNull(SearchTextMigration.toSearchText("[\"invalid json\"]"));
+        assertNull(SearchTextMigration.toSearchText("{\"alert\":\"truncat"));
+        assertNull(SearchTextMigration.toSearchText(null));
+    }
+}
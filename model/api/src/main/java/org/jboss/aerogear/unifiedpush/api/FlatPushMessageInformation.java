@@ -16,6 +16,8 @@
  */
 package org.jboss.aerogear.unifiedpush.api;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import javax.validation.constraints.NotNull;
 import java.util.Date;
 import java.util.HashSet;
@@ -29,6 +31,10 @@ public class FlatPushMessageInformation extends BaseModel {
     private String pushApplicationId;
 
     private String rawJsonMessage;
+
+    // lower case alert and criteria of the message, searched instead of the raw JSON
+    @JsonIgnore
+    private String searchText;
     private String ipAddress;
     private String clientIdentifier;
 
@@ -48,6 +54,14 @@ public class FlatPushMessageInformation extends BaseModel {
         this.rawJsonMessage = rawJsonMessage;
     }
 
+    public void setSearchText(final String searchText) {
+        this.searchText = searchText;
+    }
+
+    public String getSearchText() {
+        return searchText;
+    }
+
     public void setIpAddress(final String ipAddress) {
         this.ipAddress = ipAddress;
     }
@@ -0,0 +1,80 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.api;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Records the <code>Idempotency-Key</code> of a send request, so that a repeated request with the same key
+ * is answered with the original push message instead of being sent again.
+ */
+public class IdempotencyKey implements Serializable {
+
+    private static final long serialVersionUID = -3360385406458337513L;
+
+    //@Id
+    private String id; // = "push-application-id" + ":" + "idempotency-key";
+
+    private String pushApplicationId;
+
+    // null while the original request is still being processed
+    private String pushMessageId;
+
+    private Date createdAt = new Date();
+
+    public IdempotencyKey() {
+        // bogus ctor
+    }
+
+    public IdempotencyKey(final String pushApplicationId, final String key) {
+        this.id = new StringBuilder(pushApplicationId).append(':').append(key).toString();
+        this.pushApplicationId = pushApplicationId;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getPushApplicationId() {
+        return pushApplicationId;
+    }
+
+    public void setPushApplicationId(String pushApplicationId) {
+        this.pushApplicationId = pushApplicationId;
+    }
+
+    public String getPushMessageId() {
+        return pushMessageId;
+    }
+
+    public void setPushMessageId(String pushMessageId) {
+        this.pushMessageId = pushMessageId;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Date createdAt) {
+        this.createdAt = createdAt;
+    }
+}
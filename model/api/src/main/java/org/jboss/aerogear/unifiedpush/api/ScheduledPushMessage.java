@@ -0,0 +1,84 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.api;
+
+import javax.validation.constraints.NotNull;
+import java.util.Date;
+
+/**
+ * A push message that was submitted with a delivery time in the future. It is kept until it is due
+ * and then handed over for delivery, like a message that was submitted at that time.
+ */
+public class ScheduledPushMessage extends BaseModel {
+
+    private static final long serialVersionUID = 2809472530263851736L;
+
+    @NotNull
+    private String pushApplicationId;
+
+    @NotNull
+    private Date deliverAt;
+
+    // the entire submitted message, as JSON
+    @NotNull
+    private String payload;
+
+    private Date submitDate = new Date();
+
+    // failed attempts to submit the message once it was due
+    private int attempts;
+
+    public String getPushApplicationId() {
+        return pushApplicationId;
+    }
+
+    public void setPushApplicationId(final String pushApplicationId) {
+        this.pushApplicationId = pushApplicationId;
+    }
+
+    public Date getDeliverAt() {
+        return deliverAt;
+    }
+
+    public void setDeliverAt(final Date deliverAt) {
+        this.deliverAt = deliverAt;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(final String payload) {
+        this.payload = payload;
+    }
+
+    public Date getSubmitDate() {
+        return submitDate;
+    }
+
+    public void setSubmitDate(final Date submitDate) {
+        this.submitDate = submitDate;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(final int attempts) {
+        this.attempts = attempts;
+    }
+}
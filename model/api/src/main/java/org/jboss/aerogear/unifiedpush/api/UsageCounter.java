@@ -0,0 +1,82 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.api;
+
+import java.io.Serializable;
+
+/**
+ * A maintained number of installations, push messages or push applications, so that the dashboard does not have to count them.
+ *
+ * Counters are incremented as the counted entities are stored and removed, and periodically reconciled with the actual numbers.
+ */
+public class UsageCounter implements Serializable {
+
+    private static final long serialVersionUID = 2871553403318795340L;
+
+    public static final String TOTAL_INSTALLATIONS = "installations";
+    public static final String TOTAL_PUSH_MESSAGES = "messages";
+    public static final String TOTAL_PUSH_APPLICATIONS = "applications";
+
+    // not a counter: the row locked by a reconciliation, holding the time it started
+    public static final String RECONCILIATION_LOCK = "lock:reconciliation";
+
+    //@Id
+    private String id; // see the static factory methods for the ids of the counters
+
+    private long value;
+
+    public UsageCounter() {
+        // bogus ctor
+    }
+
+    public UsageCounter(final String id, final long value) {
+        this.id = id;
+        this.value = value;
+    }
+
+    public static String installationsOfVariant(final String variantID) {
+        return "variant:" + variantID + ':' + TOTAL_INSTALLATIONS;
+    }
+
+    public static String installationsOfDeveloper(final String developer) {
+        return "developer:" + developer + ':' + TOTAL_INSTALLATIONS;
+    }
+
+    public static String pushApplicationsOfDeveloper(final String developer) {
+        return "developer:" + developer + ':' + TOTAL_PUSH_APPLICATIONS;
+    }
+
+    public static String pushMessagesOfPushApplication(final String pushApplicationID) {
+        return "application:" + pushApplicationID + ':' + TOTAL_PUSH_MESSAGES;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public void setValue(long value) {
+        this.value = value;
+    }
+}
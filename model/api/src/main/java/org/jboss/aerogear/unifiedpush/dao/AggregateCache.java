@@ -0,0 +1,96 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.dao;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the aggregates of paged queries (e.g. the total number of rows) for a while, so that they are not
+ * computed again for every page that is requested.
+ *
+ * The cached aggregates are approximate: rows added or removed after an aggregate was computed are only
+ * reflected once it expired, or once it was invalidated.
+ *
+ * @param <A> the type of the aggregate
+ */
+public class AggregateCache<A> {
+
+    // system property name used as the configurable number of seconds an aggregate is kept
+    public static final String AEROGEAR_AGGREGATE_CACHE_SECONDS = "aerogear.aggregate.cache.seconds";
+
+    private static final int MAX_ENTRIES = 1000;
+
+    private final ConcurrentMap<String, Entry<A>> entries = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+
+    /**
+     * @param ttlSeconds number of seconds an aggregate is kept, 0 disables the cache
+     */
+    public AggregateCache(long ttlSeconds) {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    /**
+     * Returns the cached aggregate for the given key, or computes and caches it if it is missing or expired.
+     *
+     * @param key identifies the query and its parameters
+     * @param loader computes the aggregate
+     *
+     * @return the aggregate
+     */
+    public A get(String key, Supplier<A> loader) {
+        final long now = System.nanoTime();
+        final Entry<A> cached = entries.get(key);
+        if (cached != null && now - cached.createdAt < ttlNanos) {
+            return cached.value;
+        }
+
+        final A value = loader.get();
+        if (ttlNanos > 0) {
+            if (entries.size() >= MAX_ENTRIES) {
+                entries.values().removeIf(entry -> now - entry.createdAt >= ttlNanos);
+                if (entries.size() >= MAX_ENTRIES) {
+                    entries.clear();
+                }
+            }
+            entries.put(key, new Entry<>(value, now));
+        }
+        return value;
+    }
+
+    /**
+     * Removes the cached aggregates whose key starts with the given prefix, so that they are computed again when requested.
+     *
+     * @param keyPrefix the prefix of the keys, e.g. the ID the queries are filtered with
+     */
+    public void invalidate(String keyPrefix) {
+        entries.keySet().removeIf(key -> key.startsWith(keyPrefix));
+    }
+
+    private static final class Entry<A> {
+        private final A value;
+        private final long createdAt;
+
+        private Entry(A value, long createdAt) {
+            this.value = value;
+            this.createdAt = createdAt;
+        }
+    }
+}
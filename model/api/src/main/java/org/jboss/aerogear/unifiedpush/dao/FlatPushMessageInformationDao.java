@@ -17,10 +17,13 @@
 package org.jboss.aerogear.unifiedpush.dao;
 
 import org.jboss.aerogear.unifiedpush.api.FlatPushMessageInformation;
+import org.jboss.aerogear.unifiedpush.api.VariantErrorStatus;
 import org.jboss.aerogear.unifiedpush.dto.MessageMetrics;
+import org.jboss.aerogear.unifiedpush.dto.PushMessageActivity;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 public interface FlatPushMessageInformationDao extends GenericBaseDao<FlatPushMessageInformation, String>  {
 
@@ -57,7 +60,7 @@ public interface FlatPushMessageInformationDao extends GenericBaseDao<FlatPushMe
      *
      * @param pushApplicationId ID of the PushApplication
      * @param ascending boolean to define if ASC ordering (by date) or DESC ordering should be executed.
-     * @param search the value of the alert of a push notification
+     * @param search the value of the alert or criteria of a push notification
      * @param page The number of the page.
      * @param pageSize the number of elements in the result.
      *
@@ -65,12 +68,28 @@ public interface FlatPushMessageInformationDao extends GenericBaseDao<FlatPushMe
      */
     List<FlatPushMessageInformation> findAllForPushApplicationByParams(String pushApplicationId, String search, boolean ascending, Integer page, Integer pageSize);
 
+    /**
+     * Loads the push message metadata objects for the given PushApplication that follow the given one, ordered (asc/desc) by date and id.
+     *
+     * Unlike the paged queries, the page is located through the last push message of the previous page,
+     * so that deep pages are as cheap as the first one.
+     *
+     * @param pushApplicationId ID of the PushApplication
+     * @param search the value of the alert or criteria of a push notification
+     * @param ascending boolean to define if ASC ordering (by date) or DESC ordering should be executed.
+     * @param last the last push message info object of the previous page, or null for the first page
+     * @param pageSize the number of elements in the result.
+     *
+     * @return list of push message info objects
+     */
+    List<FlatPushMessageInformation> findAllForPushApplicationAfter(String pushApplicationId, String search, boolean ascending, FlatPushMessageInformation last, Integer pageSize);
+
     /**
      * Loads paged push message metadata objects for the given PushApplication, but offers a way to order (asc/desc) by date.
      *
      * @param pushApplicationId ID of the PushApplication
      * @param ascending boolean to define if ASC ordering (by date) or DESC ordering should be executed.
-     * @param search the value of the alert of a push notification
+     * @param search the value of the alert or criteria of a push notification
      * @param page The number of the page.
      * @param pageSize the number of elements in the result.
      *
@@ -83,7 +102,7 @@ public interface FlatPushMessageInformationDao extends GenericBaseDao<FlatPushMe
      *
      * @param pushApplicationId ID of the PushApplication
      * @param ascending boolean to define if ASC ordering (by date) or DESC ordering should be executed.
-     * @param search the value of the alert of a push notification
+     * @param search the value of the alert or criteria of a push notification
      * @param page The number of the page.
      * @param pageSize the number of elements in the result.
      *
@@ -110,6 +129,26 @@ public interface FlatPushMessageInformationDao extends GenericBaseDao<FlatPushMe
      */
     List<FlatPushMessageInformation> findLatestActivity(String loginName, int maxResults);
 
+    /**
+     * Loads the most recent push message submissions along with their push application, in a single query.
+     * Push messages of removed push applications are skipped.
+     *
+     * @param loginName the username, or null for the push messages of all users (used for admin role)
+     * @param maxResults number of max items in the returned list
+     *
+     * @return list of submissions, the most recent first
+     */
+    List<PushMessageActivity> findLatestPushMessageActivity(String loginName, int maxResults);
+
+    /**
+     * Counts the Push Message Information entries that are older than the given date, per push application
+     *
+     * @param oldest the point in time to go back to
+     *
+     * @return the number of entries, by the ID of their push application
+     */
+    Map<String, Long> countPushInformationOlderThan(Date oldest);
+
     /**
      * Delete all Push Message Information entries that are older than the given date
      *
@@ -117,6 +156,14 @@ public interface FlatPushMessageInformationDao extends GenericBaseDao<FlatPushMe
      */
     void deletePushInformationOlderThan(Date oldest);
 
+    /**
+     * Stores the error of a variant for a Push Message Information entry, or replaces the previous one,
+     * without loading the entry and its other errors
+     *
+     * @param variantErrorStatus the error of the variant
+     */
+    void saveError(VariantErrorStatus variantErrorStatus);
+
     //Admin queries
     List<String> findVariantIDsWithWarnings();
     List<FlatPushMessageInformation> findLatestActivity(int maxResults);
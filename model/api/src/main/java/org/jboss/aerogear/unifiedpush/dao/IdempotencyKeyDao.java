@@ -0,0 +1,44 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.dao;
+
+import org.jboss.aerogear.unifiedpush.api.IdempotencyKey;
+
+import java.util.Date;
+
+public interface IdempotencyKeyDao extends GenericBaseDao<IdempotencyKey, String> {
+
+    /**
+     * Delete all idempotency keys that were created before the given date
+     *
+     * @param oldest the point in time to go back to
+     *
+     * @return number of deleted keys
+     */
+    int deleteOlderThan(Date oldest);
+
+    /**
+     * Reserves the given key again for a new request, unless another request took it over since it was read.
+     *
+     * @param id ID of the idempotency key
+     * @param readCreatedAt the creation date of the key, as it was read
+     * @param createdAt the new creation date
+     *
+     * @return true if the key was taken over by this call, false otherwise
+     */
+    boolean takeOver(String id, Date readCreatedAt, Date createdAt);
+}
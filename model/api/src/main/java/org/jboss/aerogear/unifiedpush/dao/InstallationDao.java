@@ -18,7 +18,10 @@ package org.jboss.aerogear.unifiedpush.dao;
 
 import org.jboss.aerogear.unifiedpush.api.Installation;
 import org.jboss.aerogear.unifiedpush.dto.Count;
+import org.jboss.aerogear.unifiedpush.dto.DeviceTokenCategory;
+import org.jboss.aerogear.unifiedpush.dto.InstallationToken;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -44,6 +47,48 @@ public interface InstallationDao extends GenericBaseDao<Installation, String> {
      */
     List<Installation> findInstallationsForVariantByDeviceTokens(String variantID, Set<String> deviceTokens);
 
+    /**
+     * Loads the tokens of all installations matching the <code>Set</code> of deviceTokens, for the given Variant,
+     * without loading the installations themselves.
+     *
+     * @param variantID the variantID for the filter
+     * @param deviceTokens the deviceTokens for the filter
+     *
+     * @return list of installation tokens.
+     */
+    List<InstallationToken> findInstallationTokensForVariantByDeviceTokens(String variantID, Set<String> deviceTokens);
+
+    /**
+     * Loads the tokens of the installations with the given ids, without loading the installations themselves.
+     *
+     * @param ids the ids of the installations
+     *
+     * @return list of installation tokens.
+     */
+    List<InstallationToken> findInstallationTokensByIds(Collection<String> ids);
+
+    /**
+     * Loads a specific installation along with its categories.
+     *
+     * @param id the id of the installation
+     *
+     * @return installation object or null.
+     */
+    Installation findWithCategories(String id);
+
+    /**
+     * Deletes the installations with the given ids, along with their categories, without loading them.
+     *
+     * The deletion bypasses the lifecycle of the entities: the caller reports the removed installations
+     * (see {@link org.jboss.aerogear.unifiedpush.event.UsageCountersChangedEvent} and
+     * {@link org.jboss.aerogear.unifiedpush.event.InstallationsChangedEvent}).
+     *
+     * @param ids the ids of the installations
+     *
+     * @return the number of deleted installations, less than the given ids if some of them were already deleted
+     */
+    int deleteByIds(Collection<String> ids);
+
     /**
      * Sender API for installations:
      *
@@ -61,15 +106,67 @@ public interface InstallationDao extends GenericBaseDao<Installation, String> {
      */
     ResultsStream.QueryBuilder<String> findAllDeviceTokenForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes, int maxResults, String lastTokenFromPreviousBatch, boolean oldGCM);
 
+    /**
+     * Sender API for installations:
+     *
+     * Query the tokens of a range of the token keyspace of the given variant, by respecting a few criteria arguments (categories, aliases and deviceTypes)
+     *
+     * @param variantID the variantID for the filter
+     * @param categories applied categories for the filter
+     * @param aliases applied aliases for the filter
+     * @param deviceTypes applied deviceTypes for the filter
+     * @param maxResults number of maxResults for the filter
+     * @param lastTokenFromPreviousBatch identifier of the last fetched token
+     * @param lastTokenOfRange the last (inclusive) token of the range, or null if the range is not bounded
+     * @param oldGCM if true only old GCM tokens (not containing a :) are load
+     *
+     * @return list of device tokens that matches this filter
+     */
+    ResultsStream.QueryBuilder<String> findAllDeviceTokenForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes, int maxResults, String lastTokenFromPreviousBatch, String lastTokenOfRange, boolean oldGCM);
+
+    /**
+     * Sender API for installations:
+     *
+     * Query the device tokens of all enabled installations of the given variant, along with their device type and categories,
+     * ordered by device token. An installation is returned once per category, or once without category if it has none.
+     *
+     * @param variantID the variantID for the filter
+     *
+     * @return the device tokens of the variant with their device type and categories
+     */
+    ResultsStream.QueryBuilder<DeviceTokenCategory> findAllDeviceTokenCategoriesForVariantID(String variantID);
+
+    /**
+     * Splits the token keyspace of the given variant into ranges of about the same number of installations.
+     *
+     * The boundaries are sampled from the ordered device tokens of the variant, without loading the installations.
+     *
+     * @param variantID the variantID for the filter
+     * @param maxRanges the maximum number of ranges
+     * @param minRangeSize the minimum number of installations in a range
+     *
+     * @return the last (inclusive) token of every range but the last one, in ascending order; empty if the variant is too small to be split
+     */
+    List<String> findDeviceTokenRangeBoundariesForVariantID(String variantID, int maxRanges, int minRangeSize);
+
     Set<String> findAllDeviceTokenForVariantID(String variantID);
 
     /**
      * Find all installations for the variant specified and for the authneticated user.
+     *
+     * The search matches the installations with the given value anywhere in their device metadata, except for two forms
+     * that are served by indexes, for all databases:
+     * <ul>
+     *     <li><code>alias:value</code> matches the installations with exactly that alias</li>
+     *     <li><code>value*</code> matches the installations whose device token or alias starts with the value</li>
+     * </ul>
+     * A search in double quotes, e.g. <code>"alias:value"</code>, is always matched anywhere in the device metadata, as it is.
+     *
      * @param variantID the id of the variant to find the installations for
      * @param developer the developer
      * @param page the page number
      * @param pageSize the size of the pages
-     * @param search any value of the device metadata
+     * @param search any value of the device metadata, see above
      *
      * @return all installations found or empty list + the total count of results
      */
@@ -80,12 +177,39 @@ public interface InstallationDao extends GenericBaseDao<Installation, String> {
      * @param variantID the id of the variant to find the installations for
      * @param page the page number
      * @param pageSize the size of the pages
-     * @param search any value of the device metadata
+     * @param search any value of the device metadata (see {@link #findInstallationsByVariantForDeveloper(String, String, Integer, Integer, String)})
      *
      * @return all installations found or empty list + the total count of results
      */
     PageResult<Installation, Count> findInstallationsByVariant(String variantID, Integer page, Integer pageSize, String search);
 
+    /**
+     * Find the installations for the variant specified that follow the given installation, ordered by their id.
+     *
+     * Unlike the paged queries, the page is located through the id of the last installation of the previous page,
+     * so that deep pages are as cheap as the first one, and no total count is computed.
+     *
+     * @param variantID the id of the variant to find the installations for
+     * @param developer the developer, or null for all developers (used for admin role)
+     * @param lastInstallationID the id of the last installation of the previous page, or null for the first page
+     * @param pageSize the size of the page
+     * @param search any value of the device metadata (see {@link #findInstallationsByVariantForDeveloper(String, String, Integer, Integer, String)})
+     *
+     * @return the installations found, or empty list
+     */
+    List<Installation> findInstallationsByVariantForDeveloperAfter(String variantID, String developer, String lastInstallationID, Integer pageSize, String search);
+
+    /**
+     * Counts the installations for the variant specified.
+     *
+     * @param variantID the id of the variant to count the installations for
+     * @param developer the developer, or null for all developers (used for admin role)
+     * @param search any value of the device metadata (see {@link #findInstallationsByVariantForDeveloper(String, String, Integer, Integer, String)})
+     *
+     * @return the number of installations found
+     */
+    long countInstallationsByVariantForDeveloper(String variantID, String developer, String search);
+
 
     /**
      * Counts the total number of registered devices/clients for the give List of variantIDs
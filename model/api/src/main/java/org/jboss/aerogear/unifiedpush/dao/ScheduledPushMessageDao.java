@@ -0,0 +1,56 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.dao;
+
+import org.jboss.aerogear.unifiedpush.api.ScheduledPushMessage;
+
+import java.util.Date;
+import java.util.List;
+
+public interface ScheduledPushMessageDao extends GenericBaseDao<ScheduledPushMessage, String> {
+
+    /**
+     * Loads the scheduled push messages that are due, the earliest first. The lookup uses the index on the
+     * delivery time, so it does not depend on the number of messages scheduled for later.
+     *
+     * @param now the point in time up to which messages are due
+     * @param maxResults number of max items in the returned list
+     *
+     * @return list of due scheduled push messages
+     */
+    List<ScheduledPushMessage> findDue(Date now, int maxResults);
+
+    /**
+     * Removes the given scheduled push message, unless it was already removed by another transaction.
+     * This is used to claim a due message, so that it is delivered by a single node only.
+     *
+     * @param id ID of the scheduled push message
+     *
+     * @return true if the message was removed by this call, false otherwise
+     */
+    boolean claim(String id);
+
+    /**
+     * Counts a failed attempt to submit the given scheduled push message, and postpones it to the given time.
+     *
+     * @param id ID of the scheduled push message
+     * @param retryAt the point in time the message is due again
+     *
+     * @return true if the message was updated, false if it was already removed
+     */
+    boolean recordFailedAttempt(String id, Date retryAt);
+}
@@ -0,0 +1,68 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.dao;
+
+import org.jboss.aerogear.unifiedpush.api.UsageCounter;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+public interface UsageCounterDao extends GenericBaseDao<UsageCounter, String> {
+
+    /**
+     * Adds the given delta to a counter, without loading it.
+     *
+     * @param id the id of the counter
+     * @param delta the value to add, negative to subtract
+     *
+     * @return false if the counter does not exist (yet)
+     */
+    boolean increment(String id, long delta);
+
+    /**
+     * Loads the values of the given counters.
+     *
+     * @param ids the ids of the counters
+     *
+     * @return the value of every existing counter, by its id
+     */
+    Map<String, Long> findValues(Collection<String> ids);
+
+    /**
+     * Loads all counters, to be reconciled.
+     *
+     * @return list of all counters, without the reconciliation lock
+     */
+    List<UsageCounter> findAll();
+
+    /**
+     * Locks the {@link UsageCounter#RECONCILIATION_LOCK reconciliation lock} until the end of the transaction,
+     * so that the counters are reconciled by a single node of the cluster at a time. The lock is created if missing.
+     *
+     * @return the lock, its value is the time in milliseconds the last reconciliation started
+     */
+    UsageCounter lockReconciliation();
+
+    /**
+     * Counts the installations, push messages and push applications that the counters should hold, grouped by variant,
+     * push application and developer. Every variant, push application and developer gets its counters, even if zero.
+     *
+     * @return the actual value of every counter, by its id
+     */
+    Map<String, Long> countActualValues();
+}
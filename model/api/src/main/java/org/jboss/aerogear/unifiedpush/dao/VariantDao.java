@@ -17,7 +17,10 @@
 package org.jboss.aerogear.unifiedpush.dao;
 
 import org.jboss.aerogear.unifiedpush.api.Variant;
+import org.jboss.aerogear.unifiedpush.api.VariantType;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 public interface VariantDao extends GenericBaseDao<Variant, String> {
@@ -59,6 +62,17 @@ public interface VariantDao extends GenericBaseDao<Variant, String> {
      */
     List<Variant> findAllVariantsByIDs(List<String> variantIDs);
 
+    /**
+     * Loads variants of the given types that belong to push applications which submitted push messages since the given date.
+     *
+     * @param types the variant types
+     * @param since the point in time to go back to
+     * @param maxResults number of max items in the returned list
+     *
+     * @return list of recently active variants, without duplicates, the variant whose push application submitted the latest message first
+     */
+    List<Variant> findVariantsWithMessagesSince(Collection<VariantType> types, Date since, int maxResults);
+
     //Admin queries
     boolean existsVariantIDForAdmin(String variantID);
 }
@@ -0,0 +1,48 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.dto;
+
+/**
+ * DTO transferring the device token of an enabled installation, along with its device type and one of its categories
+ */
+public class DeviceTokenCategory {
+
+    private final String deviceToken;
+    private final String deviceType;
+    private final String category;
+
+    public DeviceTokenCategory(String deviceToken, String deviceType, String category) {
+        this.deviceToken = deviceToken;
+        this.deviceType = deviceType;
+        this.category = category;
+    }
+
+    public String getDeviceToken() {
+        return deviceToken;
+    }
+
+    public String getDeviceType() {
+        return deviceType;
+    }
+
+    /**
+     * @return the name of the category, or null if the installation has no categories
+     */
+    public String getCategory() {
+        return category;
+    }
+}
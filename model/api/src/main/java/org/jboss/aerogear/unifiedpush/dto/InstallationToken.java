@@ -0,0 +1,51 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.dto;
+
+/**
+ * DTO transferring the device token of an installation, along with the variant it is registered for
+ */
+public class InstallationToken {
+
+    private final String id;
+    private final String deviceToken;
+    private final String variantID;
+    private final String developer;
+
+    public InstallationToken(String id, String deviceToken, String variantID, String developer) {
+        this.id = id;
+        this.deviceToken = deviceToken;
+        this.variantID = variantID;
+        this.developer = developer;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getDeviceToken() {
+        return deviceToken;
+    }
+
+    public String getVariantID() {
+        return variantID;
+    }
+
+    public String getDeveloper() {
+        return developer;
+    }
+}
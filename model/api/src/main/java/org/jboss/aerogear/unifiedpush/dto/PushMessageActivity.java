@@ -0,0 +1,53 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.dto;
+
+import java.util.Date;
+
+/**
+ * DTO transferring the submission of a push message, along with the push application it was sent to
+ */
+public class PushMessageActivity {
+
+    private final String pushApplicationID;
+    private final String pushApplicationName;
+    private final String developer;
+    private final Date submitDate;
+
+    public PushMessageActivity(String pushApplicationID, String pushApplicationName, String developer, Date submitDate) {
+        this.pushApplicationID = pushApplicationID;
+        this.pushApplicationName = pushApplicationName;
+        this.developer = developer;
+        this.submitDate = submitDate;
+    }
+
+    public String getPushApplicationID() {
+        return pushApplicationID;
+    }
+
+    public String getPushApplicationName() {
+        return pushApplicationName;
+    }
+
+    public String getDeveloper() {
+        return developer;
+    }
+
+    public Date getSubmitDate() {
+        return submitDate;
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.event;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fired when installations of a variant are registered, updated or removed,
+ * therefore the event is used to keep in-memory views of the installations up to date once the transaction succeeded.
+ *
+ * Changes that are not tracked token by token (e.g. the import of installations) invalidate the views of the variant instead.
+ */
+public class InstallationsChangedEvent {
+
+    private final String variantID;
+    private final Map<String, RegisteredInstallation> registered = new LinkedHashMap<>();
+    private final Set<String> removed = new HashSet<>();
+    private boolean invalidated;
+
+    public InstallationsChangedEvent(String variantID) {
+        this.variantID = variantID;
+    }
+
+    /**
+     * Creates an event that invalidates the views of the installations of the given variant.
+     *
+     * @param variantID the variant
+     *
+     * @return the event
+     */
+    public static InstallationsChangedEvent invalidation(String variantID) {
+        final InstallationsChangedEvent event = new InstallationsChangedEvent(variantID);
+        event.invalidated = true;
+        return event;
+    }
+
+    /**
+     * Adds an enabled installation that was registered or updated to the event.
+     *
+     * @param deviceToken the device token of the installation
+     * @param deviceType the device type of the installation
+     * @param categories the names of the categories of the installation
+     *
+     * @return this event
+     */
+    public InstallationsChangedEvent registered(String deviceToken, String deviceType, Collection<String> categories) {
+        removed.remove(deviceToken);
+        registered.put(deviceToken, new RegisteredInstallation(deviceType, categories));
+        return this;
+    }
+
+    /**
+     * Adds an installation that was removed or disabled to the event.
+     *
+     * @param deviceToken the device token of the installation
+     *
+     * @return this event
+     */
+    public InstallationsChangedEvent removed(String deviceToken) {
+        registered.remove(deviceToken);
+        removed.add(deviceToken);
+        return this;
+    }
+
+    public String getVariantID() {
+        return variantID;
+    }
+
+    /**
+     * @return the registered installations, by their device token
+     */
+    public Map<String, RegisteredInstallation> getRegistered() {
+        return Collections.unmodifiableMap(registered);
+    }
+
+    /**
+     * @return the device tokens of the removed installations
+     */
+    public Set<String> getRemoved() {
+        return Collections.unmodifiableSet(removed);
+    }
+
+    public boolean isInvalidated() {
+        return invalidated;
+    }
+
+    public boolean isEmpty() {
+        return registered.isEmpty() && removed.isEmpty() && !invalidated;
+    }
+
+    /**
+     * The criteria a registered installation is targeted by
+     */
+    public static class RegisteredInstallation {
+
+        private final String deviceType;
+        private final Set<String> categories;
+
+        RegisteredInstallation(String deviceType, Collection<String> categories) {
+            this.deviceType = deviceType;
+            this.categories = Collections.unmodifiableSet(new HashSet<>(categories));
+        }
+
+        public String getDeviceType() {
+            return deviceType;
+        }
+
+        public Set<String> getCategories() {
+            return categories;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.event;
+
+import java.util.Date;
+
+/**
+ * Fired when a new push message request is stored,
+ * therefore the event is used to keep the latest activity of the dashboard up to date once the transaction succeeded.
+ */
+public class PushMessageStoredEvent {
+
+    private final String pushApplicationID;
+    private final Date submitDate;
+
+    public PushMessageStoredEvent(String pushApplicationID, Date submitDate) {
+        this.pushApplicationID = pushApplicationID;
+        this.submitDate = submitDate;
+    }
+
+    public String getPushApplicationID() {
+        return pushApplicationID;
+    }
+
+    public Date getSubmitDate() {
+        return submitDate;
+    }
+}
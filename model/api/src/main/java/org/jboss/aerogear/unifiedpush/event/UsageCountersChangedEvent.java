@@ -0,0 +1,70 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.event;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fired when installations, push messages or push applications are stored or removed,
+ * therefore the event is used to update the maintained usage counters once the transaction succeeded.
+ *
+ * Changes that can not be expressed as deltas (e.g. the removal of a variant along with its installations)
+ * request a reconciliation of all counters instead.
+ */
+public class UsageCountersChangedEvent {
+
+    private final Map<String, Long> deltas = new HashMap<>();
+    private boolean reconciliationRequested;
+
+    /**
+     * Creates an event that requests the reconciliation of all counters.
+     *
+     * @return the event
+     */
+    public static UsageCountersChangedEvent reconciliation() {
+        final UsageCountersChangedEvent event = new UsageCountersChangedEvent();
+        event.reconciliationRequested = true;
+        return event;
+    }
+
+    /**
+     * Adds a change of a counter to the event.
+     *
+     * @param counterID the id of the counter, see {@link org.jboss.aerogear.unifiedpush.api.UsageCounter}
+     * @param delta the change of the counter, negative for removals
+     *
+     * @return this event
+     */
+    public UsageCountersChangedEvent add(String counterID, long delta) {
+        deltas.merge(counterID, delta, Long::sum);
+        return this;
+    }
+
+    public Map<String, Long> getDeltas() {
+        return Collections.unmodifiableMap(deltas);
+    }
+
+    public boolean isReconciliationRequested() {
+        return reconciliationRequested;
+    }
+
+    public boolean isEmpty() {
+        return deltas.isEmpty() && !reconciliationRequested;
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.dao;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AggregateCacheTest {
+
+    @Test
+    public void computesOncePerKey() {
+        final AggregateCache<Long> cache = new AggregateCache<>(60);
+        final AtomicLong loads = new AtomicLong();
+
+        assertThat(cache.get("a", loads::incrementAndGet)).isEqualTo(1L);
+        assertThat(cache.get("a", loads::incrementAndGet)).isEqualTo(1L);
+        assertThat(cache.get("b", loads::incrementAndGet)).isEqualTo(2L);
+        assertThat(loads.get()).isEqualTo(2L);
+    }
+
+    @Test
+    public void disabledWithoutTtl() {
+        final AggregateCache<Long> cache = new AggregateCache<>(0);
+        final AtomicLong loads = new AtomicLong();
+
+        assertThat(cache.get("a", loads::incrementAndGet)).isEqualTo(1L);
+        assertThat(cache.get("a", loads::incrementAndGet)).isEqualTo(2L);
+    }
+
+    @Test
+    public void invalidatesByKeyPrefix() {
+        final AggregateCache<Long> cache = new AggregateCache<>(60);
+        final AtomicLong loads = new AtomicLong();
+
+        cache.get("app1:foo", loads::incrementAndGet);
+        cache.get("app2:foo", loads::incrementAndGet);
+        cache.invalidate("app1:");
+
+        assertThat(cache.get("app1:foo", loads::incrementAndGet)).isEqualTo(3L);
+        assertThat(cache.get("app2:foo", loads::incrementAndGet)).isEqualTo(2L);
+    }
+}
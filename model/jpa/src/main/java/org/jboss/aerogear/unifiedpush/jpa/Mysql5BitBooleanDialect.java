@@ -17,18 +17,22 @@
 package org.jboss.aerogear.unifiedpush.jpa;
 
 import org.hibernate.dialect.MySQL5Dialect;
+import org.hibernate.dialect.function.SQLFunctionTemplate;
+import org.hibernate.type.StandardBasicTypes;
 
 import java.sql.Types;
 
 /**
  * A custom Hibernate dialect for Mysql5 that registers the Mysql 'bit'
- * data type as a java.sql.Types.BOOLEAN.
+ * data type as a java.sql.Types.BOOLEAN, plus the 'fulltext_match' function that searches a
+ * full text index in boolean mode.
  */
 public class Mysql5BitBooleanDialect extends MySQL5Dialect {
 
     public Mysql5BitBooleanDialect() {
         super();
         registerColumnType(Types.BOOLEAN, "bit");
+        registerFunction("fulltext_match", new SQLFunctionTemplate(StandardBasicTypes.DOUBLE, "match (?1) against (?2 in boolean mode)"));
     }
 
 }
@@ -16,9 +16,16 @@
  */
 package org.jboss.aerogear.unifiedpush.jpa.cdi;
 
+import javax.enterprise.context.RequestScoped;
+import javax.enterprise.inject.Disposes;
 import javax.enterprise.inject.Produces;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceUnit;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
 
 /**
  * CDI Utility class, which contains various producer / factory methods.
@@ -27,4 +34,26 @@ public final class Factory {
     @Produces
     @PersistenceContext(unitName = "unifiedpush-default")
     private EntityManager entityManager;
+
+    @PersistenceUnit(unitName = "unifiedpush-replica")
+    private EntityManagerFactory replicaEntityManagerFactory;
+
+    /**
+     * The read replica is not enlisted in the JTA transactions: every request reads through its own read-only EntityManager,
+     * that is closed at the end of the request.
+     */
+    @Produces
+    @ReadReplica
+    @RequestScoped
+    public EntityManager createReplicaEntityManager() {
+        final EntityManager entityManager = replicaEntityManagerFactory.createEntityManager();
+        final Session session = (Session) entityManager.getDelegate();
+        session.setDefaultReadOnly(true);
+        session.setFlushMode(FlushMode.MANUAL);
+        return entityManager;
+    }
+
+    public void closeReplicaEntityManager(@Disposes @ReadReplica EntityManager entityManager) {
+        entityManager.close();
+    }
 }
\ No newline at end of file
@@ -18,6 +18,7 @@ package org.jboss.aerogear.unifiedpush.jpa.dao.impl;
 
 import java.util.List;
 
+import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
@@ -26,12 +27,23 @@ import javax.persistence.TypedQuery;
 
 import org.hibernate.Session;
 import org.jboss.aerogear.unifiedpush.dao.GenericBaseDao;
+import org.jboss.aerogear.unifiedpush.jpa.cdi.ReadReplica;
 
 public abstract class JPABaseDao<T, K> implements GenericBaseDao<T, K> {
 
+    // query hint that stores the results in the query cache, if it is enabled (see persistence.xml)
+    protected static final String CACHEABLE = "org.hibernate.cacheable";
+
     @Inject
     protected EntityManager entityManager;
 
+    @Inject
+    @ReadReplica
+    private Instance<EntityManager> replicaEntityManager;
+
+    @Inject
+    private ReplicaRouting replicaRouting;
+
     /**
      * Hook to manually inject an EntityManager.
      *
@@ -55,8 +67,44 @@ public abstract class JPABaseDao<T, K> implements GenericBaseDao<T, K> {
     }
 
     protected org.hibernate.Query createHibernateQuery(String hql) {
-        Session session = (Session) entityManager.getDelegate();
-        return session.createQuery(hql);
+        return getSession().createQuery(hql);
+    }
+
+    /**
+     * Creates a read-only query for the given call site, on the EntityManager returned by {@link #readOnlyEntityManager(String)}.
+     */
+    protected org.hibernate.Query createReadOnlyHibernateQuery(String site, String hql) {
+        return ((Session) readOnlyEntityManager(site).getDelegate()).createQuery(hql).setReadOnly(true);
+    }
+
+    /**
+     * Returns the EntityManager for the read-only queries of the given call site: the read replica, as long as it lags behind
+     * the primary database by no more than the staleness the call site tolerates (see {@link ReplicaRouting}), the primary database otherwise.
+     *
+     * The replica is not part of the transaction of the caller: its entities are read-only, they must not be changed or passed
+     * to the primary EntityManager.
+     */
+    protected EntityManager readOnlyEntityManager(String site) {
+        // only the lag sampled by the ReplicaLagSampler is read here, the replica is not queried in the caller's transaction
+        if (replicaRouting == null || !replicaRouting.useReplica(site)) {
+            return entityManager;
+        }
+        return replicaEntityManager.get();
+    }
+
+    /**
+     * Creates a native update, that only invalidates the cached entities and collections of the given tables.
+     */
+    protected org.hibernate.SQLQuery createNativeUpdate(String sql, String... tables) {
+        final org.hibernate.SQLQuery query = getSession().createSQLQuery(sql);
+        for (String table : tables) {
+            query.addSynchronizedQuerySpace(table);
+        }
+        return query;
+    }
+
+    private Session getSession() {
+        return (Session) entityManager.getDelegate();
     }
 
     //because you can't do T.class
@@ -67,6 +115,19 @@ public abstract class JPABaseDao<T, K> implements GenericBaseDao<T, K> {
         return entityManager.find(getType(), id);
     }
 
+    /**
+     * Loads the entity with the given id, along with the associations of the given fetch profile (see the hbm.xml mappings).
+     */
+    protected T find(K id, String fetchProfile) {
+        final Session session = getSession();
+        session.enableFetchProfile(fetchProfile);
+        try {
+            return find(id);
+        } finally {
+            session.disableFetchProfile(fetchProfile);
+        }
+    }
+
     @Override
     public void create(T entity) {
         entityManager.persist(entity);
@@ -29,7 +29,9 @@ public class JPACategoryDao extends JPABaseDao<Category, Integer> implements Cat
         List<Category> categoryList = new ArrayList<>();
         if(!names.isEmpty()){
             categoryList = entityManager.createQuery("select c from Category c where c.name in :names", Category.class)
-                    .setParameter("names", names).getResultList();
+                    .setParameter("names", names)
+                    .setHint(CACHEABLE, true)
+                    .getResultList();
         }
         return categoryList;
     }
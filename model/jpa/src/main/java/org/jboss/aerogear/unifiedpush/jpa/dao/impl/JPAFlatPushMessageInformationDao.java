@@ -16,23 +16,39 @@
  */
 package org.jboss.aerogear.unifiedpush.jpa.dao.impl;
 
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.jboss.aerogear.unifiedpush.api.FlatPushMessageInformation;
+import org.jboss.aerogear.unifiedpush.api.VariantErrorStatus;
 import org.jboss.aerogear.unifiedpush.dao.FlatPushMessageInformationDao;
 import org.jboss.aerogear.unifiedpush.dao.PageResult;
 import org.jboss.aerogear.unifiedpush.dto.MessageMetrics;
+import org.jboss.aerogear.unifiedpush.dto.PushMessageActivity;
+import org.jboss.aerogear.unifiedpush.jpa.Mysql5BitBooleanDialect;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 public class JPAFlatPushMessageInformationDao extends JPABaseDao<FlatPushMessageInformation, String> implements FlatPushMessageInformationDao{
 
     private static final String ASC = "ASC";
     private static final String DESC = "DESC";
 
+    // innodb_ft_min_token_size
+    private static final int MIN_FULL_TEXT_TERM_LENGTH = 3;
+    private static final Pattern NOT_WORD = Pattern.compile("[^\\p{L}\\p{N}_]+");
+
     private static final Logger logger = LoggerFactory.getLogger(JPAFlatPushMessageInformationDao.class);
 
 
@@ -43,22 +59,54 @@ public class JPAFlatPushMessageInformationDao extends JPABaseDao<FlatPushMessage
 
     @Override
     public List<FlatPushMessageInformation> findAllForPushApplicationByParams(String pushApplicationId, String search, boolean ascending, Integer page, Integer pageSize) {
+        final EntityManager reader = readOnlyEntityManager(ReplicaRouting.HISTORY);
+        final String fullTextSearch = fullTextSearch(reader, search);
         String baseQuery = "from FlatPushMessageInformation pmi where pmi.pushApplicationId = :pushApplicationId";
         if (search != null) {
-            baseQuery += " AND pmi.rawJsonMessage LIKE :search";
+            baseQuery += searchCondition(fullTextSearch);
         }
         final String queryJPQL = "select pmi " + baseQuery + " ORDER BY pmi.submitDate " + ascendingOrDescending(ascending);
 
-        TypedQuery<FlatPushMessageInformation> typedQuery = createQuery(queryJPQL)
+        TypedQuery<FlatPushMessageInformation> typedQuery = reader.createQuery(queryJPQL, FlatPushMessageInformation.class)
                 .setParameter("pushApplicationId", pushApplicationId);
         if (search != null) {
-            typedQuery.setParameter("search", "%" + search + "%");
+            typedQuery.setParameter("search", searchValue(fullTextSearch, search));
         }
         if (pageSize != null) {
             typedQuery.setFirstResult(page * pageSize).setMaxResults(pageSize);
         }
 
-        return typedQuery.getResultList();
+        return fetchErrors(reader, typedQuery.getResultList());
+    }
+
+    @Override
+    public List<FlatPushMessageInformation> findAllForPushApplicationAfter(String pushApplicationId, String search, boolean ascending, FlatPushMessageInformation last, Integer pageSize) {
+        final EntityManager reader = readOnlyEntityManager(ReplicaRouting.HISTORY);
+        final String fullTextSearch = fullTextSearch(reader, search);
+        String baseQuery = "from FlatPushMessageInformation pmi where pmi.pushApplicationId = :pushApplicationId";
+        if (search != null) {
+            baseQuery += searchCondition(fullTextSearch);
+        }
+        if (last != null) {
+            final String comparison = ascending ? ">" : "<";
+            baseQuery += " AND (pmi.submitDate " + comparison + " :lastSubmitDate"
+                    + " OR (pmi.submitDate = :lastSubmitDate AND pmi.id " + comparison + " :lastId))";
+        }
+        final String order = ascendingOrDescending(ascending);
+        final String queryJPQL = "select pmi " + baseQuery + " ORDER BY pmi.submitDate " + order + ", pmi.id " + order;
+
+        TypedQuery<FlatPushMessageInformation> typedQuery = reader.createQuery(queryJPQL, FlatPushMessageInformation.class)
+                .setParameter("pushApplicationId", pushApplicationId)
+                .setMaxResults(pageSize);
+        if (search != null) {
+            typedQuery.setParameter("search", searchValue(fullTextSearch, search));
+        }
+        if (last != null) {
+            typedQuery.setParameter("lastSubmitDate", last.getSubmitDate())
+                    .setParameter("lastId", last.getId());
+        }
+
+        return fetchErrors(reader, typedQuery.getResultList());
     }
 
     @Override
@@ -69,14 +117,16 @@ public class JPAFlatPushMessageInformationDao extends JPABaseDao<FlatPushMessage
 
     @Override
     public MessageMetrics findMessageMetricsForPushApplicationByParams(String pushApplicationId, String search, boolean ascending, Integer page, Integer pageSize) {
+        final EntityManager reader = readOnlyEntityManager(ReplicaRouting.HISTORY);
+        final String fullTextSearch = fullTextSearch(reader, search);
         String metricsJPQL = "select new org.jboss.aerogear.unifiedpush.dto.MessageMetrics(count(*), sum(appOpenCounter)) from FlatPushMessageInformation pmi where pmi.pushApplicationId = :pushApplicationId";
         if (search != null) {
-            metricsJPQL += " AND pmi.rawJsonMessage LIKE :search";
+            metricsJPQL += searchCondition(fullTextSearch);
         }
 
-        final Query metricsQuery = createUntypedQuery(metricsJPQL).setParameter("pushApplicationId", pushApplicationId);
+        final Query metricsQuery = reader.createQuery(metricsJPQL).setParameter("pushApplicationId", pushApplicationId);
         if (search != null) {
-            metricsQuery.setParameter("search", "%" + search + "%");
+            metricsQuery.setParameter("search", searchValue(fullTextSearch, search));
         }
 
         return (MessageMetrics) metricsQuery.getSingleResult();
@@ -117,6 +167,37 @@ public class JPAFlatPushMessageInformationDao extends JPABaseDao<FlatPushMessage
                 .getResultList();
     }
 
+    @Override
+    public List<PushMessageActivity> findLatestPushMessageActivity(String loginName, int maxResults) {
+        final StringBuilder jpql = new StringBuilder("select new org.jboss.aerogear.unifiedpush.dto.PushMessageActivity(")
+                .append("pa.pushApplicationID, pa.name, pa.developer, pmi.submitDate)")
+                .append(" from FlatPushMessageInformation pmi, PushApplication pa")
+                .append(" WHERE pmi.pushApplicationId = pa.pushApplicationID");
+        if (loginName != null) {
+            jpql.append(" AND pa.developer = :developer");
+        }
+        jpql.append(" ORDER BY pmi.submitDate ").append(DESC);
+
+        final TypedQuery<PushMessageActivity> query = readOnlyEntityManager(ReplicaRouting.DASHBOARD).createQuery(jpql.toString(), PushMessageActivity.class)
+                .setMaxResults(maxResults);
+        if (loginName != null) {
+            query.setParameter("developer", loginName);
+        }
+        return query.getResultList();
+    }
+
+    @Override
+    public Map<String, Long> countPushInformationOlderThan(Date oldest) {
+        final Map<String, Long> counts = new HashMap<>();
+        for (Object[] count : createQuery("select pmi.pushApplicationId, count(pmi) FROM FlatPushMessageInformation pmi"
+                + " WHERE pmi.submitDate < :oldest GROUP BY pmi.pushApplicationId", Object[].class)
+                .setParameter("oldest", oldest)
+                .getResultList()) {
+            counts.put((String) count[0], (Long) count[1]);
+        }
+        return counts;
+    }
+
     @Override
     public void deletePushInformationOlderThan(Date oldest) {
         // TODO: use criteria API...
@@ -131,10 +212,16 @@ public class JPAFlatPushMessageInformationDao extends JPABaseDao<FlatPushMessage
         logger.info("Deleting ['" + affectedRows + "'] outdated FlatPushMessageInformation objects");
     }
 
+    @Override
+    public void saveError(VariantErrorStatus variantErrorStatus) {
+        entityManager.merge(variantErrorStatus);
+        entityManager.flush();
+    }
+
     //Admin queries
     @Override
     public List<String> findVariantIDsWithWarnings() {
-        return createQuery("select distinct vmi.variantID from VariantErrorStatus vmi", String.class)
+        return readOnlyEntityManager(ReplicaRouting.DASHBOARD).createQuery("select distinct vmi.variantID from VariantErrorStatus vmi", String.class)
                 .getResultList();
     }
 
@@ -151,6 +238,55 @@ public class JPAFlatPushMessageInformationDao extends JPABaseDao<FlatPushMessage
         return createQuery("select count(pmi) from FlatPushMessageInformation pmi", Long.class).getSingleResult();
     }
 
+    /**
+     * Helper that loads the errors of a page of push messages with a single query, instead of a query per push message.
+     */
+    private static List<FlatPushMessageInformation> fetchErrors(EntityManager reader, List<FlatPushMessageInformation> pushMessageInformationList) {
+        if (!pushMessageInformationList.isEmpty()) {
+            // the fetched push messages are the ones of the page, already attached to the persistence context of the reader
+            reader.createQuery("select distinct pmi from FlatPushMessageInformation pmi left join fetch pmi.errors where pmi.id in :ids", FlatPushMessageInformation.class)
+                    .setParameter("ids", pushMessageInformationList.stream().map(FlatPushMessageInformation::getId).collect(Collectors.toList()))
+                    .getResultList();
+        }
+        return pushMessageInformationList;
+    }
+
+    /**
+     * Helper that returns the condition on the search text of the push messages: a match of the given full text search,
+     * or a search text containing the searched term when there is no full text search.
+     */
+    private static String searchCondition(String fullTextSearch) {
+        return fullTextSearch != null ? " AND fulltext_match(pmi.searchText, :search) > 0" : " AND pmi.searchText LIKE :search";
+    }
+
+    /**
+     * Helper that returns the value of the search parameter of the condition returned by {@link #searchCondition(String)}.
+     */
+    private static String searchValue(String fullTextSearch, String search) {
+        return fullTextSearch != null ? fullTextSearch : "%" + search.toLowerCase(Locale.ROOT) + "%";
+    }
+
+    /**
+     * Helper that translates the given search to a boolean mode search of the full text index of MySQL, that requires words
+     * starting with each of its terms (or the words of a term that holds punctuation, in that order). The index holds no
+     * words shorter than the minimum token size of InnoDB (3 by default): null is returned when the database is not MySQL
+     * or a term is shorter, such searches look for the term anywhere in the search text.
+     */
+    private static String fullTextSearch(EntityManager reader, String search) {
+        if (search == null || !(((SessionFactoryImplementor) ((Session) reader.getDelegate()).getSessionFactory()).getDialect() instanceof Mysql5BitBooleanDialect)) {
+            return null;
+        }
+        final StringJoiner fullTextSearch = new StringJoiner(" ");
+        for (String term : search.toLowerCase(Locale.ROOT).trim().split("\\s+")) {
+            final String words = NOT_WORD.matcher(term).replaceAll(" ").trim();
+            if (term.length() < MIN_FULL_TEXT_TERM_LENGTH || words.isEmpty()) {
+                return null;
+            }
+            fullTextSearch.add(words.equals(term) ? "+" + term + "*" : "+\"" + words + "\"");
+        }
+        return fullTextSearch.toString();
+    }
+
     /**
      * Helper that returns 'ASC' when true and 'DESC' when false.
      */
@@ -0,0 +1,48 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.jpa.dao.impl;
+
+import org.jboss.aerogear.unifiedpush.api.IdempotencyKey;
+import org.jboss.aerogear.unifiedpush.dao.IdempotencyKeyDao;
+
+import java.util.Date;
+
+public class JPAIdempotencyKeyDao extends JPABaseDao<IdempotencyKey, String> implements IdempotencyKeyDao {
+
+    @Override
+    public int deleteOlderThan(Date oldest) {
+        return entityManager.createQuery("delete from IdempotencyKey ik where ik.createdAt < :oldest")
+                .setParameter("oldest", oldest)
+                .executeUpdate();
+    }
+
+    @Override
+    public boolean takeOver(String id, Date readCreatedAt, Date createdAt) {
+        // the creation date changes with every take over, so only one of concurrent requests updates the row
+        return entityManager.createQuery("update IdempotencyKey ik set ik.pushMessageId = null, ik.createdAt = :createdAt " +
+                "where ik.id = :id and ik.createdAt = :readCreatedAt")
+                .setParameter("createdAt", createdAt)
+                .setParameter("id", id)
+                .setParameter("readCreatedAt", readCreatedAt)
+                .executeUpdate() > 0;
+    }
+
+    @Override
+    public Class<IdempotencyKey> getType() {
+        return IdempotencyKey.class;
+    }
+}
@@ -25,10 +25,14 @@ import org.jboss.aerogear.unifiedpush.dao.PageResult;
 import org.jboss.aerogear.unifiedpush.dao.ResultStreamException;
 import org.jboss.aerogear.unifiedpush.dao.ResultsStream;
 import org.jboss.aerogear.unifiedpush.dto.Count;
+import org.jboss.aerogear.unifiedpush.dto.DeviceTokenCategory;
+import org.jboss.aerogear.unifiedpush.dto.InstallationToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -36,6 +40,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 public class JPAInstallationDao extends JPABaseDao<Installation, String> implements InstallationDao {
 
@@ -53,6 +58,39 @@ public class JPAInstallationDao extends JPABaseDao<Installation, String> impleme
 
 
 
+    private static final String FIND_DEVICE_TOKEN_CATEGORIES_OF_VARIANT_QUERY = "select installation.deviceToken, installation.deviceType, c.name"
+                    + " from Installation installation"
+                    + " left join installation.categories c"
+                    + " join installation.variant abstractVariant where abstractVariant.variantID = :variantID AND installation.enabled = true"
+                    + " ORDER BY installation.deviceToken ASC";
+
+    private static final String FIND_DEVICE_TOKENS_OF_VARIANT_AFTER_QUERY = "select installation.deviceToken"
+                    + " from Installation installation"
+                    + " join installation.variant abstractVariant where abstractVariant.variantID = :variantID"
+                    + " AND installation.deviceToken > :lastToken"
+                    + " ORDER BY installation.deviceToken ASC";
+
+    private static final String FIND_DEVICE_TOKENS_OF_VARIANT_QUERY = "select installation.deviceToken"
+                    + " from Installation installation"
+                    + " join installation.variant abstractVariant where abstractVariant.variantID = :variantID"
+                    + " ORDER BY installation.deviceToken ASC";
+
+    private static final String COUNT_DEVICES_OF_VARIANT_QUERY = "select count(installation) from Installation installation"
+                    + " join installation.variant abstractVariant where abstractVariant.variantID = :variantId ";
+
+    // search terms looking up an exact alias, or device tokens and aliases starting with the term
+    private static final String ALIAS_SEARCH_PREFIX = "alias:";
+    private static final String PREFIX_SEARCH_SUFFIX = "*";
+    private static final String LITERAL_SEARCH_QUOTE = "\"";
+
+    private static final String FIND_INSTALLATION_TOKENS = "select new org.jboss.aerogear.unifiedpush.dto.InstallationToken("
+                    + "installation.id, installation.deviceToken, abstractVariant.variantID, abstractVariant.developer)"
+                    + " from Installation installation"
+                    + " join installation.variant abstractVariant";
+
+    // loads the categories of the installations that are returned, but not of those that are only counted or deleted
+    private static final String FETCH_PROFILE_CATEGORIES = "installation-with-categories";
+
     private static final String FIND_INSTALLATIONS = "FROM Installation installation"
                     + " JOIN installation.variant v"
                     + " WHERE v.variantID = :variantID";
@@ -61,33 +99,116 @@ public class JPAInstallationDao extends JPABaseDao<Installation, String> impleme
     public PageResult<Installation, Count> findInstallationsByVariantForDeveloper(
             String variantID, String developer, Integer page, Integer pageSize, String search) {
 
-        final StringBuilder jpqlBase = new StringBuilder(FIND_INSTALLATIONS);
         final Map<String, Object> parameters = new LinkedHashMap<>();
+        final String jpqlStr = installationsOfVariant(variantID, developer, search, parameters);
+
+        final EntityManager reader = readOnlyEntityManager(ReplicaRouting.INSTALLATIONS);
+        TypedQuery<Long> countQuery = reader.createQuery("SELECT COUNT(installation) " + jpqlStr, Long.class);
+        TypedQuery<Installation> query = reader.createQuery("SELECT installation " + jpqlStr + " ORDER BY installation.id", Installation.class)
+                .setFirstResult(page * pageSize)
+                .setMaxResults(pageSize);
+
+        List<Installation> resultList = fetchCategories(reader, setParameters(query, parameters).getResultList());
+        Long count = setParameters(countQuery, parameters).getSingleResult();
+
+        return new PageResult<>(resultList, new Count(count));
+    }
+
+    @Override
+    public List<Installation> findInstallationsByVariantForDeveloperAfter(
+            String variantID, String developer, String lastInstallationID, Integer pageSize, String search) {
+
+        final Map<String, Object> parameters = new LinkedHashMap<>();
+        String jpqlStr = installationsOfVariant(variantID, developer, search, parameters);
+        if (lastInstallationID != null) {
+            jpqlStr += " AND installation.id > :lastInstallationID";
+            parameters.put("lastInstallationID", lastInstallationID);
+        }
+
+        final EntityManager reader = readOnlyEntityManager(ReplicaRouting.INSTALLATIONS);
+        TypedQuery<Installation> query = reader.createQuery("SELECT installation " + jpqlStr + " ORDER BY installation.id", Installation.class)
+                .setMaxResults(pageSize);
+
+        return fetchCategories(reader, setParameters(query, parameters).getResultList());
+    }
+
+    @Override
+    public long countInstallationsByVariantForDeveloper(String variantID, String developer, String search) {
+        final Map<String, Object> parameters = new LinkedHashMap<>();
+        final String jpqlStr = installationsOfVariant(variantID, developer, search, parameters);
+
+        return setParameters(readOnlyEntityManager(ReplicaRouting.INSTALLATIONS).createQuery("SELECT COUNT(installation) " + jpqlStr, Long.class), parameters)
+                .getSingleResult();
+    }
+
+    /**
+     * Builds the FROM and WHERE clauses selecting the installations of a variant, and collects their parameters.
+     */
+    private static String installationsOfVariant(String variantID, String developer, String search, Map<String, Object> parameters) {
+        final StringBuilder jpqlBase = new StringBuilder(FIND_INSTALLATIONS);
         parameters.put("variantID", variantID);
         if (developer != null) {
             jpqlBase.append(" AND v.developer = :developer");
             parameters.put("developer", developer);
         }
         if (search != null) {
+            appendSearch(jpqlBase, search, parameters);
+        }
+        return jpqlBase.toString();
+    }
+
+    /**
+     * Appends the condition matching the installations to the given search term.
+     *
+     * Besides the default search for the term anywhere in the device metadata, two forms are served by the
+     * (variant, alias) and (variant, device token) indexes instead of scanning all installations of the variant:
+     * <ul>
+     *     <li><code>alias:foo@bar.org</code> matches the installations with exactly that alias</li>
+     *     <li><code>foo*</code> matches the installations whose device token or alias starts with <code>foo</code></li>
+     * </ul>
+     * A term of one of these forms is no longer searched literally, e.g. <code>alias:foo</code> used to match an alias containing
+     * <code>alias:foo</code>, and <code>foo*</code> one containing <code>foo*</code>: such terms are searched literally when
+     * they are quoted, e.g. <code>"alias:foo"</code>.
+     */
+    private static void appendSearch(StringBuilder jpqlBase, String search, Map<String, Object> parameters) {
+        if (search.length() > 2 && search.startsWith(LITERAL_SEARCH_QUOTE) && search.endsWith(LITERAL_SEARCH_QUOTE)) {
+            appendAnywhereSearch(jpqlBase, search.substring(1, search.length() - 1), parameters);
+        } else if (search.startsWith(ALIAS_SEARCH_PREFIX) && search.length() > ALIAS_SEARCH_PREFIX.length()) {
+            jpqlBase.append(" AND installation.alias = :search");
+            parameters.put("search", search.substring(ALIAS_SEARCH_PREFIX.length()));
+        } else if (search.endsWith(PREFIX_SEARCH_SUFFIX) && search.length() > PREFIX_SEARCH_SUFFIX.length()) {
             jpqlBase.append(" AND ( installation.deviceToken LIKE :search"
-                    + " OR installation.deviceType LIKE :search"
-                    + " OR installation.platform LIKE :search"
-                    + " OR installation.operatingSystem LIKE :search"
-                    + " OR installation.osVersion LIKE :search"
                     + " OR installation.alias LIKE :search )");
-            parameters.put("search", "%" + search + "%");
+            parameters.put("search", search.substring(0, search.length() - PREFIX_SEARCH_SUFFIX.length()) + "%");
+        } else {
+            appendAnywhereSearch(jpqlBase, search, parameters);
         }
+    }
 
-        String jpqlStr = jpqlBase.toString();
-        TypedQuery<Long> countQuery = createQuery("SELECT COUNT(installation) " + jpqlStr, Long.class);
-        TypedQuery<Installation> query = createQuery("SELECT installation " + jpqlStr + " ORDER BY installation.id")
-                .setFirstResult(page * pageSize)
-                .setMaxResults(pageSize);
-
-        List<Installation> resultList = setParameters(query, parameters).getResultList();
-        Long count = setParameters(countQuery, parameters).getSingleResult();
+    private static void appendAnywhereSearch(StringBuilder jpqlBase, String search, Map<String, Object> parameters) {
+        // served by the trigram indexes on PostgreSQL, scans the installations of the variant elsewhere
+        jpqlBase.append(" AND ( installation.deviceToken LIKE :search"
+                + " OR installation.deviceType LIKE :search"
+                + " OR installation.platform LIKE :search"
+                + " OR installation.operatingSystem LIKE :search"
+                + " OR installation.osVersion LIKE :search"
+                + " OR installation.alias LIKE :search )");
+        parameters.put("search", "%" + search + "%");
+    }
 
-        return new PageResult<>(resultList, new Count(count));
+    /**
+     * Loads the categories of a page of installations with a single query, instead of a query per installation.
+     */
+    private static List<Installation> fetchCategories(EntityManager reader, List<Installation> installations) {
+        if (!installations.isEmpty()) {
+            // the fetched installations are the ones of the page, already attached to the persistence context of the reader
+            reader.createQuery("select distinct installation from Installation installation"
+                    + " left join fetch installation.categories"
+                    + " where installation.id in :ids", Installation.class)
+                    .setParameter("ids", installations.stream().map(Installation::getId).collect(Collectors.toList()))
+                    .getResultList();
+        }
+        return installations;
     }
 
     private static <X> TypedQuery<X> setParameters(TypedQuery<X> query, Map<String, Object> parameters) {
@@ -131,6 +252,52 @@ public class JPAInstallationDao extends JPABaseDao<Installation, String> impleme
 
 
 
+    @Override
+    public List<InstallationToken> findInstallationTokensForVariantByDeviceTokens(String variantID, Set<String> deviceTokens) {
+        if (deviceTokens == null || deviceTokens.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        return createQuery(FIND_INSTALLATION_TOKENS +
+                " where abstractVariant.variantID = :variantID" +
+                " and installation.deviceToken IN :deviceTokens", InstallationToken.class)
+                .setParameter("variantID", variantID)
+                .setParameter("deviceTokens", deviceTokens)
+                .getResultList();
+    }
+
+    @Override
+    public List<InstallationToken> findInstallationTokensByIds(Collection<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        return createQuery(FIND_INSTALLATION_TOKENS +
+                " where installation.id IN :ids", InstallationToken.class)
+                .setParameter("ids", ids)
+                .getResultList();
+    }
+
+    @Override
+    public Installation findWithCategories(String id) {
+        return find(id, FETCH_PROFILE_CATEGORIES);
+    }
+
+    @Override
+    public int deleteByIds(Collection<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return 0;
+        }
+
+        // the join table is not mapped as an entity, only the categories collection of the installations depends on it
+        createNativeUpdate("delete from installation_category where installation_id in (:ids)", "installation_category")
+                .setParameterList("ids", ids)
+                .executeUpdate();
+        return createUntypedQuery("delete from Installation installation where installation.id in :ids")
+                .setParameter("ids", ids)
+                .executeUpdate();
+    }
+
     @Override
     public Set<String> findAllDeviceTokenForVariantID(String variantID) {
         TypedQuery<String> query = createQuery(FIND_ALL_DEVICES_FOR_VARIANT_QUERY, String.class);
@@ -140,6 +307,11 @@ public class JPAInstallationDao extends JPABaseDao<Installation, String> impleme
 
     @Override
     public ResultsStream.QueryBuilder<String> findAllDeviceTokenForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes, final int maxResults, String lastTokenFromPreviousBatch, boolean oldGCM) {
+        return findAllDeviceTokenForVariantIDByCriteria(variantID, categories, aliases, deviceTypes, maxResults, lastTokenFromPreviousBatch, null, oldGCM);
+    }
+
+    @Override
+    public ResultsStream.QueryBuilder<String> findAllDeviceTokenForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes, final int maxResults, String lastTokenFromPreviousBatch, String lastTokenOfRange, boolean oldGCM) {
         // the required part: Join + all tokens for variantID;
 
         if (oldGCM) {
@@ -159,6 +331,12 @@ public class JPAInstallationDao extends JPABaseDao<Installation, String> impleme
             parameters.put("lastTokenFromPreviousBatch", lastTokenFromPreviousBatch);
         }
 
+        // the upper bound of the range, when the token keyspace of the variant is split
+        if (lastTokenOfRange != null) {
+            jpqlString.append(" AND installation.deviceToken <= :lastTokenOfRange");
+            parameters.put("lastTokenOfRange", lastTokenOfRange);
+        }
+
         jpqlString.append(" ORDER BY installation.deviceToken ASC");
 
         return new ResultsStream.QueryBuilder<String>() {
@@ -170,7 +348,7 @@ public class JPAInstallationDao extends JPABaseDao<Installation, String> impleme
             }
             @Override
             public ResultsStream<String> executeQuery() {
-                Query hibernateQuery = JPAInstallationDao.this.createHibernateQuery(jpqlString.toString());
+                Query hibernateQuery = JPAInstallationDao.this.createReadOnlyHibernateQuery(ReplicaRouting.TOKENS, jpqlString.toString());
                 hibernateQuery.setMaxResults(maxResults);
 
                 parameters.forEach((k,v) -> {
@@ -181,7 +359,6 @@ public class JPAInstallationDao extends JPABaseDao<Installation, String> impleme
                     }
                  });
 
-                hibernateQuery.setReadOnly(true);
                 if (fetchSize != null) {
                     hibernateQuery.setFetchSize(fetchSize);
                 }
@@ -201,6 +378,75 @@ public class JPAInstallationDao extends JPABaseDao<Installation, String> impleme
         };
     }
 
+    @Override
+    public ResultsStream.QueryBuilder<DeviceTokenCategory> findAllDeviceTokenCategoriesForVariantID(String variantID) {
+        return new ResultsStream.QueryBuilder<DeviceTokenCategory>() {
+            private Integer fetchSize;
+            @Override
+            public ResultsStream.QueryBuilder<DeviceTokenCategory> fetchSize(int fetchSize) {
+                this.fetchSize = fetchSize;
+                return this;
+            }
+            @Override
+            public ResultsStream<DeviceTokenCategory> executeQuery() {
+                Query hibernateQuery = JPAInstallationDao.this.createReadOnlyHibernateQuery(ReplicaRouting.TOKENS, FIND_DEVICE_TOKEN_CATEGORIES_OF_VARIANT_QUERY);
+                hibernateQuery.setParameter("variantID", variantID);
+                if (fetchSize != null) {
+                    hibernateQuery.setFetchSize(fetchSize);
+                }
+                final ScrollableResults results = hibernateQuery.scroll(ScrollMode.FORWARD_ONLY);
+                return new ResultsStream<DeviceTokenCategory>() {
+                    @Override
+                    public boolean next() throws ResultStreamException {
+                        return results.next();
+                    }
+                    @Override
+                    public DeviceTokenCategory get() throws ResultStreamException {
+                        final Object[] row = results.get();
+                        return new DeviceTokenCategory((String) row[0], (String) row[1], (String) row[2]);
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public List<String> findDeviceTokenRangeBoundariesForVariantID(String variantID, int maxRanges, int minRangeSize) {
+        final EntityManager reader = readOnlyEntityManager(ReplicaRouting.TOKENS);
+        final long count = reader.createQuery(COUNT_DEVICES_OF_VARIANT_QUERY, Long.class)
+                .setParameter("variantId", variantID)
+                .getSingleResult();
+        final int ranges = (int) Math.min(maxRanges, count / Math.max(1, minRangeSize));
+        if (ranges < 2) {
+            return Collections.emptyList();
+        }
+
+        // a single walk over the ordered tokens of the variant: every probe starts after the previous boundary and skips the
+        // tokens of a single range, so the tokens of the variant are read once from the index, instead of once per range
+        final List<String> boundaries = new ArrayList<>(ranges - 1);
+        for (int range = 1; range < ranges; range++) {
+            final int rangeSize = (int) (count * range / ranges - count * (range - 1) / ranges);
+            final TypedQuery<String> probe;
+            if (boundaries.isEmpty()) {
+                probe = reader.createQuery(FIND_DEVICE_TOKENS_OF_VARIANT_QUERY, String.class);
+            } else {
+                // a token registered by several installations is not repeated as the next boundary
+                probe = reader.createQuery(FIND_DEVICE_TOKENS_OF_VARIANT_AFTER_QUERY, String.class)
+                        .setParameter("lastToken", boundaries.get(boundaries.size() - 1));
+            }
+            final List<String> boundary = probe.setParameter("variantID", variantID)
+                    .setFirstResult(rangeSize - 1)
+                    .setMaxResults(1)
+                    .getResultList();
+            if (boundary.isEmpty()) {
+                // installations were removed since they were counted
+                break;
+            }
+            boundaries.add(boundary.get(0));
+        }
+        return boundaries;
+    }
+
     @Override
     public long getNumberOfDevicesForLoginName(String loginName) {
         return createQuery("select count(installation) from Installation installation, Variant t where installation.variant = t.variantID and t.developer = :developer ", Long.class)
@@ -221,7 +467,7 @@ public class JPAInstallationDao extends JPABaseDao<Installation, String> impleme
 
     @Override
     public long getNumberOfDevicesForVariantID(String variantId) {
-        return createQuery("select count(installation) from Installation installation join installation.variant abstractVariant where abstractVariant.variantID = :variantId ", Long.class)
+        return createQuery(COUNT_DEVICES_OF_VARIANT_QUERY, Long.class)
                 .setParameter("variantId", variantId)
                 .getSingleResult();
     }
@@ -73,7 +73,8 @@ public class JPAPushApplicationDao extends JPABaseDao<PushApplication, String> i
     @Override
     public PushApplication findByPushApplicationID(String pushApplicationID) {
         return getSingleResultForQuery(createQuery("select pa from PushApplication pa where pa.pushApplicationID = :pushApplicationID")
-                .setParameter("pushApplicationID", pushApplicationID));
+                .setParameter("pushApplicationID", pushApplicationID)
+                .setHint(CACHEABLE, true));
     }
 
     @Override
@@ -0,0 +1,55 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.jpa.dao.impl;
+
+import org.jboss.aerogear.unifiedpush.api.ScheduledPushMessage;
+import org.jboss.aerogear.unifiedpush.dao.ScheduledPushMessageDao;
+
+import java.util.Date;
+import java.util.List;
+
+public class JPAScheduledPushMessageDao extends JPABaseDao<ScheduledPushMessage, String> implements ScheduledPushMessageDao {
+
+    @Override
+    public List<ScheduledPushMessage> findDue(Date now, int maxResults) {
+        return createQuery("select spm from ScheduledPushMessage spm where spm.deliverAt <= :now ORDER BY spm.deliverAt ASC")
+                .setParameter("now", now)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+
+    @Override
+    public boolean claim(String id) {
+        // concurrent transactions block on the deleted row, and delete nothing once this transaction commits
+        return entityManager.createQuery("delete from ScheduledPushMessage spm where spm.id = :id")
+                .setParameter("id", id)
+                .executeUpdate() > 0;
+    }
+
+    @Override
+    public boolean recordFailedAttempt(String id, Date retryAt) {
+        return entityManager.createQuery("update ScheduledPushMessage spm set spm.attempts = spm.attempts + 1, spm.deliverAt = :retryAt where spm.id = :id")
+                .setParameter("retryAt", retryAt)
+                .setParameter("id", id)
+                .executeUpdate() > 0;
+    }
+
+    @Override
+    public Class<ScheduledPushMessage> getType() {
+        return ScheduledPushMessage.class;
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.jpa.dao.impl;
+
+import org.jboss.aerogear.unifiedpush.api.UsageCounter;
+import org.jboss.aerogear.unifiedpush.dao.UsageCounterDao;
+
+import javax.persistence.LockModeType;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class JPAUsageCounterDao extends JPABaseDao<UsageCounter, String> implements UsageCounterDao {
+
+    @Override
+    public boolean increment(String id, long delta) {
+        return entityManager.createQuery("update UsageCounter c set c.value = c.value + :delta where c.id = :id")
+                .setParameter("delta", delta)
+                .setParameter("id", id)
+                .executeUpdate() > 0;
+    }
+
+    @Override
+    public Map<String, Long> findValues(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final Map<String, Long> values = new HashMap<>();
+        for (UsageCounter counter : readOnlyEntityManager(ReplicaRouting.DASHBOARD).createQuery("select c from UsageCounter c where c.id in :ids", UsageCounter.class)
+                .setParameter("ids", ids)
+                .getResultList()) {
+            values.put(counter.getId(), counter.getValue());
+        }
+        return values;
+    }
+
+    @Override
+    public List<UsageCounter> findAll() {
+        return createQuery("select c from UsageCounter c where c.id <> :lock")
+                .setParameter("lock", UsageCounter.RECONCILIATION_LOCK)
+                .getResultList();
+    }
+
+    @Override
+    public UsageCounter lockReconciliation() {
+        UsageCounter lock = entityManager.find(UsageCounter.class, UsageCounter.RECONCILIATION_LOCK, LockModeType.PESSIMISTIC_WRITE);
+        if (lock == null) {
+            // created by the migration; where it is missing, a concurrent creation fails on the primary key and is retried later
+            lock = new UsageCounter(UsageCounter.RECONCILIATION_LOCK, 0);
+            entityManager.persist(lock);
+            entityManager.flush();
+        }
+        return lock;
+    }
+
+    @Override
+    public Map<String, Long> countActualValues() {
+        final Map<String, Long> values = new HashMap<>();
+
+        // every variant, push application and developer starts with zero
+        for (Object[] variant : createQuery("select v.variantID, v.developer from Variant v", Object[].class).getResultList()) {
+            values.put(UsageCounter.installationsOfVariant((String) variant[0]), 0L);
+            values.put(UsageCounter.installationsOfDeveloper((String) variant[1]), 0L);
+        }
+        for (Object[] application : createQuery("select pa.pushApplicationID, pa.developer from PushApplication pa", Object[].class).getResultList()) {
+            values.put(UsageCounter.pushMessagesOfPushApplication((String) application[0]), 0L);
+            values.merge(UsageCounter.pushApplicationsOfDeveloper((String) application[1]), 1L, Long::sum);
+        }
+
+        long installations = 0;
+        for (Object[] variant : createQuery("select v.variantID, v.developer, count(i) from Installation i join i.variant v"
+                + " group by v.variantID, v.developer", Object[].class).getResultList()) {
+            final long count = (Long) variant[2];
+            values.put(UsageCounter.installationsOfVariant((String) variant[0]), count);
+            values.merge(UsageCounter.installationsOfDeveloper((String) variant[1]), count, Long::sum);
+            installations += count;
+        }
+
+        long messages = 0;
+        for (Object[] application : createQuery("select pmi.pushApplicationId, count(pmi) from FlatPushMessageInformation pmi"
+                + " group by pmi.pushApplicationId", Object[].class).getResultList()) {
+            final long count = (Long) application[1];
+            // push messages of removed push applications are only part of the total
+            values.computeIfPresent(UsageCounter.pushMessagesOfPushApplication((String) application[0]), (id, zero) -> count);
+            messages += count;
+        }
+
+        values.put(UsageCounter.TOTAL_INSTALLATIONS, installations);
+        values.put(UsageCounter.TOTAL_PUSH_MESSAGES, messages);
+        values.put(UsageCounter.TOTAL_PUSH_APPLICATIONS, createQuery("select count(pa) from PushApplication pa", Long.class).getSingleResult());
+        return values;
+    }
+
+    @Override
+    public Class<UsageCounter> getType() {
+        return UsageCounter.class;
+    }
+}
@@ -17,9 +17,14 @@
 package org.jboss.aerogear.unifiedpush.jpa.dao.impl;
 
 import org.jboss.aerogear.unifiedpush.api.Variant;
+import org.jboss.aerogear.unifiedpush.api.VariantType;
 import org.jboss.aerogear.unifiedpush.dao.VariantDao;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
 
 public class JPAVariantDao extends JPABaseDao<Variant, String> implements VariantDao {
@@ -39,7 +44,8 @@ public class JPAVariantDao extends JPABaseDao<Variant, String> implements Varian
     @Override
     public Variant findByVariantID(String variantID) {
         return getSingleResultForQuery(createQuery("select t from Variant t where t.variantID = :variantID")
-                .setParameter("variantID", variantID));
+                .setParameter("variantID", variantID)
+                .setHint(CACHEABLE, true));
     }
 
     @Override
@@ -70,6 +76,31 @@ public class JPAVariantDao extends JPABaseDao<Variant, String> implements Varian
                 .setParameter("variantIDs", variantIDs).getResultList();
     }
 
+    @Override
+    public List<Variant> findVariantsWithMessagesSince(Collection<VariantType> types, Date since, int maxResults) {
+        if (types.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        // one row per variant, the most recently active first, so that the limit keeps the variants that matter most
+        final List<String> ids = createQuery("select v.id from PushApplication pa join pa.variants v, FlatPushMessageInformation pmi " +
+                "where pmi.pushApplicationId = pa.pushApplicationID and v.type in :types and pmi.submitDate >= :since " +
+                "group by v.id order by max(pmi.submitDate) desc", String.class)
+                .setParameter("types", types)
+                .setParameter("since", since)
+                .setMaxResults(maxResults)
+                .getResultList();
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final List<Variant> variants = new ArrayList<>(createQuery("select v from Variant v where v.id in :ids")
+                .setParameter("ids", ids)
+                .getResultList());
+        variants.sort(Comparator.comparingInt(variant -> ids.indexOf(variant.getId())));
+        return variants;
+    }
+
     //Admin queries
     @Override
     public boolean existsVariantIDForAdmin(String variantID) {
@@ -0,0 +1,76 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.jpa.dao.impl;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+
+import org.hibernate.Session;
+import org.jboss.aerogear.unifiedpush.jpa.cdi.ReadReplica;
+
+/**
+ * Periodically samples the lag of the read replica for the {@link ReplicaRouting}, so that the call sites never wait for the sample.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ReplicaLagSampler {
+
+    @Resource
+    private TimerService timerService;
+
+    @Inject
+    private ReplicaRouting routing;
+
+    @Inject
+    @ReadReplica
+    private Instance<EntityManager> replicaEntityManager;
+
+    @PostConstruct
+    public void scheduleSamples() {
+        if (routing.isLagSampled()) {
+            timerService.createIntervalTimer(0, routing.getLagInterval(), new TimerConfig(null, false));
+        }
+    }
+
+    @Timeout
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public synchronized void sampleLag() {
+        final Session session = (Session) replicaEntityManager.get().getDelegate();
+        routing.sampleLag(lagQuery -> session.doReturningWork(connection -> {
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(lagQuery)) {
+                return resultSet.next() ? (Number) resultSet.getObject(1) : null;
+            }
+        }));
+    }
+}
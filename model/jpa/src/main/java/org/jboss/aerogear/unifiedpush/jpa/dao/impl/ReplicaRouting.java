@@ -0,0 +1,171 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.jpa.dao.impl;
+
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides whether the read-only queries of a call site are sent to the read replica, instead of the primary database
+ * that also takes the registrations.
+ *
+ * The replica is used by the heavy read paths only (token loading, installation listings and exports, dashboard counters
+ * and message history), each of them tolerating the replica to lag behind the primary database by a number of seconds.
+ * The tolerance defaults to <tt>aerogear.replica.staleness</tt> and is given per call site by
+ * <tt>aerogear.replica.staleness.&lt;site&gt;</tt>, 0 keeps the call site on the primary database.
+ *
+ * The lag of the replica is sampled every <tt>aerogear.replica.lag.interval</tt> seconds by the {@link ReplicaLagSampler}, outside
+ * of any transaction, with the SQL query of <tt>aerogear.replica.lag.query</tt>, which returns the lag in seconds
+ * (e.g. <tt>SELECT EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp())</tt> on PostgreSQL). The call sites only read the
+ * last sampled lag. Without a query the replica is assumed to be up to date; until the first sample, when the query fails or
+ * returns no lag, and when the last sample is older than three intervals, the primary database is used.
+ *
+ * The routing is disabled by default. It is enabled with the system property <tt>aerogear.replica=true</tt>, once the
+ * <tt>unifiedpush-replica</tt> persistence unit was pointed to the replica datasource (see persistence.xml).
+ */
+@ApplicationScoped
+public class ReplicaRouting {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaRouting.class);
+
+    // system property names used to configure the routing
+    public static final String AEROGEAR_REPLICA = "aerogear.replica";
+    public static final String AEROGEAR_REPLICA_STALENESS = "aerogear.replica.staleness";
+    public static final String AEROGEAR_REPLICA_LAG_QUERY = "aerogear.replica.lag.query";
+    public static final String AEROGEAR_REPLICA_LAG_INTERVAL = "aerogear.replica.lag.interval";
+
+    // the call sites that may read from the replica
+    public static final String TOKENS = "tokens";
+    public static final String INSTALLATIONS = "installations";
+    public static final String DASHBOARD = "dashboard";
+    public static final String HISTORY = "history";
+
+    private final boolean enabled;
+    private final Function<String, Integer> staleness;
+    private final String lagQuery;
+    private final long lagInterval;
+    private final LongSupplier clock;
+
+    private final ConcurrentMap<String, Integer> tolerances = new ConcurrentHashMap<>();
+    private volatile long lag = Long.MAX_VALUE;
+    private volatile long lagSampledAt;
+
+    /**
+     * @param enabled whether the read replica is used at all
+     * @param staleness the number of seconds the replica may lag behind, by call site
+     * @param lagQuery the SQL query returning the lag of the replica in seconds, or null if it is not sampled
+     * @param lagInterval time in milliseconds between two samples of the lag
+     * @param clock source of the current time in milliseconds
+     */
+    ReplicaRouting(boolean enabled, Function<String, Integer> staleness, String lagQuery, long lagInterval, LongSupplier clock) {
+        this.enabled = enabled;
+        this.staleness = staleness;
+        this.lagQuery = lagQuery;
+        this.lagInterval = lagInterval;
+        this.clock = clock;
+    }
+
+    public ReplicaRouting() {
+        this(Boolean.parseBoolean(ConfigurationUtils.tryGetGlobalProperty(AEROGEAR_REPLICA, "false")),
+                site -> ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_REPLICA_STALENESS + '.' + site,
+                        ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_REPLICA_STALENESS, 30)),
+                ConfigurationUtils.tryGetGlobalProperty(AEROGEAR_REPLICA_LAG_QUERY),
+                TimeUnit.SECONDS.toMillis(ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_REPLICA_LAG_INTERVAL, 5)),
+                System::currentTimeMillis);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true if the lag of the replica has to be sampled, false if the replica is not used or assumed to be up to date
+     */
+    public boolean isLagSampled() {
+        return enabled && lagQuery != null;
+    }
+
+    /**
+     * @return time in milliseconds between two samples of the lag
+     */
+    public long getLagInterval() {
+        return lagInterval;
+    }
+
+    /**
+     * Decides on the last sampled lag only, it never queries the replica.
+     *
+     * @param site the call site of the query
+     *
+     * @return true if the query of the call site may be sent to the replica, false if it must be sent to the primary database
+     */
+    public boolean useReplica(String site) {
+        if (!enabled) {
+            return false;
+        }
+        final int tolerance = tolerances.computeIfAbsent(site, staleness);
+        return tolerance > 0 && lag() <= tolerance;
+    }
+
+    private long lag() {
+        if (lagQuery == null) {
+            return 0;
+        }
+        // a sampler that stopped sampling leaves an outdated lag behind
+        if (clock.getAsLong() - lagSampledAt > 3 * lagInterval) {
+            return Long.MAX_VALUE;
+        }
+        return lag;
+    }
+
+    /**
+     * Samples the lag of the replica, that is used by the call sites until the next sample.
+     *
+     * @param lagSampler runs the given query on the replica and returns its result, the lag in seconds
+     */
+    public void sampleLag(Function<String, Number> lagSampler) {
+        if (!isLagSampled()) {
+            return;
+        }
+        final long sampledAt = clock.getAsLong();
+        lag = sample(lagSampler);
+        lagSampledAt = sampledAt;
+    }
+
+    private long sample(Function<String, Number> lagSampler) {
+        try {
+            final Number sampledLag = lagSampler.apply(lagQuery);
+            if (sampledLag == null) {
+                logger.debug("The read replica reported no lag, using the primary database");
+                return Long.MAX_VALUE;
+            }
+            return (long) Math.ceil(sampledLag.doubleValue());
+        } catch (RuntimeException e) {
+            logger.warn("Failed to sample the lag of the read replica, using the primary database", e);
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -24,6 +24,7 @@ import org.jboss.aerogear.unifiedpush.dao.FlatPushMessageInformationDao;
 import org.jboss.aerogear.unifiedpush.dao.PageResult;
 import org.jboss.aerogear.unifiedpush.dao.VariantDao;
 import org.jboss.aerogear.unifiedpush.dto.MessageMetrics;
+import org.jboss.aerogear.unifiedpush.dto.PushMessageActivity;
 import org.jboss.aerogear.unifiedpush.utils.DaoDeployment;
 import org.jboss.aerogear.unifiedpush.utils.DateUtils;
 import org.jboss.aerogear.unifiedpush.utils.TestUtils;
@@ -42,7 +43,7 @@ import javax.persistence.PersistenceException;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
-//import static org.assertj.core.api.Assertions.tuple;
+import static org.assertj.core.api.Assertions.tuple;
 
 @RunWith(Arquillian.class)
 public class FlatPushMessageInformationDaoTest {
@@ -199,6 +200,17 @@ public class FlatPushMessageInformationDaoTest {
         assertThat(lastActivity).hasSize(2);
     }
 
+    @Test
+    public void findLatestPushMessageActivity() {
+        List<PushMessageActivity> lastActivity = pushMessageInformationDao.findLatestPushMessageActivity(null, 2);
+        assertThat(lastActivity).extracting("pushApplicationID").containsExactly("231231232", "231231231");
+        assertThat(lastActivity).extracting("pushApplicationName").containsOnly("app");
+        assertThat(lastActivity).extracting("developer").containsOnly("admin");
+
+        assertThat(pushMessageInformationDao.findLatestPushMessageActivity("admin", 5)).hasSize(3);
+        assertThat(pushMessageInformationDao.findLatestPushMessageActivity("someone", 5)).isEmpty();
+    }
+
     @Test
     public void findVariantIDsWithWarnings() {
         // all warnings:
@@ -238,6 +250,23 @@ public class FlatPushMessageInformationDaoTest {
         fmpi.getErrors().add(ves);
     }
 
+    @Test
+    public void saveErrorsOfVariant() {
+        FlatPushMessageInformation fmpi = pushMessageInformationDao.find("1");
+        Variant variant = variantDao.find("1");
+        entityManager.clear();
+
+        pushMessageInformationDao.saveError(new VariantErrorStatus(fmpi, variant, "error"));
+        pushMessageInformationDao.saveError(new VariantErrorStatus(fmpi, variant, "another error"));
+        entityManager.clear();
+
+        // the error of the other variant is kept, the one of this variant is replaced
+        assertThat(pushMessageInformationDao.find("1").getErrors())
+                .hasSize(2)
+                .extracting("pushMessageVariantId", "errorReason")
+                .contains(tuple("1:" + variant.getVariantID(), "another error"));
+    }
+
     @Test
     public void ascendingDateOrdering() {
 
@@ -259,6 +288,20 @@ public class FlatPushMessageInformationDaoTest {
         assertThat(list.get(0).getSubmitDate()).isAfter(list.get(1).getSubmitDate());
     }
 
+    @Test
+    public void descendingDateOrderingAfterLastMessage() {
+        final List<FlatPushMessageInformation> firstPage =
+                pushMessageInformationDao.findAllForPushApplicationAfter("231231231", null, Boolean.FALSE, null, 1);
+        assertThat(firstPage).hasSize(1);
+
+        final List<FlatPushMessageInformation> secondPage =
+                pushMessageInformationDao.findAllForPushApplicationAfter("231231231", null, Boolean.FALSE, firstPage.get(0), 1);
+        assertThat(secondPage).hasSize(1);
+        assertThat(secondPage.get(0).getSubmitDate()).isBefore(firstPage.get(0).getSubmitDate());
+
+        assertThat(pushMessageInformationDao.findAllForPushApplicationAfter("231231231", null, Boolean.FALSE, secondPage.get(0), 1)).isEmpty();
+    }
+
     @Test
     public void testSearchString() {
         PageResult<FlatPushMessageInformation, MessageMetrics> messageInformations =
@@ -267,6 +310,14 @@ public class FlatPushMessageInformationDaoTest {
         assertThat(list).hasSize(1);
     }
 
+    @Test
+    public void testSearchStringIgnoresCase() {
+        final List<FlatPushMessageInformation> list =
+                pushMessageInformationDao.findAllForPushApplicationByParams("231231231", "FOO", Boolean.TRUE, 0, 25);
+        assertThat(list).extracting("id").containsOnly("1");
+        assertThat(pushMessageInformationDao.findMessageMetricsForPushApplicationByParams("231231231", "FOO", Boolean.TRUE, 0, 25).getCount()).isEqualTo(1);
+    }
+
     @Test
     public void testLongRawJsonPayload() {
         FlatPushMessageInformation largePushMessageInformation = new FlatPushMessageInformation();
@@ -0,0 +1,111 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.jpa;
+
+import net.jakubholy.dbunitexpress.EmbeddedDbTesterRule;
+import org.jboss.aerogear.unifiedpush.api.IdempotencyKey;
+import org.jboss.aerogear.unifiedpush.dao.IdempotencyKeyDao;
+import org.jboss.aerogear.unifiedpush.utils.DaoDeployment;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+@RunWith(Arquillian.class)
+public class IdempotencyKeyDaoTest {
+
+    @Inject
+    private EntityManager entityManager;
+
+    @Inject
+    private IdempotencyKeyDao idempotencyKeyDao;
+
+    private final long now = System.currentTimeMillis();
+
+    @Deployment
+    public static JavaArchive createDeployment() {
+        return DaoDeployment.createDeployment();
+    }
+
+    @Rule
+    public EmbeddedDbTesterRule testDb = new EmbeddedDbTesterRule("IdempotencyKeys.xml");
+
+    @Before
+    public void setUp() {
+        entityManager.getTransaction().begin();
+
+        final IdempotencyKey inProgress = new IdempotencyKey("231231231", "in-progress");
+        inProgress.setCreatedAt(new Date(now - 120000));
+        idempotencyKeyDao.create(inProgress);
+        final IdempotencyKey completed = new IdempotencyKey("231231231", "completed");
+        completed.setPushMessageId("msg-1");
+        completed.setCreatedAt(new Date(now - 1000));
+        idempotencyKeyDao.create(completed);
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @After
+    public void tearDown() {
+        entityManager.getTransaction().rollback();
+    }
+
+    @Test
+    public void duplicateKeyIsRejected() {
+        try {
+            idempotencyKeyDao.create(new IdempotencyKey("231231231", "completed"));
+            entityManager.flush();
+            fail("a key can only be reserved once");
+        } catch (PersistenceException e) {
+            // expected, the reservation fails on the primary key
+        }
+    }
+
+    @Test
+    public void takeOverKeyInProgress() {
+        final IdempotencyKey stored = idempotencyKeyDao.find("231231231:in-progress");
+
+        assertThat(idempotencyKeyDao.takeOver(stored.getId(), stored.getCreatedAt(), new Date(now))).isTrue();
+        // a concurrent request read the same creation date
+        assertThat(idempotencyKeyDao.takeOver(stored.getId(), stored.getCreatedAt(), new Date(now))).isFalse();
+
+        entityManager.clear();
+        assertThat(idempotencyKeyDao.find("231231231:in-progress").getCreatedAt().getTime()).isEqualTo(now);
+    }
+
+    @Test
+    public void takeOverClearsPushMessage() {
+        final IdempotencyKey stored = idempotencyKeyDao.find("231231231:completed");
+
+        assertThat(idempotencyKeyDao.takeOver(stored.getId(), stored.getCreatedAt(), new Date(now))).isTrue();
+
+        entityManager.clear();
+        assertThat(idempotencyKeyDao.find("231231231:completed").getPushMessageId()).isNull();
+    }
+}
@@ -21,6 +21,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityNotFoundException;
@@ -37,6 +38,7 @@ import org.jboss.aerogear.unifiedpush.dao.PageResult;
 import org.jboss.aerogear.unifiedpush.dao.ResultStreamException;
 import org.jboss.aerogear.unifiedpush.dao.ResultsStream;
 import org.jboss.aerogear.unifiedpush.dto.Count;
+import org.jboss.aerogear.unifiedpush.dto.InstallationToken;
 import org.jboss.aerogear.unifiedpush.jpa.dao.impl.JPAInstallationDao;
 import org.jboss.aerogear.unifiedpush.utils.DaoDeployment;
 import org.jboss.aerogear.unifiedpush.utils.TestUtils;
@@ -119,6 +121,31 @@ public class InstallationDaoTest {
     assertThat(list).extracting("deviceToken").containsOnly(DEVICE_TOKEN_1);
   }
 
+  @Test
+  public void findDeviceTokenRangeBoundariesOfVariant() {
+    List<String> boundaries = installationDao.findDeviceTokenRangeBoundariesForVariantID(androidVariantID, 3, 1);
+    assertThat(boundaries).containsExactly(DEVICE_TOKEN_4,
+        "543234234890123456789012345678901234567890123456789012345678901234567890123456789012345678901234567890");
+
+    assertThat(installationDao.findDeviceTokenRangeBoundariesForVariantID(androidVariantID, 1, 1)).isEmpty();
+    assertThat(installationDao.findDeviceTokenRangeBoundariesForVariantID(androidVariantID, 3, 4)).isEmpty();
+    assertThat(installationDao.findDeviceTokenRangeBoundariesForVariantID(androidVariantID, 10, 3)).hasSize(1);
+  }
+
+  @Test
+  public void findDeviceTokensOfRange() throws ResultStreamException {
+    List<String> boundaries = installationDao.findDeviceTokenRangeBoundariesForVariantID(androidVariantID, 3, 1);
+
+    ResultsStream<String> tokenStream = installationDao
+        .findAllDeviceTokenForVariantIDByCriteria(androidVariantID, null, null, null,
+            Integer.MAX_VALUE, boundaries.get(0), boundaries.get(1), false).executeQuery();
+    List<String> tokens = new ArrayList<>();
+    while (tokenStream.next()) {
+      tokens.add(tokenStream.get());
+    }
+    assertThat(tokens).containsExactly(DEVICE_TOKEN_3);
+  }
+
   @Test
   public void findDeviceTokensOfVariant() {
     List<String> tokens = findAllDeviceTokenForVariantIDByCriteria(androidVariantID, null, null,
@@ -245,6 +272,41 @@ public class InstallationDaoTest {
     assertThat(list).hasSize(0);
   }
 
+  @Test
+  public void findTokensAndDeleteTwoInstallationsByIds() {
+    final Set<String> tokenz = new HashSet<>();
+    tokenz.add(DEVICE_TOKEN_1);
+    tokenz.add(DEVICE_TOKEN_2);
+    List<InstallationToken> installationTokens = installationDao
+        .findInstallationTokensForVariantByDeviceTokens(androidVariantID, tokenz);
+    assertThat(installationTokens).extracting("deviceToken").containsOnly(DEVICE_TOKEN_1, DEVICE_TOKEN_2);
+    assertThat(installationTokens).extracting("variantID").containsOnly(androidVariantID);
+    assertThat(installationTokens).extracting("developer").containsOnly("me");
+
+    final List<String> ids = installationTokens.stream().map(InstallationToken::getId).collect(Collectors.toList());
+    assertThat(installationDao.findInstallationTokensByIds(ids)).hasSize(2);
+
+    assertThat(installationDao.deleteByIds(ids)).isEqualTo(2);
+
+    assertThat(installationDao.findInstallationTokensByIds(ids)).isEmpty();
+    assertThat(installationDao.deleteByIds(ids)).isZero();
+    assertThat(installationDao.findInstallationsForVariantByDeviceTokens(androidVariantID, tokenz)).isEmpty();
+  }
+
+  @Test
+  public void findInstallationWithCategories() {
+    final String id = installationDao.findInstallationForVariantByDeviceToken(androidVariantID, DEVICE_TOKEN_1).getId();
+    entityManager.clear();
+
+    final Installation installation = installationDao.find(id);
+    assertThat(entityManager.getEntityManagerFactory().getPersistenceUnitUtil().isLoaded(installation, "categories")).isFalse();
+    entityManager.clear();
+
+    final Installation installationWithCategories = installationDao.findWithCategories(id);
+    assertThat(entityManager.getEntityManagerFactory().getPersistenceUnitUtil().isLoaded(installationWithCategories, "categories")).isTrue();
+    assertThat(installationWithCategories.getCategories()).extracting("name").containsOnly("soccer");
+  }
+
   @Test(expected = EntityNotFoundException.class)
   public void deleteNonExistingInstallation() {
     Installation installation = new Installation();
@@ -551,6 +613,22 @@ public class InstallationDaoTest {
     assertThat(pageResult.getAggregate().getCount()).isEqualTo(6);
   }
 
+  @Test
+  public void shouldSelectInstallationsByVariantAfterLastInstallation() {
+    //when
+    final List<Installation> firstPage = installationDao
+        .findInstallationsByVariantForDeveloperAfter(androidVariantID, "me", null, 4, null);
+    final List<Installation> secondPage = installationDao
+        .findInstallationsByVariantForDeveloperAfter(androidVariantID, "me", firstPage.get(3).getId(), 4, null);
+
+    //then
+    assertThat(firstPage).hasSize(4);
+    assertThat(secondPage).hasSize(2);
+    assertThat(secondPage.get(0).getId().compareTo(firstPage.get(3).getId())).isPositive();
+    assertThat(installationDao.countInstallationsByVariantForDeveloper(androidVariantID, "me", null)).isEqualTo(6);
+    assertThat(installationDao.countInstallationsByVariantForDeveloper(androidVariantID, null, "Tablet")).isEqualTo(3);
+  }
+
   @Test
   public void shouldSelectInstallationsByDeviceTokenSearch() {
     //when
@@ -578,6 +656,41 @@ public class InstallationDaoTest {
     assertThat(pageResult.getResultList()).isNotEmpty().hasSize(1);
   }
 
+  @Test
+  public void shouldSelectInstallationsByExactAlias() {
+    //when
+    final PageResult<Installation, Count> pageResult = installationDao
+        .findInstallationsByVariant(androidVariantID, 0, Integer.MAX_VALUE, "alias:baz@bar.org");
+    //then
+    assertThat(pageResult.getResultList()).extracting("id").containsOnly("7");
+    assertThat(installationDao.findInstallationsByVariant(androidVariantID, 0, Integer.MAX_VALUE, "alias:baz")
+        .getResultList()).isEmpty();
+  }
+
+  @Test
+  public void shouldSelectInstallationsByPrefix() {
+    //when
+    final PageResult<Installation, Count> pageResult = installationDao
+        .findInstallationsByVariant(androidVariantID, 0, Integer.MAX_VALUE, "6789*");
+    //then
+    assertThat(pageResult.getResultList()).extracting("id").containsOnly("2");
+    assertThat(installationDao.findInstallationsByVariant(androidVariantID, 0, Integer.MAX_VALUE, "foo*")
+        .getResultList()).hasSize(5);
+  }
+
+  @Test
+  public void shouldSelectInstallationsByQuotedSearchLiterally() {
+    //when
+    final PageResult<Installation, Count> pageResult = installationDao
+        .findInstallationsByVariant(androidVariantID, 0, Integer.MAX_VALUE, "\"baz@\"");
+    //then
+    assertThat(pageResult.getResultList()).extracting("id").containsOnly("7");
+    assertThat(installationDao.findInstallationsByVariant(androidVariantID, 0, Integer.MAX_VALUE, "\"alias:baz@bar.org\"")
+        .getResultList()).isEmpty();
+    assertThat(installationDao.findInstallationsByVariant(androidVariantID, 0, Integer.MAX_VALUE, "\"6789*\"")
+        .getResultList()).isEmpty();
+  }
+
   @Test(expected = PersistenceException.class)
   public void testTooLongDeviceToken() {
     AndroidVariant variant = new AndroidVariant();
@@ -0,0 +1,115 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.jpa;
+
+import net.jakubholy.dbunitexpress.EmbeddedDbTesterRule;
+import org.jboss.aerogear.unifiedpush.api.ScheduledPushMessage;
+import org.jboss.aerogear.unifiedpush.dao.ScheduledPushMessageDao;
+import org.jboss.aerogear.unifiedpush.utils.DaoDeployment;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(Arquillian.class)
+public class ScheduledPushMessageDaoTest {
+
+    @Inject
+    private EntityManager entityManager;
+
+    @Inject
+    private ScheduledPushMessageDao scheduledPushMessageDao;
+
+    private final long now = System.currentTimeMillis();
+
+    @Deployment
+    public static JavaArchive createDeployment() {
+        return DaoDeployment.createDeployment();
+    }
+
+    @Rule
+    public EmbeddedDbTesterRule testDb = new EmbeddedDbTesterRule("ScheduledPushMessages.xml");
+
+    @Before
+    public void setUp() {
+        entityManager.getTransaction().begin();
+
+        scheduledPushMessageDao.create(scheduled("later", now + 60000));
+        scheduledPushMessageDao.create(scheduled("second", now - 1000));
+        scheduledPushMessageDao.create(scheduled("first", now - 2000));
+        scheduledPushMessageDao.create(scheduled("third", now));
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @After
+    public void tearDown() {
+        entityManager.getTransaction().rollback();
+    }
+
+    @Test
+    public void findDueMessagesEarliestFirst() {
+        final List<ScheduledPushMessage> due = scheduledPushMessageDao.findDue(new Date(now), 10);
+
+        assertThat(due).extracting("id").containsExactly("first", "second", "third");
+    }
+
+    @Test
+    public void findDueMessagesLimited() {
+        final List<ScheduledPushMessage> due = scheduledPushMessageDao.findDue(new Date(now), 2);
+
+        assertThat(due).extracting("id").containsExactly("first", "second");
+    }
+
+    @Test
+    public void claimMessageOnlyOnce() {
+        assertThat(scheduledPushMessageDao.claim("first")).isTrue();
+        assertThat(scheduledPushMessageDao.claim("first")).isFalse();
+
+        assertThat(scheduledPushMessageDao.findDue(new Date(now), 10)).extracting("id").containsExactly("second", "third");
+    }
+
+    @Test
+    public void recordFailedAttemptPostponesMessage() {
+        assertThat(scheduledPushMessageDao.recordFailedAttempt("first", new Date(now + 60000))).isTrue();
+        entityManager.clear();
+
+        assertThat(scheduledPushMessageDao.find("first").getAttempts()).isEqualTo(1);
+        assertThat(scheduledPushMessageDao.findDue(new Date(now), 10)).extracting("id").containsExactly("second", "third");
+        assertThat(scheduledPushMessageDao.recordFailedAttempt("unknown", new Date(now))).isFalse();
+    }
+
+    private ScheduledPushMessage scheduled(String id, long deliverAt) {
+        final ScheduledPushMessage scheduled = new ScheduledPushMessage();
+        scheduled.setId(id);
+        scheduled.setPushApplicationId("231231231");
+        scheduled.setDeliverAt(new Date(deliverAt));
+        scheduled.setPayload("{\"message\":{\"alert\":\"Howdy\"}}");
+        return scheduled;
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.jpa;
+
+import net.jakubholy.dbunitexpress.EmbeddedDbTesterRule;
+import org.jboss.aerogear.unifiedpush.api.UsageCounter;
+import org.jboss.aerogear.unifiedpush.dao.UsageCounterDao;
+import org.jboss.aerogear.unifiedpush.utils.DaoDeployment;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+@RunWith(Arquillian.class)
+public class UsageCounterDaoTest {
+
+    @Inject
+    private EntityManager entityManager;
+    @Inject
+    private UsageCounterDao usageCounterDao;
+
+    @Deployment
+    public static JavaArchive createDeployment() {
+        return DaoDeployment.createDeployment();
+    }
+
+    @Before
+    public void setUp() {
+        entityManager.getTransaction().begin();
+    }
+
+    @After
+    public void tearDown() {
+        entityManager.getTransaction().rollback();
+    }
+
+    @Rule
+    public EmbeddedDbTesterRule testDb = new EmbeddedDbTesterRule("PushApplications.xml");
+
+    @Test
+    public void incrementExistingCounter() {
+        usageCounterDao.create(new UsageCounter(UsageCounter.TOTAL_INSTALLATIONS, 3));
+        usageCounterDao.flushAndClear();
+
+        assertThat(usageCounterDao.increment(UsageCounter.TOTAL_INSTALLATIONS, 2)).isTrue();
+        assertThat(usageCounterDao.increment(UsageCounter.TOTAL_INSTALLATIONS, -1)).isTrue();
+
+        assertThat(usageCounterDao.findValues(Arrays.asList(UsageCounter.TOTAL_INSTALLATIONS, UsageCounter.TOTAL_PUSH_MESSAGES)))
+                .containsOnly(entry(UsageCounter.TOTAL_INSTALLATIONS, 4L));
+    }
+
+    @Test
+    public void incrementMissingCounter() {
+        assertThat(usageCounterDao.increment(UsageCounter.TOTAL_PUSH_MESSAGES, 1)).isFalse();
+        assertThat(usageCounterDao.findAll()).isEmpty();
+    }
+
+    @Test
+    public void lockReconciliationCreatesMissingLock() {
+        final UsageCounter lock = usageCounterDao.lockReconciliation();
+        assertThat(lock.getId()).isEqualTo(UsageCounter.RECONCILIATION_LOCK);
+        assertThat(lock.getValue()).isZero();
+
+        lock.setValue(1000);
+        usageCounterDao.flushAndClear();
+        assertThat(usageCounterDao.lockReconciliation().getValue()).isEqualTo(1000);
+    }
+
+    @Test
+    public void findAllSkipsReconciliationLock() {
+        usageCounterDao.create(new UsageCounter(UsageCounter.TOTAL_INSTALLATIONS, 3));
+        usageCounterDao.lockReconciliation();
+        usageCounterDao.flushAndClear();
+
+        assertThat(usageCounterDao.findAll()).extracting("id").containsOnly(UsageCounter.TOTAL_INSTALLATIONS);
+    }
+
+    @Test
+    public void countActualValues() {
+        final Map<String, Long> values = usageCounterDao.countActualValues();
+
+        assertThat(values).contains(
+                entry(UsageCounter.installationsOfVariant("1"), 2L),
+                entry(UsageCounter.installationsOfVariant("2"), 0L),
+                entry(UsageCounter.installationsOfVariant("3"), 1L),
+                entry(UsageCounter.pushApplicationsOfDeveloper("Admin"), 2L),
+                entry(UsageCounter.pushApplicationsOfDeveloper("Dave The Drummer"), 1L),
+                entry(UsageCounter.pushMessagesOfPushApplication("888"), 0L),
+                entry(UsageCounter.TOTAL_INSTALLATIONS, 3L),
+                entry(UsageCounter.TOTAL_PUSH_MESSAGES, 0L),
+                entry(UsageCounter.TOTAL_PUSH_APPLICATIONS, 3L));
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.jpa;
+
+import net.jakubholy.dbunitexpress.EmbeddedDbTesterRule;
+import org.jboss.aerogear.unifiedpush.api.Variant;
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.dao.VariantDao;
+import org.jboss.aerogear.unifiedpush.utils.DaoDeployment;
+import org.jboss.arquillian.container.test.api.Deployment;
+import org.jboss.arquillian.junit.Arquillian;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(Arquillian.class)
+public class VariantActivityDaoTest {
+
+    @Inject
+    private EntityManager entityManager;
+    @Inject
+    private VariantDao variantDao;
+
+    @Deployment
+    public static JavaArchive createDeployment() {
+        return DaoDeployment.createDeployment();
+    }
+
+    @Rule
+    public EmbeddedDbTesterRule testDb = new EmbeddedDbTesterRule("VariantsWithMessages.xml");
+
+    @Before
+    public void setUp() {
+        entityManager.getTransaction().begin();
+    }
+
+    @After
+    public void tearDown() {
+        entityManager.getTransaction().rollback();
+    }
+
+    @Test
+    public void findVariantsWithMessagesSinceOrderedByRecency() {
+        final List<Variant> variants = variantDao.findVariantsWithMessagesSince(EnumSet.of(VariantType.IOS),
+                new GregorianCalendar(2020, 0, 1).getTime(), 10);
+
+        // the push application of variant 2 submitted two messages, the variant is returned once
+        assertThat(variants).extracting("variantID").containsExactly("3", "2");
+    }
+
+    @Test
+    public void findVariantsWithMessagesSinceKeepsMostRecentWithinLimit() {
+        final List<Variant> variants = variantDao.findVariantsWithMessagesSince(EnumSet.of(VariantType.IOS),
+                new GregorianCalendar(2020, 0, 1).getTime(), 1);
+
+        assertThat(variants).extracting("variantID").containsExactly("3");
+    }
+
+    @Test
+    public void findVariantsWithMessagesSinceFiltersTypes() {
+        assertThat(variantDao.findVariantsWithMessagesSince(EnumSet.of(VariantType.ANDROID),
+                new GregorianCalendar(2020, 0, 1).getTime(), 10)).extracting("variantID").containsExactly("1");
+        assertThat(variantDao.findVariantsWithMessagesSince(Collections.emptySet(),
+                new GregorianCalendar(2020, 0, 1).getTime(), 10)).isEmpty();
+    }
+}
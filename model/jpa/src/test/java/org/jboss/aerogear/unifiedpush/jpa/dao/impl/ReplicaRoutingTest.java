@@ -0,0 +1,119 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.jpa.dao.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReplicaRoutingTest {
+
+    private long now;
+    private final AtomicInteger samples = new AtomicInteger();
+
+    // tokens tolerate 30 seconds, history stays on the primary database
+    private final Function<String, Integer> staleness = site -> ReplicaRouting.HISTORY.equals(site) ? 0 : 30;
+
+    @Before
+    public void setUp() {
+        now = 1000000;
+        samples.set(0);
+    }
+
+    @Test
+    public void disabledByDefault() {
+        final ReplicaRouting routing = new ReplicaRouting(false, staleness, "select lag", 5000, () -> now);
+
+        assertThat(routing.isLagSampled()).isFalse();
+        routing.sampleLag(lagOf(0));
+        assertThat(routing.useReplica(ReplicaRouting.TOKENS)).isFalse();
+        assertThat(samples.get()).isZero();
+    }
+
+    @Test
+    public void routesByToleranceOfCallSite() {
+        final ReplicaRouting routing = new ReplicaRouting(true, staleness, null, 5000, () -> now);
+
+        // without a lag query, the replica is not sampled
+        assertThat(routing.isLagSampled()).isFalse();
+        assertThat(routing.useReplica(ReplicaRouting.TOKENS)).isTrue();
+        assertThat(routing.useReplica(ReplicaRouting.HISTORY)).isFalse();
+    }
+
+    @Test
+    public void usesPrimaryUntilFirstSample() {
+        final ReplicaRouting routing = new ReplicaRouting(true, staleness, "select lag", 5000, () -> now);
+
+        assertThat(routing.isLagSampled()).isTrue();
+        assertThat(routing.useReplica(ReplicaRouting.TOKENS)).isFalse();
+
+        routing.sampleLag(lagOf(1));
+        assertThat(routing.useReplica(ReplicaRouting.TOKENS)).isTrue();
+    }
+
+    @Test
+    public void usesPrimaryWhileReplicaLagsBehind() {
+        final ReplicaRouting routing = new ReplicaRouting(true, staleness, "select lag", 5000, () -> now);
+
+        routing.sampleLag(lagOf(45.5));
+        assertThat(routing.useReplica(ReplicaRouting.TOKENS)).isFalse();
+        assertThat(routing.useReplica(ReplicaRouting.TOKENS)).isFalse();
+        // the call sites only read the sampled lag
+        assertThat(samples.get()).isEqualTo(1);
+
+        now += 5000;
+        routing.sampleLag(lagOf(1));
+        assertThat(routing.useReplica(ReplicaRouting.TOKENS)).isTrue();
+    }
+
+    @Test
+    public void usesPrimaryWhenLagIsUnknown() {
+        final ReplicaRouting routing = new ReplicaRouting(true, staleness, "select lag", 5000, () -> now);
+
+        routing.sampleLag(lagOf(null));
+        assertThat(routing.useReplica(ReplicaRouting.TOKENS)).isFalse();
+
+        routing.sampleLag(lagOf(1));
+        routing.sampleLag(query -> {
+            throw new IllegalStateException("replica unavailable");
+        });
+        assertThat(routing.useReplica(ReplicaRouting.TOKENS)).isFalse();
+    }
+
+    @Test
+    public void usesPrimaryWhenSampleIsOutdated() {
+        final ReplicaRouting routing = new ReplicaRouting(true, staleness, "select lag", 5000, () -> now);
+
+        routing.sampleLag(lagOf(1));
+        now += 15000;
+        assertThat(routing.useReplica(ReplicaRouting.TOKENS)).isTrue();
+
+        now += 1;
+        assertThat(routing.useReplica(ReplicaRouting.TOKENS)).isFalse();
+    }
+
+    private Function<String, Number> lagOf(Number lag) {
+        return query -> {
+            samples.incrementAndGet();
+            return lag;
+        };
+    }
+}
@@ -16,9 +16,11 @@
  */
 package org.jboss.aerogear.unifiedpush.message;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.io.Serializable;
+import java.util.Date;
 
 /**
  * Configuration options of the UnifiedPush Message.
@@ -32,6 +34,9 @@ public class Config implements Serializable {
     @JsonProperty("ttl")
     private int timeToLive = -1;
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Date deliverAt;
+
     /**
      * Returns the value of the 'ttl' key from the submitted payload.
      * This key is recognized for the Android and iOS Push Notification Service.
@@ -46,10 +51,25 @@ public class Config implements Serializable {
         this.timeToLive = timeToLive;
     }
 
+    /**
+     * Returns the value of the 'deliverAt' key from the submitted payload, either as milliseconds since the epoch or as
+     * an ISO-8601 timestamp. When it is in the future, the message is kept by the server and delivered at that time.
+     *
+     * If the 'deliverAt' key has not been specified on the submitted payload, this method will return null.
+     */
+    public Date getDeliverAt() {
+        return deliverAt;
+    }
+
+    public void setDeliverAt(Date deliverAt) {
+        this.deliverAt = deliverAt;
+    }
+
     @Override
     public String toString() {
         return "Config{" +
                 "timeToLive=" + timeToLive +
+                ", deliverAt=" + deliverAt +
                 '}';
     }
 }
@@ -22,7 +22,12 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.StringJoiner;
+import java.util.stream.Stream;
 
 /**
  * Contains the data of the JSON payload that has been sent to the
@@ -125,6 +130,25 @@ public class UnifiedPushMessage implements Serializable {
         }
     }
 
+    /**
+     * Returns the alert and the criteria (aliases, categories, device types and variants) of the message,
+     * in lower case and separated by spaces, so that the message can be found by any of them.
+     *
+     * @return the searchable text of the message
+     */
+    public String toSearchText() {
+        final StringJoiner text = new StringJoiner(" ");
+        if (this.message.getAlert() != null) {
+            text.add(this.message.getAlert());
+        }
+        Stream.of(criteria.getAliases(), criteria.getCategories(), criteria.getDeviceTypes(), criteria.getVariants())
+                .filter(Objects::nonNull)
+                .flatMap(List::stream)
+                .filter(Objects::nonNull)
+                .forEach(text::add);
+        return text.toString().toLowerCase(Locale.ROOT);
+    }
+
     // used in java-sender
     public String toJsonString() {
         try {
@@ -211,6 +211,26 @@ public class UnifiedPushMessageTest {
         assertEquals(-1, unifiedPushMessage.getMessage().getBadge());
     }
 
+    @Test
+    public void deliverAtPayload() throws IOException {
+
+        final Map<String, Object> container = new LinkedHashMap<>();
+        final Map<String, Object> messageObject = new LinkedHashMap<>();
+        final Map<String, Object> configObject = new LinkedHashMap<>();
+
+        messageObject.put("alert", "Howdy");
+        container.put("message", messageObject);
+
+        configObject.put("deliverAt", "2030-01-01T09:00:00.000+0000");
+        container.put("config", configObject);
+
+        // parse it:
+        final UnifiedPushMessage unifiedPushMessage = parsePushMessage(container);
+
+        assertEquals(1893488400000L, unifiedPushMessage.getConfig().getDeliverAt().getTime());
+        assertEquals(-1, unifiedPushMessage.getConfig().getTimeToLive());
+    }
+
     @Test
     public void contentAvailable() throws IOException {
 
@@ -694,6 +714,27 @@ public class UnifiedPushMessageTest {
         assertEquals(expectedJson.replaceAll("\\s", ""), json);
     }
 
+    @Test
+    public void testMessageToSearchText() throws IOException {
+        //given
+        final Map<String, Object> container = new LinkedHashMap<>();
+        final Map<String, Object> messageObject = new LinkedHashMap<>();
+        final Map<String, Object> criteria = new HashMap<>();
+
+        messageObject.put("alert", "Hello World");
+        criteria.put("alias", Arrays.asList("Foo@bar.org"));
+        criteria.put("categories", Arrays.asList("football"));
+
+        container.put("message", messageObject);
+        container.put("criteria", criteria);
+
+        //when
+        final UnifiedPushMessage unifiedPushMessage = parsePushMessage(container);
+
+        //then
+        assertEquals("hello world foo@bar.org football", unifiedPushMessage.toSearchText());
+    }
+
     private UnifiedPushMessage parsePushMessage(Map<String, Object> container) throws IOException {
         ObjectMapper mapper = new ObjectMapper();
         final String valueAsString = mapper.writeValueAsString(container);
@@ -0,0 +1,84 @@
+/*
+This script measures the registration throughput of the UnifiedPush Server.
+It registers a number of devices for an existing variant, with a few requests in flight at the same time,
+and reports the number of registrations per second.
+
+Usage: node registrationbenchmark.js <variantID> <variantSecret> [devices] [concurrency] [categories]
+*/
+
+var http = require('http'); // replace with require('https') for ssl support
+
+var variantID = process.argv[2];
+var variantSecret = process.argv[3];
+var devices = parseInt(process.argv[4] || '10000', 10);
+var concurrency = parseInt(process.argv[5] || '20', 10);
+var categories = (process.argv[6] || 'football,basketball,news').split(',');
+
+if (!variantID || !variantSecret) {
+    console.log('Usage: node registrationbenchmark.js <variantID> <variantSecret> [devices] [concurrency] [categories]');
+    process.exit(1);
+}
+
+var agent = new http.Agent({ keepAlive: true, maxSockets: concurrency });
+// every run registers new devices, so that the runs are not reduced to updates of existing installations
+var run = Date.now().toString(36);
+
+var sent = 0;
+var completed = 0;
+var failed = 0;
+var start = Date.now();
+
+register = function() {
+    if (sent >= devices) {
+        return;
+    }
+    var device = sent++;
+    var upsOptions = {
+        host: 'localhost',
+        path: '/ag-push/rest/registry/device',
+        //since we are listening on a custom port, we need to specify it by hand
+        port: '8080',
+        method: 'POST',
+        agent: agent,
+        auth: variantID + ':' + variantSecret,
+        headers: {
+            'Content-Type': 'application/json'
+        }
+    };
+    var upsReq = http.request(upsOptions, function(response) {
+        response.resume();
+        response.on('end', function () {
+            if (response.statusCode !== 200) {
+                failed++;
+            }
+            done();
+        });
+    });
+    upsReq.on('error', function() {
+        failed++;
+        done();
+    });
+    upsReq.write(JSON.stringify({
+        deviceToken: 'benchmark-' + run + '-' + device,
+        deviceType: 'benchmark',
+        alias: 'benchmark-' + (device % 1000),
+        categories: [categories[device % categories.length], categories[(device + 1) % categories.length]]
+    }));
+    upsReq.end();
+}
+
+done = function() {
+    completed++;
+    if (completed === devices) {
+        var seconds = (Date.now() - start) / 1000;
+        console.log(devices + ' registrations (' + failed + ' failed) in ' + seconds + 's: '
+            + Math.round(devices / seconds) + ' registrations/s');
+        agent.destroy();
+    } else {
+        register();
+    }
+}
+
+for (var i = 0; i < concurrency; i++) {
+    register();
+}
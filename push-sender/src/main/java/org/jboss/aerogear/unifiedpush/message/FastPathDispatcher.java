@@ -0,0 +1,163 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message;
+
+import org.jboss.aerogear.unifiedpush.api.Variant;
+import org.jboss.aerogear.unifiedpush.dao.ResultStreamException;
+import org.jboss.aerogear.unifiedpush.dao.ResultsStream;
+import org.jboss.aerogear.unifiedpush.message.event.FastPathRequestedEvent;
+import org.jboss.aerogear.unifiedpush.message.event.TokenBatchQueuedEvent;
+import org.jboss.aerogear.unifiedpush.message.holder.MessageHolderWithTokens;
+import org.jboss.aerogear.unifiedpush.message.holder.MessageHolderWithVariants;
+import org.jboss.aerogear.unifiedpush.message.token.TokenLoader;
+import org.jboss.aerogear.unifiedpush.message.util.JmsClient;
+import org.jboss.aerogear.unifiedpush.message.util.QueueUtils;
+import org.jboss.aerogear.unifiedpush.service.ClientInstallationService;
+import org.jboss.aerogear.unifiedpush.service.metrics.PrometheusExporter;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Resource;
+import javax.ejb.Asynchronous;
+import javax.ejb.EJBContext;
+import javax.ejb.Stateless;
+import javax.enterprise.event.Event;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Sends push messages that target only a few devices directly, instead of passing them through the push message and token batch queues.
+ *
+ * Once the transaction of the {@link NotificationRouter} is committed, the tokens are loaded on the asynchronous executor and queued
+ * in one batch per variant to the token batch queues, saving the push message queue and the {@link TokenLoader}. The batches are
+ * sent by the {@link NotificationDispatcher}, as all other batches, so that the fair share of the push application and the rate
+ * limits of the push networks apply to them as well.
+ *
+ * Loading stops as soon as more tokens than the threshold are found; the message is then queued for the {@link TokenLoader},
+ * as it is when the tokens can't be loaded or the batches can't be queued.
+ */
+@Stateless
+public class FastPathDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(FastPathDispatcher.class);
+
+    private final int threshold = ConfigurationUtils.tryGetGlobalIntegerProperty(NotificationRouter.AEROGEAR_FAST_PATH_THRESHOLD, 10);
+
+    @Inject
+    private ClientInstallationService clientInstallationService;
+
+    @Inject
+    private JmsClient jmsClient;
+
+    @Inject
+    private Event<TokenBatchQueuedEvent> batchQueued;
+
+    @Resource
+    private EJBContext context;
+
+    /**
+     * Loads the tokens of the message and sends them, or queues the message when it targets more devices than the threshold.
+     *
+     * @param event event fired by the router
+     */
+    @Asynchronous
+    public void dispatch(@Observes(during = TransactionPhase.AFTER_SUCCESS) FastPathRequestedEvent event) {
+        final MessageHolderWithVariants msg = event.getMessage();
+        final String pushMessageId = msg.getPushMessageInformation().getId();
+
+        try {
+            final Map<Variant, Set<String>> tokens = loadTokens(msg);
+            if (tokens == null) {
+                logger.debug("Message {} targets more than {} {} devices, queueing it", pushMessageId, threshold, msg.getVariantType().getTypeName());
+                fallBack(msg, "too_many_tokens");
+                return;
+            }
+            if (tokens.isEmpty()) {
+                logger.warn("Check your push query: Not a single token was loaded from the DB!");
+            }
+            queueBatches(msg, tokens);
+            PrometheusExporter.instance().increaseFastPathMessages("sent");
+        } catch (ResultStreamException | RuntimeException e) {
+            logger.warn("Failed to take the fast path for message {}, queueing it instead", pushMessageId, e);
+            // none of the batches queued so far is committed, the message is loaded from scratch by the token loader
+            context.setRollbackOnly();
+            fallBack(msg, "failed");
+        }
+    }
+
+    /**
+     * Queues the tokens of every variant in a single batch, with the transaction.
+     */
+    private void queueBatches(MessageHolderWithVariants msg, Map<Variant, Set<String>> tokens) {
+        final String pushMessageId = msg.getPushMessageInformation().getId();
+        final String pushApplicationId = msg.getPushMessageInformation().getPushApplicationId();
+        int serialId = MessageHolderWithVariants.INITIAL_SERIAL_ID;
+        for (Map.Entry<Variant, Set<String>> variantTokens : tokens.entrySet()) {
+            final Variant variant = variantTokens.getKey();
+            final MessageHolderWithTokens batch = new MessageHolderWithTokens(msg.getPushMessageInformation(), msg.getUnifiedPushMessage(),
+                    variant, variantTokens.getValue(), ++serialId);
+            jmsClient.send(batch)
+                    .inTransaction()
+                    .withDuplicateDetectionId(String.format("%s-%s", pushMessageId, serialId))
+                    .to(QueueUtils.selectTokenQueue(variant.getType(), msg.getUnifiedPushMessage().getMessage().getPriority()));
+            batchQueued.fire(new TokenBatchQueuedEvent(pushApplicationId));
+            logger.info("Queued message {} directly for {} tokens of {} variant ({})", pushMessageId, variantTokens.getValue().size(),
+                    variant.getType().getTypeName(), variant.getVariantID());
+        }
+    }
+
+    /**
+     * @return the tokens per variant, or null if the message targets more devices than the threshold
+     */
+    private Map<Variant, Set<String>> loadTokens(MessageHolderWithVariants msg) throws ResultStreamException {
+        final Criteria criteria = msg.getUnifiedPushMessage().getCriteria();
+        final Map<Variant, Set<String>> tokens = new LinkedHashMap<>();
+        int loaded = 0;
+        for (Variant variant : msg.getVariants()) {
+            // one token more than the threshold tells that the message does not fit
+            final ResultsStream<String> tokenStream = clientInstallationService.findAllDeviceTokenForVariantIDByCriteria(variant.getVariantID(),
+                    criteria.getCategories(), criteria.getAliases(), criteria.getDeviceTypes(), threshold - loaded + 1, null)
+                    .executeQuery();
+            final Set<String> variantTokens = new TreeSet<>();
+            while (tokenStream.next()) {
+                if (++loaded > threshold) {
+                    return null;
+                }
+                variantTokens.add(tokenStream.get());
+            }
+            if (!variantTokens.isEmpty()) {
+                tokens.put(variant, variantTokens);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Queues the message for the token loader. It is not sent with the transaction, which may be marked for rollback.
+     */
+    private void fallBack(MessageHolderWithVariants msg, String outcome) {
+        jmsClient.send(msg)
+                .to(QueueUtils.selectPushQueue(msg.getVariantType(), msg.getUnifiedPushMessage().getMessage().getPriority()));
+        PrometheusExporter.instance().increaseFastPathMessages(outcome);
+    }
+}
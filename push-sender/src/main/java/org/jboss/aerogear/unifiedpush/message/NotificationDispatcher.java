@@ -21,9 +21,16 @@ import org.jboss.aerogear.unifiedpush.api.Variant;
 import org.jboss.aerogear.unifiedpush.api.VariantType;
 import org.jboss.aerogear.unifiedpush.message.holder.MessageHolderWithTokens;
 import org.jboss.aerogear.unifiedpush.message.jms.Dequeue;
+import org.jboss.aerogear.unifiedpush.message.lifecycle.DeliveryDrainCoordinator;
+import org.jboss.aerogear.unifiedpush.message.lifecycle.InFlightBatch;
+import org.jboss.aerogear.unifiedpush.message.sender.CircuitBreakerRegistry;
+import org.jboss.aerogear.unifiedpush.message.sender.FailureKind;
 import org.jboss.aerogear.unifiedpush.message.sender.NotificationSenderCallback;
+import org.jboss.aerogear.unifiedpush.message.sender.OutboundRateLimiter;
 import org.jboss.aerogear.unifiedpush.message.sender.PushNotificationSender;
 import org.jboss.aerogear.unifiedpush.message.sender.SenderTypeLiteral;
+import org.jboss.aerogear.unifiedpush.message.token.FairShareScheduler;
+import org.jboss.aerogear.unifiedpush.message.token.MessageCoalescer;
 import org.jboss.aerogear.unifiedpush.message.token.TokenLoader;
 import org.jboss.aerogear.unifiedpush.message.util.JmsClient;
 import org.jboss.aerogear.unifiedpush.message.util.QueueUtils;
@@ -61,6 +68,21 @@ public class NotificationDispatcher {
     @Inject
     private JmsClient jmsClient;
 
+    @Inject
+    private FairShareScheduler fairShareScheduler;
+
+    @Inject
+    private OutboundRateLimiter rateLimiter;
+
+    @Inject
+    private CircuitBreakerRegistry circuitBreakers;
+
+    @Inject
+    private DeliveryDrainCoordinator drainCoordinator;
+
+    @Inject
+    private MessageCoalescer coalescer;
+
     
 
     /**
@@ -78,19 +100,76 @@ public class NotificationDispatcher {
         String deduplicationId = String.format("%s-%s-%d", msg.getPushMessageInformation().getId(), msg.getSerialId(), msg.getRetryCount());
         logger.debug("Receiving message " + deduplicationId);
 
+        // the application is shutting down, the batch is handed back to be sent by another node or after the restart
+        if (drainCoordinator.isDraining()) {
+            logger.info("Shutting down, requeueing {} tokens of message {}", deviceTokens.size(), deduplicationId);
+            drainCoordinator.requeue(msg, deviceTokens);
+            return;
+        }
+
+        // retries are delayed on purpose and requeued batches were counted when they were received first,
+        // only the first delivery counts for the fair share of the push application
+        if (msg.getRetryCount() == 0 && !msg.isRequeued()) {
+            fairShareScheduler.onBatchDispatched(msg.getPushMessageInformation().getPushApplicationId(), msg.getQueuedAt());
+        }
+
+        // a newer message with the same consolidation key is sent to these devices instead
+        final String pushApplicationId = msg.getPushMessageInformation().getPushApplicationId();
+        if (coalescer.isSuperseded(pushApplicationId, unifiedPushMessage.getMessage().getConsolidationKey(), unifiedPushMessage.getCriteria(),
+                msg.getPushMessageInformation().getId())) {
+            logger.info("Dropping {} tokens of message {}, it was superseded by a newer message with the same consolidation key", deviceTokens.size(), deduplicationId);
+            coalescer.onSuperseded(pushApplicationId, "dispatching");
+            return;
+        }
+
+        // the variant or its Push Network keeps failing, the batch is not sent (nor retried) until the breaker lets a probe through
+        if (!circuitBreakers.allowRequest(variant)) {
+            // the error is recorded for the first skipped batch of the message only, not for each of its batches
+            if (circuitBreakers.onRequestSkipped(variant, msg.getPushMessageInformation().getId())) {
+                logger.warn("Skipping delivery to {} variant ({}), circuit breaker is open", variant.getType().getTypeName(), variant.getVariantID());
+                new SenderServiceCallback(variant, deviceTokens.size(), msg.getPushMessageInformation())
+                        .onError("Not sent, since delivery to the variant is failing: " + circuitBreakers.getFailureReason(variant));
+            } else {
+                logger.debug("Skipping {} tokens of message {}, circuit breaker is open", deviceTokens.size(), deduplicationId);
+            }
+            return;
+        }
+
+        final InFlightBatch batch = drainCoordinator.register(msg);
         try {
-            senders.select(new SenderTypeLiteral(variant.getType())).get()
-          .sendPushMessage(variant, deviceTokens, unifiedPushMessage, msg.getPushMessageInformation().getId(),
+            // holds back until the Push Network has budget for this batch, or hands it back to the queue if that takes too long
+            final long throttledFor = rateLimiter.acquire(variant, deviceTokens.size());
+            if (throttledFor > 0) {
+                batch.allCompleted();
+                requeueThrottled(msg, throttledFor);
+                return;
+            }
+
+            final PushNotificationSender sender = senders.select(new SenderTypeLiteral(variant.getType())).get();
+
+            // the drain deadline passed while holding back, the tokens were already requeued
+            if (sender.completesAsynchronously() ? batch.isAbandoned() : !batch.handOver()) {
+                return;
+            }
+
+            sender.sendPushMessage(variant, deviceTokens, unifiedPushMessage, msg.getPushMessageInformation().getId(),
             new SenderServiceCallback(
               variant,
               deviceTokens.size(),
-              msg.getPushMessageInformation()
+              msg.getPushMessageInformation(),
+              batch
             )
           );
-          
+
+            if (!sender.completesAsynchronously()) {
+                batch.allCompleted();
+            }
         } catch (Exception everything) {
+            batch.allCompleted();
+
             //What this catch block does is makes sure that errors are always 
             // caught and never lead to a message we saw being requeued.
+            // Senders report failures of the variant themselves, so the exception does not count for the circuit breakers.
             logger.error("There was an uncaught exception.\n" +everything.getMessage(), everything);
             try {
                 new SenderServiceCallback(
@@ -111,7 +190,7 @@ public class NotificationDispatcher {
                     deduplicationId = String.format("%s-%s-%d", newMessage.getPushMessageInformation().getId(), newMessage.getSerialId(), newMessage.getRetryCount());
                     logger.debug("Sending retry message " + deduplicationId);
 
-                    jmsClient.send(newMessage).withDelayedDelivery(retryTimeout * 1000l * newMessage.getRetryCount()).withDuplicateDetectionId(deduplicationId).to(QueueUtils.selectTokenQueue(variantType));
+                    jmsClient.send(newMessage).withDelayedDelivery(retryTimeout * 1000l * newMessage.getRetryCount()).withDuplicateDetectionId(deduplicationId).to(QueueUtils.selectTokenQueue(variantType, newMessage.getUnifiedPushMessage().getMessage().getPriority()));
                   }
             } catch (Exception writeErrorException) {
                 logger.error("There was a error writing the exception.\n" +writeErrorException.getMessage(), writeErrorException);
@@ -122,6 +201,18 @@ public class NotificationDispatcher {
     }
 
 
+    /**
+     * Hands a batch that exceeds the rate limit back to its token batch queue, to be delivered once the budget is available again.
+     */
+    private void requeueThrottled(MessageHolderWithTokens msg, long delay) {
+        final MessageHolderWithTokens requeued = msg.requeue(msg.getDeviceTokens());
+        final String deduplicationId = String.format("%s-%s-%d-throttled-%d", msg.getPushMessageInformation().getId(),
+                msg.getSerialId(), msg.getRetryCount(), System.currentTimeMillis());
+        logger.debug("Rate limit exceeded, requeueing message {} with a delay of {} ms", deduplicationId, delay);
+        jmsClient.send(requeued).withDelayedDelivery(delay).withDuplicateDetectionId(deduplicationId)
+                .to(QueueUtils.selectTokenQueue(msg.getVariant().getType(), msg.getUnifiedPushMessage().getMessage().getPriority()));
+    }
+
     private FlatPushMessageInformation removeErrors(FlatPushMessageInformation pushMessageInformation) {
         FlatPushMessageInformation info = new FlatPushMessageInformation();
         info.setAppOpenCounter(pushMessageInformation.getAppOpenCounter());
@@ -132,6 +223,7 @@ public class NotificationDispatcher {
         info.setLastOpenDate(pushMessageInformation.getLastOpenDate());
         info.setPushApplicationId(pushMessageInformation.getPushApplicationId());
         info.setRawJsonMessage(pushMessageInformation.getRawJsonMessage());
+        info.setSearchText(pushMessageInformation.getSearchText());
         info.setSubmitDate(pushMessageInformation.getSubmitDate());
         return info;
     }
@@ -141,20 +233,49 @@ public class NotificationDispatcher {
         private final Variant variant;
         private final int tokenSize;
         private final FlatPushMessageInformation pushMessageInformation;
+        private final InFlightBatch batch;
 
         public SenderServiceCallback(Variant variant, int tokenSize, FlatPushMessageInformation pushMessageInformation) {
+            this(variant, tokenSize, pushMessageInformation, null);
+        }
+
+        public SenderServiceCallback(Variant variant, int tokenSize, FlatPushMessageInformation pushMessageInformation, InFlightBatch batch) {
             this.variant = variant;
             this.tokenSize = tokenSize;
             this.pushMessageInformation = pushMessageInformation;
+            this.batch = batch;
         }
 
         @Override
         public void onSuccess() {
             logger.debug("Sent '{}' message to '{}' devices", variant.getType().getTypeName(), tokenSize);
+            circuitBreakers.onSuccess(variant);
+        }
+
+        @Override
+        public void onVariantError(final FailureKind kind, final String reason) {
+            circuitBreakers.onFailure(variant, kind, reason);
+            onError(reason);
+        }
+
+        @Override
+        public void onTokenCompleted(final String token) {
+            if (batch != null) {
+                batch.tokenCompleted(token);
+            }
+        }
+
+        @Override
+        public boolean isAbandoned() {
+            return batch != null && batch.isAbandoned();
         }
 
         @Override
         public void onError(final String reason) {
+            // asynchronous senders report errors only before handing tokens to the push network
+            if (batch != null) {
+                batch.allCompleted();
+            }
             logger.warn("Error on '{}' delivery: {}", variant.getType().getTypeName(), reason);
             PrometheusExporter.instance().increaseTotalPushRequestsFail();
             pushMessageMetricsService.appendError(pushMessageInformation, variant, reason);
@@ -20,11 +20,17 @@ import org.jboss.aerogear.unifiedpush.api.FlatPushMessageInformation;
 import org.jboss.aerogear.unifiedpush.api.PushApplication;
 import org.jboss.aerogear.unifiedpush.api.Variant;
 import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.message.event.ConsolidatedMessageSubmittedEvent;
+import org.jboss.aerogear.unifiedpush.message.event.FastPathRequestedEvent;
+import org.jboss.aerogear.unifiedpush.message.event.VariantsRoutedEvent;
+import org.jboss.aerogear.unifiedpush.message.token.MessageCoalescer;
 import org.jboss.aerogear.unifiedpush.message.token.TokenLoader;
 import org.jboss.aerogear.unifiedpush.message.holder.MessageHolderWithVariants;
 import org.jboss.aerogear.unifiedpush.message.jms.DispatchToQueue;
+import org.jboss.aerogear.unifiedpush.message.util.QueueUtils;
 import org.jboss.aerogear.unifiedpush.service.GenericVariantService;
 import org.jboss.aerogear.unifiedpush.service.metrics.PushMessageMetricsService;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,6 +55,15 @@ import java.util.List;
  * {@link NotificationRouter} receives a request for sending a {@link UnifiedPushMessage} and queues one message per variant type, both in transaction.
  * The transactional behavior makes sure the request for sending notification is recorded and then asynchronously processed.
  *
+ * Messages sent with {@link Priority#HIGH} are routed to a separate lane of queues (see {@link QueueUtils}), so that time-critical
+ * notifications keep low latency even while a large broadcast is being processed.
+ *
+ * Messages sent to a handful of aliases take a fast path (see {@link FastPathDispatcher}): once the transaction is committed,
+ * their tokens are loaded and sent directly, without passing through the queues.
+ *
+ * Messages with a consolidation key are announced to the {@link MessageCoalescer}, so that older messages with the same key,
+ * which are still queued, are superseded by the new one.
+ *
  * The further processing of the push message happens in {@link TokenLoader}.
  */
 @Stateless
@@ -56,6 +71,11 @@ public class NotificationRouter {
 
     private static final Logger logger = LoggerFactory.getLogger(NotificationRouter.class);
 
+    // system property name of the maximum number of tokens a message may target to take the fast path, 0 disables the fast path
+    public static final String AEROGEAR_FAST_PATH_THRESHOLD = "aerogear.fastpath.threshold";
+
+    private static final int fastPathThreshold = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_FAST_PATH_THRESHOLD, 10);
+
     @Inject
     private Instance<GenericVariantService> genericVariantService;
     @Inject
@@ -65,6 +85,15 @@ public class NotificationRouter {
     @DispatchToQueue
     private Event<MessageHolderWithVariants> dispatchVariantMessageEvent;
 
+    @Inject
+    private Event<VariantsRoutedEvent> variantsRoutedEvent;
+
+    @Inject
+    private Event<ConsolidatedMessageSubmittedEvent> consolidatedMessageSubmittedEvent;
+
+    @Inject
+    private Event<FastPathRequestedEvent> fastPathRequestedEvent;
+
     /**
      * Receives a request for sending a {@link UnifiedPushMessage} and queues one message per variant type, both in one transaction.
      *
@@ -72,9 +101,10 @@ public class NotificationRouter {
      *
      * @param pushApplication the push application
      * @param message the message
+     * @return the ID of the recorded push message
      */
     @TransactionAttribute(TransactionAttributeType.REQUIRED)
-    public void submit(PushApplication pushApplication, InternalUnifiedPushMessage message) {
+    public String submit(PushApplication pushApplication, InternalUnifiedPushMessage message) {
         logger.debug("Processing send request with '{}' payload", message.getMessage());
 
         // collections for all the different variants:
@@ -112,14 +142,45 @@ public class NotificationRouter {
                         pushApplication.getPushApplicationID(),
                         jsonMessageContent,
                         message.getIpAddress(),
-                        message.getClientIdentifier()
+                        message.getClientIdentifier(),
+                        message.toSearchText()
                 );
 
+        // supersedes older messages with the same key, once this transaction is committed
+        final String consolidationKey = message.getMessage().getConsolidationKey();
+        if (consolidationKey != null) {
+            consolidatedMessageSubmittedEvent.fire(new ConsolidatedMessageSubmittedEvent(pushApplication.getPushApplicationID(),
+                    consolidationKey, message.getCriteria(), pushMessageInformation.getId(), pushMessageInformation.getSubmitDate().getTime()));
+        }
+
         // we split the variants per type since each type may have its own configuration (e.g. batch size)
+        final boolean fastPath = isFastPathCandidate(message.getCriteria());
         variants.forEach((variantType, variant) -> {
-            logger.info(String.format("Internal dispatching of push message for one %s variant (by %s)", variantType.getTypeName(), message.getClientIdentifier()));
-            dispatchVariantMessageEvent.fire(new MessageHolderWithVariants(pushMessageInformation, message, variantType, variant));
+            logger.info(String.format("Internal dispatching of %s priority push message for one %s variant (by %s)", message.getMessage().getPriority(), variantType.getTypeName(), message.getClientIdentifier()));
+            final MessageHolderWithVariants holder = new MessageHolderWithVariants(pushMessageInformation, message, variantType, variant);
+            if (fastPath) {
+                fastPathRequestedEvent.fire(new FastPathRequestedEvent(holder));
+            } else {
+                dispatchVariantMessageEvent.fire(holder);
+            }
         });
+
+        // allows connections to the push networks to be prepared while the tokens are being loaded
+        variantsRoutedEvent.fire(new VariantsRoutedEvent(variants.allVariants()));
+
+        return pushMessageInformation.getId();
+    }
+
+    /**
+     * Tells from the criteria alone whether the message can target only a few devices: it is sent to a few aliases, not to categories.
+     * The {@link FastPathDispatcher} verifies the actual number of tokens and falls back to the queues when there are more.
+     */
+    static boolean isFastPathCandidate(Criteria criteria) {
+        final List<String> aliases = criteria.getAliases();
+        final List<String> categories = criteria.getCategories();
+        return fastPathThreshold > 0
+                && aliases != null && !aliases.isEmpty() && aliases.size() <= fastPathThreshold
+                && (categories == null || categories.isEmpty());
     }
 
     /**
@@ -141,6 +202,11 @@ public class NotificationRouter {
         void addAll(Collection<Variant> variants) {
             variants.forEach(this::add);
         }
+        List<Variant> allVariants() {
+            final List<Variant> all = new ArrayList<>();
+            values().forEach(all::addAll);
+            return all;
+        }
         int getVariantCount() {
             int count = 0;
             for (Collection<Variant> variants : values()) {
@@ -23,82 +23,273 @@ import net.jodah.expiringmap.ExpirationListener;
 import net.jodah.expiringmap.ExpirationPolicy;
 import net.jodah.expiringmap.ExpiringMap;
 import org.jboss.aerogear.unifiedpush.api.APNSVariant;
-import org.jboss.aerogear.unifiedpush.api.APNSVariant;
+import org.jboss.aerogear.unifiedpush.api.iOSTokenVariant;
+import org.jboss.aerogear.unifiedpush.api.iOSVariant;
 import org.jboss.aerogear.unifiedpush.event.APNSVariantUpdateEvent;
+import org.jboss.aerogear.unifiedpush.message.sender.apns.ApnsClientResources;
+import org.jboss.aerogear.unifiedpush.message.sender.apns.ApnsSigningKeyManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
 import javax.ejb.Singleton;
 import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.jboss.aerogear.unifiedpush.system.ConfigurationUtils.tryGetGlobalIntegerProperty;
 
+/**
+ * Caches the APNs clients of the iOS variants.
+ *
+ * Senders hold a client while they hand a batch to it, and every notification holds it until APNs answered.
+ * A client that is replaced (see {@link #reconnect(APNSVariant, ServiceConstructor)}) or removed from the cache is only closed
+ * once it is no longer held, so that notifications in flight are not failed by the reconnect.
+ *
+ * Clients are cached by their credentials, so that a variant whose certificate or signing key changed gets a new client.
+ * A client shared by token based variants is only removed when none of its variants uses it anymore.
+ */
 @Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+// the shared event loop group must outlive the cached clients
+@DependsOn("ApnsClientResources")
 public class SimpleApnsClientCache {
 
     private static final Logger logger = LoggerFactory.getLogger(SimpleApnsClientCache.class);
 
-    final ConcurrentMap<String, ApnsClient> apnsClientExpiringMap;
+    private static final String PRODUCTION_SUFFIX = "-prod";
+    private static final String DEVELOPMENT_SUFFIX = "-dev";
+
+    // system property names used to tune the cache
+    public static final String AEROGEAR_APNS_CLIENT_TTL = "aerogear.apns.client.ttl";
+    public static final String AEROGEAR_APNS_CLIENT_MAX = "aerogear.apns.client.max";
+
+    // minutes a client may stay unused before it is disconnected
+    private static final int clientTtl = tryGetGlobalIntegerProperty(AEROGEAR_APNS_CLIENT_TTL, 720);
+    private static final int maxClients = tryGetGlobalIntegerProperty(AEROGEAR_APNS_CLIENT_MAX, Integer.MAX_VALUE);
+
+    final ConcurrentMap<String, CachedClient> apnsClientExpiringMap;
+    // cached clients, and replaced clients that are still held
+    private final ConcurrentMap<ApnsClient, CachedClient> openClients = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Object> connectionLocks = new ConcurrentHashMap<>();
+    // connection key of the client each variant used last
+    private final ConcurrentMap<String, String> variantConnectionKeys = new ConcurrentHashMap<>();
+
+    @Inject
+    private ApnsClientResources apnsClientResources;
 
     {
         apnsClientExpiringMap = ExpiringMap.builder()
-
-                // TODO: would be nice if it could be configured via System property:
-                .expiration(12, TimeUnit.HOURS)
+                .expiration(clientTtl, TimeUnit.MINUTES)
                 .expirationPolicy(ExpirationPolicy.ACCESSED)
-                .asyncExpirationListener((ExpirationListener<String, ApnsClient>) (variantID, apnsClient) -> {
+                .maxSize(maxClients)
+                .asyncExpirationListener((ExpirationListener<String, CachedClient>) this::expired)
+                .build();
+    }
 
-                    if (apnsClient != null) {
-                        logger.info("APNs connection for iOS Variant ({}) was inactive last 12 hours, disconnecting...", variantID);
+    private void expired(String connectionKey, CachedClient cachedClient) {
+        if (cachedClient != null) {
+            logger.info("APNs connection for iOS Variant ({}) was inactive last {} minutes or exceeded the cache size, disconnecting...", connectionKey, clientTtl);
+            withConnectionLock(connectionKey, () -> {
+                if (apnsClientExpiringMap.containsKey(connectionKey)) {
+                    // connected again meanwhile
+                    cachedClient.retire();
+                } else {
+                    removed(connectionKey, cachedClient);
+                }
+                return null;
+            });
+        }
+    }
 
-                        final Future<Void> disconnectFuture = apnsClient.close();
+    /**
+     * Returns the cached client of the given variant, building it if needed. The client is not held by the caller,
+     * use {@link #acquireApnsClientForVariant(APNSVariant, ServiceConstructor)} to send notifications.
+     *
+     * @param iOSVariant the variant
+     * @param constructor builds the client when it is not cached
+     * @return the client, or null if it could not be built
+     */
+    public ApnsClient getApnsClientForVariant(final APNSVariant iOSVariant, final ServiceConstructor<ApnsClient> constructor) {
+        final CachedClient cachedClient = lookup(iOSVariant, constructor);
+        return cachedClient == null ? null : cachedClient.client;
+    }
 
-                        disconnectFuture.addListener(future -> {
+    /**
+     * @param iOSVariant the variant
+     * @return true if a client for the given variant is cached, and can be used without building it
+     */
+    public boolean isCached(final APNSVariant iOSVariant) {
+        return apnsClientExpiringMap.containsKey(extractConnectionKey(iOSVariant));
+    }
 
-                            if (future.isSuccess()) {
-                                logger.debug("Disconnected from APNS due to inactive connection for iOS Variant ({})", variantID);
-                            } else {
-                                final Throwable t = future.cause();
-                                logger.warn(t.getMessage(), t);
-                            }
-                        });
-                    }
-                }).build();
+    /**
+     * Returns the cached client of the given variant, building it if needed, and holds it until {@link #release(ApnsClient)} is called.
+     *
+     * @param iOSVariant the variant
+     * @param constructor builds the client when it is not cached
+     * @return the client, or null if it could not be built
+     */
+    public ApnsClient acquireApnsClientForVariant(final APNSVariant iOSVariant, final ServiceConstructor<ApnsClient> constructor) {
+        while (true) {
+            final CachedClient cachedClient = lookup(iOSVariant, constructor);
+            if (cachedClient == null) {
+                return null;
+            }
+            if (cachedClient.hold()) {
+                return cachedClient.client;
+            }
+            // replaced meanwhile, the new client is cached already
+        }
     }
 
-    public ApnsClient getApnsClientForVariant(final APNSVariant iOSVariant, final ServiceConstructor<ApnsClient> constructor) {
+    /**
+     * Holds the given client until APNs answered the given notification.
+     *
+     * @param client a client held by the caller
+     * @param sendFuture the future of the notification sent with the client
+     */
+    public void track(final ApnsClient client, final Future<?> sendFuture) {
+        final CachedClient cachedClient = openClients.get(client);
+        if (cachedClient != null) {
+            cachedClient.holdForNotification();
+            sendFuture.addListener(future -> cachedClient.release());
+        }
+    }
+
+    /**
+     * Releases a client acquired with {@link #acquireApnsClientForVariant(APNSVariant, ServiceConstructor)}.
+     *
+     * @param client the client
+     */
+    public void release(final ApnsClient client) {
+        final CachedClient cachedClient = openClients.get(client);
+        if (cachedClient != null) {
+            cachedClient.release();
+        }
+    }
+
+    /**
+     * Builds a new client for the given variant and replaces the cached one with it.
+     * The replaced client is closed once the notifications in flight were answered.
+     *
+     * @param iOSVariant the variant
+     * @param constructor builds the new client
+     */
+    public void reconnect(final APNSVariant iOSVariant, final ServiceConstructor<ApnsClient> constructor) {
+        final String clientID = extractClientID(iOSVariant);
         final String connectionKey = extractConnectionKey(iOSVariant);
-        ApnsClient client = apnsClientExpiringMap.get(connectionKey);
+        withConnectionLock(connectionKey, () -> {
+            final ApnsClient client = constructor.construct();
+            if (client == null) {
+                logger.warn("Unable to reconnect {}, keeping the current client", connectionKey);
+                return null;
+            }
+            final CachedClient replaced = apnsClientExpiringMap.put(connectionKey, open(connectionKey, clientID, client));
+            if (replaced != null) {
+                logger.debug("Replaced client for {}, closing the previous one once it is idle", connectionKey);
+                replaced.retire();
+            }
+            return null;
+        });
+        used(iOSVariant.getVariantID(), connectionKey);
+    }
 
-        if (client == null) {
-            logger.debug("no cached connection for {}, establishing it", connectionKey);
-            synchronized (apnsClientExpiringMap) {
-                client = constructor.construct();
+    /**
+     * Receives iOS variant change event to remove client from the cache and also tear down the connection.
+     * A client shared with other variants is kept until the last of them is changed or the client expires.
+     *
+     * @param variant event fired when updating the variant
+     */
+    public void disconnectOnChange(final APNSVariant variant) {
+        final String connectionKey = variantConnectionKeys.remove(variant.getVariantID());
+        if (connectionKey != null) {
+            logger.debug("Variant {} no longer uses client {}", variant.getVariantID(), connectionKey);
+            disconnectIfUnused(connectionKey);
+        }
+    }
+
+    /**
+     * Removes the clients with the given ID (for production, development and all credentials) from the cache and tears down their connections.
+     *
+     * @param clientID the variant ID, or the signing key ID of clients shared by token based variants
+     */
+    public void disconnectClient(final String clientID) {
+        apnsClientExpiringMap.entrySet().stream()
+                .filter(entry -> entry.getValue().clientID.equals(clientID))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList())
+                .forEach(this::disconnect);
+    }
 
-                if (client != null) {
-                    putApnsClientForVariantID(connectionKey, client);
+    private void disconnectIfUnused(final String connectionKey) {
+        withConnectionLock(connectionKey, () -> {
+            if (!variantConnectionKeys.containsValue(connectionKey)) {
+                final CachedClient cachedClient = apnsClientExpiringMap.remove(connectionKey);
+                if (cachedClient != null) {
+                    removed(connectionKey, cachedClient);
                 }
+            }
+            return null;
+        });
+    }
 
-                return client; // return the newly connected client
+    private void disconnect(final String connectionKey) {
+        withConnectionLock(connectionKey, () -> {
+            final CachedClient cachedClient = apnsClientExpiringMap.remove(connectionKey);
+            if (cachedClient != null) {
+                removed(connectionKey, cachedClient);
             }
-        } else {
-            logger.debug("reusing cached connection for {}", connectionKey);
-            return client; // we had it already
+            return null;
+        });
+    }
+
+    /**
+     * Cleans up after the client with the given key was removed from the cache, must be called holding the connection lock.
+     */
+    private void removed(final String connectionKey, final CachedClient cachedClient) {
+        connectionLocks.remove(connectionKey);
+        variantConnectionKeys.values().removeIf(connectionKey::equals);
+        // the resources are tracked per client ID, other credentials may still use them
+        if (apnsClientExpiringMap.values().stream().noneMatch(other -> other.clientID.equals(cachedClient.clientID))) {
+            apnsClientResources.clientClosed(cachedClient.clientID);
         }
+        cachedClient.retire();
     }
 
     /**
-     * Receives iOS variant change event to remove client from the cache and also tear down the connection.
-     * @param variant event fired when updating the variant
+     * Runs the given action holding the lock of the given connection key, so that only clients with the same key wait for each other.
      */
-    public void disconnectOnChange(final APNSVariant variant) {
-        final String connectionKey = extractConnectionKey(variant);
-        final ApnsClient client = apnsClientExpiringMap.remove(connectionKey);
-        logger.debug("Removed client from cache for {}", variant.getVariantID());
-        if (client != null) {
-            tearDownApnsHttp2Connection(client);
+    private <T> T withConnectionLock(final String connectionKey, final Supplier<T> action) {
+        while (true) {
+            final Object lock = connectionLocks.computeIfAbsent(connectionKey, key -> new Object());
+            synchronized (lock) {
+                // otherwise the lock was removed along with the client meanwhile
+                if (connectionLocks.get(connectionKey) == lock) {
+                    return action.get();
+                }
+            }
+        }
+    }
+
+    private void used(final String variantID, final String connectionKey) {
+        final String previousKey = variantConnectionKeys.put(variantID, connectionKey);
+        if (previousKey != null && !previousKey.equals(connectionKey)) {
+            // the credentials of the variant changed
+            disconnectIfUnused(previousKey);
         }
     }
 
@@ -107,19 +298,83 @@ public class SimpleApnsClientCache {
         disconnectOnChange(variant);
     }
 
+    private CachedClient lookup(final APNSVariant iOSVariant, final ServiceConstructor<ApnsClient> constructor) {
+        final String connectionKey = extractConnectionKey(iOSVariant);
+        CachedClient cachedClient = apnsClientExpiringMap.get(connectionKey);
+
+        if (cachedClient == null) {
+            cachedClient = withConnectionLock(connectionKey, () -> {
+                final CachedClient connected = apnsClientExpiringMap.get(connectionKey);
+                if (connected != null) {
+                    return connected; // connected by another thread meanwhile
+                }
+
+                logger.debug("no cached connection for {}, establishing it", connectionKey);
+                final ApnsClient client = constructor.construct();
+                if (client == null) {
+                    return null;
+                }
+                final CachedClient opened = open(connectionKey, extractClientID(iOSVariant), client);
+                apnsClientExpiringMap.put(connectionKey, opened);
+                return opened; // return the newly connected client
+            });
+            if (cachedClient == null) {
+                return null;
+            }
+        } else {
+            logger.debug("reusing cached connection for {}", connectionKey);
+        }
+        used(iOSVariant.getVariantID(), connectionKey);
+        return cachedClient;
+    }
+
+    private String extractClientID(final APNSVariant iOSVariant) {
+        // token based variants with the same credentials share one client
+        return iOSVariant instanceof iOSTokenVariant
+                ? ApnsSigningKeyManager.extractClientID((iOSTokenVariant) iOSVariant)
+                : iOSVariant.getVariantID();
+    }
+
     private String extractConnectionKey(final APNSVariant iOSVariant) {
-        final StringBuilder sb = new StringBuilder(iOSVariant.getVariantID())
-                .append(iOSVariant.isProduction() ? "-prod" : "-dev");
+        final StringBuilder sb = new StringBuilder(extractClientID(iOSVariant))
+                .append('@').append(fingerprint(iOSVariant))
+                .append(iOSVariant.isProduction() ? PRODUCTION_SUFFIX : DEVELOPMENT_SUFFIX);
 
         return sb.toString();
     }
 
-    private void putApnsClientForVariantID(final String variantID, final ApnsClient apnsClient) {
-        final ApnsClient client = apnsClientExpiringMap.putIfAbsent(variantID, apnsClient);
-        if (client != null) {
-            logger.warn("duplicate connection in pool, immediately shutting down the new connection");
-            tearDownApnsHttp2Connection(apnsClient);  // we do not want this new connection
+    /**
+     * @return a hash of the credentials of the given variant, which changes when the certificate or signing key is replaced
+     */
+    private static String fingerprint(final APNSVariant variant) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM supports SHA-256
+            throw new IllegalStateException(e);
         }
+        if (variant instanceof iOSTokenVariant) {
+            final String privateKey = ((iOSTokenVariant) variant).getPrivateKey();
+            if (privateKey != null) {
+                digest.update(privateKey.getBytes(StandardCharsets.UTF_8));
+            }
+        } else if (variant instanceof iOSVariant) {
+            final iOSVariant certificateVariant = (iOSVariant) variant;
+            if (certificateVariant.getCertificate() != null) {
+                digest.update(certificateVariant.getCertificate());
+            }
+            if (certificateVariant.getPassphrase() != null) {
+                digest.update(certificateVariant.getPassphrase().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest());
+    }
+
+    private CachedClient open(final String connectionKey, final String clientID, final ApnsClient client) {
+        final CachedClient cachedClient = new CachedClient(connectionKey, clientID, client);
+        openClients.put(client, cachedClient);
+        return cachedClient;
     }
 
     @PreDestroy
@@ -127,10 +382,9 @@ public class SimpleApnsClientCache {
 
         logger.debug("remove all connections before server shutdown");
 
-        for (final Map.Entry<String, ApnsClient> cachedConnection : apnsClientExpiringMap.entrySet()) {
-
-            final ApnsClient connection = cachedConnection.getValue();
-            tearDownApnsHttp2Connection(connection);
+        // the deliveries in flight were drained already
+        for (final CachedClient cachedClient : new ArrayList<>(openClients.values())) {
+            cachedClient.close();
         }
     }
 
@@ -141,6 +395,73 @@ public class SimpleApnsClientCache {
         }
     }
 
+    /**
+     * A cached client, counting the senders and notifications holding it.
+     */
+    private class CachedClient {
+        private final String connectionKey;
+        private final String clientID;
+        private final ApnsClient client;
+        private int holds;
+        private boolean retired;
+
+        CachedClient(String connectionKey, String clientID, ApnsClient client) {
+            this.connectionKey = connectionKey;
+            this.clientID = clientID;
+            this.client = client;
+        }
+
+        /**
+         * @return false if the client was replaced or removed from the cache, and must not be used anymore
+         */
+        synchronized boolean hold() {
+            if (retired) {
+                return false;
+            }
+            holds++;
+            return true;
+        }
+
+        synchronized void holdForNotification() {
+            holds++;
+        }
+
+        void release() {
+            final boolean idle;
+            synchronized (this) {
+                holds--;
+                idle = retired && holds == 0;
+            }
+            if (idle) {
+                close();
+            }
+        }
+
+        /**
+         * Closes the client as soon as it is no longer held.
+         */
+        void retire() {
+            final boolean idle;
+            synchronized (this) {
+                if (retired) {
+                    return;
+                }
+                retired = true;
+                idle = holds == 0;
+            }
+            if (idle) {
+                close();
+            }
+        }
+
+        void close() {
+            if (openClients.remove(client, this)) {
+                logger.debug("Closing APNs client for {}", connectionKey);
+                tearDownApnsHttp2Connection(client);
+            }
+        }
+    }
+
     private class ApnsDisconnectFutureListener implements GenericFutureListener<Future<? super Void>> {
         @Override
         public void operationComplete(Future<? super Void> future) throws Exception {
@@ -153,4 +474,4 @@ public class SimpleApnsClientCache {
 
         }
     }
-}
\ No newline at end of file
+}
@@ -33,6 +33,8 @@ public class SenderConfiguration {
 
     private int batchesToLoad;
     private int batchSize;
+    private int rateLimit;
+    private int rateLimitBurst;
 
     public SenderConfiguration() {
     }
@@ -48,6 +50,20 @@ public class SenderConfiguration {
         this.batchSize = batchSize;
     }
 
+    /**
+     * Creates a new configuration with the configuration values provided
+     *
+     * @param batchesToLoad specifies how many batches should be loaded in one transaction (see {@link #batchesToLoad()}
+     * @param batchSize specifies how many devices will be loaded and delivered in one batch (see {@link #batchSize()}
+     * @param rateLimit specifies how many notifications per second can be sent to the Push Network (see {@link #rateLimit()}
+     * @param rateLimitBurst specifies how many notifications can be sent at once (see {@link #rateLimitBurst()}
+     */
+    public SenderConfiguration(int batchesToLoad, int batchSize, int rateLimit, int rateLimitBurst) {
+        this(batchesToLoad, batchSize);
+        this.rateLimit = rateLimit;
+        this.rateLimitBurst = rateLimitBurst;
+    }
+
     /**
      * Specifies how many batches should be loaded in one token-loading transaction.
      *
@@ -97,4 +113,33 @@ public class SenderConfiguration {
     public int tokensToLoad() {
         return batchesToLoad * batchSize;
     }
+
+    /**
+     * Specifies how many notifications per second can be sent to the Push Network, summed over all variants of that network.
+     *
+     * Once the limit is reached, sending is held back until the budget is replenished, so that bursts don't trip throttling of the Push Network.
+     * The limit applies to each node of a cluster separately, the effective rate is the limit multiplied by the number of nodes.
+     *
+     * @return the number of notifications per second, or 0 if the sending is not limited
+     */
+    public int rateLimit() {
+        return rateLimit;
+    }
+
+    void setRateLimit(int rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * Specifies how many notifications can be sent at once, before the {@link #rateLimit()} starts to apply.
+     *
+     * @return the number of notifications, defaults to {@link #rateLimit()} when not set
+     */
+    public int rateLimitBurst() {
+        return rateLimitBurst > 0 ? rateLimitBurst : rateLimit;
+    }
+
+    void setRateLimitBurst(int rateLimitBurst) {
+        this.rateLimitBurst = rateLimitBurst;
+    }
 }
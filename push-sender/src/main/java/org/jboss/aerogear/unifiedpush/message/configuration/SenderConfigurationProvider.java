@@ -68,7 +68,9 @@ public class SenderConfigurationProvider {
     private SenderConfiguration loadConfigurationFor(VariantType type, SenderConfiguration defaultConfiguration) {
         return validateAndSanitizeConfiguration(type, new SenderConfiguration(
                 getProperty(type, ConfigurationProperty.batchesToLoad, defaultConfiguration.batchesToLoad(), Integer.class),
-                getProperty(type, ConfigurationProperty.batchSize, defaultConfiguration.batchSize(), Integer.class)
+                getProperty(type, ConfigurationProperty.batchSize, defaultConfiguration.batchSize(), Integer.class),
+                getProperty(type, ConfigurationProperty.rateLimit, defaultConfiguration.rateLimit(), Integer.class),
+                getProperty(type, ConfigurationProperty.rateLimitBurst, defaultConfiguration.rateLimitBurst(), Integer.class)
             ));
     }
 
@@ -88,6 +90,11 @@ public class SenderConfigurationProvider {
             default:
                 break;
         }
+        if (configuration.rateLimit() < 0) {
+            logger.warn(String.format("Sender configuration -D%s=%s is invalid: the rate limit can't be negative, sending won't be limited",
+                    getSystemPropertyName(type, ConfigurationProperty.rateLimit), configuration.rateLimit()));
+            configuration.setRateLimit(0);
+        }
         return configuration;
     }
 
@@ -114,6 +121,8 @@ public class SenderConfigurationProvider {
      */
     private enum ConfigurationProperty {
         batchesToLoad,
-        batchSize
+        batchSize,
+        rateLimit,
+        rateLimitBurst
     }
 }
@@ -0,0 +1,64 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.event;
+
+import org.jboss.aerogear.unifiedpush.message.Criteria;
+
+import java.io.Serializable;
+
+/**
+ * Event fired when a push message with a consolidation key was submitted, so that older messages of the push application
+ * with the same key, which are still queued, can be superseded.
+ */
+public class ConsolidatedMessageSubmittedEvent implements Serializable {
+
+    private static final long serialVersionUID = 6380724143208216467L;
+
+    private final String pushApplicationId;
+    private final String consolidationKey;
+    private final Criteria criteria;
+    private final String pushMessageId;
+    private final long submittedAt;
+
+    public ConsolidatedMessageSubmittedEvent(String pushApplicationId, String consolidationKey, Criteria criteria, String pushMessageId, long submittedAt) {
+        this.pushApplicationId = pushApplicationId;
+        this.consolidationKey = consolidationKey;
+        this.criteria = criteria;
+        this.pushMessageId = pushMessageId;
+        this.submittedAt = submittedAt;
+    }
+
+    public String getPushApplicationId() {
+        return pushApplicationId;
+    }
+
+    public String getConsolidationKey() {
+        return consolidationKey;
+    }
+
+    public Criteria getCriteria() {
+        return criteria;
+    }
+
+    public String getPushMessageId() {
+        return pushMessageId;
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.event;
+
+import org.jboss.aerogear.unifiedpush.message.holder.MessageHolderWithVariants;
+
+import java.io.Serializable;
+
+/**
+ * Event fired when a push message targets so few devices that its tokens can be loaded and sent directly,
+ * instead of passing the message through the push message and token batch queues.
+ */
+public class FastPathRequestedEvent implements Serializable {
+
+    private static final long serialVersionUID = -2870511463094738214L;
+
+    private final MessageHolderWithVariants message;
+
+    public FastPathRequestedEvent(MessageHolderWithVariants message) {
+        this.message = message;
+    }
+
+    public MessageHolderWithVariants getMessage() {
+        return message;
+    }
+}
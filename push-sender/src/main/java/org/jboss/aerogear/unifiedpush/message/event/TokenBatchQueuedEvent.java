@@ -0,0 +1,37 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.event;
+
+import java.io.Serializable;
+
+/**
+ * Event fired when the token loader queued a batch of tokens for the given push application.
+ */
+public class TokenBatchQueuedEvent implements Serializable {
+
+    private static final long serialVersionUID = 3102650823140474395L;
+
+    private String pushApplicationId;
+
+    public TokenBatchQueuedEvent(String pushApplicationId) {
+        this.pushApplicationId = pushApplicationId;
+    }
+
+    public String getPushApplicationId() {
+        return pushApplicationId;
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.event;
+
+import org.jboss.aerogear.unifiedpush.api.Variant;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Event fired when a push message was routed to the given variants, before their tokens are loaded.
+ */
+public class VariantsRoutedEvent implements Serializable {
+
+    private static final long serialVersionUID = -4236405386424117305L;
+
+    private List<Variant> variants;
+
+    public VariantsRoutedEvent(Collection<Variant> variants) {
+        this.variants = new ArrayList<>(variants);
+    }
+
+    public List<Variant> getVariants() {
+        return variants;
+    }
+}
@@ -35,6 +35,8 @@ public class MessageHolderWithTokens extends AbstractMessageHolder {
     private int serialId;
     private Variant variant;
     private Collection<String> deviceTokens;
+    private long queuedAt;
+    private boolean requeued;
 
     public MessageHolderWithTokens(FlatPushMessageInformation pushMessageInformation, UnifiedPushMessage unifiedPushMessage, Variant variant, Collection<String> deviceTokens, int serialId) {
         super(pushMessageInformation, unifiedPushMessage);
@@ -44,6 +46,7 @@ public class MessageHolderWithTokens extends AbstractMessageHolder {
         this.variant = variant;
         this.deviceTokens = deviceTokens;
         this.serialId = serialId;
+        this.queuedAt = System.currentTimeMillis();
     }
 
     public Variant getVariant() {
@@ -57,4 +60,35 @@ public class MessageHolderWithTokens extends AbstractMessageHolder {
     public int getSerialId() {
         return serialId;
     }
+
+    /**
+     * Copies this holder for the given tokens, to be handed back to the queue without counting as a newly queued batch:
+     * the copy keeps the retry count and the time when the batch was queued first.
+     *
+     * @param tokens the tokens that were not sent
+     * @return the holder to requeue
+     */
+    public MessageHolderWithTokens requeue(Collection<String> tokens) {
+        final MessageHolderWithTokens requeued = new MessageHolderWithTokens(getPushMessageInformation(), getUnifiedPushMessage(), variant, tokens, serialId);
+        for (int i = 0; i < getRetryCount(); i++) {
+            requeued.incrRetryCount();
+        }
+        requeued.queuedAt = queuedAt;
+        requeued.requeued = true;
+        return requeued;
+    }
+
+    /**
+     * @return the time in milliseconds when the batch was queued first
+     */
+    public long getQueuedAt() {
+        return queuedAt;
+    }
+
+    /**
+     * @return true if the batch was handed back to the queue after it was received (see {@link #requeue(Collection)})
+     */
+    public boolean isRequeued() {
+        return requeued;
+    }
 }
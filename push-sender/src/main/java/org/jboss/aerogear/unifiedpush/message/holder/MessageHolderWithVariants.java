@@ -42,6 +42,7 @@ public class MessageHolderWithVariants extends AbstractMessageHolder {
     private Collection<Variant> variants;
     private int lastSerialId;
     private String lastTokenFromPreviousBatch;
+    private String lastTokenOfRange;
 
     /**
      * Constructs holder that denotes first request for processing.
@@ -68,11 +69,28 @@ public class MessageHolderWithVariants extends AbstractMessageHolder {
      * @param lastTokenFromPreviousBatch last token from previous stream
      */
     public MessageHolderWithVariants(FlatPushMessageInformation pushMessageInformation, UnifiedPushMessage unifiedPushMessage, VariantType variantType, Collection<Variant> variants, int lastSerialId, String lastTokenFromPreviousBatch) {
+        this(pushMessageInformation, unifiedPushMessage, variantType, variants, lastSerialId, lastTokenFromPreviousBatch, null);
+    }
+
+    /**
+     * Constructs holder that denotes request for processing a range of the token keyspace of a single variant, continuing from {@link #lastTokenFromPreviousBatch}
+     * up to {@link #lastTokenOfRange}.
+     *
+     * @param pushMessageInformation the push message info object
+     * @param unifiedPushMessage the push message
+     * @param variantType variant type info
+     * @param variants list of effected variants
+     * @param lastSerialId last id from previous batch
+     * @param lastTokenFromPreviousBatch last token from previous stream
+     * @param lastTokenOfRange last (inclusive) token of the range, or null if the range is not bounded
+     */
+    public MessageHolderWithVariants(FlatPushMessageInformation pushMessageInformation, UnifiedPushMessage unifiedPushMessage, VariantType variantType, Collection<Variant> variants, int lastSerialId, String lastTokenFromPreviousBatch, String lastTokenOfRange) {
         super(pushMessageInformation, unifiedPushMessage);
         this.variantType = variantType;
         this.variants = new ArrayList<>(variants);
         this.lastSerialId = lastSerialId;
         this.lastTokenFromPreviousBatch = lastTokenFromPreviousBatch;
+        this.lastTokenOfRange = lastTokenOfRange;
     }
 
     public VariantType getVariantType() {
@@ -90,4 +108,8 @@ public class MessageHolderWithVariants extends AbstractMessageHolder {
     public String getLastTokenFromPreviousBatch() {
         return lastTokenFromPreviousBatch;
     }
+
+    public String getLastTokenOfRange() {
+        return lastTokenOfRange;
+    }
 }
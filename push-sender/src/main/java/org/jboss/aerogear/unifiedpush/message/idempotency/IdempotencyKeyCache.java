@@ -0,0 +1,128 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.idempotency;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded in-memory cache of idempotency keys. Keys expire after the configured time to live and, once the cache is full,
+ * the oldest keys are evicted first. A key whose request did not complete within the lease may be taken over by a retry.
+ */
+class IdempotencyKeyCache {
+
+    private final long ttl;
+    private final long lease;
+    private final LongSupplier clock;
+    private final Map<String, Entry> entries;
+
+    /**
+     * @param ttl time in milliseconds a key is remembered
+     * @param lease time in milliseconds a key is reserved for a request that is still being processed
+     * @param maxEntries maximum number of keys remembered
+     * @param clock source of the current time in milliseconds
+     */
+    IdempotencyKeyCache(long ttl, long lease, int maxEntries, LongSupplier clock) {
+        this.ttl = ttl;
+        this.lease = lease;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<String, Entry>() {
+            private static final long serialVersionUID = 4815979374452307946L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Reserves the given key, unless it is known already and its lease did not expire.
+     *
+     * @param key the idempotency key
+     * @return the outcome of the reservation
+     */
+    synchronized IdempotencyKeyReservation reserve(String key) {
+        final long now = clock.getAsLong();
+        evictExpired(now);
+
+        final Entry entry = entries.get(key);
+        if (entry != null) {
+            if (entry.pushMessageId != null && !entry.isExpired(now)) {
+                return IdempotencyKeyReservation.duplicateOf(entry.pushMessageId);
+            }
+            if (entry.pushMessageId == null && now - entry.createdAt <= lease) {
+                return IdempotencyKeyReservation.inProgress();
+            }
+            // expired, or its request did not complete within the lease, re-inserted so that the map stays ordered
+            entries.remove(key);
+        }
+        entries.put(key, new Entry(null, now));
+        return IdempotencyKeyReservation.reserved();
+    }
+
+    /**
+     * Records the push message that was created for the given key.
+     *
+     * @param key the idempotency key
+     * @param pushMessageId the ID of the push message
+     * @param createdAt the time in milliseconds when the key was first seen
+     */
+    synchronized void complete(String key, String pushMessageId, long createdAt) {
+        entries.put(key, new Entry(pushMessageId, createdAt));
+    }
+
+    /**
+     * Forgets the given key if its request was not processed, so that it can be retried.
+     *
+     * @param key the idempotency key
+     */
+    synchronized void release(String key) {
+        final Entry entry = entries.get(key);
+        if (entry != null && entry.pushMessageId == null) {
+            entries.remove(key);
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    // keys are mostly inserted in the order they are seen, so the expired ones are found at the head
+    private void evictExpired(long now) {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext() && iterator.next().isExpired(now)) {
+            iterator.remove();
+        }
+    }
+
+    private class Entry {
+        private final String pushMessageId;
+        private final long createdAt;
+
+        Entry(String pushMessageId, long createdAt) {
+            this.pushMessageId = pushMessageId;
+            this.createdAt = createdAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - createdAt > ttl;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.idempotency;
+
+/**
+ * Outcome of reserving the <code>Idempotency-Key</code> of a send request.
+ */
+public final class IdempotencyKeyReservation {
+
+    private static final IdempotencyKeyReservation RESERVED = new IdempotencyKeyReservation(true, null);
+    private static final IdempotencyKeyReservation IN_PROGRESS = new IdempotencyKeyReservation(false, null);
+
+    private final boolean reserved;
+    private final String pushMessageId;
+
+    private IdempotencyKeyReservation(boolean reserved, String pushMessageId) {
+        this.reserved = reserved;
+        this.pushMessageId = pushMessageId;
+    }
+
+    /**
+     * @return reservation of a key that was not seen before, the request is processed
+     */
+    public static IdempotencyKeyReservation reserved() {
+        return RESERVED;
+    }
+
+    /**
+     * @return reservation of a key whose original request is still being processed
+     */
+    public static IdempotencyKeyReservation inProgress() {
+        return IN_PROGRESS;
+    }
+
+    /**
+     * @param pushMessageId the ID of the push message the original request created
+     * @return reservation of a key whose original request was already processed
+     */
+    public static IdempotencyKeyReservation duplicateOf(String pushMessageId) {
+        return new IdempotencyKeyReservation(false, pushMessageId);
+    }
+
+    public boolean isReserved() {
+        return reserved;
+    }
+
+    public boolean isInProgress() {
+        return !reserved && pushMessageId == null;
+    }
+
+    /**
+     * @return the ID of the push message the original request created, null unless this is a duplicate
+     */
+    public String getPushMessageId() {
+        return pushMessageId;
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.idempotency;
+
+import org.jboss.aerogear.unifiedpush.api.IdempotencyKey;
+import org.jboss.aerogear.unifiedpush.dao.IdempotencyKeyDao;
+import org.jboss.aerogear.unifiedpush.service.metrics.PrometheusExporter;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.inject.Inject;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the <code>Idempotency-Key</code>s of send requests, together with the push message each of them created,
+ * so that a retried request is not sent again.
+ *
+ * The keys are kept in a bounded in-memory cache. With the <tt>aerogear.idempotency.store</tt> property set to <tt>database</tt>,
+ * they are also stored in the database, so that they are shared by all nodes of a cluster and survive a restart.
+ *
+ * A key is reserved for its request for a short lease (<tt>aerogear.idempotency.lease</tt> seconds). A retry that arrives after the lease,
+ * while the original request did neither complete nor fail, e.g. because its node went down, takes the key over.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class IdempotencyKeyStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyKeyStore.class);
+
+    // system property names used to tune the store
+    public static final String AEROGEAR_IDEMPOTENCY_TTL = "aerogear.idempotency.ttl";
+    public static final String AEROGEAR_IDEMPOTENCY_MAX = "aerogear.idempotency.max";
+    public static final String AEROGEAR_IDEMPOTENCY_STORE = "aerogear.idempotency.store";
+    public static final String AEROGEAR_IDEMPOTENCY_LEASE = "aerogear.idempotency.lease";
+
+    private static final String DATABASE_STORE = "database";
+
+    // seconds a key is remembered
+    private final long ttl = TimeUnit.SECONDS.toMillis(ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_IDEMPOTENCY_TTL, 86400));
+    // seconds a key is reserved for a request in progress
+    private final long lease = TimeUnit.SECONDS.toMillis(ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_IDEMPOTENCY_LEASE, 60));
+    private final boolean persistent = DATABASE_STORE.equalsIgnoreCase(ConfigurationUtils.tryGetGlobalProperty(AEROGEAR_IDEMPOTENCY_STORE, "memory"));
+
+    private final IdempotencyKeyCache cache = new IdempotencyKeyCache(ttl, lease,
+            ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_IDEMPOTENCY_MAX, 100000), System::currentTimeMillis);
+
+    @Inject
+    private IdempotencyKeyDao idempotencyKeyDao;
+
+    @Inject
+    private IdempotencyKeyWriter idempotencyKeyWriter;
+
+    /**
+     * Reserves the idempotency key of a send request. Only a request whose key was reserved may be processed; once it is processed,
+     * {@link #complete(String, String, String)} or {@link #release(String, String)} has to be called.
+     *
+     * @param pushApplicationId the push application, keys are scoped by push application
+     * @param key the idempotency key
+     * @return the outcome of the reservation
+     */
+    public IdempotencyKeyReservation reserve(String pushApplicationId, String key) {
+        final IdempotencyKey idempotencyKey = new IdempotencyKey(pushApplicationId, key);
+        final IdempotencyKeyReservation reservation = cache.reserve(idempotencyKey.getId());
+        if (reservation.isReserved() && persistent) {
+            return reserveInDatabase(idempotencyKey);
+        }
+        countDuplicate(reservation);
+        return reservation;
+    }
+
+    /**
+     * Records the push message that was created by the request with the given key.
+     *
+     * @param pushApplicationId the push application
+     * @param key the idempotency key
+     * @param pushMessageId the ID of the push message
+     */
+    public void complete(String pushApplicationId, String key, String pushMessageId) {
+        final IdempotencyKey idempotencyKey = new IdempotencyKey(pushApplicationId, key);
+        cache.complete(idempotencyKey.getId(), pushMessageId, System.currentTimeMillis());
+        if (persistent) {
+            final IdempotencyKey stored = idempotencyKeyDao.find(idempotencyKey.getId());
+            if (stored != null) {
+                stored.setPushMessageId(pushMessageId);
+                idempotencyKeyDao.update(stored);
+            }
+        }
+    }
+
+    /**
+     * Forgets the given key, since its request failed and may be retried.
+     *
+     * @param pushApplicationId the push application
+     * @param key the idempotency key
+     */
+    public void release(String pushApplicationId, String key) {
+        final IdempotencyKey idempotencyKey = new IdempotencyKey(pushApplicationId, key);
+        cache.release(idempotencyKey.getId());
+        if (persistent) {
+            final IdempotencyKey stored = idempotencyKeyDao.find(idempotencyKey.getId());
+            if (stored != null && stored.getPushMessageId() == null) {
+                idempotencyKeyDao.delete(stored);
+            }
+        }
+    }
+
+    /**
+     * Job that deletes the expired keys from the database, every hour.
+     */
+    @Schedule(hour = "*", persistent = false)
+    public void deleteExpiredKeys() {
+        if (persistent) {
+            final int deleted = idempotencyKeyDao.deleteOlderThan(new Date(System.currentTimeMillis() - ttl));
+            logger.debug("Deleted {} expired idempotency keys", deleted);
+        }
+    }
+
+    private IdempotencyKeyReservation reserveInDatabase(IdempotencyKey idempotencyKey) {
+        final long now = System.currentTimeMillis();
+
+        // another node, or this node before a restart, may have processed the key
+        final IdempotencyKey stored = idempotencyKeyDao.find(idempotencyKey.getId());
+        if (stored != null) {
+            final long age = now - stored.getCreatedAt().getTime();
+            if (stored.getPushMessageId() != null && age <= ttl) {
+                cache.complete(idempotencyKey.getId(), stored.getPushMessageId(), stored.getCreatedAt().getTime());
+                return countDuplicate(IdempotencyKeyReservation.duplicateOf(stored.getPushMessageId()));
+            }
+            if (stored.getPushMessageId() == null && age <= lease) {
+                cache.release(idempotencyKey.getId());
+                return countDuplicate(IdempotencyKeyReservation.inProgress());
+            }
+
+            // the stored key expired, or its request did not complete within the lease, it is taken over by this request
+            if (idempotencyKeyWriter.takeOver(stored, new Date(now))) {
+                logger.debug("Idempotency key {} was taken over", idempotencyKey.getId());
+                return IdempotencyKeyReservation.reserved();
+            }
+        } else if (idempotencyKeyWriter.insert(idempotencyKey)) {
+            return IdempotencyKeyReservation.reserved();
+        }
+
+        // the same key was reserved by another node in the meantime
+        cache.release(idempotencyKey.getId());
+        return countDuplicate(IdempotencyKeyReservation.inProgress());
+    }
+
+    private IdempotencyKeyReservation countDuplicate(IdempotencyKeyReservation reservation) {
+        if (!reservation.isReserved()) {
+            PrometheusExporter.instance().increaseIdempotentRequests(reservation.isInProgress() ? "in_progress" : "duplicate");
+        }
+        return reservation;
+    }
+}
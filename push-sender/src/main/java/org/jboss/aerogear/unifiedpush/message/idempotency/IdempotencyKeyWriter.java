@@ -0,0 +1,69 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.idempotency;
+
+import org.jboss.aerogear.unifiedpush.api.IdempotencyKey;
+import org.jboss.aerogear.unifiedpush.dao.IdempotencyKeyDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.persistence.PersistenceException;
+import java.util.Date;
+
+/**
+ * Reserves idempotency keys in the database for the {@link IdempotencyKeyStore}, each in a transaction of its own:
+ * a key that was reserved concurrently only rolls back that transaction, not the one of the send request.
+ */
+@Stateless
+public class IdempotencyKeyWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyKeyWriter.class);
+
+    @Inject
+    private IdempotencyKeyDao idempotencyKeyDao;
+
+    /**
+     * @param idempotencyKey the key to insert
+     * @return true if the key was inserted, false if it exists already
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public boolean insert(IdempotencyKey idempotencyKey) {
+        try {
+            idempotencyKeyDao.create(idempotencyKey);
+            idempotencyKeyDao.flushAndClear();
+            return true;
+        } catch (PersistenceException e) {
+            // the transaction is marked for rollback, which is all that has to be undone
+            logger.debug("Idempotency key {} was reserved concurrently", idempotencyKey.getId(), e);
+            return false;
+        }
+    }
+
+    /**
+     * @param stored the key as it was read
+     * @param createdAt the new creation date of the key
+     * @return true if the key was taken over, false if another request took it over first
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public boolean takeOver(IdempotencyKey stored, Date createdAt) {
+        return idempotencyKeyDao.takeOver(stored.getId(), stored.getCreatedAt(), createdAt);
+    }
+}
@@ -44,6 +44,10 @@ public abstract class AbstractJMSMessageListener<T> implements MessageListener {
     @TransactionAttribute(TransactionAttributeType.REQUIRED)
     public void onMessage(Message jmsMessage) {
         logger.debug("message get {}", jmsMessage.toString());
+        final String queue = getQueueName(jmsMessage);
+        // the autoscaler may hold back the consumer, while the backlog of the queue does not need more consumers
+        QueueConsumers.instance().enter(queue);
+        final long start = System.nanoTime();
         try {
             if (jmsMessage instanceof ObjectMessage) {
                 Object messageObject = ((ObjectMessage) jmsMessage).getObject();
@@ -59,6 +63,20 @@ public abstract class AbstractJMSMessageListener<T> implements MessageListener {
             }
         } catch (JMSException e) {
             throw new MessageDeliveryException("Failed to handle message from destination " + getDestinationName(jmsMessage), e);
+        } finally {
+            QueueConsumers.instance().exit(queue, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return the name of the queue the message was received from, or null if it was received from a topic
+     */
+    private static String getQueueName(Message message) {
+        try {
+            final Destination destination = message.getJMSDestination();
+            return destination instanceof Queue ? ((Queue) destination).getQueueName() : null;
+        } catch (JMSException e) {
+            return null;
         }
     }
 
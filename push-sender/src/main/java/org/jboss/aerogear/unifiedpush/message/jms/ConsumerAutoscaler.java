@@ -0,0 +1,114 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.jms;
+
+import org.jboss.aerogear.unifiedpush.message.exception.MessageDeliveryException;
+import org.jboss.aerogear.unifiedpush.message.util.JmsClient;
+import org.jboss.aerogear.unifiedpush.message.util.QueueUtils;
+import org.jboss.aerogear.unifiedpush.service.metrics.PrometheusExporter;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.inject.Inject;
+
+/**
+ * Scales the number of consumers of the push message and token batch queues with their backlog, and reports the throughput of every queue.
+ *
+ * The message driven beans are deployed with <tt>maxSession</tt> as the ceiling of their consumers (see <tt>jboss-ejb3.xml</tt>),
+ * the autoscaler lets only a part of them process messages at the same time: it starts with the configured minimum, raises the
+ * limit while the sampled backlog of the queue keeps growing or exceeds <tt>aerogear.consumer.autoscaler.backlog</tt> messages per allowed
+ * consumer, and lowers it again once the queue is empty (see {@link ConsumerConcurrencyLimit}).
+ *
+ * The autoscaler is disabled by default. It is enabled with the system property <tt>aerogear.consumer.autoscaler=true</tt>, the maximum
+ * of a queue is given by <tt>aerogear.consumer.autoscaler.&lt;queue&gt;.max</tt> and should match the <tt>maxSession</tt> of its consumer.
+ *
+ * The number of messages consumed from each queue and the time spent processing them are exported to Prometheus (see {@link QueueConsumers}),
+ * whether or not the autoscaler is enabled.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ConsumerAutoscaler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConsumerAutoscaler.class);
+
+    // system property names used to tune the autoscaler
+    public static final String AEROGEAR_CONSUMER_AUTOSCALER = "aerogear.consumer.autoscaler";
+    public static final String AEROGEAR_CONSUMER_AUTOSCALER_INTERVAL = "aerogear.consumer.autoscaler.interval";
+    public static final String AEROGEAR_CONSUMER_AUTOSCALER_MIN = "aerogear.consumer.autoscaler.min";
+    public static final String AEROGEAR_CONSUMER_AUTOSCALER_MAX = "aerogear.consumer.autoscaler.max";
+    public static final String AEROGEAR_CONSUMER_AUTOSCALER_MAX_WAIT = "aerogear.consumer.autoscaler.max.wait";
+    public static final String AEROGEAR_CONSUMER_AUTOSCALER_BACKLOG = "aerogear.consumer.autoscaler.backlog";
+
+    private final boolean enabled = Boolean.parseBoolean(ConfigurationUtils.tryGetGlobalProperty(AEROGEAR_CONSUMER_AUTOSCALER, "false"));
+    private final int interval = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_CONSUMER_AUTOSCALER_INTERVAL, 5000);
+    private final int min = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_CONSUMER_AUTOSCALER_MIN, 1);
+    private final int max = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_CONSUMER_AUTOSCALER_MAX, 15);
+    // the consumer holds its message (and transaction) while waiting, so it must proceed well before the transaction times out
+    private final int maxWait = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_CONSUMER_AUTOSCALER_MAX_WAIT, 30000);
+    private final int backlog = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_CONSUMER_AUTOSCALER_BACKLOG, 20);
+
+    @Resource
+    private TimerService timerService;
+
+    @Inject
+    private JmsClient jmsClient;
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            for (String queue : QueueUtils.allQueues()) {
+                final int queueMax = ConfigurationUtils.tryGetGlobalIntegerProperty("aerogear.consumer.autoscaler." + queue + ".max", max);
+                QueueConsumers.instance().limit(queue, min, queueMax, maxWait, backlog);
+            }
+            logger.info("Scaling the consumers of the push message and token batch queues between {} and {}", min, max);
+        }
+        timerService.createIntervalTimer(interval, interval, new TimerConfig(null, false));
+    }
+
+    /**
+     * Exports the throughput of every queue and, when enabled, samples the backlog of every queue and adapts the number of its consumers.
+     */
+    @Timeout
+    public void scale() {
+        QueueConsumers.instance().drainStatistics(PrometheusExporter.instance()::increaseConsumedMessages);
+        if (!enabled) {
+            return;
+        }
+        for (String queue : QueueUtils.allQueues()) {
+            try {
+                // there is no need to browse the backlog beyond the depth that raises the limit at its maximum
+                final int depth = jmsClient.queueDepth(queue, QueueConsumers.instance().saturationDepth(queue));
+                final int limit = QueueConsumers.instance().adjust(queue, depth);
+                logger.trace("Queue {} holds {} messages, {} consumers allowed", queue, depth, limit);
+                PrometheusExporter.instance().setConsumerState(queue, depth, limit);
+            } catch (MessageDeliveryException e) {
+                logger.debug("Failed to sample the depth of " + queue, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.jms;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Number of consumers of a single queue that may process messages at the same time.
+ *
+ * The limit starts at its minimum. It is raised by half while the backlog of the queue keeps growing, or while it holds more
+ * messages per allowed consumer than the consumers are expected to keep up with, so that a saturated or steady backlog is scaled
+ * as well. It is lowered by one once the queue is empty, but always stays between its minimum and maximum.
+ */
+class ConsumerConcurrencyLimit {
+
+    private final int min;
+    private final int max;
+    private final long maxWaitNanos;
+    private final int backlogPerConsumer;
+
+    private int limit;
+    private int active;
+    private int lastDepth;
+
+    /**
+     * @param min the minimum number of consumers
+     * @param max the maximum number of consumers, should match the <tt>maxSession</tt> of the message driven bean
+     * @param maxWait time in milliseconds a consumer is held back at most, before it proceeds over the limit
+     * @param backlogPerConsumer number of messages in the queue per allowed consumer, above which the limit is raised
+     */
+    ConsumerConcurrencyLimit(int min, int max, long maxWait, int backlogPerConsumer) {
+        this.min = Math.max(1, min);
+        this.max = Math.max(this.min, max);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWait);
+        this.backlogPerConsumer = Math.max(1, backlogPerConsumer);
+        this.limit = this.min;
+    }
+
+    /**
+     * Waits until the number of consumers processing a message is under the limit.
+     *
+     * @return true if the consumer got under the limit, false if it proceeds over the limit since it waited too long
+     */
+    synchronized boolean enter() throws InterruptedException {
+        final long deadline = System.nanoTime() + maxWaitNanos;
+        while (active >= limit) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                active++;
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        active++;
+        return true;
+    }
+
+    synchronized void exit() {
+        active = Math.max(0, active - 1);
+        notifyAll();
+    }
+
+    /**
+     * Adapts the limit to the last sampled depth of the queue.
+     *
+     * @param depth the number of messages in the queue
+     * @return the new limit
+     */
+    synchronized int adjust(int depth) {
+        if (depth > lastDepth || depth > (long) limit * backlogPerConsumer) {
+            limit = Math.min(max, limit + Math.max(1, limit / 2));
+            notifyAll();
+        } else if (depth == 0) {
+            limit = Math.max(min, limit - 1);
+        }
+        lastDepth = depth;
+        return limit;
+    }
+
+    /**
+     * @return the depth above which the limit is raised, even at its maximum; sampling the queue beyond it makes no difference
+     */
+    int saturationDepth() {
+        return (int) Math.min(Integer.MAX_VALUE, (long) max * backlogPerConsumer + 1);
+    }
+
+    synchronized int getLimit() {
+        return limit;
+    }
+
+    synchronized int getActive() {
+        return active;
+    }
+}
@@ -42,7 +42,7 @@ public class MessageHolderWithTokensProducer extends AbstractJMSMessageProducer
         final VariantType variantType = msg.getVariant().getType();
         logger.trace("dispatching payload for {} variant type", variantType);
         final String deduplicationId = String.format("%s-%s", msg.getPushMessageInformation().getId(), msg.getSerialId());
-        jmsClient.send(msg).withDuplicateDetectionId(deduplicationId).to(QueueUtils.selectTokenQueue(variantType));
+        jmsClient.send(msg).withDuplicateDetectionId(deduplicationId).to(QueueUtils.selectTokenQueue(variantType, msg.getUnifiedPushMessage().getMessage().getPriority()));
     }
 
 }
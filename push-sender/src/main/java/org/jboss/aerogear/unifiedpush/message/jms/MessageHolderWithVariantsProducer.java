@@ -36,7 +36,7 @@ public class MessageHolderWithVariantsProducer extends AbstractJMSMessageProduce
 
     public void queueMessageVariantForProcessing(@Observes @DispatchToQueue MessageHolderWithVariants msg) {
         logger.trace("dispatching for processing variants and trigger token querying/batching");
-        sendTransacted(QueueUtils.selectPushQueue(msg.getVariantType()), msg, false);
+        sendTransacted(QueueUtils.selectPushQueue(msg.getVariantType(), msg.getUnifiedPushMessage().getMessage().getPriority()), msg, false);
     }
 
 }
@@ -0,0 +1,140 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.jms;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the consumers of the JMS queues on this node, shared by all message driven beans.
+ *
+ * Counts the messages every queue delivered to its consumers and the time they spent processing them, and holds the
+ * {@link ConsumerConcurrencyLimit}s of the queues managed by the {@link ConsumerAutoscaler}. Queues without a limit are not restricted,
+ * so that nothing changes while the autoscaler is disabled.
+ */
+public final class QueueConsumers {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueueConsumers.class);
+
+    private static final QueueConsumers INSTANCE = new QueueConsumers();
+
+    private final ConcurrentMap<String, ConsumerConcurrencyLimit> limits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> consumedMessages = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> busyNanos = new ConcurrentHashMap<>();
+
+    public static QueueConsumers instance() {
+        return INSTANCE;
+    }
+
+    private QueueConsumers() {
+    }
+
+    /**
+     * Called by a consumer before it processes a message; holds the consumer back while the queue has its limit of active consumers.
+     *
+     * @param queue the queue name, may be null
+     */
+    public void enter(String queue) {
+        final ConsumerConcurrencyLimit limit = queue == null ? null : limits.get(queue);
+        if (limit == null) {
+            return;
+        }
+        try {
+            if (!limit.enter()) {
+                logger.debug("Consumer of {} waited too long for its turn, proceeding over the limit of {}", queue, limit.getLimit());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called by a consumer once it processed a message.
+     *
+     * @param queue the queue name, may be null
+     * @param durationNanos the time spent processing the message
+     */
+    public void exit(String queue, long durationNanos) {
+        if (queue == null) {
+            return;
+        }
+        final ConsumerConcurrencyLimit limit = limits.get(queue);
+        if (limit != null) {
+            limit.exit();
+        }
+        consumedMessages.computeIfAbsent(queue, key -> new LongAdder()).increment();
+        busyNanos.computeIfAbsent(queue, key -> new LongAdder()).add(durationNanos);
+    }
+
+    /**
+     * Starts to limit the consumers of the given queue.
+     *
+     * @param queue the queue name
+     * @param min the minimum number of consumers
+     * @param max the maximum number of consumers
+     * @param maxWait time in milliseconds a consumer is held back at most
+     * @param backlogPerConsumer number of messages in the queue per allowed consumer, above which the limit is raised
+     */
+    void limit(String queue, int min, int max, long maxWait, int backlogPerConsumer) {
+        limits.putIfAbsent(queue, new ConsumerConcurrencyLimit(min, max, maxWait, backlogPerConsumer));
+    }
+
+    /**
+     * @param queue the queue name
+     * @return the number of messages the depth of the queue has to be sampled up to, or 0 if the queue is not limited
+     */
+    int saturationDepth(String queue) {
+        final ConsumerConcurrencyLimit limit = limits.get(queue);
+        return limit == null ? 0 : limit.saturationDepth();
+    }
+
+    /**
+     * @param queue the queue name
+     * @param depth the last sampled number of messages in the queue
+     * @return the new limit of the queue, or -1 if the queue is not limited
+     */
+    int adjust(String queue, int depth) {
+        final ConsumerConcurrencyLimit limit = limits.get(queue);
+        return limit == null ? -1 : limit.adjust(depth);
+    }
+
+    /**
+     * Hands over the statistics gathered since the previous call.
+     *
+     * @param statistics receives the queue name, the number of consumed messages and the time in nanoseconds spent processing them
+     */
+    void drainStatistics(StatisticsConsumer statistics) {
+        for (Map.Entry<String, LongAdder> consumed : consumedMessages.entrySet()) {
+            final long messages = consumed.getValue().sumThenReset();
+            final LongAdder busy = busyNanos.get(consumed.getKey());
+            final long nanos = busy == null ? 0 : busy.sumThenReset();
+            if (messages > 0) {
+                statistics.accept(consumed.getKey(), messages, nanos);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface StatisticsConsumer {
+        void accept(String queue, long messages, long busyNanos);
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.lifecycle;
+
+import org.jboss.aerogear.unifiedpush.message.NotificationDispatcher;
+import org.jboss.aerogear.unifiedpush.message.holder.MessageHolderWithTokens;
+import org.jboss.aerogear.unifiedpush.message.util.JmsClient;
+import org.jboss.aerogear.unifiedpush.message.util.QueueUtils;
+import org.jboss.aerogear.unifiedpush.service.metrics.PrometheusExporter;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.DependsOn;
+import javax.ejb.Singleton;
+import javax.inject.Inject;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drains the deliveries in flight when the application is shut down or redeployed.
+ *
+ * The {@link NotificationDispatcher} registers every batch it hands to a sender. On shutdown, the coordinator
+ * <ol>
+ *     <li>stops the delivery of the token batch consumers (when the container exposes them), and hands batches that still
+ *     arrive back to the token batch queues</li>
+ *     <li>waits up to <tt>aerogear.drain.timeout</tt> seconds for the batches in flight to complete</li>
+ *     <li>hands the tokens that were not completed back to the token batch queues</li>
+ * </ol>
+ * The APNs clients are closed only afterwards, since the client cache is destroyed after this bean.
+ *
+ * Tokens sent just before the deadline may be answered after they were requeued, so a few of them may be delivered twice.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+@DependsOn("SimpleApnsClientCache")
+public class DeliveryDrainCoordinator {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeliveryDrainCoordinator.class);
+
+    // system property names used to tune the drain
+    public static final String AEROGEAR_DRAIN_TIMEOUT = "aerogear.drain.timeout";
+    public static final String AEROGEAR_DRAIN_REQUEUE_DELAY = "aerogear.drain.requeue.delay";
+
+    private static final String TOKEN_BATCH_CONSUMER_SUFFIX = "TokenBatchConsumer";
+    private static final long POLL_INTERVAL = 100;
+
+    private final int drainTimeout = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_DRAIN_TIMEOUT, 30);
+    // delay before requeued batches are delivered again, so that they are not picked by this node while it is going down
+    private final long requeueDelay = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_DRAIN_REQUEUE_DELAY, 5000);
+
+    private final Set<InFlightBatch> inFlight = ConcurrentHashMap.newKeySet();
+    private final AtomicLong requeuedTokens = new AtomicLong();
+    private volatile boolean draining;
+
+    @Inject
+    private JmsClient jmsClient;
+
+    /**
+     * @return true once the shutdown started; batches must then be handed back with {@link #requeue(MessageHolderWithTokens, Collection)}
+     */
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Registers a batch that is about to be handed to a sender.
+     *
+     * @param message the batch
+     * @return the in-flight batch, to be completed by the sender callbacks
+     */
+    public InFlightBatch register(MessageHolderWithTokens message) {
+        final InFlightBatch batch = new InFlightBatch(message, inFlight::remove);
+        inFlight.add(batch);
+        return batch;
+    }
+
+    /**
+     * Hands the given tokens of a batch back to its token batch queue.
+     *
+     * @param message the batch
+     * @param tokens the tokens that were not sent
+     */
+    public void requeue(MessageHolderWithTokens message, Collection<String> tokens) {
+        final MessageHolderWithTokens requeued = message.requeue(new ArrayList<>(tokens));
+
+        final String deduplicationId = String.format("%s-%s-%d-requeued-%d", message.getPushMessageInformation().getId(),
+                message.getSerialId(), message.getRetryCount(), System.currentTimeMillis());
+        jmsClient.send(requeued).withDelayedDelivery(requeueDelay).withDuplicateDetectionId(deduplicationId)
+                .to(QueueUtils.selectTokenQueue(message.getVariant().getType(), message.getUnifiedPushMessage().getMessage().getPriority()));
+        requeuedTokens.addAndGet(tokens.size());
+    }
+
+    @PreDestroy
+    public void drain() {
+        final long start = System.currentTimeMillis();
+        draining = true;
+        logger.info("Draining {} push batches in flight", inFlight.size());
+        stopTokenBatchConsumers();
+
+        final long deadline = start + TimeUnit.SECONDS.toMillis(drainTimeout);
+        while (!inFlight.isEmpty() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        for (InFlightBatch batch : new ArrayList<>(inFlight)) {
+            final Collection<String> pending = batch.abandon();
+            inFlight.remove(batch);
+            if (!pending.isEmpty()) {
+                try {
+                    requeue(batch.getMessage(), pending);
+                } catch (RuntimeException e) {
+                    logger.error("Unable to requeue {} tokens of push message {}", pending.size(), batch.getMessage().getPushMessageInformation().getId(), e);
+                }
+            }
+        }
+
+        final long duration = System.currentTimeMillis() - start;
+        logger.info("Drained push deliveries in {} ms, {} tokens requeued", duration, requeuedTokens.get());
+        PrometheusExporter.instance().recordDrain(duration, requeuedTokens.get());
+    }
+
+    /**
+     * Stops the delivery of the token batch consumers through the management beans of the container, if they are available.
+     * Batches delivered nevertheless are handed back by the {@link NotificationDispatcher}.
+     */
+    private void stopTokenBatchConsumers() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (ObjectName consumer : server.queryNames(new ObjectName("jboss.as:subsystem=ejb3,message-driven-bean=*,*"), null)) {
+                if (consumer.getKeyProperty("message-driven-bean").endsWith(TOKEN_BATCH_CONSUMER_SUFFIX)) {
+                    server.invoke(consumer, "stopDelivery", null, null);
+                    logger.debug("Stopped delivery of {}", consumer);
+                }
+            }
+        } catch (JMException | RuntimeException e) {
+            logger.debug("Unable to stop the token batch consumers, batches delivered during the drain will be requeued", e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.lifecycle;
+
+import org.jboss.aerogear.unifiedpush.message.holder.MessageHolderWithTokens;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * A batch of device tokens handed to a push network sender, whose delivery is not completed yet.
+ *
+ * Synchronous senders complete the whole batch when they return, asynchronous senders complete each token once the push network answered.
+ * The tokens of a batch handed over to a synchronous sender are never abandoned, since the sender can not be stopped halfway.
+ */
+public class InFlightBatch {
+
+    private final MessageHolderWithTokens message;
+    private final Set<String> pendingTokens = ConcurrentHashMap.newKeySet();
+    private final Consumer<InFlightBatch> onCompleted;
+    private volatile boolean abandoned;
+    private boolean handedOver;
+
+    InFlightBatch(MessageHolderWithTokens message, Consumer<InFlightBatch> onCompleted) {
+        this.message = message;
+        this.onCompleted = onCompleted;
+        this.pendingTokens.addAll(message.getDeviceTokens());
+    }
+
+    /**
+     * @param token the device token the push network answered for
+     */
+    public void tokenCompleted(String token) {
+        if (pendingTokens.remove(token) && pendingTokens.isEmpty()) {
+            onCompleted.accept(this);
+        }
+    }
+
+    public void allCompleted() {
+        pendingTokens.clear();
+        onCompleted.accept(this);
+    }
+
+    /**
+     * Hands all tokens of the batch over to a synchronous sender, which sends them even if the drain deadline passes meanwhile.
+     *
+     * @return false if the batch was abandoned already, and must not be sent
+     */
+    public synchronized boolean handOver() {
+        if (abandoned) {
+            return false;
+        }
+        handedOver = true;
+        return true;
+    }
+
+    /**
+     * @return true if the pending tokens of this batch were handed back to the queue, and must not be sent anymore
+     */
+    public boolean isAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * Gives up the batch, e.g. because the drain deadline passed.
+     *
+     * @return the tokens that were not completed yet, and were not handed over to a synchronous sender
+     */
+    synchronized Collection<String> abandon() {
+        abandoned = true;
+        final Collection<String> pending = handedOver ? Collections.<String>emptyList() : new ArrayList<>(pendingTokens);
+        pendingTokens.clear();
+        return pending;
+    }
+
+    MessageHolderWithTokens getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.schedule;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jboss.aerogear.unifiedpush.api.PushApplication;
+import org.jboss.aerogear.unifiedpush.api.ScheduledPushMessage;
+import org.jboss.aerogear.unifiedpush.dao.ScheduledPushMessageDao;
+import org.jboss.aerogear.unifiedpush.message.InternalUnifiedPushMessage;
+import org.jboss.aerogear.unifiedpush.message.NotificationRouter;
+import org.jboss.aerogear.unifiedpush.service.metrics.PrometheusExporter;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps push messages that were submitted with a delivery time in the future (see {@link org.jboss.aerogear.unifiedpush.message.Config#getDeliverAt()})
+ * and submits them to the {@link NotificationRouter} once they are due.
+ *
+ * The messages are stored in the database, indexed by their delivery time, so that they survive a restart and each tick
+ * reads only the messages that are due. Every tick submits at most a fixed number of messages, the remaining due messages
+ * are submitted in the following ticks: messages scheduled for the same time are spread instead of hitting the push networks at once.
+ *
+ * Each message is claimed by removing it in the transaction that submits it, so that it is submitted by a single node of a cluster.
+ * Every message is submitted in a transaction of its own (see {@link ScheduledPushMessageSubmitter}). A message that fails is
+ * postponed, and discarded after <tt>aerogear.scheduler.max.attempts</tt> attempts.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class PushMessageScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(PushMessageScheduler.class);
+
+    // system property names used to tune the scheduler
+    public static final String AEROGEAR_SCHEDULER_INTERVAL = "aerogear.scheduler.interval";
+    public static final String AEROGEAR_SCHEDULER_RATE = "aerogear.scheduler.rate";
+    public static final String AEROGEAR_SCHEDULER_MAX_PER_TICK = "aerogear.scheduler.max.per.tick";
+    public static final String AEROGEAR_SCHEDULER_MAX_ATTEMPTS = "aerogear.scheduler.max.attempts";
+
+    private static final long RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    // milliseconds between two ticks
+    private final int interval = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_SCHEDULER_INTERVAL, 1000);
+    // scheduled messages submitted per second
+    private final int rate = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_SCHEDULER_RATE, 50);
+    // upper bound of the messages submitted by a single tick, whatever the rate and interval
+    private final int maxPerTick = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_SCHEDULER_MAX_PER_TICK, 500);
+    private final int maxAttempts = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_SCHEDULER_MAX_ATTEMPTS, 5);
+
+    private final AtomicBoolean dispatching = new AtomicBoolean();
+
+    @Resource
+    private TimerService timerService;
+
+    @Inject
+    private ScheduledPushMessageDao scheduledPushMessageDao;
+
+    @Inject
+    private ScheduledPushMessageSubmitter submitter;
+
+    @PostConstruct
+    public void scheduleTimer() {
+        timerService.createIntervalTimer(interval, interval, new TimerConfig(null, false));
+    }
+
+    /**
+     * Stores the given message, to be submitted to the {@link NotificationRouter} at its delivery time.
+     *
+     * @param pushApplication the push application
+     * @param message the message, with a delivery time
+     * @return the ID of the scheduled message
+     */
+    public String schedule(PushApplication pushApplication, InternalUnifiedPushMessage message) {
+        final ScheduledPushMessage scheduled = new ScheduledPushMessage();
+        scheduled.setPushApplicationId(pushApplication.getPushApplicationID());
+        scheduled.setDeliverAt(message.getConfig().getDeliverAt());
+        try {
+            scheduled.setPayload(OBJECT_MAPPER.writeValueAsString(message));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Unable to store the push message", e);
+        }
+        scheduledPushMessageDao.create(scheduled);
+
+        logger.debug("Scheduled push message {} for delivery at {}", scheduled.getId(), scheduled.getDeliverAt());
+        PrometheusExporter.instance().increaseScheduledMessages("scheduled");
+        return scheduled.getId();
+    }
+
+    /**
+     * Submits the messages that are due, up to the number of messages allowed per tick. The tick itself runs without
+     * a transaction, each message is claimed and submitted in a transaction of its own.
+     */
+    @Timeout
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void dispatchDueMessages() {
+        // a previous tick is still submitting
+        if (!dispatching.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final Date now = new Date();
+            final List<ScheduledPushMessage> dueMessages = scheduledPushMessageDao.findDue(now, messagesPerTick());
+            for (ScheduledPushMessage scheduled : dueMessages) {
+                try {
+                    submitter.submit(scheduled, now);
+                } catch (RuntimeException e) {
+                    logger.warn("Unable to submit scheduled push message {}: {}", scheduled.getId(), e.getMessage());
+                    recordFailedAttempt(scheduled, now);
+                }
+            }
+        } finally {
+            dispatching.set(false);
+        }
+    }
+
+    private void recordFailedAttempt(ScheduledPushMessage scheduled, Date now) {
+        // postponed, so that a failing message does not keep the head of the due messages
+        final Date retryAt = new Date(now.getTime() + RETRY_DELAY * (scheduled.getAttempts() + 1));
+        try {
+            submitter.recordFailedAttempt(scheduled, maxAttempts, retryAt);
+        } catch (RuntimeException e) {
+            logger.error("Unable to record the failed attempt of scheduled push message {}", scheduled.getId(), e);
+        }
+    }
+
+    private int messagesPerTick() {
+        return (int) Math.max(1, Math.min(maxPerTick, (long) rate * interval / 1000));
+    }
+}
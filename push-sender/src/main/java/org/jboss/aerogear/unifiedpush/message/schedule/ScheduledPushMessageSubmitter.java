@@ -0,0 +1,111 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.schedule;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jboss.aerogear.unifiedpush.api.PushApplication;
+import org.jboss.aerogear.unifiedpush.api.ScheduledPushMessage;
+import org.jboss.aerogear.unifiedpush.dao.ScheduledPushMessageDao;
+import org.jboss.aerogear.unifiedpush.message.InternalUnifiedPushMessage;
+import org.jboss.aerogear.unifiedpush.message.NotificationRouter;
+import org.jboss.aerogear.unifiedpush.service.PushApplicationService;
+import org.jboss.aerogear.unifiedpush.service.metrics.PrometheusExporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Submits a single due message for the {@link PushMessageScheduler}, each in a transaction of its own,
+ * so that a message that fails does not roll back the messages submitted before it in the same tick.
+ */
+@Stateless
+public class ScheduledPushMessageSubmitter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScheduledPushMessageSubmitter.class);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Inject
+    private ScheduledPushMessageDao scheduledPushMessageDao;
+
+    @Inject
+    private PushApplicationService pushApplicationService;
+
+    @Inject
+    private NotificationRouter notificationRouter;
+
+    /**
+     * Claims the given message and submits it to the {@link NotificationRouter}, both in a new transaction.
+     *
+     * @param scheduled the due message
+     * @param now the time of the tick
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void submit(ScheduledPushMessage scheduled, Date now) {
+        // another node submitted it since it was loaded
+        if (!scheduledPushMessageDao.claim(scheduled.getId())) {
+            return;
+        }
+
+        final PushApplication pushApplication = pushApplicationService.findByPushApplicationID(scheduled.getPushApplicationId());
+        if (pushApplication == null) {
+            logger.warn("Discarding scheduled push message {}, push application {} no longer exists", scheduled.getId(), scheduled.getPushApplicationId());
+            PrometheusExporter.instance().increaseScheduledMessages("discarded");
+            return;
+        }
+
+        final InternalUnifiedPushMessage message;
+        try {
+            message = OBJECT_MAPPER.readValue(scheduled.getPayload(), InternalUnifiedPushMessage.class);
+        } catch (IOException e) {
+            logger.error("Discarding scheduled push message {}, unable to read its payload", scheduled.getId(), e);
+            PrometheusExporter.instance().increaseScheduledMessages("discarded");
+            return;
+        }
+
+        logger.debug("Submitting scheduled push message {}, due at {}", scheduled.getId(), scheduled.getDeliverAt());
+        notificationRouter.submit(pushApplication, message);
+        PrometheusExporter.instance().increaseScheduledMessages("dispatched");
+        PrometheusExporter.instance().observeScheduledDispatchDelay(Math.max(0, now.getTime() - scheduled.getDeliverAt().getTime()));
+    }
+
+    /**
+     * Counts a failed attempt to submit the given message in a new transaction. The message is postponed,
+     * or discarded once it failed the given number of times.
+     *
+     * @param scheduled the message that failed
+     * @param maxAttempts the number of attempts after which the message is discarded
+     * @param retryAt the point in time the message is due again
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void recordFailedAttempt(ScheduledPushMessage scheduled, int maxAttempts, Date retryAt) {
+        if (scheduled.getAttempts() + 1 >= maxAttempts) {
+            if (scheduledPushMessageDao.claim(scheduled.getId())) {
+                logger.error("Discarding scheduled push message {}, it failed {} times", scheduled.getId(), maxAttempts);
+                PrometheusExporter.instance().increaseScheduledMessages("failed");
+            }
+        } else if (scheduledPushMessageDao.recordFailedAttempt(scheduled.getId(), retryAt)) {
+            logger.warn("Submitting scheduled push message {} failed, retrying at {}", scheduled.getId(), retryAt);
+        }
+    }
+}
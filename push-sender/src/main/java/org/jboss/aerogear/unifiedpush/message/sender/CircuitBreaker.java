@@ -0,0 +1,160 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender;
+
+/**
+ * Circuit breaker guarding the sending to a variant or to a whole push network.
+ *
+ * The breaker opens after a number of consecutive failures of the same {@link FailureKind}. Once the cool-down is over,
+ * a single probe is let through (half-open state): the breaker closes when the probe succeeds and opens again when it fails.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long coolDown;
+
+    private State state = State.CLOSED;
+    private FailureKind failureKind;
+    private String failureReason;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long probeStartedAt;
+
+    /**
+     * @param name name of the guarded variant or push network
+     * @param failureThreshold number of consecutive failures of the same kind that opens the breaker
+     * @param coolDown time in milliseconds the breaker stays open before a probe is let through
+     */
+    public CircuitBreaker(String name, int failureThreshold, long coolDown) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.coolDown = coolDown;
+    }
+
+    /**
+     * Tells whether {@link #allowRequest(long)} would let a request through, without reserving the probe of the half-open state.
+     *
+     * @param now current time in milliseconds
+     * @return true if the sending may proceed, false if it should be short-circuited
+     */
+    public synchronized boolean isRequestAllowed(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return now - openedAt >= coolDown;
+            case HALF_OPEN:
+                return now - probeStartedAt >= coolDown;
+            default:
+                throw new IllegalStateException("Unknown circuit breaker state " + state);
+        }
+    }
+
+    /**
+     * @param now current time in milliseconds
+     * @return true if the sending may proceed, false if it should be short-circuited
+     */
+    public synchronized boolean allowRequest(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - openedAt >= coolDown) {
+                    state = State.HALF_OPEN;
+                    probeStartedAt = now;
+                    return true;
+                }
+                return false;
+            case HALF_OPEN:
+                // let another probe through if the result of the previous one never came
+                if (now - probeStartedAt >= coolDown) {
+                    probeStartedAt = now;
+                    return true;
+                }
+                return false;
+            default:
+                throw new IllegalStateException("Unknown circuit breaker state " + state);
+        }
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        failureKind = null;
+        failureReason = null;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * @param kind the kind of the failure
+     * @param reason details about the failure
+     * @param now current time in milliseconds
+     */
+    public synchronized void onFailure(FailureKind kind, String reason, long now) {
+        switch (state) {
+            case HALF_OPEN:
+                failureKind = kind;
+                failureReason = reason;
+                open(now);
+                break;
+            case CLOSED:
+                if (kind == failureKind) {
+                    consecutiveFailures++;
+                } else {
+                    failureKind = kind;
+                    consecutiveFailures = 1;
+                }
+                failureReason = reason;
+                if (consecutiveFailures >= failureThreshold) {
+                    open(now);
+                }
+                break;
+            default:
+                // late results of requests sent before the breaker opened
+                break;
+        }
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        openedAt = now;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized FailureKind getFailureKind() {
+        return failureKind;
+    }
+
+    public synchronized String getFailureReason() {
+        return failureReason;
+    }
+
+    public synchronized long getOpenedAt() {
+        return openedAt;
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender;
+
+import org.jboss.aerogear.unifiedpush.api.Variant;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the {@link CircuitBreaker}s of all variants and push networks.
+ *
+ * Failures reported through {@link NotificationSenderCallback#onVariantError(FailureKind, String)} are recorded for the variant and,
+ * if the {@link FailureKind} is not specific to the variant, for its push network. The push network breaker has a higher threshold,
+ * so that it opens only when many variants fail the same way (e.g. the push network is unreachable).
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class CircuitBreakerRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreakerRegistry.class);
+
+    private static final int MAX_SKIPPED_MESSAGES = 1000;
+
+    // system property names used to tune the circuit breakers
+    public static final String AEROGEAR_CIRCUIT_BREAKER_THRESHOLD = "aerogear.circuitbreaker.threshold";
+    public static final String AEROGEAR_CIRCUIT_BREAKER_NETWORK_THRESHOLD = "aerogear.circuitbreaker.network.threshold";
+    public static final String AEROGEAR_CIRCUIT_BREAKER_COOLDOWN = "aerogear.circuitbreaker.cooldown";
+
+    private final int variantThreshold = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_CIRCUIT_BREAKER_THRESHOLD, 5);
+    private final int networkThreshold = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_CIRCUIT_BREAKER_NETWORK_THRESHOLD, 50);
+    private final long coolDown = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_CIRCUIT_BREAKER_COOLDOWN, 60000);
+
+    private final ConcurrentMap<String, CircuitBreaker> variantBreakers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CircuitBreaker> networkBreakers = new ConcurrentHashMap<>();
+    // the push messages of each variant whose batches were skipped since the last successful sending
+    private final ConcurrentMap<String, Set<String>> skippedMessages = new ConcurrentHashMap<>();
+
+    /**
+     * @param variant the variant notifications should be sent to
+     * @return true if the sending may proceed, false if the breaker of the variant or of its push network is open
+     */
+    public boolean allowRequest(Variant variant) {
+        final long now = System.currentTimeMillis();
+        final CircuitBreaker networkBreaker = networkBreaker(variant);
+        final CircuitBreaker variantBreaker = variantBreaker(variant);
+        // the probe of a half-open breaker is only taken when the other breaker lets the request through as well
+        if (!networkBreaker.isRequestAllowed(now) || !variantBreaker.isRequestAllowed(now)) {
+            return false;
+        }
+        return networkBreaker.allowRequest(now) && variantBreaker.allowRequest(now);
+    }
+
+    /**
+     * @param variant the variant
+     * @return the reason of the failures that opened the breaker of the variant or of its push network
+     */
+    public String getFailureReason(Variant variant) {
+        final CircuitBreaker breaker = variantBreaker(variant);
+        return breaker.getState() != CircuitBreaker.State.CLOSED ? breaker.getFailureReason() : networkBreaker(variant).getFailureReason();
+    }
+
+    public void onSuccess(Variant variant) {
+        variantBreaker(variant).onSuccess();
+        networkBreaker(variant).onSuccess();
+        skippedMessages.remove(variant.getVariantID());
+    }
+
+    /**
+     * Records that a batch of the given push message was not sent to the variant, since {@link #allowRequest(Variant)} refused it.
+     *
+     * @param variant the variant
+     * @param pushMessageInformationId the ID of the push message
+     * @return true for the first skipped batch of the push message and variant since the last successful sending to the variant,
+     * false for the others, so that the error is recorded once for the push message
+     */
+    public boolean onRequestSkipped(Variant variant, String pushMessageInformationId) {
+        final Set<String> skipped = skippedMessages.computeIfAbsent(variant.getVariantID(), id -> ConcurrentHashMap.newKeySet());
+        if (skipped.size() >= MAX_SKIPPED_MESSAGES) {
+            skipped.clear();
+        }
+        return skipped.add(pushMessageInformationId);
+    }
+
+    public void onFailure(Variant variant, FailureKind kind, String reason) {
+        final long now = System.currentTimeMillis();
+        final CircuitBreaker breaker = variantBreaker(variant);
+        breaker.onFailure(kind, reason, now);
+        if (kind.isPushNetworkWide()) {
+            networkBreaker(variant).onFailure(kind, reason, now);
+        }
+        if (breaker.getState() == CircuitBreaker.State.OPEN) {
+            logger.warn("Sending to variant {} is suspended for {} ms after repeated failures: {}", variant.getVariantID(), coolDown, reason);
+        }
+    }
+
+    /**
+     * @return all breakers of push networks and variants that are not closed
+     */
+    public List<CircuitBreaker> getTrippedBreakers() {
+        final List<CircuitBreaker> tripped = new ArrayList<>();
+        networkBreakers.values().stream().filter(breaker -> breaker.getState() != CircuitBreaker.State.CLOSED).forEach(tripped::add);
+        variantBreakers.values().stream().filter(breaker -> breaker.getState() != CircuitBreaker.State.CLOSED).forEach(tripped::add);
+        return tripped;
+    }
+
+    private CircuitBreaker variantBreaker(Variant variant) {
+        return variantBreakers.computeIfAbsent(variant.getVariantID(),
+                id -> new CircuitBreaker("variant " + id, variantThreshold, coolDown));
+    }
+
+    private CircuitBreaker networkBreaker(Variant variant) {
+        return networkBreakers.computeIfAbsent(variant.getType().getTypeName(),
+                network -> new CircuitBreaker("push network " + network, networkThreshold, coolDown));
+    }
+}
@@ -17,6 +17,7 @@
 package org.jboss.aerogear.unifiedpush.message.sender;
 
 import com.google.android.gcm.server.Constants;
+import com.google.android.gcm.server.InvalidRequestException;
 import com.google.android.gcm.server.Message;
 import com.google.android.gcm.server.Message.Builder;
 import com.google.android.gcm.server.MulticastResult;
@@ -36,6 +37,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.util.*;
 
 @SenderType(VariantType.ANDROID)
@@ -96,6 +98,11 @@ public class FCMPushNotificationSender implements PushNotificationSender {
             fcmBuilder.timeToLive(ttl);
         }
 
+        // messages with the same consolidation key replace each other while waiting on the FCM servers
+        if (message.getConsolidationKey() != null) {
+            fcmBuilder.collapseKey(message.getConsolidationKey());
+        }
+
         // iterate over the missing keys:
         message.getUserData().keySet()
                 .forEach(key -> fcmBuilder.addData(key, String.valueOf(message.getUserData().get(key))));
@@ -122,8 +129,22 @@ public class FCMPushNotificationSender implements PushNotificationSender {
 
         } catch (Exception e) {
             // FCM exceptions:
-            callback.onError(String.format("Error sending payload to FCM server: %s", e.getMessage()));
+            callback.onVariantError(failureKindOf(e), String.format("Error sending payload to FCM server: %s", e.getMessage()));
+        }
+    }
+
+    /**
+     * FCM answers a request with an invalid or revoked server key of the variant with HTTP status 401 (or 403), such failures
+     * are specific to the variant. All others concern the push network.
+     */
+    static FailureKind failureKindOf(Exception e) {
+        if (e instanceof InvalidRequestException) {
+            final int status = ((InvalidRequestException) e).getHttpStatusCode();
+            if (status == HttpURLConnection.HTTP_UNAUTHORIZED || status == HttpURLConnection.HTTP_FORBIDDEN) {
+                return FailureKind.INVALID_CREDENTIALS;
+            }
         }
+        return FailureKind.PUSH_NETWORK_ERROR;
     }
 
     /**
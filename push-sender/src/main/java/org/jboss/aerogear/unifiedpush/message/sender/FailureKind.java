@@ -0,0 +1,53 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender;
+
+/**
+ * Kinds of failures reported through {@link NotificationSenderCallback#onVariantError(FailureKind, String)}.
+ *
+ * The {@link CircuitBreaker}s count consecutive failures of the same kind, regardless of the details of each failure.
+ */
+public enum FailureKind {
+
+    /**
+     * The credentials of the variant (certificate, signing key or VAPID keys) are invalid or expired
+     */
+    INVALID_CREDENTIALS(false),
+
+    /**
+     * No connection to the push network could be established
+     */
+    CONNECTION_FAILED(true),
+
+    /**
+     * The push network refused the request or could not be reached while sending
+     */
+    PUSH_NETWORK_ERROR(true);
+
+    private final boolean pushNetworkWide;
+
+    FailureKind(boolean pushNetworkWide) {
+        this.pushNetworkWide = pushNetworkWide;
+    }
+
+    /**
+     * @return true if failures of this kind also count for the breaker of the whole push network, false if they are specific to the variant
+     */
+    public boolean isPushNetworkWide() {
+        return pushNetworkWide;
+    }
+}
@@ -38,4 +38,35 @@ public interface NotificationSenderCallback {
      */
     void onError(String reason);
 
+    /**
+     * Indicator which will be called when the error is caused by the variant or the push network as a whole
+     * (e.g. invalid credentials or an unreachable push network), rather than by the message that was sent.
+     *
+     * Repeated errors of this kind stop the sending to the variant for a while (see {@link CircuitBreakerRegistry}).
+     *
+     * @param kind the kind of the error
+     * @param reason details about the error
+     */
+    default void onVariantError(FailureKind kind, String reason) {
+        onError(reason);
+    }
+
+    /**
+     * Indicator which will be called by senders that deliver asynchronously (see {@link PushNotificationSender#completesAsynchronously()}),
+     * once the push network answered for the given token, or the notification could not be written.
+     *
+     * @param token the device token
+     */
+    default void onTokenCompleted(String token) {
+    }
+
+    /**
+     * Asynchronous senders check this before writing each notification.
+     *
+     * @return true if the tokens that were not completed yet were handed back to the queue, e.g. on shutdown, and must not be sent anymore
+     */
+    default boolean isAbandoned() {
+        return false;
+    }
+
 }
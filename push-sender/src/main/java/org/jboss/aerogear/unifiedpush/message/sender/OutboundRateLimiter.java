@@ -0,0 +1,127 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender;
+
+import org.jboss.aerogear.unifiedpush.api.Variant;
+import org.jboss.aerogear.unifiedpush.message.configuration.SenderConfiguration;
+import org.jboss.aerogear.unifiedpush.service.metrics.PrometheusExporter;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.enterprise.inject.Any;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of notifications sent to the Push Networks, using token buckets.
+ *
+ * By default, one bucket is shared by all variants of a Push Network, configured by {@link SenderConfiguration#rateLimit()}
+ * and {@link SenderConfiguration#rateLimitBurst()}. A variant can get its own bucket by providing the system properties
+ * <tt>aerogear.variant.&lt;variantID&gt;.rateLimit</tt> and <tt>aerogear.variant.&lt;variantID&gt;.rateLimitBurst</tt>.
+ *
+ * When the budget is exhausted, the calling thread is held back until the reserved permits are available, instead of failing,
+ * but for at most <tt>aerogear.ratelimit.max.wait</tt> milliseconds: when the wait would be longer, no permits are reserved
+ * and the caller is told to hand the batch back to its queue with a delayed delivery, so that the consumer threads are not blocked.
+ *
+ * The buckets are local to each node: in a cluster, every node sends up to the configured limits, so the effective rate
+ * towards a Push Network is the limit multiplied by the number of nodes.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class OutboundRateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundRateLimiter.class);
+
+    // system property name used to tune the longest wait
+    public static final String AEROGEAR_RATE_LIMIT_MAX_WAIT = "aerogear.ratelimit.max.wait";
+
+    private final long maxWait = TimeUnit.MILLISECONDS.toNanos(ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_RATE_LIMIT_MAX_WAIT, 1000));
+
+    @Inject @Any
+    private Instance<SenderConfiguration> senderConfiguration;
+
+    private final ConcurrentMap<String, Optional<TokenBucket>> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Reserves permits for sending the given number of notifications to the given variant and waits until they are available,
+     * unless that takes longer than the configured maximum wait.
+     *
+     * @param variant the variant notifications are sent to
+     * @param notifications the number of notifications
+     * @return 0 if the notifications may be sent now, otherwise the delay in milliseconds after which the sending should be retried;
+     * no permits were reserved in that case
+     */
+    public long acquire(Variant variant, int notifications) {
+        final String variantKey = "variant:" + variant.getVariantID();
+        final String limiter;
+        Optional<TokenBucket> bucket = buckets.computeIfAbsent(variantKey, key -> variantBucket(variant));
+        if (bucket.isPresent()) {
+            limiter = variant.getVariantID();
+        } else {
+            limiter = variant.getType().getTypeName();
+            bucket = buckets.computeIfAbsent("network:" + limiter, key -> networkBucket(variant));
+        }
+        if (!bucket.isPresent()) {
+            return 0;
+        }
+
+        final long waitNanos = bucket.get().tryReserve(notifications, maxWait, System.nanoTime());
+        PrometheusExporter.instance().setRateLimiterAvailablePermits(limiter, bucket.get().availablePermits(System.nanoTime()));
+        if (waitNanos > maxWait) {
+            logger.debug("Rate limit of {} exhausted, {} notifications have to be sent in {} ms", limiter, notifications, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            return Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+        }
+        if (waitNanos > 0) {
+            logger.debug("Rate limit of {} exhausted, holding back {} notifications for {} ms", limiter, notifications, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            PrometheusExporter.instance().increaseRateLimiterThrottledTime(limiter, waitNanos / (double) TimeUnit.SECONDS.toNanos(1));
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return 0;
+    }
+
+    private Optional<TokenBucket> variantBucket(Variant variant) {
+        final String prefix = "aerogear.variant." + variant.getVariantID() + ".";
+        final int rateLimit = ConfigurationUtils.tryGetGlobalIntegerProperty(prefix + "rateLimit", 0);
+        if (rateLimit <= 0) {
+            return Optional.empty();
+        }
+        final int burst = ConfigurationUtils.tryGetGlobalIntegerProperty(prefix + "rateLimitBurst", rateLimit);
+        logger.info("Limiting variant {} to {} notifications per second (burst {})", variant.getVariantID(), rateLimit, burst);
+        return Optional.of(new TokenBucket(rateLimit, burst, System.nanoTime()));
+    }
+
+    private Optional<TokenBucket> networkBucket(Variant variant) {
+        final SenderConfiguration configuration = senderConfiguration.select(new SenderTypeLiteral(variant.getType())).get();
+        if (configuration.rateLimit() <= 0) {
+            return Optional.empty();
+        }
+        logger.info("Limiting {} to {} notifications per second (burst {})", variant.getType().getTypeName(), configuration.rateLimit(), configuration.rateLimitBurst());
+        return Optional.of(new TokenBucket(configuration.rateLimit(), configuration.rateLimitBurst(), System.nanoTime()));
+    }
+}
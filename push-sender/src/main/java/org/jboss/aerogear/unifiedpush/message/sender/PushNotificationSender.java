@@ -38,4 +38,21 @@ public interface PushNotificationSender {
      *                       of the request (<code>success</code> or <code>error</code>
      */
     void sendPushMessage(Variant variant, Collection<String> clientIdentifiers, UnifiedPushMessage pushMessage, String pushMessageInformationId, NotificationSenderCallback senderCallback);
+
+    /**
+     * Prepares the connection to the underlying push network for the given variant ahead of the first send, for senders
+     * that keep connections per variant. The default implementation does nothing.
+     *
+     * @param variant contains details for the underlying push network, e.g. API Keys/Ids
+     */
+    default void warmUp(Variant variant) {
+    }
+
+    /**
+     * @return true if {@link #sendPushMessage(Variant, Collection, UnifiedPushMessage, String, NotificationSenderCallback)} returns before
+     * the push network answered, and the sender reports each token through {@link NotificationSenderCallback#onTokenCompleted(String)}
+     */
+    default boolean completesAsynchronously() {
+        return false;
+    }
 }
@@ -0,0 +1,85 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket that is refilled with a constant rate up to its capacity.
+ *
+ * Permits are reserved rather than taken: when there are not enough permits in the bucket, the reservation still succeeds as long as
+ * the caller is willing to wait, the bucket goes into debt and the caller is told how long to wait until the debt is paid off.
+ * This allows to reserve more permits than the capacity of the bucket (e.g. one batch of device tokens), while keeping the rate.
+ */
+class TokenBucket {
+
+    private final double ratePerNano;
+    private final double capacity;
+
+    private double available;
+    private long lastRefill;
+
+    /**
+     * @param ratePerSecond number of permits added to the bucket every second
+     * @param capacity maximum number of permits in the bucket
+     * @param now current time in nanoseconds
+     */
+    TokenBucket(int ratePerSecond, int capacity, long now) {
+        this.ratePerNano = ratePerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+        this.capacity = Math.max(1, capacity);
+        this.available = this.capacity;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Reserves the given number of permits, unless the caller would have to wait longer than the given time.
+     *
+     * A full bucket always grants the reservation, so that reservations larger than the capacity are not refused forever.
+     *
+     * @param permits number of permits to reserve
+     * @param maxWait longest time in nanoseconds the caller is willing to wait
+     * @param now current time in nanoseconds
+     * @return time in nanoseconds the caller has to wait before using the reserved permits; when it is longer than <code>maxWait</code>,
+     * no permits were reserved and the caller should try again after that time
+     */
+    synchronized long tryReserve(int permits, long maxWait, long now) {
+        refill(now);
+        final double remaining = available - permits;
+        final long wait = remaining >= 0 ? 0 : (long) Math.ceil(-remaining / ratePerNano);
+        if (wait <= maxWait || available >= capacity) {
+            available = remaining;
+            return Math.min(wait, maxWait);
+        }
+        return wait;
+    }
+
+    /**
+     * @param now current time in nanoseconds
+     * @return number of permits currently in the bucket, negative if the bucket is in debt
+     */
+    synchronized double availablePermits(long now) {
+        refill(now);
+        return available;
+    }
+
+    private void refill(long now) {
+        if (now > lastRefill) {
+            available = Math.min(capacity, available + (now - lastRefill) * ratePerNano);
+            lastRefill = now;
+        }
+    }
+}
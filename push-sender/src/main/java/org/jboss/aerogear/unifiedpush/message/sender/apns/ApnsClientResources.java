@@ -0,0 +1,147 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender.apns;
+
+import com.turo.pushy.apns.ApnsClientBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Resources shared by all APNs clients.
+ *
+ * All clients use the same Netty event loop group, instead of creating one group per variant. The number of concurrent
+ * connections of a client is derived from the number of notifications recently sent to its variant: when a variant needs
+ * more connections than its cached client was built with, the client is rebuilt. Clients are scaled down when they expire.
+ *
+ * Idle connections are pinged periodically, so that broken connections are closed before the next batch needs them.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ApnsClientResources {
+
+    private static final Logger logger = LoggerFactory.getLogger(ApnsClientResources.class);
+
+    // system property names used to tune the APNs clients
+    public static final String AEROGEAR_APNS_EVENT_LOOP_THREADS = "aerogear.apns.eventloop.threads";
+    public static final String AEROGEAR_APNS_MAX_CONNECTIONS = "aerogear.apns.connections.max";
+    public static final String AEROGEAR_APNS_CONNECTION_CAPACITY = "aerogear.apns.connection.capacity";
+    public static final String AEROGEAR_APNS_PING_INTERVAL = "aerogear.apns.ping.interval";
+
+    private final int eventLoopThreads = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_APNS_EVENT_LOOP_THREADS, Runtime.getRuntime().availableProcessors());
+    private final int maxConnections = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_APNS_MAX_CONNECTIONS, 8);
+    // notifications per minute a single connection is expected to handle
+    private final int connectionCapacity = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_APNS_CONNECTION_CAPACITY, 50000);
+    // seconds an idle connection waits before it is checked with a HTTP/2 PING
+    private final int pingInterval = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_APNS_PING_INTERVAL, 60);
+
+    private final ConcurrentMap<String, BatchVolume> volumes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Integer> builtConnections = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, PrometheusApnsMetricsListener> listeners = new ConcurrentHashMap<>();
+
+    private EventLoopGroup eventLoopGroup;
+
+    @PostConstruct
+    public void start() {
+        logger.info("Starting shared APNs event loop group with {} threads", eventLoopThreads);
+        eventLoopGroup = new NioEventLoopGroup(eventLoopThreads, new DefaultThreadFactory("apns-client"));
+    }
+
+    @PreDestroy
+    public void stop() {
+        logger.debug("Shutting down shared APNs event loop group");
+        eventLoopGroup.shutdownGracefully();
+    }
+
+    /**
+     * Records a batch of notifications sent through the given client.
+     *
+     * @param clientID the variant, or the signing key of a client shared by token based variants
+     * @param notifications the number of notifications in the batch
+     * @return true if the cached client has fewer connections than the recent volume needs and should be rebuilt
+     */
+    public boolean recordBatch(String clientID, int notifications) {
+        final long now = System.currentTimeMillis();
+        final BatchVolume volume = volumes.computeIfAbsent(clientID, id -> new BatchVolume(now));
+        volume.record(notifications, now);
+
+        final Integer built = builtConnections.get(clientID);
+        return built != null && built < connectionsFor(volume.perMinute(now));
+    }
+
+    /**
+     * Configures the builder of the given APNs client with the shared event loop group,
+     * the number of concurrent connections it needs, the idle ping interval and the Prometheus metrics listener.
+     *
+     * @param builder the builder of the client
+     * @param clientID the variant, or the signing key of a client shared by token based variants
+     */
+    public void configure(ApnsClientBuilder builder, String clientID) {
+        final BatchVolume volume = volumes.get(clientID);
+        final int connections = volume == null ? 1 : connectionsFor(volume.perMinute(System.currentTimeMillis()));
+        final PrometheusApnsMetricsListener listener = new PrometheusApnsMetricsListener(clientID);
+        builtConnections.put(clientID, connections);
+        listeners.put(clientID, listener);
+        logger.debug("Building APNs client for {} with {} concurrent connections", clientID, connections);
+
+        builder.setEventLoopGroup(eventLoopGroup)
+                .setConcurrentConnections(connections)
+                .setIdlePingInterval(pingInterval, TimeUnit.SECONDS)
+                .setMetricsListener(listener);
+    }
+
+    /**
+     * Forgets the given client and its recent volume, after it was removed from the cache.
+     *
+     * @param clientID the variant, or the signing key of a client shared by token based variants
+     */
+    public void clientClosed(String clientID) {
+        volumes.remove(clientID);
+        builtConnections.remove(clientID);
+        listeners.remove(clientID);
+    }
+
+    /**
+     * @return IDs of the clients that have no open connection and failed to reconnect
+     */
+    public List<String> findBrokenClients() {
+        return listeners.entrySet().stream()
+                .filter(entry -> entry.getValue().isBroken())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    private int connectionsFor(long notificationsPerMinute) {
+        final long needed = (notificationsPerMinute + connectionCapacity - 1) / connectionCapacity;
+        return (int) Math.max(1, Math.min(maxConnections, needed));
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender.apns;
+
+import org.jboss.aerogear.unifiedpush.api.APNSVariant;
+import org.jboss.aerogear.unifiedpush.api.Variant;
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.dao.VariantDao;
+import org.jboss.aerogear.unifiedpush.message.cache.SimpleApnsClientCache;
+import org.jboss.aerogear.unifiedpush.message.event.VariantsRoutedEvent;
+import org.jboss.aerogear.unifiedpush.message.sender.PushNotificationSender;
+import org.jboss.aerogear.unifiedpush.message.sender.SenderTypeLiteral;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import javax.ejb.Asynchronous;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.enterprise.inject.Any;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the APNs clients of active variants ready, so that loading credentials and building the client does not delay sending.
+ *
+ * <ul>
+ *     <li>shortly after startup, clients are built for variants whose push application sent messages recently</li>
+ *     <li>when a push message is routed, clients of its APNs variants are built while the tokens are being loaded</li>
+ *     <li>periodically, clients that lost all connections and failed to reconnect are rebuilt</li>
+ * </ul>
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ApnsClientWarmer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ApnsClientWarmer.class);
+
+    // system property names used to tune the warm up
+    public static final String AEROGEAR_APNS_PREWARM_WINDOW = "aerogear.apns.prewarm.window";
+    public static final String AEROGEAR_APNS_PREWARM_MAX = "aerogear.apns.prewarm.max";
+    public static final String AEROGEAR_APNS_HEALTH_INTERVAL = "aerogear.apns.health.interval";
+
+    private static final EnumSet<VariantType> APNS_TYPES = EnumSet.of(VariantType.IOS, VariantType.IOS_TOKEN);
+    private static final long STARTUP_DELAY = TimeUnit.SECONDS.toMillis(10);
+    private static final String PREWARM = "prewarm";
+    private static final String HEALTH_CHECK = "health-check";
+
+    // hours to look back for active variants at startup, 0 disables the warm up at startup
+    private final int prewarmWindow = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_APNS_PREWARM_WINDOW, 24);
+    private final int prewarmMax = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_APNS_PREWARM_MAX, 100);
+    // seconds between checks for broken clients, 0 disables the checks
+    private final int healthInterval = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_APNS_HEALTH_INTERVAL, 60);
+
+    @Resource
+    private TimerService timerService;
+
+    @Inject
+    private VariantDao variantDao;
+
+    @Inject
+    @Any
+    private Instance<PushNotificationSender> senders;
+
+    @Inject
+    private SimpleApnsClientCache simpleApnsClientCache;
+
+    @Inject
+    private ApnsClientResources apnsClientResources;
+
+    @PostConstruct
+    public void scheduleTimers() {
+        if (prewarmWindow > 0) {
+            timerService.createSingleActionTimer(STARTUP_DELAY, new TimerConfig(PREWARM, false));
+        }
+        if (healthInterval > 0) {
+            final long interval = TimeUnit.SECONDS.toMillis(healthInterval);
+            timerService.createIntervalTimer(interval, interval, new TimerConfig(HEALTH_CHECK, false));
+        }
+    }
+
+    @Timeout
+    public void onTimeout(Timer timer) {
+        if (PREWARM.equals(timer.getInfo())) {
+            warmUpRecentlyActiveVariants();
+        } else {
+            reconnectBrokenClients();
+        }
+    }
+
+    /**
+     * Builds the clients of the APNs variants a push message was just routed to.
+     *
+     * @param event event fired by the router
+     */
+    @Asynchronous
+    public void onVariantsRouted(@Observes(during = TransactionPhase.AFTER_SUCCESS) VariantsRoutedEvent event) {
+        event.getVariants().stream()
+                .filter(variant -> APNS_TYPES.contains(variant.getType()))
+                .forEach(this::warmUp);
+    }
+
+    private void warmUpRecentlyActiveVariants() {
+        final Date since = new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(prewarmWindow));
+        final List<Variant> variants = variantDao.findVariantsWithMessagesSince(APNS_TYPES, since, prewarmMax);
+        logger.info("Warming up APNs clients for {} recently active variants", variants.size());
+        variants.forEach(this::warmUp);
+    }
+
+    private void reconnectBrokenClients() {
+        apnsClientResources.findBrokenClients().forEach(clientID -> {
+            logger.info("APNs client {} is not able to connect, rebuilding it", clientID);
+            simpleApnsClientCache.disconnectClient(clientID);
+
+            // clients shared by token based variants are rebuilt on their next send
+            final Variant variant = variantDao.findByVariantID(clientID);
+            if (variant != null) {
+                warmUp(variant);
+            }
+        });
+    }
+
+    private void warmUp(Variant variant) {
+        if (simpleApnsClientCache.isCached((APNSVariant) variant)) {
+            // building the client again would only load the credentials again
+            return;
+        }
+        try {
+            senders.select(new SenderTypeLiteral(variant.getType())).get().warmUp(variant);
+        } catch (RuntimeException e) {
+            logger.warn("Unable to warm up client for variant {}: {}", variant.getVariantID(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender.apns;
+
+import com.turo.pushy.apns.auth.ApnsSigningKey;
+import org.jboss.aerogear.unifiedpush.api.iOSTokenVariant;
+import org.jboss.aerogear.unifiedpush.service.metrics.PrometheusExporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Manages the .p8 signing keys of token based iOS variants.
+ *
+ * A signing key is identified by the Apple team and its key ID. Each key is parsed once and all variants using the same
+ * credentials share one APNs client, since the topic (bundle ID) is set per notification. When the content of a key changes
+ * for the same team and key ID, the key is parsed again and the variants get a new client.
+ *
+ * The provider (JWT) tokens are signed and refreshed by the APNs client; rejections of provider tokens are tracked per key.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ApnsSigningKeyManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(ApnsSigningKeyManager.class);
+
+    static final String EXPIRED_PROVIDER_TOKEN = "ExpiredProviderToken";
+    static final String INVALID_PROVIDER_TOKEN = "InvalidProviderToken";
+
+    private final ConcurrentMap<String, SigningKeyEntry> signingKeys = new ConcurrentHashMap<>();
+
+    /**
+     * @param variant the token based variant
+     * @return ID of the client shared by all variants with the same team and key ID
+     */
+    public static String extractClientID(final iOSTokenVariant variant) {
+        return variant.getTeamId() + "." + variant.getKeyId();
+    }
+
+    /**
+     * @param variant the token based variant
+     * @return false if a different key was parsed for the team and key ID of the variant, and its client has to be rebuilt
+     */
+    public boolean isCurrent(final iOSTokenVariant variant) {
+        final SigningKeyEntry entry = signingKeys.get(extractClientID(variant));
+        return entry == null || entry.fingerprint.equals(fingerprint(variant.getPrivateKey()));
+    }
+
+    /**
+     * Returns the parsed signing key of the variant, parsing it only when it was not parsed before or its content changed.
+     *
+     * @param variant the token based variant
+     * @return the signing key
+     * @throws IOException if the key can not be read
+     * @throws NoSuchAlgorithmException if the JVM does not support elliptic curve keys
+     * @throws InvalidKeyException if the key is not a valid signing key
+     */
+    public ApnsSigningKey getSigningKey(final iOSTokenVariant variant) throws IOException, NoSuchAlgorithmException, InvalidKeyException {
+        final String clientID = extractClientID(variant);
+        final String fingerprint = fingerprint(variant.getPrivateKey());
+
+        final SigningKeyEntry entry = signingKeys.get(clientID);
+        if (entry != null && entry.fingerprint.equals(fingerprint)) {
+            return entry.signingKey;
+        }
+
+        logger.debug("Parsing signing key {}", clientID);
+        try (final ByteArrayInputStream stream = new ByteArrayInputStream(variant.getPrivateKey().getBytes(StandardCharsets.UTF_8))) {
+            final ApnsSigningKey signingKey = ApnsSigningKey.loadFromInputStream(stream, variant.getTeamId(), variant.getKeyId());
+            signingKeys.put(clientID, new SigningKeyEntry(signingKey, fingerprint));
+            PrometheusExporter.instance().increaseApnsSigningKeyLoads(clientID);
+            return signingKey;
+        }
+    }
+
+    /**
+     * Records that APNs rejected a notification because of the provider token of the given client.
+     *
+     * @param clientID the ID of the client, see {@link #extractClientID(iOSTokenVariant)}
+     * @param reason the rejection reason
+     */
+    public void onProviderTokenRejected(final String clientID, final String reason) {
+        PrometheusExporter.instance().increaseApnsProviderTokenRejections(clientID, reason);
+        final SigningKeyEntry entry = signingKeys.get(clientID);
+        if (EXPIRED_PROVIDER_TOKEN.equals(reason)) {
+            // the client signs a new token for the following notifications
+            final long refreshes = entry == null ? 0 : entry.expiredTokens.incrementAndGet();
+            logger.debug("Provider token of {} expired, it was refreshed {} times", clientID, refreshes);
+        } else {
+            logger.warn("Provider token of {} was rejected ({}), the signing key may have been revoked", clientID, reason);
+        }
+    }
+
+    /**
+     * @param reason the rejection reason of a notification
+     * @return true if the notification was rejected because of the provider token
+     */
+    static boolean isProviderTokenRejection(final String reason) {
+        return EXPIRED_PROVIDER_TOKEN.equals(reason) || INVALID_PROVIDER_TOKEN.equals(reason);
+    }
+
+    private static String fingerprint(final String privateKey) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(privateKey.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class SigningKeyEntry {
+        private final ApnsSigningKey signingKey;
+        private final String fingerprint;
+        private final AtomicLong expiredTokens = new AtomicLong();
+
+        SigningKeyEntry(ApnsSigningKey signingKey, String fingerprint) {
+            this.signingKey = signingKey;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
@@ -21,7 +21,10 @@ import org.slf4j.LoggerFactory;
 
 import javax.security.auth.x500.X500Principal;
 import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateNotYetValidException;
 import java.security.cert.X509Certificate;
@@ -36,6 +39,8 @@ public final class ApnsUtil {
     private static final String KEYSTORE_TYPE = "PKCS12";
     private static final Pattern TOPIC_PATTERN = Pattern.compile(".*UID=([^,]+).*");
     private static final Pattern COMMON_NAME_PATTERN = Pattern.compile("CN=(.*?)\\:");
+    // APNs rejects an apns-collapse-id header that is longer than 64 bytes
+    private static final int MAX_COLLAPSE_ID_BYTES = 64;
     private static final List<String> PUSH_SUBJECTS =
             Arrays.asList(
                     "Apple Push Services",
@@ -114,4 +119,31 @@ public final class ApnsUtil {
             return false; // garbage is also not valid
         }
     }
+
+    /**
+     * Maps the consolidation key of a message to the <tt>apns-collapse-id</tt> header.
+     *
+     * Keys that are longer than allowed by APNs are replaced by their SHA-256 hash, so that distinct keys stay distinct.
+     *
+     * @param consolidationKey the consolidation key of the message, may be null
+     * @return the collapse identifier, or null if the message has no consolidation key
+     */
+    public static String toCollapseId(final String consolidationKey) {
+        if (consolidationKey == null || consolidationKey.isEmpty()) {
+            return null;
+        }
+        final byte[] bytes = consolidationKey.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAX_COLLAPSE_ID_BYTES) {
+            return consolidationKey;
+        }
+        try {
+            final StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
 }
@@ -0,0 +1,63 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender.apns;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the number of notifications sent to a variant per minute, using a sliding window over two fixed one-minute windows.
+ */
+class BatchVolume {
+
+    private static final long WINDOW = TimeUnit.MINUTES.toMillis(1);
+
+    private long windowStart;
+    private long currentCount;
+    private long previousCount;
+
+    BatchVolume(long now) {
+        this.windowStart = now;
+    }
+
+    /**
+     * @param notifications number of notifications in the batch
+     * @param now current time in milliseconds
+     */
+    synchronized void record(int notifications, long now) {
+        roll(now);
+        currentCount += notifications;
+    }
+
+    /**
+     * @param now current time in milliseconds
+     * @return estimated number of notifications sent within the last minute
+     */
+    synchronized long perMinute(long now) {
+        roll(now);
+        final double previousWeight = 1 - (now - windowStart) / (double) WINDOW;
+        return currentCount + (long) (previousCount * previousWeight);
+    }
+
+    private void roll(long now) {
+        final long elapsedWindows = (now - windowStart) / WINDOW;
+        if (elapsedWindows > 0) {
+            previousCount = elapsedWindows == 1 ? currentCount : 0;
+            currentCount = 0;
+            windowStart += elapsedWindows * WINDOW;
+        }
+    }
+}
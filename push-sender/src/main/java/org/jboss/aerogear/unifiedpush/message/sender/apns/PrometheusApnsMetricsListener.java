@@ -0,0 +1,84 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender.apns;
+
+import com.turo.pushy.apns.ApnsClient;
+import com.turo.pushy.apns.ApnsClientMetricsListener;
+import org.jboss.aerogear.unifiedpush.service.metrics.PrometheusExporter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reports the events of the {@link ApnsClient} of a variant (or of variants sharing a signing key) to the {@link PrometheusExporter}
+ * and keeps track of its connections, so that broken clients can be detected.
+ */
+class PrometheusApnsMetricsListener implements ApnsClientMetricsListener {
+
+    private final String clientID;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger failedConnectionAttempts = new AtomicInteger();
+
+    PrometheusApnsMetricsListener(String clientID) {
+        this.clientID = clientID;
+    }
+
+    @Override
+    public void handleWriteFailure(ApnsClient apnsClient, long notificationId) {
+        PrometheusExporter.instance().increaseApnsNotifications(clientID, "write_failure");
+    }
+
+    @Override
+    public void handleNotificationSent(ApnsClient apnsClient, long notificationId) {
+        PrometheusExporter.instance().increaseApnsNotifications(clientID, "sent");
+    }
+
+    @Override
+    public void handleNotificationAccepted(ApnsClient apnsClient, long notificationId) {
+        PrometheusExporter.instance().increaseApnsNotifications(clientID, "accepted");
+    }
+
+    @Override
+    public void handleNotificationRejected(ApnsClient apnsClient, long notificationId) {
+        PrometheusExporter.instance().increaseApnsNotifications(clientID, "rejected");
+    }
+
+    @Override
+    public void handleConnectionAdded(ApnsClient apnsClient) {
+        openConnections.incrementAndGet();
+        failedConnectionAttempts.set(0);
+        PrometheusExporter.instance().changeApnsConnections(clientID, 1);
+    }
+
+    @Override
+    public void handleConnectionRemoved(ApnsClient apnsClient) {
+        openConnections.decrementAndGet();
+        PrometheusExporter.instance().changeApnsConnections(clientID, -1);
+    }
+
+    @Override
+    public void handleConnectionCreationFailed(ApnsClient apnsClient) {
+        failedConnectionAttempts.incrementAndGet();
+        PrometheusExporter.instance().increaseApnsConnectionFailures(clientID);
+    }
+
+    /**
+     * @return true if the client has no open connection and failed to connect since its last successful connection
+     */
+    boolean isBroken() {
+        return openConnections.get() <= 0 && failedConnectionAttempts.get() > 0;
+    }
+}
@@ -35,6 +35,7 @@ import org.jboss.aerogear.unifiedpush.message.Message;
 import org.jboss.aerogear.unifiedpush.message.UnifiedPushMessage;
 import org.jboss.aerogear.unifiedpush.message.apns.APNs;
 import org.jboss.aerogear.unifiedpush.message.cache.SimpleApnsClientCache;
+import org.jboss.aerogear.unifiedpush.message.sender.FailureKind;
 import org.jboss.aerogear.unifiedpush.message.sender.NotificationSenderCallback;
 import org.jboss.aerogear.unifiedpush.message.sender.PushNotificationSender;
 import org.jboss.aerogear.unifiedpush.message.sender.SenderType;
@@ -76,6 +77,8 @@ public class PushyApnsSender implements PushNotificationSender {
     private ClientInstallationService clientInstallationService;
     @Inject
     private Event<APNSVariantUpdateEvent> variantUpdateEventEvent;
+    @Inject
+    private ApnsClientResources apnsClientResources;
 
     @Override
     public void sendPushMessage(final Variant variant, final Collection<String> tokens, final UnifiedPushMessage pushMessage,
@@ -94,7 +97,7 @@ public class PushyApnsSender implements PushNotificationSender {
     private void handleCertificateVariant(iOSVariant iOSVariant, NotificationSenderCallback senderCallback, UnifiedPushMessage pushMessage, String pushMessageInformationId, Collection<String> tokens) {
         // Check the certificate first
         if (!ApnsUtil.checkValidity(iOSVariant.getCertificate(), iOSVariant.getPassphrase().toCharArray())) {
-            senderCallback.onError("The provided certificate is invalid or expired for variant " + iOSVariant.getId());
+            senderCallback.onVariantError(FailureKind.INVALID_CREDENTIALS, "The provided certificate is invalid or expired for variant " + iOSVariant.getId());
             return;
         }
 
@@ -109,53 +112,95 @@ public class PushyApnsSender implements PushNotificationSender {
             }
         }
 
+        // the volume of the variant outgrew the connections of its cached client
+        if (apnsClientResources.recordBatch(iOSVariant.getVariantID(), tokens.size())) {
+            logger.info("Reconnecting to APNs with more concurrent connections for {}", iOSVariant.getVariantID());
+            try {
+                simpleApnsClientCache.reconnect(iOSVariant, () -> buildApnsClient(iOSVariant));
+            } catch (IllegalArgumentException iae) {
+                logger.warn("Unable to reconnect to APNs for {}: {}", iOSVariant.getVariantID(), iae.getMessage());
+            }
+        }
+
         final ApnsClient apnsClient;
         {
             try {
-                apnsClient = receiveApnsConnection(iOSVariant);
+                apnsClient = simpleApnsClientCache.acquireApnsClientForVariant(iOSVariant, () -> buildApnsClient(iOSVariant));
             } catch (IllegalArgumentException iae) {
                 logger.error(iae.getMessage(), iae);
-                senderCallback.onError(String.format("Unable to connect to APNs (%s))", iae.getMessage()));
+                senderCallback.onVariantError(FailureKind.CONNECTION_FAILED, String.format("Unable to connect to APNs (%s))", iae.getMessage()));
                 return;
             }
         }
 
         if (apnsClient != null) {
-
-            // we are connected and are about to send
-            // notifications to all tokens of the batch
-            PrometheusExporter.instance().increaseTotalPushIosRequests();
-
-            // we have managed to connect and will send tokens ;-)
-            senderCallback.onSuccess();
-
-            final String defaultApnsTopic = ApnsUtil.readDefaultTopic(iOSVariant.getCertificate(),
-                    iOSVariant.getPassphrase().toCharArray());
-            Date expireDate = createFutureDateBasedOnTTL(pushMessage.getConfig().getTimeToLive());
-            logger.debug("sending payload for all tokens for {} to APNs ({})", iOSVariant.getVariantID(), defaultApnsTopic);
-
-            tokens.forEach(token -> {
-                final SimpleApnsPushNotification pushNotification = new SimpleApnsPushNotification(token,
-                        defaultApnsTopic, payload, expireDate, DeliveryPriority.IMMEDIATE,
-                        determinePushType(pushMessage.getMessage()), null, null);
-                final Future<PushNotificationResponse<SimpleApnsPushNotification>> notificationSendFuture = apnsClient
-                        .sendNotification(pushNotification);
-
-                notificationSendFuture.addListener(future -> {
-
-                    if (future.isSuccess()) {
-                        handlePushNotificationResponsePerToken(notificationSendFuture.get());
+            try {
+                // we are connected and are about to send
+                // notifications to all tokens of the batch
+                PrometheusExporter.instance().increaseTotalPushIosRequests();
+
+                // we have managed to connect and will send tokens ;-)
+                senderCallback.onSuccess();
+
+                final String defaultApnsTopic = ApnsUtil.readDefaultTopic(iOSVariant.getCertificate(),
+                        iOSVariant.getPassphrase().toCharArray());
+                Date expireDate = createFutureDateBasedOnTTL(pushMessage.getConfig().getTimeToLive());
+                // notifications with the same consolidation key replace each other while waiting for an offline device
+                final String collapseId = ApnsUtil.toCollapseId(pushMessage.getMessage().getConsolidationKey());
+                logger.debug("sending payload for all tokens for {} to APNs ({})", iOSVariant.getVariantID(), defaultApnsTopic);
+
+                for (final String token : tokens) {
+                    // the drain deadline passed, the remaining tokens were handed back to the queue
+                    if (senderCallback.isAbandoned()) {
+                        logger.info("Stopped sending to {}, the remaining tokens were requeued", iOSVariant.getVariantID());
+                        break;
                     }
-                });
-            });
+                    final SimpleApnsPushNotification pushNotification = new SimpleApnsPushNotification(token,
+                            defaultApnsTopic, payload, expireDate, DeliveryPriority.IMMEDIATE,
+                            determinePushType(pushMessage.getMessage()), collapseId, null);
+                    final Future<PushNotificationResponse<SimpleApnsPushNotification>> notificationSendFuture = apnsClient
+                            .sendNotification(pushNotification);
+                    // the client is not closed by a reconnect before APNs answered
+                    simpleApnsClientCache.track(apnsClient, notificationSendFuture);
+
+                    notificationSendFuture.addListener(future -> {
+                        senderCallback.onTokenCompleted(token);
+
+                        if (future.isSuccess()) {
+                            handlePushNotificationResponsePerToken(notificationSendFuture.get());
+                        }
+                    });
+                }
+            } finally {
+                simpleApnsClientCache.release(apnsClient);
+            }
 
         } else {
             logger.error("Unable to send notifications, client is not connected. Removing from cache pool");
-            senderCallback.onError("Unable to send notifications, client is not connected");
+            senderCallback.onVariantError(FailureKind.CONNECTION_FAILED, "Unable to send notifications, client is not connected");
             variantUpdateEventEvent.fire(new APNSVariantUpdateEvent(iOSVariant));
         }
     }
 
+    @Override
+    public boolean completesAsynchronously() {
+        return true;
+    }
+
+    @Override
+    public void warmUp(final Variant variant) {
+        final iOSVariant apnsVariant = (iOSVariant) variant;
+        if (!ApnsUtil.checkValidity(apnsVariant.getCertificate(), apnsVariant.getPassphrase().toCharArray())) {
+            logger.debug("Not warming up APNs client for {}, the certificate is invalid or expired", apnsVariant.getVariantID());
+            return;
+        }
+        try {
+            simpleApnsClientCache.getApnsClientForVariant(apnsVariant, () -> buildApnsClient(apnsVariant));
+        } catch (IllegalArgumentException iae) {
+            logger.warn("Unable to warm up APNs client for {}: {}", apnsVariant.getVariantID(), iae.getMessage());
+        }
+    }
+
     /**
      * Helper method that creates a future {@link Date}, based on the given ttl/time-to-live value.
      * If no TTL was provided, we use the default value from the APNs library
@@ -226,27 +271,26 @@ public class PushyApnsSender implements PushNotificationSender {
         return payloadBuilder.buildWithDefaultMaximumLength();
     }
 
-    private synchronized ApnsClient receiveApnsConnection(final iOSVariant apnsVariant) {
-        return simpleApnsClientCache.getApnsClientForVariant(apnsVariant, () -> {
-            final ApnsClientBuilder builder = new ApnsClientBuilder();
+    private ApnsClient buildApnsClient(final iOSVariant apnsVariant) {
+        final ApnsClientBuilder builder = new ApnsClientBuilder();
 
-            assambleApnsClientBuilderForCertificate(apnsVariant, builder);
+        assambleApnsClientBuilderForCertificate(apnsVariant, builder);
 
-            connectToDestinations(apnsVariant, builder);
+        connectToDestinations(apnsVariant, builder);
 
-            // connect and wait, ONLY when we have a valid client
-            logger.debug("establishing the connection for {}", apnsVariant.getVariantID());
-            ApnsClient apnsClient;
-            try {
-                logger.debug("connecting to APNs");
-                apnsClient = builder.build();
-                return apnsClient;
-            } catch (SSLException e) {
-                logger.error("Error connecting to APNs", e);
-            }
-            return null;
+        apnsClientResources.configure(builder, apnsVariant.getVariantID());
 
-        });
+        // connect and wait, ONLY when we have a valid client
+        logger.debug("establishing the connection for {}", apnsVariant.getVariantID());
+        ApnsClient apnsClient;
+        try {
+            logger.debug("connecting to APNs");
+            apnsClient = builder.build();
+            return apnsClient;
+        } catch (SSLException e) {
+            logger.error("Error connecting to APNs", e);
+        }
+        return null;
     }
 
     private void assambleApnsClientBuilderForCertificate(final iOSVariant iOSVariant, final ApnsClientBuilder builder) {
@@ -21,7 +21,6 @@ import com.turo.pushy.apns.ApnsClientBuilder;
 import com.turo.pushy.apns.DeliveryPriority;
 import com.turo.pushy.apns.PushNotificationResponse;
 import com.turo.pushy.apns.PushType;
-import com.turo.pushy.apns.auth.ApnsSigningKey;
 import com.turo.pushy.apns.proxy.HttpProxyHandlerFactory;
 import com.turo.pushy.apns.proxy.Socks5ProxyHandlerFactory;
 import com.turo.pushy.apns.util.ApnsPayloadBuilder;
@@ -36,6 +35,7 @@ import org.jboss.aerogear.unifiedpush.message.Message;
 import org.jboss.aerogear.unifiedpush.message.UnifiedPushMessage;
 import org.jboss.aerogear.unifiedpush.message.apns.APNs;
 import org.jboss.aerogear.unifiedpush.message.cache.SimpleApnsClientCache;
+import org.jboss.aerogear.unifiedpush.message.sender.FailureKind;
 import org.jboss.aerogear.unifiedpush.message.sender.NotificationSenderCallback;
 import org.jboss.aerogear.unifiedpush.message.sender.PushNotificationSender;
 import org.jboss.aerogear.unifiedpush.message.sender.SenderType;
@@ -49,7 +49,6 @@ import javax.ejb.Stateless;
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.net.ssl.SSLException;
-import java.io.ByteArrayInputStream;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Map;
@@ -77,6 +76,10 @@ public class PushyIosTokenSender implements PushNotificationSender {
     private ClientInstallationService clientInstallationService;
     @Inject
     private Event<APNSVariantUpdateEvent> variantUpdateEventEvent;
+    @Inject
+    private ApnsClientResources apnsClientResources;
+    @Inject
+    private ApnsSigningKeyManager signingKeyManager;
 
     @Override
     public void sendPushMessage(final Variant variant, final Collection<String> tokens, final UnifiedPushMessage pushMessage,
@@ -105,52 +108,94 @@ public class PushyIosTokenSender implements PushNotificationSender {
             }
         }
 
+        // variants with the same signing key share one client
+        final String clientID = ApnsSigningKeyManager.extractClientID(iOSTokenVariant);
+
+        // the volume of the shared client may have outgrown its connections,
+        // a changed signing key is cached with a client of its own
+        if (apnsClientResources.recordBatch(clientID, tokens.size())) {
+            logger.info("Reconnecting to APNs with more concurrent connections for {}", clientID);
+            try {
+                simpleApnsClientCache.reconnect(iOSTokenVariant, () -> buildApnsClient(iOSTokenVariant));
+            } catch (IllegalArgumentException iae) {
+                logger.warn("Unable to reconnect to APNs for {}: {}", clientID, iae.getMessage());
+            }
+        }
+
         final ApnsClient apnsClient;
         {
             try {
-                apnsClient = receiveApnsConnection(iOSTokenVariant);
+                apnsClient = simpleApnsClientCache.acquireApnsClientForVariant(iOSTokenVariant, () -> buildApnsClient(iOSTokenVariant));
             } catch (IllegalArgumentException iae) {
                 logger.error(iae.getMessage(), iae);
-                senderCallback.onError(String.format("Unable to connect to APNs (%s))", iae.getMessage()));
+                senderCallback.onVariantError(FailureKind.CONNECTION_FAILED, String.format("Unable to connect to APNs (%s))", iae.getMessage()));
                 return;
             }
         }
 
         if (apnsClient != null) {
-
-            // we are connected and are about to send
-            // notifications to all tokens of the batch
-            PrometheusExporter.instance().increaseTotalPushIosRequests();
-
-            // we have managed to connect and will send tokens ;-)
-            senderCallback.onSuccess();
-
-            final String defaultApnsTopic = iOSTokenVariant.getBundleId();
-            Date expireDate = createFutureDateBasedOnTTL(pushMessage.getConfig().getTimeToLive());
-            logger.debug("sending payload for all tokens for {} to APNs ({})", iOSTokenVariant.getVariantID(), defaultApnsTopic);
-
-            tokens.forEach(token -> {
-                final SimpleApnsPushNotification pushNotification = new SimpleApnsPushNotification(token,
-                        defaultApnsTopic, payload, expireDate, DeliveryPriority.IMMEDIATE,
-                        determinePushType(pushMessage.getMessage()), null, null);
-                final Future<PushNotificationResponse<SimpleApnsPushNotification>> notificationSendFuture = apnsClient
-                        .sendNotification(pushNotification);
-
-                notificationSendFuture.addListener(future -> {
-
-                    if (future.isSuccess()) {
-                        handlePushNotificationResponsePerToken(notificationSendFuture.get());
+            try {
+                // we are connected and are about to send
+                // notifications to all tokens of the batch
+                PrometheusExporter.instance().increaseTotalPushIosRequests();
+
+                // we have managed to connect and will send tokens ;-)
+                senderCallback.onSuccess();
+
+                final String defaultApnsTopic = iOSTokenVariant.getBundleId();
+                Date expireDate = createFutureDateBasedOnTTL(pushMessage.getConfig().getTimeToLive());
+                // notifications with the same consolidation key replace each other while waiting for an offline device
+                final String collapseId = ApnsUtil.toCollapseId(pushMessage.getMessage().getConsolidationKey());
+                logger.debug("sending payload for all tokens for {} to APNs ({})", iOSTokenVariant.getVariantID(), defaultApnsTopic);
+
+                for (final String token : tokens) {
+                    // the drain deadline passed, the remaining tokens were handed back to the queue
+                    if (senderCallback.isAbandoned()) {
+                        logger.info("Stopped sending to {}, the remaining tokens were requeued", iOSTokenVariant.getVariantID());
+                        break;
                     }
-                });
-            });
+                    final SimpleApnsPushNotification pushNotification = new SimpleApnsPushNotification(token,
+                            defaultApnsTopic, payload, expireDate, DeliveryPriority.IMMEDIATE,
+                            determinePushType(pushMessage.getMessage()), collapseId, null);
+                    final Future<PushNotificationResponse<SimpleApnsPushNotification>> notificationSendFuture = apnsClient
+                            .sendNotification(pushNotification);
+                    // the client is not closed by a reconnect before APNs answered
+                    simpleApnsClientCache.track(apnsClient, notificationSendFuture);
+
+                    notificationSendFuture.addListener(future -> {
+                        senderCallback.onTokenCompleted(token);
+
+                        if (future.isSuccess()) {
+                            handlePushNotificationResponsePerToken(clientID, notificationSendFuture.get());
+                        }
+                    });
+                }
+            } finally {
+                simpleApnsClientCache.release(apnsClient);
+            }
 
         } else {
             logger.error("Unable to send notifications, client is not connected. Removing from cache pool");
-            senderCallback.onError("Unable to send notifications, client is not connected");
+            senderCallback.onVariantError(FailureKind.CONNECTION_FAILED, "Unable to send notifications, client is not connected");
             variantUpdateEventEvent.fire(new APNSVariantUpdateEvent(iOSTokenVariant));
         }
     }
 
+    @Override
+    public boolean completesAsynchronously() {
+        return true;
+    }
+
+    @Override
+    public void warmUp(final Variant variant) {
+        final iOSTokenVariant apnsVariant = (iOSTokenVariant) variant;
+        try {
+            simpleApnsClientCache.getApnsClientForVariant(apnsVariant, () -> buildApnsClient(apnsVariant));
+        } catch (IllegalArgumentException iae) {
+            logger.warn("Unable to warm up APNs client for {}: {}", apnsVariant.getVariantID(), iae.getMessage());
+        }
+    }
+
     /**
      * Helper method that creates a future {@link Date}, based on the given ttl/time-to-live value.
      * If no TTL was provided, we use the default value from the APNs library
@@ -176,7 +221,7 @@ public class PushyIosTokenSender implements PushNotificationSender {
         return cs == null || cs.length() == 0;
     }
 
-    private void handlePushNotificationResponsePerToken(
+    private void handlePushNotificationResponsePerToken(final String clientID,
             final PushNotificationResponse<SimpleApnsPushNotification> pushNotificationResponse) {
 
         final String deviceToken = pushNotificationResponse.getPushNotification().getToken();
@@ -188,6 +233,10 @@ public class PushyIosTokenSender implements PushNotificationSender {
             final String rejectReason = pushNotificationResponse.getRejectionReason();
             logger.trace("Push Message has been rejected with reason: {}", rejectReason);
 
+            if (ApnsSigningKeyManager.isProviderTokenRejection(rejectReason)) {
+                signingKeyManager.onProviderTokenRejected(clientID, rejectReason);
+            }
+
             // token is either invalid, or did just expire
             if ((pushNotificationResponse.getTokenInvalidationTimestamp() != null) || ("BadDeviceToken".equals(rejectReason))) {
                 logger.info(rejectReason + ", removing token: " + deviceToken);
@@ -221,26 +270,25 @@ public class PushyIosTokenSender implements PushNotificationSender {
         return payloadBuilder.buildWithDefaultMaximumLength();
     }
 
-    private synchronized ApnsClient receiveApnsConnection(final iOSTokenVariant apnsVariant) {
-        return simpleApnsClientCache.getApnsClientForVariant(apnsVariant, () -> {
-            final ApnsClientBuilder builder = new ApnsClientBuilder();
-            assambleApnsClientBuilderForToken( apnsVariant, builder);
+    private ApnsClient buildApnsClient(final iOSTokenVariant apnsVariant) {
+        final ApnsClientBuilder builder = new ApnsClientBuilder();
+        assambleApnsClientBuilderForToken( apnsVariant, builder);
 
-            connectToDestinations(apnsVariant, builder);
+        connectToDestinations(apnsVariant, builder);
 
-            // connect and wait, ONLY when we have a valid client
-            logger.debug("establishing the connection for {}", apnsVariant.getVariantID());
-            ApnsClient apnsClient;
-            try {
-                logger.debug("connecting to APNs");
-                apnsClient = builder.build();
-                return apnsClient;
-            } catch (SSLException e) {
-                logger.error("Error connecting to APNs", e);
-            }
-            return null;
+        apnsClientResources.configure(builder, ApnsSigningKeyManager.extractClientID(apnsVariant));
 
-        });
+        // connect and wait, ONLY when we have a valid client
+        logger.debug("establishing the connection for {}", apnsVariant.getVariantID());
+        ApnsClient apnsClient;
+        try {
+            logger.debug("connecting to APNs");
+            apnsClient = builder.build();
+            return apnsClient;
+        } catch (SSLException e) {
+            logger.error("Error connecting to APNs", e);
+        }
+        return null;
     }
 
     private void assambleApnsClientBuilderForToken(final iOSTokenVariant iOSVariant, final ApnsClientBuilder builder) {
@@ -249,11 +297,9 @@ public class PushyIosTokenSender implements PushNotificationSender {
         if (iOSVariant.getTeamId() != null && iOSVariant.getKeyId() != null && iOSVariant.getPrivateKey() != null) {
 
             // add the token:
-            try (final ByteArrayInputStream stream = new ByteArrayInputStream(iOSVariant.getPrivateKey().getBytes())) {
+            try {
 
-                builder.setSigningKey(
-                        ApnsSigningKey.loadFromInputStream(stream,iOSVariant.getTeamId(), iOSVariant.getKeyId())
-                );
+                builder.setSigningKey(signingKeyManager.getSigningKey(iOSVariant));
 
                 if (ProxyConfiguration.hasHttpProxyConfig()) {
                     if (ProxyConfiguration.hasBasicAuth()) {
@@ -0,0 +1,268 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.token;
+
+import org.jboss.aerogear.unifiedpush.dao.ResultStreamException;
+import org.jboss.aerogear.unifiedpush.dao.ResultsStream;
+import org.jboss.aerogear.unifiedpush.dto.DeviceTokenCategory;
+import org.jboss.aerogear.unifiedpush.event.InstallationsChangedEvent;
+import org.jboss.aerogear.unifiedpush.service.ClientInstallationService;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Resource;
+import javax.ejb.Asynchronous;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.SessionContext;
+import javax.ejb.Singleton;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the category and device type criteria of push messages from in-memory indexes of the installations, instead of
+ * joining the installations with their categories in the database for every batch of tokens (see {@link VariantCategoryIndex}).
+ *
+ * The index of a variant is built in the background the first time a message is sent to it, outside of the transaction of the token loader
+ * that asked for it, which loads the tokens from the database in the meantime; it is then kept up to date with the installations that are
+ * registered, updated or removed on this node. Changes made on other nodes of a cluster are only visible once the index is rebuilt, which happens after
+ * <tt>aerogear.category.index.refresh.seconds</tt> or once too many installations changed; therefore the index is disabled by default
+ * and is enabled with the system property <tt>aerogear.category.index=true</tt>.
+ *
+ * Criteria with aliases, and variants with more than <tt>aerogear.category.index.max.tokens</tt> installations, are left to the database.
+ *
+ * The index and the database order the tokens in the same way (the device tokens are compared byte by byte, see the
+ * <tt>device-token-order</tt> migration), so that the batches of a message may be loaded from either without skipping or
+ * repeating tokens.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class CategoryIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(CategoryIndex.class);
+
+    // system property names used to tune the index
+    public static final String AEROGEAR_CATEGORY_INDEX = "aerogear.category.index";
+    public static final String AEROGEAR_CATEGORY_INDEX_MAX_TOKENS = "aerogear.category.index.max.tokens";
+    public static final String AEROGEAR_CATEGORY_INDEX_REFRESH_SECONDS = "aerogear.category.index.refresh.seconds";
+    public static final String AEROGEAR_CATEGORY_INDEX_MAX_CHANGES = "aerogear.category.index.max.changes";
+
+    private static final int BUILD_FETCH_SIZE = 1000;
+
+    private final boolean enabled = Boolean.parseBoolean(ConfigurationUtils.tryGetGlobalProperty(AEROGEAR_CATEGORY_INDEX, "false"));
+    private final int maxTokens = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_CATEGORY_INDEX_MAX_TOKENS, 500000);
+    private final long refresh = TimeUnit.SECONDS.toMillis(ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_CATEGORY_INDEX_REFRESH_SECONDS, 300));
+    private final int maxChanges = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_CATEGORY_INDEX_MAX_CHANGES, 10000);
+
+    private final ConcurrentMap<String, VariantCategoryIndex> indexes = new ConcurrentHashMap<>();
+    // the indexes that are being built, so that they don't miss the changes made in the meantime
+    private final ConcurrentMap<String, Building> building = new ConcurrentHashMap<>();
+    // the variants that were too large to be indexed, with the time when they were found to be
+    private final ConcurrentMap<String, Long> tooLarge = new ConcurrentHashMap<>();
+
+    @Inject
+    private ClientInstallationService clientInstallationService;
+
+    @Resource
+    private SessionContext sessionContext;
+
+    /**
+     * Keeps the indexes up to date with the installations that changed, once the transaction that changed them was committed.
+     */
+    public void onInstallationsChanged(@Observes(during = TransactionPhase.AFTER_SUCCESS) InstallationsChangedEvent event) {
+        if (!enabled || event.isEmpty()) {
+            return;
+        }
+        if (event.isInvalidated()) {
+            indexes.remove(event.getVariantID());
+            final Building inProgress = building.get(event.getVariantID());
+            if (inProgress != null) {
+                inProgress.invalidated = true;
+            }
+            return;
+        }
+        final VariantCategoryIndex index = indexes.get(event.getVariantID());
+        if (index != null) {
+            index.apply(event);
+        }
+        final Building inProgress = building.get(event.getVariantID());
+        if (inProgress != null) {
+            inProgress.changes.add(event);
+        }
+    }
+
+    /**
+     * Query the tokens of a range of the token keyspace of the given variant, by respecting a few criteria arguments (categories and deviceTypes),
+     * from the index of the variant.
+     *
+     * @param variantID the variantID for the filter
+     * @param categories applied categories for the filter
+     * @param aliases applied aliases for the filter
+     * @param deviceTypes applied deviceTypes for the filter
+     * @param maxResults number of maxResults for the filter
+     * @param lastTokenFromPreviousBatch identifier of the last fetched token
+     * @param lastTokenOfRange the last (inclusive) token of the range, or null if the range is not bounded
+     *
+     * @return list of device tokens that matches this filter, or null if the tokens have to be queried from the database
+     */
+    public ResultsStream.QueryBuilder<String> findAllDeviceTokenForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes,
+                                                                                     int maxResults, String lastTokenFromPreviousBatch, String lastTokenOfRange) {
+        if (!enabled || (aliases != null && !aliases.isEmpty())) {
+            return null;
+        }
+        final VariantCategoryIndex index = indexOf(variantID);
+        if (index == null) {
+            return null;
+        }
+        return new ListQueryBuilder(index.find(categories, deviceTypes, maxResults, lastTokenFromPreviousBatch, lastTokenOfRange));
+    }
+
+    private VariantCategoryIndex indexOf(String variantID) {
+        final long now = System.currentTimeMillis();
+        final VariantCategoryIndex index = indexes.get(variantID);
+        if (index != null && now - index.getBuiltAt() < refresh && index.getChanges() < maxChanges) {
+            return index;
+        }
+        final Long foundTooLarge = tooLarge.get(variantID);
+        if (foundTooLarge != null && now - foundTooLarge < refresh) {
+            return null;
+        }
+        if (!building.containsKey(variantID)) {
+            sessionContext.getBusinessObject(CategoryIndex.class).build(variantID);
+        }
+        return null;
+    }
+
+    /**
+     * Builds the index of the given variant in the background, in a transaction of its own.
+     *
+     * @param variantID the variant
+     */
+    @Asynchronous
+    public void build(String variantID) {
+        // the index is built by a single caller, the others keep querying the database meanwhile
+        final Building inProgress = new Building();
+        if (building.putIfAbsent(variantID, inProgress) != null) {
+            return;
+        }
+        try {
+            final long now = System.currentTimeMillis();
+            final VariantCategoryIndex built = snapshot(variantID, now);
+            if (built == null) {
+                logger.debug("Variant {} has more than {} installations, its tokens are not indexed", variantID, maxTokens);
+                indexes.remove(variantID);
+                tooLarge.put(variantID, now);
+                return;
+            }
+            inProgress.changes.forEach(built::apply);
+            if (inProgress.invalidated) {
+                indexes.remove(variantID);
+                return;
+            }
+            tooLarge.remove(variantID);
+            indexes.put(variantID, built);
+        } catch (ResultStreamException | RuntimeException e) {
+            logger.warn("Failed to index the installations of variant {}", variantID, e);
+            indexes.remove(variantID);
+        } finally {
+            building.remove(variantID);
+        }
+    }
+
+    private VariantCategoryIndex snapshot(String variantID, long now) throws ResultStreamException {
+        final ResultsStream<DeviceTokenCategory> rows = clientInstallationService.findAllDeviceTokenCategoriesForVariantID(variantID)
+                .fetchSize(BUILD_FETCH_SIZE)
+                .executeQuery();
+        final VariantCategoryIndex built = VariantCategoryIndex.build(new Iterator<DeviceTokenCategory>() {
+            private Boolean hasNext;
+
+            @Override
+            public boolean hasNext() {
+                if (hasNext == null) {
+                    try {
+                        hasNext = rows.next();
+                    } catch (ResultStreamException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return hasNext;
+            }
+
+            @Override
+            public DeviceTokenCategory next() {
+                hasNext = null;
+                try {
+                    return rows.get();
+                } catch (ResultStreamException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }, maxTokens, now);
+        logger.trace("Indexed the installations of variant {}", variantID);
+        return built;
+    }
+
+    private static class Building {
+        private final Queue<InstallationsChangedEvent> changes = new ConcurrentLinkedQueue<>();
+        private volatile boolean invalidated;
+    }
+
+    /**
+     * Streams the tokens that were found in the index
+     */
+    private static class ListQueryBuilder implements ResultsStream.QueryBuilder<String> {
+
+        private final List<String> tokens;
+
+        ListQueryBuilder(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        @Override
+        public ResultsStream.QueryBuilder<String> fetchSize(int fetchSize) {
+            return this;
+        }
+
+        @Override
+        public ResultsStream<String> executeQuery() {
+            final Iterator<String> iterator = tokens.iterator();
+            return new ResultsStream<String>() {
+                private String current;
+
+                @Override
+                public boolean next() throws ResultStreamException {
+                    current = iterator.hasNext() ? iterator.next() : null;
+                    return current != null;
+                }
+
+                @Override
+                public String get() throws ResultStreamException {
+                    return current;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.token;
+
+import org.jboss.aerogear.unifiedpush.message.NotificationDispatcher;
+import org.jboss.aerogear.unifiedpush.message.event.TokenBatchQueuedEvent;
+import org.jboss.aerogear.unifiedpush.service.metrics.PrometheusExporter;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Shares the token batch queues fairly between push applications, using deficit round robin.
+ *
+ * Token-loading transactions of all push applications are interleaved in the push message queues, since every transaction
+ * resends the remaining work to the end of the queue. This scheduler decides how many batches a push application may queue
+ * in its turn: each turn adds a quantum to the deficit of the application, and the application may queue at most its deficit,
+ * as long as its number of batches in flight (queued, but not yet picked by the {@link NotificationDispatcher}) stays under the limit.
+ *
+ * When only a single push application is active, it is not limited by the quantum, so that the queues are never left idle.
+ *
+ * The number of batches in flight is an estimate local to this node: batches are only counted once the token-loading transaction
+ * committed, and since a batch may be picked by another node of the cluster, every batch is forgotten after a timeout at the latest,
+ * so that the estimate can't leak.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class FairShareScheduler {
+
+    // system property names used to tune the scheduling
+    public static final String AEROGEAR_FAIR_SHARE_QUANTUM = "aerogear.fairshare.quantum";
+    public static final String AEROGEAR_FAIR_SHARE_IN_FLIGHT_LIMIT = "aerogear.fairshare.inflight.limit";
+    public static final String AEROGEAR_FAIR_SHARE_IN_FLIGHT_TIMEOUT = "aerogear.fairshare.inflight.timeout";
+    public static final String AEROGEAR_FAIR_SHARE_RETRY_DELAY = "aerogear.fairshare.retry.delay";
+
+    // a push application that did not take its turn for this long is no longer considered active
+    private static final long ACTIVE_WINDOW = 30000;
+
+    private final int quantum;
+    private final int inFlightLimit;
+    private final long inFlightTimeout;
+    private final long retryDelay;
+    private final LongSupplier clock;
+
+    private final Map<String, ApplicationShare> shares = new HashMap<>();
+
+    public FairShareScheduler() {
+        this(ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_FAIR_SHARE_QUANTUM, 3),
+                ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_FAIR_SHARE_IN_FLIGHT_LIMIT, 50),
+                ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_FAIR_SHARE_IN_FLIGHT_TIMEOUT, 60000),
+                ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_FAIR_SHARE_RETRY_DELAY, 1000),
+                System::currentTimeMillis);
+    }
+
+    /**
+     * @param quantum number of batches a push application earns in each turn
+     * @param inFlightLimit maximum number of batches of a single push application in flight
+     * @param inFlightTimeout time in milliseconds after which a queued batch is no longer counted as in flight
+     * @param retryDelay delay in milliseconds before a push application that reached its limit gets the next turn
+     * @param clock source of the current time in milliseconds
+     */
+    FairShareScheduler(int quantum, int inFlightLimit, long inFlightTimeout, long retryDelay, LongSupplier clock) {
+        this.quantum = quantum;
+        this.inFlightLimit = inFlightLimit;
+        this.inFlightTimeout = inFlightTimeout;
+        this.retryDelay = retryDelay;
+        this.clock = clock;
+    }
+
+    /**
+     * Called when a push application takes its turn in token loading.
+     *
+     * @param pushApplicationId the push application
+     * @param requestedBatches the number of batches the token loader would like to queue
+     * @param uncommittedBatches the number of batches the current transaction already queued, which are not counted as in flight yet
+     * @return the number of batches the push application may queue now; 0 if it has to wait for {@link #getRetryDelay()}
+     */
+    public synchronized int admit(String pushApplicationId, int requestedBatches, int uncommittedBatches) {
+        final long now = clock.getAsLong();
+        final ApplicationShare share = shareFor(pushApplicationId);
+        share.lastTurn = now;
+
+        final int available = inFlightLimit - share.inFlight(now, inFlightTimeout) - uncommittedBatches;
+        if (available <= 0) {
+            return 0;
+        }
+        if (countActiveApplications(now) <= 1) {
+            share.deficit = 0;
+            return Math.min(requestedBatches, available);
+        }
+
+        share.deficit = Math.min(share.deficit + quantum, inFlightLimit);
+        final int admitted = Math.min(Math.min(requestedBatches, available), share.deficit);
+        share.deficit -= admitted;
+        return admitted;
+    }
+
+    /**
+     * Records that a batch was queued, once the token-loading transaction that queued it committed.
+     *
+     * @param event event fired by the token loader for every queued batch
+     */
+    public void onBatchQueued(@Observes(during = TransactionPhase.AFTER_SUCCESS) TokenBatchQueuedEvent event) {
+        onBatchQueued(event.getPushApplicationId());
+    }
+
+    /**
+     * Records that a batch of the given push application was queued.
+     *
+     * @param pushApplicationId the push application
+     */
+    public synchronized void onBatchQueued(String pushApplicationId) {
+        final long now = clock.getAsLong();
+        final ApplicationShare share = shareFor(pushApplicationId);
+        share.queuedAt.addLast(now);
+        PrometheusExporter.instance().setTokenBatchesInFlight(pushApplicationId, share.inFlight(now, inFlightTimeout));
+    }
+
+    /**
+     * Records that a batch of the given push application was picked for dispatching.
+     *
+     * @param pushApplicationId the push application
+     * @param queuedAt the time in milliseconds when the batch was queued
+     */
+    public synchronized void onBatchDispatched(String pushApplicationId, long queuedAt) {
+        final long now = clock.getAsLong();
+        final ApplicationShare share = shareFor(pushApplicationId);
+        // batches may have been queued by another node of the cluster
+        share.queuedAt.pollFirst();
+        PrometheusExporter.instance().setTokenBatchesInFlight(pushApplicationId, share.inFlight(now, inFlightTimeout));
+        PrometheusExporter.instance().observeTokenBatchQueueingDelay(pushApplicationId, Math.max(0, now - queuedAt));
+    }
+
+    /**
+     * Records that the given push application has no more batches to load.
+     *
+     * @param pushApplicationId the push application
+     */
+    public synchronized void onAllBatchesLoaded(String pushApplicationId) {
+        final ApplicationShare share = shares.get(pushApplicationId);
+        if (share != null) {
+            share.deficit = 0;
+        }
+    }
+
+    /**
+     * @param pushApplicationId the push application
+     * @return the number of batches of the given push application in flight
+     */
+    public synchronized int getInFlight(String pushApplicationId) {
+        final ApplicationShare share = shares.get(pushApplicationId);
+        return share == null ? 0 : share.inFlight(clock.getAsLong(), inFlightTimeout);
+    }
+
+    /**
+     * @return delay in milliseconds before a push application that was not admitted should take its next turn
+     */
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    private int countActiveApplications(long now) {
+        int active = 0;
+        for (Iterator<ApplicationShare> it = shares.values().iterator(); it.hasNext(); ) {
+            final ApplicationShare share = it.next();
+            if (share.inFlight(now, inFlightTimeout) > 0 || now - share.lastTurn < ACTIVE_WINDOW) {
+                active++;
+            } else {
+                // forget idle push applications, so that the map does not grow without bounds
+                it.remove();
+            }
+        }
+        return active;
+    }
+
+    private ApplicationShare shareFor(String pushApplicationId) {
+        ApplicationShare share = shares.get(pushApplicationId);
+        if (share == null) {
+            share = new ApplicationShare();
+            shares.put(pushApplicationId, share);
+        }
+        return share;
+    }
+
+    private static class ApplicationShare {
+        private int deficit;
+        private long lastTurn;
+        // times at which the batches in flight were queued, oldest first
+        private final ArrayDeque<Long> queuedAt = new ArrayDeque<>();
+
+        int inFlight(long now, long timeout) {
+            while (!queuedAt.isEmpty() && now - queuedAt.peekFirst() >= timeout) {
+                queuedAt.pollFirst();
+            }
+            return queuedAt.size();
+        }
+    }
+}
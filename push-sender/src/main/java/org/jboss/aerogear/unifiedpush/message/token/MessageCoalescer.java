@@ -0,0 +1,200 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.token;
+
+import org.jboss.aerogear.unifiedpush.message.Criteria;
+import org.jboss.aerogear.unifiedpush.message.NotificationDispatcher;
+import org.jboss.aerogear.unifiedpush.message.NotificationRouter;
+import org.jboss.aerogear.unifiedpush.message.event.ConsolidatedMessageSubmittedEvent;
+import org.jboss.aerogear.unifiedpush.service.metrics.PrometheusExporter;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
+
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Coalesces push messages that share a consolidation key.
+ *
+ * The {@link NotificationRouter} records every submitted message that has a consolidation key. When a newer message of the same
+ * push application with the same key and the same criteria was submitted, the older one is superseded: the {@link TokenLoader} stops
+ * loading its tokens and the {@link NotificationDispatcher} drops its batches that are still queued, so that only the newest message
+ * is fanned out. Messages with the same key that target other devices (e.g. another alias) do not supersede each other.
+ *
+ * The newest messages are remembered by the node that submitted them, for a limited time window.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class MessageCoalescer {
+
+    // system property name used to tune the coalescing
+    public static final String AEROGEAR_COALESCING_WINDOW = "aerogear.coalescing.window";
+
+    private final long window;
+    private final LongSupplier clock;
+
+    // ordered by registration, so that the expired messages are found at the head
+    private final Map<String, NewestMessage> newestMessages = new LinkedHashMap<>();
+
+    public MessageCoalescer() {
+        this(TimeUnit.SECONDS.toMillis(ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_COALESCING_WINDOW, 3600)),
+                System::currentTimeMillis);
+    }
+
+    /**
+     * @param window time in milliseconds a message is remembered as the newest one of its key
+     * @param clock source of the current time in milliseconds
+     */
+    MessageCoalescer(long window, LongSupplier clock) {
+        this.window = window;
+        this.clock = clock;
+    }
+
+    /**
+     * Records the submitted message, once the transaction that queued it was committed.
+     */
+    public void onMessageSubmitted(@Observes(during = TransactionPhase.AFTER_SUCCESS) ConsolidatedMessageSubmittedEvent event) {
+        register(event.getPushApplicationId(), event.getConsolidationKey(), event.getCriteria(), event.getPushMessageId(), event.getSubmittedAt());
+    }
+
+    /**
+     * Records the given message as the newest one of its key, unless a message that was submitted later is already known.
+     *
+     * @param pushApplicationId the push application
+     * @param consolidationKey the consolidation key of the message
+     * @param criteria the criteria of the message, may be null
+     * @param pushMessageId the ID of the push message
+     * @param submittedAt the time in milliseconds when the message was submitted
+     */
+    public synchronized void register(String pushApplicationId, String consolidationKey, Criteria criteria, String pushMessageId, long submittedAt) {
+        final long now = clock.getAsLong();
+        expire(now);
+
+        final String key = key(pushApplicationId, consolidationKey, criteria);
+        final NewestMessage newest = newestMessages.get(key);
+        if (newest == null || newest.submittedAt <= submittedAt) {
+            // re-inserted, so that the map stays ordered by registration
+            newestMessages.remove(key);
+            newestMessages.put(key, new NewestMessage(pushMessageId, submittedAt, now));
+        }
+    }
+
+    /**
+     * @param pushApplicationId the push application
+     * @param consolidationKey the consolidation key of the message, may be null
+     * @param criteria the criteria of the message, may be null
+     * @param pushMessageId the ID of the push message
+     * @return true if a newer message with the same key and criteria was submitted, false otherwise
+     */
+    public synchronized boolean isSuperseded(String pushApplicationId, String consolidationKey, Criteria criteria, String pushMessageId) {
+        if (consolidationKey == null) {
+            return false;
+        }
+        final String key = key(pushApplicationId, consolidationKey, criteria);
+        final NewestMessage newest = newestMessages.get(key);
+        if (newest == null) {
+            return false;
+        }
+        if (clock.getAsLong() - newest.registeredAt > window) {
+            newestMessages.remove(key);
+            return false;
+        }
+        return !newest.pushMessageId.equals(pushMessageId);
+    }
+
+    /**
+     * Records that delivery of a superseded message was stopped.
+     *
+     * @param pushApplicationId the push application
+     * @param stage the stage of the delivery that was stopped
+     */
+    public void onSuperseded(String pushApplicationId, String stage) {
+        PrometheusExporter.instance().increaseSupersededMessages(pushApplicationId, stage);
+    }
+
+    /**
+     * Forgets the messages registered before the window, which are the oldest entries of the map.
+     */
+    private void expire(long now) {
+        final Iterator<NewestMessage> iterator = newestMessages.values().iterator();
+        while (iterator.hasNext() && now - iterator.next().registeredAt > window) {
+            iterator.remove();
+        }
+    }
+
+    private static String key(String pushApplicationId, String consolidationKey, Criteria criteria) {
+        return pushApplicationId + ':' + criteriaHash(criteria) + ':' + consolidationKey;
+    }
+
+    /**
+     * @return a hash of the given criteria that does not depend on the order of the values
+     */
+    static String criteriaHash(Criteria criteria) {
+        final StringBuilder canonical = new StringBuilder();
+        if (criteria != null) {
+            append(canonical, "variants", criteria.getVariants());
+            append(canonical, "aliases", criteria.getAliases());
+            append(canonical, "categories", criteria.getCategories());
+            append(canonical, "deviceTypes", criteria.getDeviceTypes());
+        }
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical.toString().getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void append(StringBuilder canonical, String name, List<String> values) {
+        if (values == null || values.isEmpty()) {
+            return;
+        }
+        final List<String> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        canonical.append(name).append('=');
+        // the length prefix keeps values containing the separators apart
+        sorted.forEach(value -> canonical.append(value.length()).append(':').append(value).append(','));
+        canonical.append(';');
+    }
+
+    private static class NewestMessage {
+        private final String pushMessageId;
+        private final long submittedAt;
+        private final long registeredAt;
+
+        NewestMessage(String pushMessageId, long submittedAt, long registeredAt) {
+            this.pushMessageId = pushMessageId;
+            this.submittedAt = submittedAt;
+            this.registeredAt = registeredAt;
+        }
+    }
+}
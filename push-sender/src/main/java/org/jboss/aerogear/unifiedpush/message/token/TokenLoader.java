@@ -16,7 +16,9 @@
  */
 package org.jboss.aerogear.unifiedpush.message.token;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
@@ -42,13 +44,17 @@ import org.jboss.aerogear.unifiedpush.message.UnifiedPushMessage;
 import org.jboss.aerogear.unifiedpush.message.configuration.SenderConfiguration;
 import org.jboss.aerogear.unifiedpush.message.event.AllBatchesLoadedEvent;
 import org.jboss.aerogear.unifiedpush.message.event.BatchLoadedEvent;
+import org.jboss.aerogear.unifiedpush.message.event.TokenBatchQueuedEvent;
 import org.jboss.aerogear.unifiedpush.message.exception.MessageDeliveryException;
 import org.jboss.aerogear.unifiedpush.message.holder.MessageHolderWithTokens;
 import org.jboss.aerogear.unifiedpush.message.holder.MessageHolderWithVariants;
 import org.jboss.aerogear.unifiedpush.message.jms.Dequeue;
 import org.jboss.aerogear.unifiedpush.message.jms.DispatchToQueue;
 import org.jboss.aerogear.unifiedpush.message.sender.SenderTypeLiteral;
+import org.jboss.aerogear.unifiedpush.message.util.JmsClient;
+import org.jboss.aerogear.unifiedpush.message.util.QueueUtils;
 import org.jboss.aerogear.unifiedpush.service.ClientInstallationService;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,6 +70,21 @@ public class TokenLoader {
 
     private static final Logger logger = LoggerFactory.getLogger(TokenLoader.class);
 
+    // system property names used to split the token keyspace of large variants into ranges
+    public static final String AEROGEAR_TOKEN_LOADER_RANGES = "aerogear.tokenloader.ranges";
+    public static final String AEROGEAR_TOKEN_LOADER_RANGE_MIN_SIZE = "aerogear.tokenloader.range.min.size";
+
+    // the serial IDs of the batches of each range start at a multiple of this, so that the deduplication IDs of the ranges never overlap.
+    // The batches of a range are numbered consecutively, which assumes that a range (and the unsplit variants of a message, numbered
+    // from 0) never holds 10 million batches or more, i.e. 10 billion tokens with the smallest default batch size of 1000 (see
+    // SenderConfigurationProvider). A larger spacing would leave fewer ranges (see MAX_RANGES)
+    private static final int RANGE_SERIAL_ID_SPACING = 10_000_000;
+    // the number of ranges of a message, for all of its variants, whose serial IDs fit into an int
+    static final int MAX_RANGES = Integer.MAX_VALUE / RANGE_SERIAL_ID_SPACING - 1;
+
+    private final int ranges = rangesOf(ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_TOKEN_LOADER_RANGES, 1));
+    private final int minRangeSize = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_TOKEN_LOADER_RANGE_MIN_SIZE, 100000);
+
     @Inject
     private ClientInstallationService clientInstallationService;
 
@@ -86,9 +107,27 @@ public class TokenLoader {
     @Inject @Any
     private Instance<SenderConfiguration> senderConfiguration;
 
+    @Inject
+    private TokenLoaderFlowControl flowControl;
+
     @Resource
     private EJBContext context;
 
+    @Inject
+    private FairShareScheduler fairShareScheduler;
+
+    @Inject
+    private Event<TokenBatchQueuedEvent> batchQueued;
+
+    @Inject
+    private MessageCoalescer coalescer;
+
+    @Inject
+    private CategoryIndex categoryIndex;
+
+    @Inject
+    private JmsClient jmsClient;
+
     /**
      * Receives request for processing a {@link UnifiedPushMessage} and loads tokens for devices that match requested parameters from database.
      *
@@ -96,6 +135,18 @@ public class TokenLoader {
      * Once the pre-configured number of batches (see {@link SenderConfiguration#batchesToLoad()}) is reached, this method resends message to the same queue it took the request from,
      * so that the transaction it worked in is split and further processing may continue in next transaction.
      *
+     * When the token batch queue is full, the transaction is rolled back, so that none of its batches is committed along with a spoiled send.
+     * The redelivered request is resent to the same queue in a new transaction, with the delay and the reduced number of batches computed by {@link TokenLoaderFlowControl}. The number of batches is further limited by the
+     * {@link FairShareScheduler}, so that a single push application can't take over the token batch queues.
+     *
+     * When a newer message with the same consolidation key was submitted in the meantime (see {@link MessageCoalescer}),
+     * the loading stops and no further batches are queued for this message.
+     *
+     * When splitting into ranges is enabled (see {@link #AEROGEAR_TOKEN_LOADER_RANGES}), the first request of a large variant is split into requests
+     * for ranges of its token keyspace, which are resent to the push message queue, so that the ranges are loaded in parallel by all nodes.
+     *
+     * When the {@link CategoryIndex} is enabled, tokens are resolved from the in-memory index of the variant rather than from the database.
+     *
      * Additionally it fires {@link BatchLoadedEvent} as CDI event (that is translated to JMS event).
      * When all batches were loaded for the given variant, it fires  {@link AllBatchesLoadedEvent}.
      *
@@ -106,20 +157,61 @@ public class TokenLoader {
         final VariantType variantType = msg.getVariantType();
         final Collection<Variant> variants = msg.getVariants();
         final String lastTokenFromPreviousBatch = msg.getLastTokenFromPreviousBatch();
+        final String lastTokenOfRange = msg.getLastTokenOfRange();
         final SenderConfiguration configuration = senderConfiguration.select(new SenderTypeLiteral(variantType)).get();
         final FlatPushMessageInformation pushMessageInformation = msg.getPushMessageInformation();
+        final String pushApplicationId = pushMessageInformation.getPushApplicationId();
         int serialId = msg.getLastSerialId();
 
         logger.debug("Received message from queue: {}", message.getMessage().getAlert());
 
+        // a newer message with the same consolidation key is fanned out instead
+        if (coalescer.isSuperseded(pushApplicationId, message.getMessage().getConsolidationKey(), message.getCriteria(), pushMessageInformation.getId())) {
+            logger.info("Stopped loading tokens for the {} variants of message {}, it was superseded by a newer message with the same consolidation key",
+                    variantType.getTypeName(), pushMessageInformation.getId());
+            coalescer.onSuperseded(pushApplicationId, "token_loading");
+            fairShareScheduler.onAllBatchesLoaded(pushApplicationId);
+            return;
+        }
+
+        // the token batch queue was full recently, the request is resumed once it had some time to drain
+        final long backoff = flowControl.remainingBackoff(variantType, message.getMessage().getPriority());
+        if (backoff > 0) {
+            logger.debug("Token batch queue for {} was full, will retry in {} ms...", variantType.getTypeName(), backoff);
+            resumeLater(pushMessageInformation, message, variantType, variants, serialId, lastTokenFromPreviousBatch, lastTokenOfRange, backoff);
+            return;
+        }
+
         final Criteria criteria = message.getCriteria();
         final List<String> categories = criteria.getCategories();
         final List<String> aliases = criteria.getAliases();
         final List<String> deviceTypes = criteria.getDeviceTypes();
 
-        logger.info(String.format("Preparing message delivery and loading tokens for the %s 3rd-party Push Network (for %d variants)", variantType, variants.size()));
+        // large variants are split into ranges only once, when the first request of the message is received
+        Collection<Variant> variantsToLoad = variants;
+        if (ranges > 1 && serialId == MessageHolderWithVariants.INITIAL_SERIAL_ID && lastTokenFromPreviousBatch == null
+                && !(variantType == VariantType.ANDROID && TokenLoaderUtils.isFCMTopicRequest(criteria))) {
+            variantsToLoad = splitIntoRanges(pushMessageInformation, message, variantType, variants);
+        }
 
-        for (Variant variant : variants) {
+        logger.info(String.format("Preparing message delivery and loading tokens for the %s 3rd-party Push Network (for %d variants)", variantType, variantsToLoad.size()));
+
+        // the number of batches is adapted by the flow control, when the token batch queue was full recently
+        final int configuredBatchesToLoad = flowControl.batchesToLoad(variantType, message.getMessage().getPriority(), configuration);
+
+        final List<Variant> remainingVariants = new ArrayList<>(variantsToLoad);
+        // batches queued by this transaction are only counted as in flight once it committed
+        int queuedBatches = 0;
+        for (Variant variant : variantsToLoad) {
+
+            // the push application may queue only its fair share of batches in this turn
+            final int admittedBatches = fairShareScheduler.admit(pushApplicationId, configuredBatchesToLoad, queuedBatches);
+            if (admittedBatches == 0) {
+                logger.debug("Push application {} reached its limit of token batches in flight, will retry...", pushApplicationId);
+                resumeLater(pushMessageInformation, message, variantType, remainingVariants, serialId, lastTokenFromPreviousBatch, lastTokenOfRange, fairShareScheduler.getRetryDelay());
+                return;
+            }
+            final int tokensToLoad = admittedBatches * configuration.batchSize();
 
             try {
 
@@ -128,7 +220,7 @@ public class TokenLoader {
                 final boolean isAndroid = variantType == VariantType.ANDROID;
 
                 // the entire batch size
-                int batchesToLoad= configuration.batchesToLoad();
+                int batchesToLoad = admittedBatches;
 
                 // Some checks for FCM, because of topics feature from FCM (and GCM-3 in the past)
                 boolean fcmTopicRequest = (isAndroid && TokenLoaderUtils.isFCMTopicRequest(criteria));
@@ -148,7 +240,7 @@ public class TokenLoader {
                     }
 
                     // 2) always load the legacy tokens, for all number of batch iterations
-                    tokenStream = clientInstallationService.findAllOldGoogleCloudMessagingDeviceTokenForVariantIDByCriteria(variant.getVariantID(), categories, aliases, deviceTypes, configuration.tokensToLoad(), lastTokenFromPreviousBatch)
+                    tokenStream = clientInstallationService.findAllOldGoogleCloudMessagingDeviceTokenForVariantIDByCriteria(variant.getVariantID(), categories, aliases, deviceTypes, tokensToLoad, lastTokenFromPreviousBatch)
                             .fetchSize(configuration.batchSize())
                             .executeQuery();
 
@@ -158,7 +250,11 @@ public class TokenLoader {
 
                 } else {
                     logger.trace("Processing Firebase token request");
-                    tokenStream = clientInstallationService.findAllDeviceTokenForVariantIDByCriteria(variant.getVariantID(), categories, aliases, deviceTypes, configuration.tokensToLoad(), lastTokenFromPreviousBatch)
+                    ResultsStream.QueryBuilder<String> tokenQuery = categoryIndex.findAllDeviceTokenForVariantIDByCriteria(variant.getVariantID(), categories, aliases, deviceTypes, tokensToLoad, lastTokenFromPreviousBatch, lastTokenOfRange);
+                    if (tokenQuery == null) {
+                        tokenQuery = clientInstallationService.findAllDeviceTokenForVariantIDByCriteria(variant.getVariantID(), categories, aliases, deviceTypes, tokensToLoad, lastTokenFromPreviousBatch, lastTokenOfRange);
+                    }
+                    tokenStream = tokenQuery
                             .fetchSize(configuration.batchSize())
                             .executeQuery();
                 }
@@ -189,10 +285,15 @@ public class TokenLoader {
                         if (tryToDispatchTokens(new MessageHolderWithTokens(msg.getPushMessageInformation(), message, variant, tokens, serialId))) {
                             logger.info(String.format("Loaded batch #%s, containing %d tokens, for %s variant (%s)", serialId, tokens.size() ,variant.getType().getTypeName(), variant.getVariantID()));
                         } else {
-                            logger.debug(String.format("Failing token loading transaction for batch token #%s for %s variant (%s), since queue is full, will retry...", serialId, variant.getType().getTypeName(), variant.getVariantID()));
+                            final long delay = flowControl.onQueueFull(variantType, message.getMessage().getPriority(), configuration);
+                            logger.debug(String.format("Failing token loading transaction for batch token #%s for %s variant (%s), since queue is full, will retry in %d ms...", serialId, variant.getType().getTypeName(), variant.getVariantID(), delay));
+                            // the failed send may have spoiled the transaction, so none of its batches are committed:
+                            // the request is redelivered and resent with the remaining delay (see above), in a new transaction
                             context.setRollbackOnly();
                             return;
                         }
+                        queuedBatches++;
+                        batchQueued.fire(new TokenBatchQueuedEvent(pushApplicationId));
                         logger.info("Loaded batch #{}, containing {} tokens, for {} variant ({})", serialId, tokens.size() ,variant.getType().getTypeName(), variant.getVariantID());
 
                         // using combined key of variant and PMI (AGPUSH-1585):
@@ -202,12 +303,15 @@ public class TokenLoader {
                         break;
                     }
                 }
+                flowControl.onBatchesQueued(variantType, message.getMessage().getPriority(), configuration, sampleQueueDepth(variantType, message, configuration));
+
                 // should we trigger next transaction batch ?
-                if (tokensLoaded >= configuration.tokensToLoad()) {
+                if (tokensLoaded >= tokensToLoad) {
                     logger.debug(String.format("Ending token loading transaction for %s variant (%s)", variant.getType().getTypeName(), variant.getVariantID()));
-                    nextBatchEvent.fire(new MessageHolderWithVariants(msg.getPushMessageInformation(), message, msg.getVariantType(), variants, serialId, lastTokenInBatch));
+                    nextBatchEvent.fire(new MessageHolderWithVariants(msg.getPushMessageInformation(), message, msg.getVariantType(), variantsToLoad, serialId, lastTokenInBatch, lastTokenOfRange));
                 } else {
                     logger.debug("All batches for {} variant were loaded ({})", variant.getType().getTypeName(), variant.getVariantID());
+                    fairShareScheduler.onAllBatchesLoaded(pushApplicationId);
 
                     // using combined key of variant and PMI (AGPUSH-1585):
                     //allBatchesLoaded.fire(new AllBatchesLoadedEvent(variant.getVariantID()+":"+msg.getPushMessageInformation().getId()));
@@ -224,6 +328,81 @@ public class TokenLoader {
             } catch (ResultStreamException e) {
                 logger.error("Failed to load batch of tokens", e);
             }
+            remainingVariants.remove(variant);
+        }
+    }
+
+    /**
+     * Splits the token keyspace of every variant that is large enough into ranges (see {@link ClientInstallationService#findDeviceTokenRangeBoundariesForVariantID(String, int, int)})
+     * and sends a request for loading each range to the push message queue.
+     *
+     * @return the variants that were not split and are loaded by this request
+     */
+    private Collection<Variant> splitIntoRanges(FlatPushMessageInformation pushMessageInformation, UnifiedPushMessage message, VariantType variantType, Collection<Variant> variants) {
+        final List<Variant> unsplitVariants = new ArrayList<>();
+        int rangeNumber = 0;
+        for (Variant variant : variants) {
+            final List<String> boundaries = clientInstallationService.findDeviceTokenRangeBoundariesForVariantID(variant.getVariantID(), ranges, minRangeSize);
+            if (boundaries.isEmpty()) {
+                unsplitVariants.add(variant);
+                continue;
+            }
+            if (rangeNumber + boundaries.size() + 1 > MAX_RANGES) {
+                logger.warn("The message was already split into {} ranges, the tokens of {} variant ({}) are loaded without splitting",
+                        rangeNumber, variant.getType().getTypeName(), variant.getVariantID());
+                unsplitVariants.add(variant);
+                continue;
+            }
+
+            logger.info("Splitting the tokens of {} variant ({}) into {} ranges", variant.getType().getTypeName(), variant.getVariantID(), boundaries.size() + 1);
+            String lastTokenOfPreviousRange = null;
+            for (int i = 0; i <= boundaries.size(); i++) {
+                final String lastTokenOfRange = i < boundaries.size() ? boundaries.get(i) : null;
+                nextBatchEvent.fire(new MessageHolderWithVariants(pushMessageInformation, message, variantType, Collections.singletonList(variant),
+                        ++rangeNumber * RANGE_SERIAL_ID_SPACING, lastTokenOfPreviousRange, lastTokenOfRange));
+                lastTokenOfPreviousRange = lastTokenOfRange;
+            }
+        }
+        return unsplitVariants;
+    }
+
+    /**
+     * Validates the configured number of ranges, which is limited by the serial IDs of the ranges.
+     */
+    static int rangesOf(int configuredRanges) {
+        if (configuredRanges > MAX_RANGES) {
+            logger.warn("{} is limited to {}, ignoring the configured value of {}", AEROGEAR_TOKEN_LOADER_RANGES, MAX_RANGES, configuredRanges);
+            return MAX_RANGES;
+        }
+        return configuredRanges;
+    }
+
+    /**
+     * Resends the remaining work of a token-loading transaction to the push message queue, to be continued after the given delay.
+     */
+    private void resumeLater(FlatPushMessageInformation pushMessageInformation, UnifiedPushMessage message, VariantType variantType,
+                             Collection<Variant> remainingVariants, int lastSerialId, String lastToken, String lastTokenOfRange, long delay) {
+        jmsClient.send(new MessageHolderWithVariants(pushMessageInformation, message, variantType, remainingVariants, lastSerialId, lastToken, lastTokenOfRange))
+                .inTransaction()
+                .withDelayedDelivery(delay)
+                .to(QueueUtils.selectPushQueue(variantType, message.getMessage().getPriority()));
+    }
+
+    /**
+     * Samples the depth of the token batch queue of the message's lane while the flow control recovers from a full queue.
+     *
+     * @return the number of messages in the token batch queue, or -1 if it was not sampled
+     */
+    private int sampleQueueDepth(VariantType variantType, UnifiedPushMessage message, SenderConfiguration configuration) {
+        if (!flowControl.shouldSampleQueueDepth(variantType, message.getMessage().getPriority())) {
+            return -1;
+        }
+        try {
+            // the depth is only compared between samples, so there is no need to browse further than a few transactions
+            return jmsClient.queueDepth(QueueUtils.selectTokenQueue(variantType, message.getMessage().getPriority()), configuration.batchesToLoad() * 10);
+        } catch (MessageDeliveryException e) {
+            logger.debug("Failed to sample the depth of the token batch queue", e);
+            return -1;
         }
     }
 
@@ -0,0 +1,240 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.token;
+
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.message.Priority;
+import org.jboss.aerogear.unifiedpush.message.configuration.SenderConfiguration;
+import org.jboss.aerogear.unifiedpush.message.util.QueueUtils;
+import org.jboss.aerogear.unifiedpush.service.metrics.PrometheusExporter;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ejb.Singleton;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Adapts the pace of the {@link TokenLoader} to the capacity of the token batch queues.
+ *
+ * When a token batch queue is full, the loader rolls back its transaction and does not retry right away: this component
+ * computes a delay, which grows exponentially with every consecutive full-queue event, and the number of batches loaded in one
+ * transaction is halved. Until the delay is over, the loader resends the requests of the lane with the remaining delay. Once batches are queued again, the number of batches grows back one step at a time,
+ * as long as the sampled queue depth shows that the consumers keep up.
+ *
+ * The state is tracked per token batch queue, that is per push network and priority lane (see {@link QueueUtils}),
+ * so that a full normal priority queue does not hold back the high priority lane, and sampled depths are only compared
+ * with earlier samples of the same queue.
+ */
+@Singleton
+public class TokenLoaderFlowControl {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenLoaderFlowControl.class);
+
+    // system property names used to tune the backoff
+    public static final String AEROGEAR_TOKEN_LOADER_BACKOFF_INITIAL = "aerogear.tokenloader.backoff.initial";
+    public static final String AEROGEAR_TOKEN_LOADER_BACKOFF_MAX = "aerogear.tokenloader.backoff.max";
+    public static final String AEROGEAR_TOKEN_LOADER_GROW_AFTER = "aerogear.tokenloader.grow.after";
+
+    /**
+     * State of the token loader for one token batch queue.
+     */
+    public enum State {
+        /**
+         * Batches are loaded with the configured {@link SenderConfiguration#batchesToLoad()}
+         */
+        NORMAL,
+        /**
+         * The token batch queue was full, loading is delayed
+         */
+        BACKING_OFF,
+        /**
+         * Batches are queued again, but with less batches per transaction than configured
+         */
+        RECOVERING
+    }
+
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final int growAfter;
+    private final LongSupplier clock;
+
+    private final Map<String, LoaderState> states = new HashMap<>();
+
+    public TokenLoaderFlowControl() {
+        this(ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_TOKEN_LOADER_BACKOFF_INITIAL, 1000),
+                ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_TOKEN_LOADER_BACKOFF_MAX, 60000),
+                ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_TOKEN_LOADER_GROW_AFTER, 3),
+                System::currentTimeMillis);
+    }
+
+    /**
+     * @param initialBackoff delay in milliseconds applied after the first full-queue event
+     * @param maxBackoff upper bound for the delay in milliseconds
+     * @param growAfter number of successful token-loading transactions before the number of batches grows by one
+     * @param clock source of the current time in milliseconds
+     */
+    TokenLoaderFlowControl(long initialBackoff, long maxBackoff, int growAfter, LongSupplier clock) {
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.growAfter = growAfter;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns how many batches should be loaded in the next token-loading transaction for the given push network and lane.
+     *
+     * @param variantType the push network
+     * @param priority the priority of the message, which selects the lane
+     * @param configuration the configuration of the push network
+     * @return the number of batches to load, between 1 and {@link SenderConfiguration#batchesToLoad()}
+     */
+    public int batchesToLoad(VariantType variantType, Priority priority, SenderConfiguration configuration) {
+        return stateFor(QueueUtils.selectTokenQueue(variantType, priority), configuration).batchesToLoad;
+    }
+
+    /**
+     * Tells whether the queue depth should be sampled before the next successful transaction is recorded,
+     * which is only needed while the loader recovers from a full queue.
+     *
+     * @param variantType the push network
+     * @param priority the priority of the message, which selects the lane
+     * @return true if the loader is not in the {@link State#NORMAL} state
+     */
+    public boolean shouldSampleQueueDepth(VariantType variantType, Priority priority) {
+        return getState(variantType, priority) != State.NORMAL;
+    }
+
+    /**
+     * Returns how long the token loading for the given push network and lane should still be delayed, after its token batch queue was full.
+     *
+     * @param variantType the push network
+     * @param priority the priority of the message, which selects the lane
+     * @return the remaining delay in milliseconds, 0 if the token loading may proceed
+     */
+    public long remainingBackoff(VariantType variantType, Priority priority) {
+        final LoaderState state = states.get(QueueUtils.selectTokenQueue(variantType, priority));
+        return state == null ? 0 : Math.max(0, state.resumeAt - clock.getAsLong());
+    }
+
+    /**
+     * Records that the token batch queue of the given push network and lane was full.
+     *
+     * @param variantType the push network
+     * @param priority the priority of the message, which selects the lane
+     * @param configuration the configuration of the push network
+     * @return the delay in milliseconds after which the token loading should be retried
+     */
+    public long onQueueFull(VariantType variantType, Priority priority, SenderConfiguration configuration) {
+        final String queue = QueueUtils.selectTokenQueue(variantType, priority);
+        final LoaderState state = stateFor(queue, configuration);
+
+        state.consecutiveFullQueueEvents++;
+        state.successfulTransactions = 0;
+        state.batchesToLoad = Math.max(1, state.batchesToLoad / 2);
+        state.backoff = computeBackoff(state.consecutiveFullQueueEvents);
+        state.resumeAt = clock.getAsLong() + state.backoff;
+        state.state = State.BACKING_OFF;
+
+        logger.debug("Token batch queue {} is full ({} times in a row), delaying by {} ms and loading {} batches per transaction",
+                queue, state.consecutiveFullQueueEvents, state.backoff, state.batchesToLoad);
+        export(queue, state);
+        return state.backoff;
+    }
+
+    /**
+     * Records that all batches of a token-loading transaction were queued for the given push network and lane.
+     *
+     * @param variantType the push network
+     * @param priority the priority of the message, which selects the lane
+     * @param configuration the configuration of the push network
+     * @param queueDepth the sampled depth of the token batch queue of the lane, or a negative value when it was not sampled
+     */
+    public void onBatchesQueued(VariantType variantType, Priority priority, SenderConfiguration configuration, int queueDepth) {
+        final String queue = QueueUtils.selectTokenQueue(variantType, priority);
+        final LoaderState state = stateFor(queue, configuration);
+
+        state.consecutiveFullQueueEvents = 0;
+        state.backoff = 0;
+
+        if (state.state != State.NORMAL) {
+            state.state = State.RECOVERING;
+            state.successfulTransactions++;
+
+            // grow only if the consumers keep up with the queue
+            final boolean draining = queueDepth < 0 || state.lastQueueDepth < 0 || queueDepth <= state.lastQueueDepth;
+            if (state.successfulTransactions >= growAfter && draining) {
+                state.successfulTransactions = 0;
+                state.batchesToLoad = Math.min(configuration.batchesToLoad(), state.batchesToLoad + 1);
+            }
+            if (state.batchesToLoad >= configuration.batchesToLoad()) {
+                logger.debug("Token loader for {} recovered, loading {} batches per transaction again", queue, state.batchesToLoad);
+                state.state = State.NORMAL;
+            }
+        }
+        if (queueDepth >= 0) {
+            state.lastQueueDepth = queueDepth;
+            PrometheusExporter.instance().setTokenBatchQueueDepth(queue, queueDepth);
+        }
+        export(queue, state);
+    }
+
+    /**
+     * @param variantType the push network
+     * @param priority the priority of the message, which selects the lane
+     * @return the current state of the token loader for the given push network and lane
+     */
+    public State getState(VariantType variantType, Priority priority) {
+        final LoaderState state = states.get(QueueUtils.selectTokenQueue(variantType, priority));
+        return state == null ? State.NORMAL : state.state;
+    }
+
+    long computeBackoff(int consecutiveFullQueueEvents) {
+        // cap the shift, so that the delay can't overflow
+        final int exponent = Math.min(consecutiveFullQueueEvents - 1, 30);
+        return Math.min(maxBackoff, initialBackoff << exponent);
+    }
+
+    private LoaderState stateFor(String queue, SenderConfiguration configuration) {
+        LoaderState state = states.get(queue);
+        if (state == null) {
+            state = new LoaderState(configuration.batchesToLoad());
+            states.put(queue, state);
+        }
+        return state;
+    }
+
+    private static void export(String queue, LoaderState state) {
+        PrometheusExporter.instance().setTokenLoaderState(queue, state.state.ordinal(), state.batchesToLoad, state.backoff);
+    }
+
+    private static class LoaderState {
+        private State state = State.NORMAL;
+        private int batchesToLoad;
+        private int consecutiveFullQueueEvents;
+        private int successfulTransactions;
+        private int lastQueueDepth = -1;
+        private long backoff;
+        private long resumeAt;
+
+        LoaderState(int batchesToLoad) {
+            this.batchesToLoad = batchesToLoad;
+        }
+    }
+}
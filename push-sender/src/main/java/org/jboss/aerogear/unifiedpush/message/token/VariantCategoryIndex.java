@@ -0,0 +1,273 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.token;
+
+import org.jboss.aerogear.unifiedpush.dto.DeviceTokenCategory;
+import org.jboss.aerogear.unifiedpush.event.InstallationsChangedEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory index of the enabled installations of a single variant, by category and by device type.
+ *
+ * The index is built from a snapshot of the installations: the distinct device tokens are kept in ascending order, so that the
+ * position of a token in the array is its ordinal, and every category and device type is a bit set over these ordinals.
+ * Criteria are resolved with bit set operations, in the same way as the database query: an installation matches when it is in any of
+ * the requested categories and of any of the requested device types.
+ *
+ * Installations that changed after the snapshot was taken are tracked token by token and override the snapshot,
+ * until the index is rebuilt.
+ */
+class VariantCategoryIndex {
+
+    // the state of a token that was removed or disabled after the snapshot was taken
+    private static final TokenState REMOVED = new TokenState(null, Collections.emptySet());
+
+    private final String[] tokens;
+    private final Map<String, BitSet> categories;
+    private final Map<String, BitSet> deviceTypes;
+    private final long builtAt;
+
+    private final NavigableMap<String, TokenState> changes = new ConcurrentSkipListMap<>();
+
+    private VariantCategoryIndex(String[] tokens, Map<String, BitSet> categories, Map<String, BitSet> deviceTypes, long builtAt) {
+        this.tokens = tokens;
+        this.categories = categories;
+        this.deviceTypes = deviceTypes;
+        this.builtAt = builtAt;
+    }
+
+    /**
+     * Builds the index from the installations of a variant.
+     *
+     * The tokens are sorted in the natural order of {@link String}, which is the byte order the database pages the tokens in,
+     * so that the index doesn't depend on the order of the rows; the bit sets are remapped to the sorted ordinals.
+     *
+     * @param rows the installations, once per category, in any order
+     * @param maxTokens the maximum number of device tokens of the index
+     * @param builtAt the time in milliseconds when the snapshot was taken
+     *
+     * @return the index, or null if the variant has more than <code>maxTokens</code> device tokens
+     */
+    static VariantCategoryIndex build(Iterator<DeviceTokenCategory> rows, int maxTokens, long builtAt) {
+        final Map<String, Integer> ordinals = new HashMap<>();
+        final List<String> tokens = new ArrayList<>();
+        final Map<String, BitSet> categories = new HashMap<>();
+        final Map<String, BitSet> deviceTypes = new HashMap<>();
+
+        boolean sorted = true;
+        while (rows.hasNext()) {
+            final DeviceTokenCategory row = rows.next();
+            Integer ordinal = ordinals.get(row.getDeviceToken());
+            if (ordinal == null) {
+                if (tokens.size() == maxTokens) {
+                    return null;
+                }
+                if (!tokens.isEmpty() && tokens.get(tokens.size() - 1).compareTo(row.getDeviceToken()) > 0) {
+                    sorted = false;
+                }
+                ordinal = tokens.size();
+                ordinals.put(row.getDeviceToken(), ordinal);
+                tokens.add(row.getDeviceToken());
+                if (row.getDeviceType() != null) {
+                    deviceTypes.computeIfAbsent(row.getDeviceType(), type -> new BitSet()).set(ordinal);
+                }
+            }
+            if (row.getCategory() != null) {
+                categories.computeIfAbsent(row.getCategory(), category -> new BitSet()).set(ordinal);
+            }
+        }
+
+        final String[] sortedTokens = tokens.toArray(new String[tokens.size()]);
+        if (sorted) {
+            return new VariantCategoryIndex(sortedTokens, categories, deviceTypes, builtAt);
+        }
+        Arrays.sort(sortedTokens);
+        final int[] remap = new int[sortedTokens.length];
+        for (int i = 0; i < sortedTokens.length; i++) {
+            remap[ordinals.get(sortedTokens[i])] = i;
+        }
+        return new VariantCategoryIndex(sortedTokens, remap(categories, remap), remap(deviceTypes, remap), builtAt);
+    }
+
+    private static Map<String, BitSet> remap(Map<String, BitSet> bitSets, int[] remap) {
+        final Map<String, BitSet> remapped = new HashMap<>();
+        for (Map.Entry<String, BitSet> entry : bitSets.entrySet()) {
+            final BitSet bits = new BitSet(remap.length);
+            for (int ordinal = entry.getValue().nextSetBit(0); ordinal >= 0; ordinal = entry.getValue().nextSetBit(ordinal + 1)) {
+                bits.set(remap[ordinal]);
+            }
+            remapped.put(entry.getKey(), bits);
+        }
+        return remapped;
+    }
+
+    /**
+     * Records the installations that changed after the snapshot was taken.
+     *
+     * @param event the changed installations of the variant
+     */
+    void apply(InstallationsChangedEvent event) {
+        for (Map.Entry<String, InstallationsChangedEvent.RegisteredInstallation> registered : event.getRegistered().entrySet()) {
+            changes.put(registered.getKey(), new TokenState(registered.getValue().getDeviceType(), registered.getValue().getCategories()));
+        }
+        for (String removed : event.getRemoved()) {
+            changes.put(removed, REMOVED);
+        }
+    }
+
+    /**
+     * @return the time in milliseconds when the snapshot was taken
+     */
+    long getBuiltAt() {
+        return builtAt;
+    }
+
+    /**
+     * @return the number of installations that changed after the snapshot was taken
+     */
+    int getChanges() {
+        return changes.size();
+    }
+
+    /**
+     * Finds the device tokens matching the criteria, in ascending order.
+     *
+     * @param categories applied categories for the filter
+     * @param deviceTypes applied deviceTypes for the filter
+     * @param maxResults number of maxResults for the filter
+     * @param lastTokenFromPreviousBatch identifier of the last fetched token, or null
+     * @param lastTokenOfRange the last (inclusive) token of the range, or null if the range is not bounded
+     *
+     * @return the device tokens that match the criteria
+     */
+    List<String> find(List<String> categories, List<String> deviceTypes, int maxResults, String lastTokenFromPreviousBatch, String lastTokenOfRange) {
+        final BitSet matching = matching(categories, deviceTypes);
+        final Set<String> categoryFilter = isEmpty(categories) ? null : new HashSet<>(categories);
+        final Set<String> deviceTypeFilter = isEmpty(deviceTypes) ? null : new HashSet<>(deviceTypes);
+
+        final NavigableMap<String, TokenState> changesOfRange = lastTokenFromPreviousBatch == null ? changes : changes.tailMap(lastTokenFromPreviousBatch, false);
+        final Iterator<Map.Entry<String, TokenState>> changed = changesOfRange.entrySet().iterator();
+        Map.Entry<String, TokenState> nextChanged = changed.hasNext() ? changed.next() : null;
+
+        final List<String> result = new ArrayList<>();
+        int ordinal = matching.nextSetBit(lastTokenFromPreviousBatch == null ? 0 : firstOrdinalAfter(lastTokenFromPreviousBatch));
+        while (result.size() < maxResults) {
+            final String token = ordinal >= 0 && ordinal < tokens.length ? tokens[ordinal] : null;
+            final String changedToken = nextChanged == null ? null : nextChanged.getKey();
+            if (token == null && changedToken == null) {
+                break;
+            }
+
+            final String next;
+            if (changedToken == null || (token != null && token.compareTo(changedToken) < 0)) {
+                // the snapshot is only valid for tokens that did not change since
+                next = changes.containsKey(token) ? null : token;
+                ordinal = matching.nextSetBit(ordinal + 1);
+            } else {
+                next = nextChanged.getValue().matches(categoryFilter, deviceTypeFilter) ? changedToken : null;
+                if (changedToken.equals(token)) {
+                    ordinal = matching.nextSetBit(ordinal + 1);
+                }
+                nextChanged = changed.hasNext() ? changed.next() : null;
+            }
+
+            if (next != null) {
+                if (lastTokenOfRange != null && next.compareTo(lastTokenOfRange) > 0) {
+                    break;
+                }
+                result.add(next);
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Ordinals of the tokens of the snapshot that are in any of the categories and of any of the device types
+     */
+    private BitSet matching(List<String> categories, List<String> deviceTypes) {
+        BitSet matching = null;
+        if (!isEmpty(categories)) {
+            matching = union(this.categories, categories);
+        }
+        if (!isEmpty(deviceTypes)) {
+            final BitSet ofDeviceTypes = union(this.deviceTypes, deviceTypes);
+            if (matching == null) {
+                matching = ofDeviceTypes;
+            } else {
+                matching.and(ofDeviceTypes);
+            }
+        }
+        if (matching == null) {
+            matching = new BitSet(tokens.length);
+            matching.set(0, tokens.length);
+        }
+        return matching;
+    }
+
+    private int firstOrdinalAfter(String token) {
+        final int position = Arrays.binarySearch(tokens, token);
+        return position >= 0 ? position + 1 : -position - 1;
+    }
+
+    private static BitSet union(Map<String, BitSet> index, Collection<String> keys) {
+        final BitSet union = new BitSet();
+        for (String key : keys) {
+            final BitSet bits = index.get(key);
+            if (bits != null) {
+                union.or(bits);
+            }
+        }
+        return union;
+    }
+
+    private static boolean isEmpty(List<String> list) {
+        return list == null || list.isEmpty();
+    }
+
+    private static class TokenState {
+        private final String deviceType;
+        private final Set<String> categories;
+
+        TokenState(String deviceType, Set<String> categories) {
+            this.deviceType = deviceType;
+            this.categories = categories;
+        }
+
+        boolean matches(Set<String> categoryFilter, Set<String> deviceTypeFilter) {
+            if (this == REMOVED) {
+                return false;
+            }
+            if (deviceTypeFilter != null && !deviceTypeFilter.contains(deviceType)) {
+                return false;
+            }
+            return categoryFilter == null || !Collections.disjoint(categoryFilter, categories);
+        }
+    }
+}
@@ -19,6 +19,8 @@ package org.jboss.aerogear.unifiedpush.message.util;
 import com.turo.pushy.apns.ApnsClientBuilder;
 
 import org.jboss.aerogear.unifiedpush.message.HealthNetworkService;
+import org.jboss.aerogear.unifiedpush.message.sender.CircuitBreaker;
+import org.jboss.aerogear.unifiedpush.message.sender.CircuitBreakerRegistry;
 import org.jboss.aerogear.unifiedpush.message.sender.fcm.ConfigurableFCMSender;
 import org.jboss.aerogear.unifiedpush.service.impl.health.HealthDetails;
 import org.jboss.aerogear.unifiedpush.service.impl.health.Ping;
@@ -28,6 +30,7 @@ import org.jboss.aerogear.unifiedpush.service.impl.health.Status;
 import javax.ejb.AsyncResult;
 import javax.ejb.Asynchronous;
 import javax.ejb.Stateless;
+import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -57,6 +60,9 @@ public class HealthNetworkServiceImpl implements HealthNetworkService {
             }
     ));
 
+    @Inject
+    private CircuitBreakerRegistry circuitBreakers;
+
     static {
         if (customAerogearApnsPushHost != null) {
             final int port = customAerogearApnsPushPort != null ? customAerogearApnsPushPort : ApnsClientBuilder.DEFAULT_APNS_PORT;
@@ -85,6 +91,18 @@ public class HealthNetworkServiceImpl implements HealthNetworkService {
             details.stop();
         });
 
+        circuitBreakers.getTrippedBreakers().forEach(breaker -> results.add(circuitBreakerStatus(breaker)));
+
         return new AsyncResult<>(results);
     }
+
+    private static HealthDetails circuitBreakerStatus(CircuitBreaker breaker) {
+        HealthDetails details = new HealthDetails();
+        details.start();
+        details.setDescription(String.format("Circuit breaker of %s", breaker.getName()));
+        details.setTestStatus(Status.WARN);
+        details.setResult(String.format("%s since %tc: %s", breaker.getState(), breaker.getOpenedAt(), breaker.getFailureReason()));
+        details.stop();
+        return details;
+    }
 }
@@ -30,8 +30,10 @@ import javax.jms.JMSException;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageProducer;
 import javax.jms.ObjectMessage;
+import javax.jms.QueueBrowser;
 import javax.jms.Session;
 import java.io.Serializable;
+import java.util.Enumeration;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -69,6 +71,43 @@ public class JmsClient {
         return new JmsReceiver();
     }
 
+    /**
+     * Counts messages currently stored in the given queue by browsing it, without consuming anything.
+     *
+     * Browsing stops once the given limit is reached, so the cost of the check stays bounded even for deep queues.
+     *
+     * @param destination name of the queue to browse
+     * @param limit maximum number of messages to count
+     * @return number of messages in the queue, at most the given limit
+     */
+    public int queueDepth(String destination, int limit) {
+        Connection connection = null;
+        try {
+            connection = connectionFactory.createConnection();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            QueueBrowser browser = session.createBrowser(session.createQueue(destination));
+            connection.start();
+            Enumeration<?> messages = browser.getEnumeration();
+            int depth = 0;
+            while (depth < limit && messages.hasMoreElements()) {
+                messages.nextElement();
+                depth++;
+            }
+            browser.close();
+            return depth;
+        } catch (JMSException e) {
+            throw new MessageDeliveryException("Failed to browse queue " + destination, e);
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (JMSException e) {
+                    logger.error("Failed to close JMS connection: ", e);
+                }
+            }
+        }
+    }
+
     /**
      * Utility that allows to specify how should be message sent and into which destination
      */
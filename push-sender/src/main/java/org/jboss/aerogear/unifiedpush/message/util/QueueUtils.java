@@ -17,7 +17,18 @@
 package org.jboss.aerogear.unifiedpush.message.util;
 
 import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.message.Priority;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Selects the JMS queues a push message travels through.
+ *
+ * Every push network has two lanes: messages with {@link Priority#HIGH} are routed to dedicated high priority queues,
+ * which have their own pool of consumers, so that they are not stuck behind a large broadcast sent with normal priority.
+ */
 public class QueueUtils {
 
     private static final String apnsTokenBatchQueue = "APNsTokenBatchQueue";
@@ -32,31 +43,70 @@ public class QueueUtils {
 
     private static final String webPushBatchQueue = "WebPushMessageQueue";
 
+    private static final String apnsHighPriorityTokenBatchQueue = "APNsHighPriorityTokenBatchQueue";
+
+    private static final String gcmHighPriorityTokenBatchQueue = "GCMHighPriorityTokenBatchQueue";
+
+    private static final String webHighPriorityTokenBatchQueue = "WebHighPriorityTokenBatchQueue";
+
+    private static final String apnsHighPriorityPushBatchQueue = "APNsHighPriorityPushMessageQueue";
+
+    private static final String gcmHighPriorityPushBatchQueue = "GCMHighPriorityPushMessageQueue";
+
+    private static final String webHighPriorityPushBatchQueue = "WebHighPriorityPushMessageQueue";
+
+    private static final List<String> allQueues = Collections.unmodifiableList(Arrays.asList(
+            apnsPushBatchQueue, gcmPushBatchQueue, webPushBatchQueue,
+            apnsHighPriorityPushBatchQueue, gcmHighPriorityPushBatchQueue, webHighPriorityPushBatchQueue,
+            apnsTokenBatchQueue, gcmTokenBatchQueue, webTokenBatchQueue,
+            apnsHighPriorityTokenBatchQueue, gcmHighPriorityTokenBatchQueue, webHighPriorityTokenBatchQueue));
+
+    /**
+     * @return the names of all push message and token batch queues
+     */
+    public static List<String> allQueues() {
+        return allQueues;
+    }
+
     public static String selectTokenQueue(VariantType variantType) {
+        return selectTokenQueue(variantType, Priority.NORMAL);
+    }
+
+    public static String selectTokenQueue(VariantType variantType, Priority priority) {
+        final boolean high = isHighPriority(priority);
         switch (variantType) {
             case ANDROID:
-                return gcmTokenBatchQueue;
+                return high ? gcmHighPriorityTokenBatchQueue : gcmTokenBatchQueue;
             case IOS:
             case IOS_TOKEN:
-                return apnsTokenBatchQueue;
+                return high ? apnsHighPriorityTokenBatchQueue : apnsTokenBatchQueue;
             case WEB_PUSH:
-                return webTokenBatchQueue;
+                return high ? webHighPriorityTokenBatchQueue : webTokenBatchQueue;
             default:
                 throw new IllegalStateException("Unknown variant type queue");
         }
     }
 
     public static String selectPushQueue(VariantType variantType) {
+        return selectPushQueue(variantType, Priority.NORMAL);
+    }
+
+    public static String selectPushQueue(VariantType variantType, Priority priority) {
+        final boolean high = isHighPriority(priority);
         switch (variantType) {
             case ANDROID:
-                return gcmPushBatchQueue;
+                return high ? gcmHighPriorityPushBatchQueue : gcmPushBatchQueue;
             case IOS:
             case IOS_TOKEN:
-                return apnsPushBatchQueue;
+                return high ? apnsHighPriorityPushBatchQueue : apnsPushBatchQueue;
             case WEB_PUSH:
-                return webPushBatchQueue;
+                return high ? webHighPriorityPushBatchQueue : webPushBatchQueue;
             default:
                 throw new IllegalStateException("Unknown variant type queue");
         }
     }
-}
\ No newline at end of file
+
+    private static boolean isHighPriority(Priority priority) {
+        return priority == Priority.HIGH;
+    }
+}
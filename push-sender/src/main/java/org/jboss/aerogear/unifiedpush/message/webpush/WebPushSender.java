@@ -14,6 +14,7 @@ import org.jboss.aerogear.unifiedpush.dao.FlatPushMessageInformationDao;
 import org.jboss.aerogear.unifiedpush.message.NotificationDispatcher;
 import org.jboss.aerogear.unifiedpush.message.UnifiedPushMessage;
 import org.jboss.aerogear.unifiedpush.message.holder.MessageHolderWithTokens;
+import org.jboss.aerogear.unifiedpush.message.sender.FailureKind;
 import org.jboss.aerogear.unifiedpush.message.sender.NotificationSenderCallback;
 import org.jboss.aerogear.unifiedpush.message.sender.PushNotificationSender;
 import org.jboss.aerogear.unifiedpush.message.sender.SenderType;
@@ -156,7 +157,7 @@ public class WebPushSender implements PushNotificationSender {
 
         } catch (GeneralSecurityException e) {
             logger.error("Could not load VAPID keys.", e);
-            senderCallback.onError(e.getMessage());
+            senderCallback.onVariantError(FailureKind.INVALID_CREDENTIALS, e.getMessage());
         }
 
     }
@@ -171,6 +172,7 @@ public class WebPushSender implements PushNotificationSender {
         info.setLastOpenDate(pushMessageInformation.getLastOpenDate());
         info.setPushApplicationId(pushMessageInformation.getPushApplicationId());
         info.setRawJsonMessage(pushMessageInformation.getRawJsonMessage());
+        info.setSearchText(pushMessageInformation.getSearchText());
         info.setSubmitDate(pushMessageInformation.getSubmitDate());
         return info;
     }
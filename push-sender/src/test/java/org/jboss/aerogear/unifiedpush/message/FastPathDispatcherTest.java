@@ -0,0 +1,165 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message;
+
+import org.jboss.aerogear.unifiedpush.api.AndroidVariant;
+import org.jboss.aerogear.unifiedpush.api.FlatPushMessageInformation;
+import org.jboss.aerogear.unifiedpush.api.Variant;
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.dao.ResultStreamException;
+import org.jboss.aerogear.unifiedpush.dao.ResultsStream;
+import org.jboss.aerogear.unifiedpush.message.event.FastPathRequestedEvent;
+import org.jboss.aerogear.unifiedpush.message.event.TokenBatchQueuedEvent;
+import org.jboss.aerogear.unifiedpush.message.exception.MessageDeliveryException;
+import org.jboss.aerogear.unifiedpush.message.holder.MessageHolderWithTokens;
+import org.jboss.aerogear.unifiedpush.message.holder.MessageHolderWithVariants;
+import org.jboss.aerogear.unifiedpush.message.util.JmsClient;
+import org.jboss.aerogear.unifiedpush.message.util.QueueUtils;
+import org.jboss.aerogear.unifiedpush.service.ClientInstallationService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.ejb.EJBContext;
+import javax.enterprise.event.Event;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FastPathDispatcherTest {
+
+    @Mock
+    private ClientInstallationService clientInstallationService;
+
+    @Mock
+    private JmsClient jmsClient;
+
+    @Mock
+    private JmsClient.JmsSender jmsSender;
+
+    @Mock
+    private Event<TokenBatchQueuedEvent> batchQueued;
+
+    @Mock
+    private EJBContext context;
+
+    @InjectMocks
+    private FastPathDispatcher dispatcher;
+
+    private Variant variant;
+    private MessageHolderWithVariants msg;
+
+    @Before
+    public void setUp() {
+        variant = new AndroidVariant();
+        variant.setVariantID("variant-1");
+
+        final FlatPushMessageInformation pushMessageInformation = new FlatPushMessageInformation();
+        pushMessageInformation.setId("msg-1");
+        pushMessageInformation.setPushApplicationId("app-1");
+        final UnifiedPushMessage message = new UnifiedPushMessage();
+        message.getCriteria().setAliases(Collections.singletonList("alias"));
+        msg = new MessageHolderWithVariants(pushMessageInformation, message, VariantType.ANDROID, Collections.singletonList(variant));
+
+        when(jmsClient.send(any(Serializable.class))).thenReturn(jmsSender);
+        when(jmsSender.inTransaction()).thenReturn(jmsSender);
+        when(jmsSender.withDuplicateDetectionId(anyString())).thenReturn(jmsSender);
+    }
+
+    @Test
+    public void queuesTokenBatchWithTransaction() {
+        tokens("token-1", "token-2");
+
+        dispatcher.dispatch(new FastPathRequestedEvent(msg));
+
+        final ArgumentCaptor<Serializable> sent = ArgumentCaptor.forClass(Serializable.class);
+        verify(jmsClient).send(sent.capture());
+        final MessageHolderWithTokens batch = (MessageHolderWithTokens) sent.getValue();
+        assertThat(batch.getDeviceTokens()).containsExactly("token-1", "token-2");
+        verify(jmsSender).inTransaction();
+        verify(jmsSender).withDuplicateDetectionId("msg-1-1");
+        verify(jmsSender).to(QueueUtils.selectTokenQueue(VariantType.ANDROID));
+        verify(batchQueued).fire(any(TokenBatchQueuedEvent.class));
+        verify(context, never()).setRollbackOnly();
+    }
+
+    @Test
+    public void queuesMessageWithMoreTokensThanThreshold() {
+        tokens("token-1", "token-2", "token-3", "token-4", "token-5", "token-6", "token-7", "token-8", "token-9", "token-10", "token-11");
+
+        dispatcher.dispatch(new FastPathRequestedEvent(msg));
+
+        verify(jmsClient).send(msg);
+        verify(jmsSender, never()).inTransaction();
+        verify(jmsSender).to(QueueUtils.selectPushQueue(VariantType.ANDROID));
+        verify(batchQueued, never()).fire(any(TokenBatchQueuedEvent.class));
+    }
+
+    @Test
+    public void queuesMessageWhenBatchCanNotBeQueued() {
+        tokens("token-1");
+        doThrow(new MessageDeliveryException("queue unavailable"))
+                .when(jmsSender).to(QueueUtils.selectTokenQueue(VariantType.ANDROID));
+
+        dispatcher.dispatch(new FastPathRequestedEvent(msg));
+
+        // the queued batches are rolled back, the message is queued outside of the transaction
+        verify(context).setRollbackOnly();
+        verify(jmsClient).send(msg);
+        verify(jmsSender).to(QueueUtils.selectPushQueue(VariantType.ANDROID));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void tokens(String... tokens) {
+        final ResultsStream.QueryBuilder<String> query = mock(ResultsStream.QueryBuilder.class);
+        final ResultsStream<String> stream = mock(ResultsStream.class);
+        when(clientInstallationService.findAllDeviceTokenForVariantIDByCriteria(eq("variant-1"), anyListOf(String.class), anyListOf(String.class),
+                anyListOf(String.class), anyInt(), (String) isNull())).thenReturn(query);
+        when(query.executeQuery()).thenReturn(stream);
+        try {
+            final List<String> tokenList = Arrays.asList(tokens);
+            final Iterator<String> iterator = tokenList.iterator();
+            final String[] current = new String[1];
+            when(stream.next()).thenAnswer(invocation -> {
+                if (!iterator.hasNext()) {
+                    return false;
+                }
+                current[0] = iterator.next();
+                return true;
+            });
+            when(stream.get()).thenAnswer(invocation -> current[0]);
+        } catch (ResultStreamException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
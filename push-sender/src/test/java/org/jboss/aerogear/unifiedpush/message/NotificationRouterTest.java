@@ -0,0 +1,79 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class NotificationRouterTest {
+
+    @Test
+    public void testFewAliasesTakeFastPath() {
+        final Criteria criteria = new Criteria();
+        criteria.setAliases(Arrays.asList("alice", "bob"));
+
+        assertThat(NotificationRouter.isFastPathCandidate(criteria)).isTrue();
+    }
+
+    @Test
+    public void testAliasesUpToThresholdTakeFastPath() {
+        final Criteria criteria = new Criteria();
+        criteria.setAliases(aliases(10));
+
+        assertThat(NotificationRouter.isFastPathCandidate(criteria)).isTrue();
+    }
+
+    @Test
+    public void testMoreAliasesThanThresholdAreQueued() {
+        final Criteria criteria = new Criteria();
+        criteria.setAliases(aliases(11));
+
+        assertThat(NotificationRouter.isFastPathCandidate(criteria)).isFalse();
+    }
+
+    @Test
+    public void testMessageWithoutAliasesIsQueued() {
+        assertThat(NotificationRouter.isFastPathCandidate(new Criteria())).isFalse();
+
+        final Criteria criteria = new Criteria();
+        criteria.setAliases(Collections.emptyList());
+        assertThat(NotificationRouter.isFastPathCandidate(criteria)).isFalse();
+    }
+
+    @Test
+    public void testMessageToCategoriesIsQueued() {
+        final Criteria criteria = new Criteria();
+        criteria.setAliases(Arrays.asList("alice"));
+        criteria.setCategories(Arrays.asList("sports"));
+
+        assertThat(NotificationRouter.isFastPathCandidate(criteria)).isFalse();
+    }
+
+    private static List<String> aliases(int count) {
+        final List<String> aliases = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            aliases.add("alias-" + i);
+        }
+        return aliases;
+    }
+}
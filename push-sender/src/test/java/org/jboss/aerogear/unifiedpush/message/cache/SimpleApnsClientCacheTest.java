@@ -0,0 +1,115 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.cache;
+
+import com.turo.pushy.apns.ApnsClient;
+import io.netty.util.concurrent.Future;
+import org.jboss.aerogear.unifiedpush.api.iOSTokenVariant;
+import org.jboss.aerogear.unifiedpush.message.sender.apns.ApnsClientResources;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SimpleApnsClientCacheTest {
+
+    @Mock
+    private ApnsClientResources apnsClientResources;
+
+    @InjectMocks
+    private SimpleApnsClientCache cache;
+
+    private AtomicInteger built;
+
+    @Before
+    public void setup() {
+        built = new AtomicInteger();
+    }
+
+    @Test
+    public void testSharedClientIsKeptUntilLastVariantChanged() {
+        final iOSTokenVariant first = tokenVariant("1", "KEY");
+        final iOSTokenVariant second = tokenVariant("2", "KEY");
+
+        final ApnsClient client = cache.getApnsClientForVariant(first, this::newClient);
+        assertThat(cache.getApnsClientForVariant(second, this::newClient)).isSameAs(client);
+        assertThat(built.get()).isEqualTo(1);
+
+        cache.disconnectOnChange(first);
+        assertThat(cache.isCached(second)).isTrue();
+        verify(client, never()).close();
+
+        cache.disconnectOnChange(second);
+        assertThat(cache.isCached(second)).isFalse();
+        verify(client).close();
+        verify(apnsClientResources).clientClosed("TEAM.KEYID");
+    }
+
+    @Test
+    public void testChangedCredentialsGetNewClient() {
+        final iOSTokenVariant variant = tokenVariant("1", "KEY");
+        final ApnsClient client = cache.getApnsClientForVariant(variant, this::newClient);
+
+        variant.setPrivateKey("CHANGED");
+        final ApnsClient changed = cache.getApnsClientForVariant(variant, this::newClient);
+
+        assertThat(changed).isNotSameAs(client);
+        // no other variant uses the previous credentials
+        verify(client).close();
+        verify(changed, never()).close();
+    }
+
+    @Test
+    public void testHeldClientIsClosedOnceReleased() {
+        final iOSTokenVariant variant = tokenVariant("1", "KEY");
+        final ApnsClient client = cache.acquireApnsClientForVariant(variant, this::newClient);
+
+        cache.disconnectOnChange(variant);
+        verify(client, never()).close();
+
+        cache.release(client);
+        verify(client).close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private ApnsClient newClient() {
+        built.incrementAndGet();
+        final ApnsClient client = mock(ApnsClient.class);
+        when(client.close()).thenReturn(mock(Future.class));
+        return client;
+    }
+
+    private static iOSTokenVariant tokenVariant(String variantID, String privateKey) {
+        final iOSTokenVariant variant = new iOSTokenVariant();
+        variant.setVariantID(variantID);
+        variant.setTeamId("TEAM");
+        variant.setKeyId("KEYID");
+        variant.setPrivateKey(privateKey);
+        return variant;
+    }
+}
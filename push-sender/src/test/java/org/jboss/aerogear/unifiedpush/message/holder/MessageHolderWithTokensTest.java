@@ -0,0 +1,48 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.holder;
+
+import org.jboss.aerogear.unifiedpush.api.FlatPushMessageInformation;
+import org.jboss.aerogear.unifiedpush.api.iOSVariant;
+import org.jboss.aerogear.unifiedpush.message.UnifiedPushMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class MessageHolderWithTokensTest {
+
+    @Test
+    public void testRequeuedBatchKeepsRetryCountAndQueueingTime() throws InterruptedException {
+        final MessageHolderWithTokens message = new MessageHolderWithTokens(new FlatPushMessageInformation(), new UnifiedPushMessage(),
+                new iOSVariant(), new ArrayList<>(Arrays.asList("token-1", "token-2")), 3);
+        message.incrRetryCount();
+        Thread.sleep(2);
+
+        final MessageHolderWithTokens requeued = message.requeue(new ArrayList<>(Collections.singletonList("token-2")));
+
+        assertThat(message.isRequeued()).isFalse();
+        assertThat(requeued.isRequeued()).isTrue();
+        assertThat(requeued.getRetryCount()).isEqualTo(1);
+        assertThat(requeued.getQueuedAt()).isEqualTo(message.getQueuedAt());
+        assertThat(requeued.getSerialId()).isEqualTo(3);
+        assertThat(requeued.getDeviceTokens()).containsExactly("token-2");
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.idempotency;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class IdempotencyKeyCacheTest {
+
+    private long now;
+    private IdempotencyKeyCache cache;
+
+    @Before
+    public void setUp() {
+        now = 1000000;
+        cache = new IdempotencyKeyCache(60000, 10000, 3, () -> now);
+    }
+
+    @Test
+    public void testNewKeyIsReserved() {
+        assertThat(cache.reserve("app:key-1").isReserved()).isTrue();
+    }
+
+    @Test
+    public void testKeyInProgress() {
+        cache.reserve("app:key-1");
+
+        final IdempotencyKeyReservation reservation = cache.reserve("app:key-1");
+        assertThat(reservation.isReserved()).isFalse();
+        assertThat(reservation.isInProgress()).isTrue();
+    }
+
+    @Test
+    public void testKeyInProgressIsTakenOverAfterLease() {
+        cache.reserve("app:key-1");
+        now += 20000;
+
+        assertThat(cache.reserve("app:key-1").isReserved()).isTrue();
+        assertThat(cache.reserve("app:key-1").isInProgress()).isTrue();
+    }
+
+    @Test
+    public void testCompletedKeyReturnsOriginalMessage() {
+        cache.reserve("app:key-1");
+        cache.complete("app:key-1", "msg-1", now);
+
+        final IdempotencyKeyReservation reservation = cache.reserve("app:key-1");
+        assertThat(reservation.isReserved()).isFalse();
+        assertThat(reservation.isInProgress()).isFalse();
+        assertThat(reservation.getPushMessageId()).isEqualTo("msg-1");
+    }
+
+    @Test
+    public void testReleasedKeyCanBeRetried() {
+        cache.reserve("app:key-1");
+        cache.release("app:key-1");
+
+        assertThat(cache.reserve("app:key-1").isReserved()).isTrue();
+    }
+
+    @Test
+    public void testReleaseKeepsCompletedKey() {
+        cache.reserve("app:key-1");
+        cache.complete("app:key-1", "msg-1", now);
+        cache.release("app:key-1");
+
+        assertThat(cache.reserve("app:key-1").getPushMessageId()).isEqualTo("msg-1");
+    }
+
+    @Test
+    public void testKeysExpire() {
+        cache.reserve("app:key-1");
+        cache.complete("app:key-1", "msg-1", now);
+        now += 120000;
+
+        assertThat(cache.reserve("app:key-1").isReserved()).isTrue();
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testOldestKeysAreEvictedWhenFull() {
+        cache.reserve("app:key-1");
+        cache.reserve("app:key-2");
+        cache.reserve("app:key-3");
+        cache.reserve("app:key-4");
+
+        assertThat(cache.size()).isEqualTo(3);
+        assertThat(cache.reserve("app:key-1").isReserved()).isTrue();
+        assertThat(cache.reserve("app:key-4").isInProgress()).isTrue();
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.idempotency;
+
+import org.jboss.aerogear.unifiedpush.api.IdempotencyKey;
+import org.jboss.aerogear.unifiedpush.dao.IdempotencyKeyDao;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IdempotencyKeyStoreTest {
+
+    @Mock
+    private IdempotencyKeyDao idempotencyKeyDao;
+
+    @Mock
+    private IdempotencyKeyWriter idempotencyKeyWriter;
+
+    @InjectMocks
+    private IdempotencyKeyStore store;
+
+    @BeforeClass
+    public static void useDatabase() {
+        System.setProperty(IdempotencyKeyStore.AEROGEAR_IDEMPOTENCY_STORE, "database");
+    }
+
+    @AfterClass
+    public static void resetStore() {
+        System.clearProperty(IdempotencyKeyStore.AEROGEAR_IDEMPOTENCY_STORE);
+    }
+
+    @Test
+    public void testNewKeyIsInserted() {
+        when(idempotencyKeyWriter.insert(any(IdempotencyKey.class))).thenReturn(true);
+
+        assertThat(store.reserve("app", "key-1").isReserved()).isTrue();
+    }
+
+    @Test
+    public void testConcurrentlyInsertedKeyIsInProgress() {
+        // the insert failed in its own transaction, the request gets a conflict instead of an error
+        when(idempotencyKeyWriter.insert(any(IdempotencyKey.class))).thenReturn(false);
+
+        assertThat(store.reserve("app", "key-1").isInProgress()).isTrue();
+        // released from the cache, so that a retry checks the database again
+        assertThat(store.reserve("app", "key-1").isInProgress()).isTrue();
+    }
+
+    @Test
+    public void testCompletedKeyReturnsOriginalMessage() {
+        when(idempotencyKeyDao.find("app:key-1")).thenReturn(stored("key-1", "msg-1", System.currentTimeMillis() - 1000));
+
+        final IdempotencyKeyReservation reservation = store.reserve("app", "key-1");
+        assertThat(reservation.isReserved()).isFalse();
+        assertThat(reservation.getPushMessageId()).isEqualTo("msg-1");
+        verify(idempotencyKeyWriter, never()).insert(any(IdempotencyKey.class));
+    }
+
+    @Test
+    public void testKeyInProgressWithinLease() {
+        when(idempotencyKeyDao.find("app:key-1")).thenReturn(stored("key-1", null, System.currentTimeMillis() - 1000));
+
+        assertThat(store.reserve("app", "key-1").isInProgress()).isTrue();
+    }
+
+    @Test
+    public void testExpiredKeyInProgressIsTakenOver() {
+        final IdempotencyKey stored = stored("key-1", null, System.currentTimeMillis() - 120000);
+        when(idempotencyKeyDao.find("app:key-1")).thenReturn(stored);
+        when(idempotencyKeyWriter.takeOver(any(IdempotencyKey.class), any(Date.class))).thenReturn(true);
+
+        assertThat(store.reserve("app", "key-1").isReserved()).isTrue();
+        verify(idempotencyKeyWriter).takeOver(any(IdempotencyKey.class), any(Date.class));
+    }
+
+    @Test
+    public void testKeyTakenOverConcurrentlyIsInProgress() {
+        when(idempotencyKeyDao.find("app:key-1")).thenReturn(stored("key-1", null, System.currentTimeMillis() - 120000));
+        when(idempotencyKeyWriter.takeOver(any(IdempotencyKey.class), any(Date.class))).thenReturn(false);
+
+        assertThat(store.reserve("app", "key-1").isInProgress()).isTrue();
+    }
+
+    private static IdempotencyKey stored(String key, String pushMessageId, long createdAt) {
+        final IdempotencyKey stored = new IdempotencyKey("app", key);
+        stored.setPushMessageId(pushMessageId);
+        stored.setCreatedAt(new Date(createdAt));
+        return stored;
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.jms;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConsumerConcurrencyLimitTest {
+
+    @Test
+    public void startsAtMinimum() {
+        final ConsumerConcurrencyLimit limit = new ConsumerConcurrencyLimit(2, 10, 0, 1000);
+
+        assertThat(limit.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    public void raisesWhileBacklogGrows() {
+        final ConsumerConcurrencyLimit limit = new ConsumerConcurrencyLimit(2, 10, 0, 1000);
+
+        assertThat(limit.adjust(100)).isEqualTo(3);
+        assertThat(limit.adjust(200)).isEqualTo(4);
+        assertThat(limit.adjust(300)).isEqualTo(6);
+        assertThat(limit.adjust(400)).isEqualTo(9);
+        assertThat(limit.adjust(500)).isEqualTo(10);
+    }
+
+    @Test
+    public void keepsLimitWhileBacklogDrains() {
+        final ConsumerConcurrencyLimit limit = new ConsumerConcurrencyLimit(2, 10, 0, 1000);
+        limit.adjust(100);
+        limit.adjust(200);
+
+        assertThat(limit.adjust(150)).isEqualTo(4);
+        assertThat(limit.adjust(150)).isEqualTo(4);
+    }
+
+    @Test
+    public void raisesWhileBacklogIsSaturated() {
+        final ConsumerConcurrencyLimit limit = new ConsumerConcurrencyLimit(2, 10, 0, 20);
+
+        // the sampled depth stays at the saturation depth, the backlog is larger than the consumers keep up with
+        final int depth = limit.saturationDepth();
+        assertThat(depth).isEqualTo(201);
+        assertThat(limit.adjust(depth)).isEqualTo(3);
+        assertThat(limit.adjust(depth)).isEqualTo(4);
+        assertThat(limit.adjust(depth)).isEqualTo(6);
+        assertThat(limit.adjust(depth)).isEqualTo(9);
+        assertThat(limit.adjust(depth)).isEqualTo(10);
+        assertThat(limit.adjust(depth)).isEqualTo(10);
+    }
+
+    @Test
+    public void raisesWhileSteadyBacklogExceedsConsumers() {
+        final ConsumerConcurrencyLimit limit = new ConsumerConcurrencyLimit(2, 10, 0, 20);
+        limit.adjust(100);
+
+        // a steady backlog of 100 messages needs 5 consumers
+        assertThat(limit.adjust(100)).isEqualTo(4);
+        assertThat(limit.adjust(100)).isEqualTo(6);
+        assertThat(limit.adjust(100)).isEqualTo(6);
+    }
+
+    @Test
+    public void lowersOnceQueueIsEmpty() {
+        final ConsumerConcurrencyLimit limit = new ConsumerConcurrencyLimit(2, 10, 0, 1000);
+        limit.adjust(100);
+        limit.adjust(200);
+
+        assertThat(limit.adjust(0)).isEqualTo(3);
+        assertThat(limit.adjust(0)).isEqualTo(2);
+        assertThat(limit.adjust(0)).isEqualTo(2);
+    }
+
+    @Test
+    public void proceedsOverLimitAfterWaiting() throws InterruptedException {
+        final ConsumerConcurrencyLimit limit = new ConsumerConcurrencyLimit(1, 10, 10, 1000);
+
+        assertThat(limit.enter()).isTrue();
+        assertThat(limit.enter()).isFalse();
+        assertThat(limit.getActive()).isEqualTo(2);
+
+        limit.exit();
+        limit.exit();
+        assertThat(limit.getActive()).isZero();
+        assertThat(limit.enter()).isTrue();
+    }
+}
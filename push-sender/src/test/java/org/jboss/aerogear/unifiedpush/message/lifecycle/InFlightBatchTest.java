@@ -0,0 +1,85 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.lifecycle;
+
+import org.jboss.aerogear.unifiedpush.api.FlatPushMessageInformation;
+import org.jboss.aerogear.unifiedpush.api.iOSVariant;
+import org.jboss.aerogear.unifiedpush.message.UnifiedPushMessage;
+import org.jboss.aerogear.unifiedpush.message.holder.MessageHolderWithTokens;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class InFlightBatchTest {
+
+    private List<InFlightBatch> completed;
+    private InFlightBatch batch;
+
+    @Before
+    public void setUp() {
+        completed = new ArrayList<>();
+        final MessageHolderWithTokens message = new MessageHolderWithTokens(new FlatPushMessageInformation(), new UnifiedPushMessage(),
+                new iOSVariant(), new ArrayList<>(Arrays.asList("token-1", "token-2", "token-3")), 0);
+        batch = new InFlightBatch(message, completed::add);
+    }
+
+    @Test
+    public void testCompletesWhenAllTokensAnswered() {
+        batch.tokenCompleted("token-1");
+        batch.tokenCompleted("token-2");
+        assertThat(completed).isEmpty();
+
+        batch.tokenCompleted("token-3");
+        assertThat(completed).containsExactly(batch);
+    }
+
+    @Test
+    public void testAllCompleted() {
+        batch.allCompleted();
+
+        assertThat(completed).containsExactly(batch);
+        assertThat(batch.abandon()).isEmpty();
+    }
+
+    @Test
+    public void testAbandonReturnsPendingTokens() {
+        batch.tokenCompleted("token-2");
+
+        assertThat(batch.abandon()).containsOnly("token-1", "token-3");
+        assertThat(batch.isAbandoned()).isTrue();
+    }
+
+    @Test
+    public void testHandedOverTokensAreNotAbandoned() {
+        assertThat(batch.handOver()).isTrue();
+
+        assertThat(batch.abandon()).isEmpty();
+        assertThat(batch.isAbandoned()).isTrue();
+    }
+
+    @Test
+    public void testAbandonedBatchIsNotHandedOver() {
+        assertThat(batch.abandon()).containsOnly("token-1", "token-2", "token-3");
+
+        assertThat(batch.handOver()).isFalse();
+    }
+}
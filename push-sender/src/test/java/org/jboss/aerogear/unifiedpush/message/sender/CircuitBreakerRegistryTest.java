@@ -0,0 +1,60 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender;
+
+import org.jboss.aerogear.unifiedpush.api.AndroidVariant;
+import org.jboss.aerogear.unifiedpush.api.Variant;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class CircuitBreakerRegistryTest {
+
+    @Test
+    public void testSkippedMessageIsReportedOncePerVariant() {
+        final CircuitBreakerRegistry registry = new CircuitBreakerRegistry();
+        final Variant variant = variant("variant-1");
+        final Variant otherVariant = variant("variant-2");
+
+        assertThat(registry.onRequestSkipped(variant, "message-1")).isTrue();
+        assertThat(registry.onRequestSkipped(variant, "message-1")).isFalse();
+        assertThat(registry.onRequestSkipped(variant, "message-2")).isTrue();
+        assertThat(registry.onRequestSkipped(otherVariant, "message-1")).isTrue();
+
+        registry.onSuccess(variant);
+        assertThat(registry.onRequestSkipped(variant, "message-1")).isTrue();
+        assertThat(registry.onRequestSkipped(otherVariant, "message-1")).isFalse();
+    }
+
+    @Test
+    public void testInvalidCredentialsDoNotOpenThePushNetworkBreaker() {
+        final CircuitBreakerRegistry registry = new CircuitBreakerRegistry();
+        final Variant variant = variant("variant-1");
+        for (int i = 0; i < 100; i++) {
+            registry.onFailure(variant, FailureKind.INVALID_CREDENTIALS, "invalid key");
+        }
+
+        assertThat(registry.allowRequest(variant)).isFalse();
+        assertThat(registry.allowRequest(variant("variant-2"))).isTrue();
+    }
+
+    private static Variant variant(String variantID) {
+        final AndroidVariant variant = new AndroidVariant();
+        variant.setVariantID(variantID);
+        return variant;
+    }
+}
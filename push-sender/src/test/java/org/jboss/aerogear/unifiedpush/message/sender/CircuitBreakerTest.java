@@ -0,0 +1,125 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class CircuitBreakerTest {
+
+    private static final long COOL_DOWN = 60000;
+
+    @Test
+    public void testOpensAfterConsecutiveFailuresOfSameKind() {
+        final CircuitBreaker breaker = new CircuitBreaker("variant", 3, COOL_DOWN);
+        breaker.onFailure(FailureKind.INVALID_CREDENTIALS, "invalid certificate", 0);
+        breaker.onFailure(FailureKind.INVALID_CREDENTIALS, "invalid certificate", 1);
+        assertThat(breaker.allowRequest(2)).isTrue();
+        breaker.onFailure(FailureKind.INVALID_CREDENTIALS, "invalid certificate", 2);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.getFailureReason()).isEqualTo("invalid certificate");
+        assertThat(breaker.allowRequest(3)).isFalse();
+    }
+
+    @Test
+    public void testDifferentFailuresDoNotAddUp() {
+        final CircuitBreaker breaker = new CircuitBreaker("variant", 2, COOL_DOWN);
+        breaker.onFailure(FailureKind.INVALID_CREDENTIALS, "invalid certificate", 0);
+        breaker.onFailure(FailureKind.CONNECTION_FAILED, "connection refused", 1);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.allowRequest(2)).isTrue();
+    }
+
+    @Test
+    public void testSuccessResetsFailures() {
+        final CircuitBreaker breaker = new CircuitBreaker("variant", 2, COOL_DOWN);
+        breaker.onFailure(FailureKind.INVALID_CREDENTIALS, "invalid certificate", 0);
+        breaker.onSuccess();
+        breaker.onFailure(FailureKind.INVALID_CREDENTIALS, "invalid certificate", 1);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void testSingleProbeAfterCoolDown() {
+        final CircuitBreaker breaker = new CircuitBreaker("variant", 1, COOL_DOWN);
+        breaker.onFailure(FailureKind.INVALID_CREDENTIALS, "invalid certificate", 0);
+        assertThat(breaker.allowRequest(COOL_DOWN - 1)).isFalse();
+
+        assertThat(breaker.allowRequest(COOL_DOWN)).isTrue();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.allowRequest(COOL_DOWN + 1)).isFalse();
+    }
+
+    @Test
+    public void testSuccessfulProbeClosesBreaker() {
+        final CircuitBreaker breaker = new CircuitBreaker("variant", 1, COOL_DOWN);
+        breaker.onFailure(FailureKind.INVALID_CREDENTIALS, "invalid certificate", 0);
+        assertThat(breaker.allowRequest(COOL_DOWN)).isTrue();
+        breaker.onSuccess();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.allowRequest(COOL_DOWN + 1)).isTrue();
+    }
+
+    @Test
+    public void testFailedProbeReopensBreaker() {
+        final CircuitBreaker breaker = new CircuitBreaker("variant", 1, COOL_DOWN);
+        breaker.onFailure(FailureKind.INVALID_CREDENTIALS, "invalid certificate", 0);
+        assertThat(breaker.allowRequest(COOL_DOWN)).isTrue();
+        breaker.onFailure(FailureKind.INVALID_CREDENTIALS, "invalid certificate", COOL_DOWN + 10);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.getOpenedAt()).isEqualTo(COOL_DOWN + 10);
+        assertThat(breaker.allowRequest(2 * COOL_DOWN)).isFalse();
+    }
+
+    @Test
+    public void testLostProbeIsRepeated() {
+        final CircuitBreaker breaker = new CircuitBreaker("variant", 1, COOL_DOWN);
+        breaker.onFailure(FailureKind.INVALID_CREDENTIALS, "invalid certificate", 0);
+        assertThat(breaker.allowRequest(COOL_DOWN)).isTrue();
+
+        assertThat(breaker.allowRequest(2 * COOL_DOWN)).isTrue();
+    }
+
+    @Test
+    public void testFailuresOfSameKindAddUpRegardlessOfDetails() {
+        final CircuitBreaker breaker = new CircuitBreaker("variant", 2, COOL_DOWN);
+        breaker.onFailure(FailureKind.CONNECTION_FAILED, "Unable to connect to APNs (connection refused)", 0);
+        breaker.onFailure(FailureKind.CONNECTION_FAILED, "Unable to connect to APNs (connection timed out)", 1);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.getFailureKind()).isEqualTo(FailureKind.CONNECTION_FAILED);
+        assertThat(breaker.getFailureReason()).isEqualTo("Unable to connect to APNs (connection timed out)");
+    }
+
+    @Test
+    public void testCheckingDoesNotTakeTheProbe() {
+        final CircuitBreaker breaker = new CircuitBreaker("variant", 1, COOL_DOWN);
+        breaker.onFailure(FailureKind.INVALID_CREDENTIALS, "invalid certificate", 0);
+        assertThat(breaker.isRequestAllowed(COOL_DOWN - 1)).isFalse();
+
+        assertThat(breaker.isRequestAllowed(COOL_DOWN)).isTrue();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.allowRequest(COOL_DOWN + 1)).isTrue();
+        assertThat(breaker.isRequestAllowed(COOL_DOWN + 2)).isFalse();
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender;
+
+import com.google.android.gcm.server.InvalidRequestException;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class FCMPushNotificationSenderTest {
+
+    @Test
+    public void testInvalidKeyIsSpecificToTheVariant() {
+        assertThat(FCMPushNotificationSender.failureKindOf(new InvalidRequestException(401))).isEqualTo(FailureKind.INVALID_CREDENTIALS);
+        assertThat(FCMPushNotificationSender.failureKindOf(new InvalidRequestException(403))).isEqualTo(FailureKind.INVALID_CREDENTIALS);
+    }
+
+    @Test
+    public void testOtherFailuresConcernThePushNetwork() {
+        assertThat(FCMPushNotificationSender.failureKindOf(new InvalidRequestException(503))).isEqualTo(FailureKind.PUSH_NETWORK_ERROR);
+        assertThat(FCMPushNotificationSender.failureKindOf(new IOException("connection reset"))).isEqualTo(FailureKind.PUSH_NETWORK_ERROR);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstIsAvailableImmediately() {
+        final TokenBucket bucket = new TokenBucket(100, 500, 0);
+        assertThat(bucket.tryReserve(500, 0, 0)).isZero();
+        assertThat(bucket.availablePermits(0)).isEqualTo(0.0);
+    }
+
+    @Test
+    public void testWaitsWhenBudgetIsExhausted() {
+        final TokenBucket bucket = new TokenBucket(100, 100, 0);
+        assertThat(bucket.tryReserve(100, 0, 0)).isZero();
+        // 200 more permits at 100 per second
+        assertThat(bucket.tryReserve(200, Long.MAX_VALUE, 0)).isGreaterThanOrEqualTo(2 * SECOND - 1).isLessThanOrEqualTo(2 * SECOND + 1);
+        assertThat(bucket.availablePermits(0)).isEqualTo(-200.0);
+    }
+
+    @Test
+    public void testRefillsUpToCapacity() {
+        final TokenBucket bucket = new TokenBucket(100, 100, 0);
+        bucket.tryReserve(100, 0, 0);
+        assertThat(bucket.availablePermits(SECOND / 2)).isEqualTo(50.0, offset(0.001));
+        assertThat(bucket.availablePermits(10 * SECOND)).isEqualTo(100.0, offset(0.001));
+    }
+
+    @Test
+    public void testReservationLargerThanCapacity() {
+        final TokenBucket bucket = new TokenBucket(1000, 1000, 0);
+        assertThat(bucket.tryReserve(3000, Long.MAX_VALUE, 0)).isGreaterThanOrEqualTo(2 * SECOND - 1).isLessThanOrEqualTo(2 * SECOND + 1);
+        assertThat(bucket.tryReserve(1, Long.MAX_VALUE, 2 * SECOND)).isGreaterThanOrEqualTo(SECOND / 1000 - 1).isLessThanOrEqualTo(SECOND / 1000 + 1);
+    }
+
+    @Test
+    public void testRefusesReservationsWaitingLongerThanMaximum() {
+        final TokenBucket bucket = new TokenBucket(100, 100, 0);
+        assertThat(bucket.tryReserve(100, SECOND, 0)).isZero();
+        assertThat(bucket.tryReserve(50, SECOND, 0)).isGreaterThanOrEqualTo(SECOND / 2 - 1).isLessThanOrEqualTo(SECOND / 2 + 1);
+        // 50 permits are owed already, so these would have to wait for 2 seconds
+        assertThat(bucket.tryReserve(150, SECOND, 0)).isGreaterThan(SECOND);
+        assertThat(bucket.availablePermits(0)).isEqualTo(-50.0);
+    }
+
+    @Test
+    public void testFullBucketGrantsReservationLargerThanMaximumWait() {
+        final TokenBucket bucket = new TokenBucket(100, 100, 0);
+        assertThat(bucket.tryReserve(500, SECOND, 0)).isEqualTo(SECOND);
+        assertThat(bucket.availablePermits(0)).isEqualTo(-400.0);
+    }
+}
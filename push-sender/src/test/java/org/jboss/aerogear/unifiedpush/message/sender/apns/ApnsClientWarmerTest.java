@@ -0,0 +1,88 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender.apns;
+
+import org.jboss.aerogear.unifiedpush.api.AndroidVariant;
+import org.jboss.aerogear.unifiedpush.api.iOSVariant;
+import org.jboss.aerogear.unifiedpush.dao.VariantDao;
+import org.jboss.aerogear.unifiedpush.message.cache.SimpleApnsClientCache;
+import org.jboss.aerogear.unifiedpush.message.event.VariantsRoutedEvent;
+import org.jboss.aerogear.unifiedpush.message.sender.PushNotificationSender;
+import org.jboss.aerogear.unifiedpush.message.sender.SenderTypeLiteral;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.enterprise.inject.Instance;
+import java.util.Arrays;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ApnsClientWarmerTest {
+
+    @Mock
+    private VariantDao variantDao;
+    @Mock
+    private Instance<PushNotificationSender> senders;
+    @Mock
+    private PushNotificationSender sender;
+    @Mock
+    private SimpleApnsClientCache simpleApnsClientCache;
+    @Mock
+    private ApnsClientResources apnsClientResources;
+
+    @InjectMocks
+    private ApnsClientWarmer warmer;
+
+    private iOSVariant cachedVariant;
+    private iOSVariant uncachedVariant;
+
+    @Before
+    public void setup() {
+        when(senders.select(any(SenderTypeLiteral.class))).thenReturn(senders);
+        when(senders.get()).thenReturn(sender);
+
+        cachedVariant = new iOSVariant();
+        cachedVariant.setVariantID("cached");
+        uncachedVariant = new iOSVariant();
+        uncachedVariant.setVariantID("uncached");
+        when(simpleApnsClientCache.isCached(cachedVariant)).thenReturn(true);
+    }
+
+    @Test
+    public void testCachedClientsAreNotBuiltAgain() {
+        warmer.onVariantsRouted(new VariantsRoutedEvent(Arrays.asList(cachedVariant, uncachedVariant)));
+
+        verify(sender, never()).warmUp(cachedVariant);
+        verify(sender).warmUp(uncachedVariant);
+    }
+
+    @Test
+    public void testOtherVariantsAreIgnored() {
+        final AndroidVariant androidVariant = new AndroidVariant();
+        warmer.onVariantsRouted(new VariantsRoutedEvent(Arrays.asList(androidVariant)));
+
+        verify(sender, never()).warmUp(any());
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.sender.apns;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class BatchVolumeTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    @Test
+    public void testCountsBatchesOfCurrentMinute() {
+        final BatchVolume volume = new BatchVolume(0);
+        volume.record(1000, 0);
+        volume.record(500, 10);
+
+        assertThat(volume.perMinute(20)).isEqualTo(1500);
+    }
+
+    @Test
+    public void testPreviousMinuteIsWeightedBySlidingWindow() {
+        final BatchVolume volume = new BatchVolume(0);
+        volume.record(1000, 0);
+        volume.record(200, MINUTE + MINUTE / 4);
+
+        // three quarters of the previous minute are still within the sliding window
+        assertThat(volume.perMinute(MINUTE + MINUTE / 4)).isEqualTo(950);
+    }
+
+    @Test
+    public void testIdleVariantHasNoVolume() {
+        final BatchVolume volume = new BatchVolume(0);
+        volume.record(1000, 0);
+
+        assertThat(volume.perMinute(3 * MINUTE)).isZero();
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.token;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class FairShareSchedulerTest {
+
+    private long now;
+    private FairShareScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        now = 1000000;
+        scheduler = new FairShareScheduler(2, 5, 10000, 500, () -> now);
+    }
+
+    @Test
+    public void testSingleApplicationIsNotLimitedByQuantum() {
+        assertThat(scheduler.admit("app-1", 4, 0)).isEqualTo(4);
+    }
+
+    @Test
+    public void testApplicationsShareByQuantum() {
+        scheduler.admit("app-1", 4, 0);
+        assertThat(scheduler.admit("app-2", 4, 0)).isEqualTo(2);
+        assertThat(scheduler.admit("app-1", 4, 0)).isEqualTo(2);
+    }
+
+    @Test
+    public void testUnusedDeficitCarriesOver() {
+        scheduler.admit("app-1", 4, 0);
+        assertThat(scheduler.admit("app-2", 1, 0)).isEqualTo(1);
+        // one batch of the previous quantum was left
+        assertThat(scheduler.admit("app-2", 4, 0)).isEqualTo(3);
+    }
+
+    @Test
+    public void testInFlightLimit() {
+        for (int i = 0; i < 5; i++) {
+            scheduler.onBatchQueued("app-1");
+        }
+        assertThat(scheduler.getInFlight("app-1")).isEqualTo(5);
+        assertThat(scheduler.admit("app-1", 4, 0)).isZero();
+        assertThat(scheduler.getRetryDelay()).isEqualTo(500);
+
+        scheduler.onBatchDispatched("app-1", now - 100);
+        assertThat(scheduler.getInFlight("app-1")).isEqualTo(4);
+        assertThat(scheduler.admit("app-1", 4, 0)).isEqualTo(1);
+    }
+
+    @Test
+    public void testUncommittedBatchesCountAgainstLimit() {
+        scheduler.onBatchQueued("app-1");
+        assertThat(scheduler.admit("app-1", 4, 3)).isEqualTo(1);
+        assertThat(scheduler.admit("app-1", 4, 4)).isZero();
+    }
+
+    @Test
+    public void testInFlightBatchesExpire() {
+        for (int i = 0; i < 5; i++) {
+            scheduler.onBatchQueued("app-1");
+        }
+        now += 5000;
+        scheduler.onBatchQueued("app-1");
+        assertThat(scheduler.admit("app-1", 4, 0)).isZero();
+
+        // batches picked by another node are never reported to this one
+        now += 5000;
+        assertThat(scheduler.getInFlight("app-1")).isEqualTo(1);
+        assertThat(scheduler.admit("app-1", 4, 0)).isEqualTo(4);
+    }
+
+    @Test
+    public void testInFlightNeverNegative() {
+        scheduler.onBatchDispatched("app-1", now);
+        assertThat(scheduler.getInFlight("app-1")).isZero();
+    }
+
+    @Test
+    public void testIdleApplicationsAreForgotten() {
+        scheduler.admit("app-1", 4, 0);
+        now += 60000;
+        assertThat(scheduler.admit("app-2", 4, 0)).isEqualTo(4);
+    }
+}
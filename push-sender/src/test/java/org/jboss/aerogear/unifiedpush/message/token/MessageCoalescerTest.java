@@ -0,0 +1,111 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.token;
+
+import org.jboss.aerogear.unifiedpush.message.Criteria;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class MessageCoalescerTest {
+
+    private long now;
+    private MessageCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        now = 1000000;
+        coalescer = new MessageCoalescer(60000, () -> now);
+    }
+
+    @Test
+    public void testNewerMessageSupersedesOlder() {
+        coalescer.register("app-1", "score", null, "msg-1", now);
+        assertThat(coalescer.isSuperseded("app-1", "score", null, "msg-1")).isFalse();
+
+        coalescer.register("app-1", "score", null, "msg-2", now + 10);
+        assertThat(coalescer.isSuperseded("app-1", "score", null, "msg-1")).isTrue();
+        assertThat(coalescer.isSuperseded("app-1", "score", null, "msg-2")).isFalse();
+    }
+
+    @Test
+    public void testLateRegistrationOfOlderMessage() {
+        coalescer.register("app-1", "score", null, "msg-2", now + 10);
+        coalescer.register("app-1", "score", null, "msg-1", now);
+        assertThat(coalescer.isSuperseded("app-1", "score", null, "msg-1")).isTrue();
+        assertThat(coalescer.isSuperseded("app-1", "score", null, "msg-2")).isFalse();
+    }
+
+    @Test
+    public void testKeysAreScopedByApplication() {
+        coalescer.register("app-1", "score", null, "msg-1", now);
+        coalescer.register("app-2", "score", null, "msg-2", now + 10);
+        assertThat(coalescer.isSuperseded("app-1", "score", null, "msg-1")).isFalse();
+        assertThat(coalescer.isSuperseded("app-1", "news", null, "msg-1")).isFalse();
+    }
+
+    @Test
+    public void testMessagesWithoutKeyAreNeverSuperseded() {
+        assertThat(coalescer.isSuperseded("app-1", null, null, "msg-1")).isFalse();
+    }
+
+    @Test
+    public void testKeysAreScopedByCriteria() {
+        coalescer.register("app-1", "score", criteria(Arrays.asList("alice", "bob"), Arrays.asList("sports")), "msg-1", now);
+        coalescer.register("app-1", "score", criteria(Arrays.asList("carol"), Arrays.asList("sports")), "msg-2", now + 10);
+        assertThat(coalescer.isSuperseded("app-1", "score", criteria(Arrays.asList("alice", "bob"), Arrays.asList("sports")), "msg-1")).isFalse();
+
+        // the order of the values does not matter
+        coalescer.register("app-1", "score", criteria(Arrays.asList("bob", "alice"), Arrays.asList("sports")), "msg-3", now + 20);
+        assertThat(coalescer.isSuperseded("app-1", "score", criteria(Arrays.asList("alice", "bob"), Arrays.asList("sports")), "msg-1")).isTrue();
+        assertThat(coalescer.isSuperseded("app-1", "score", criteria(Arrays.asList("carol"), Arrays.asList("sports")), "msg-2")).isFalse();
+    }
+
+    @Test
+    public void testCriteriaHash() {
+        assertThat(MessageCoalescer.criteriaHash(null)).isEqualTo(MessageCoalescer.criteriaHash(new Criteria()));
+        // the same value in another field is another criteria
+        assertThat(MessageCoalescer.criteriaHash(criteria(Arrays.asList("sports"), null)))
+                .isNotEqualTo(MessageCoalescer.criteriaHash(criteria(null, Arrays.asList("sports"))));
+    }
+
+    @Test
+    public void testNewestMessageIsForgottenOnLookupAfterWindow() {
+        coalescer.register("app-1", "score", null, "msg-2", now);
+        now += 120000;
+        assertThat(coalescer.isSuperseded("app-1", "score", null, "msg-1")).isFalse();
+    }
+
+    @Test
+    public void testNewestMessagesAreForgottenAfterWindow() {
+        coalescer.register("app-1", "score", null, "msg-2", now);
+        now += 120000;
+        coalescer.register("app-1", "news", null, "msg-3", now);
+        assertThat(coalescer.isSuperseded("app-1", "score", null, "msg-1")).isFalse();
+    }
+
+    private static Criteria criteria(List<String> aliases, List<String> categories) {
+        final Criteria criteria = new Criteria();
+        criteria.setAliases(aliases);
+        criteria.setCategories(categories);
+        return criteria;
+    }
+}
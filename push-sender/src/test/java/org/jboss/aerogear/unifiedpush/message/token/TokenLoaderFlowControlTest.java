@@ -0,0 +1,135 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.token;
+
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.message.Priority;
+import org.jboss.aerogear.unifiedpush.message.configuration.SenderConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class TokenLoaderFlowControlTest {
+
+    private long now;
+    private TokenLoaderFlowControl flowControl;
+    private SenderConfiguration configuration;
+
+    @Before
+    public void setUp() {
+        now = 1000000;
+        flowControl = new TokenLoaderFlowControl(100, 1000, 2, () -> now);
+        configuration = new SenderConfiguration(8, 1000);
+    }
+
+    @Test
+    public void testStartsWithConfiguredBatches() {
+        assertThat(flowControl.batchesToLoad(VariantType.ANDROID, Priority.NORMAL, configuration)).isEqualTo(8);
+        assertThat(flowControl.getState(VariantType.ANDROID, Priority.NORMAL)).isEqualTo(TokenLoaderFlowControl.State.NORMAL);
+        assertThat(flowControl.shouldSampleQueueDepth(VariantType.ANDROID, Priority.NORMAL)).isFalse();
+    }
+
+    @Test
+    public void testBackoffGrowsExponentiallyUpToMaximum() {
+        assertThat(flowControl.onQueueFull(VariantType.ANDROID, Priority.NORMAL, configuration)).isEqualTo(100);
+        assertThat(flowControl.onQueueFull(VariantType.ANDROID, Priority.NORMAL, configuration)).isEqualTo(200);
+        assertThat(flowControl.onQueueFull(VariantType.ANDROID, Priority.NORMAL, configuration)).isEqualTo(400);
+        assertThat(flowControl.onQueueFull(VariantType.ANDROID, Priority.NORMAL, configuration)).isEqualTo(800);
+        assertThat(flowControl.onQueueFull(VariantType.ANDROID, Priority.NORMAL, configuration)).isEqualTo(1000);
+        assertThat(flowControl.computeBackoff(100)).isEqualTo(1000);
+    }
+
+    @Test
+    public void testQueueFullShrinksBatches() {
+        flowControl.onQueueFull(VariantType.ANDROID, Priority.NORMAL, configuration);
+        assertThat(flowControl.batchesToLoad(VariantType.ANDROID, Priority.NORMAL, configuration)).isEqualTo(4);
+        assertThat(flowControl.getState(VariantType.ANDROID, Priority.NORMAL)).isEqualTo(TokenLoaderFlowControl.State.BACKING_OFF);
+
+        for (int i = 0; i < 5; i++) {
+            flowControl.onQueueFull(VariantType.ANDROID, Priority.NORMAL, configuration);
+        }
+        assertThat(flowControl.batchesToLoad(VariantType.ANDROID, Priority.NORMAL, configuration)).isEqualTo(1);
+    }
+
+    @Test
+    public void testDelaysLoadingUntilBackoffIsOver() {
+        assertThat(flowControl.remainingBackoff(VariantType.ANDROID, Priority.NORMAL)).isZero();
+
+        flowControl.onQueueFull(VariantType.ANDROID, Priority.NORMAL, configuration);
+        assertThat(flowControl.remainingBackoff(VariantType.ANDROID, Priority.NORMAL)).isEqualTo(100);
+
+        now += 60;
+        assertThat(flowControl.remainingBackoff(VariantType.ANDROID, Priority.NORMAL)).isEqualTo(40);
+
+        now += 60;
+        assertThat(flowControl.remainingBackoff(VariantType.ANDROID, Priority.NORMAL)).isZero();
+    }
+
+    @Test
+    public void testStateIsTrackedPerNetwork() {
+        flowControl.onQueueFull(VariantType.ANDROID, Priority.NORMAL, configuration);
+        assertThat(flowControl.batchesToLoad(VariantType.IOS, Priority.NORMAL, configuration)).isEqualTo(8);
+        assertThat(flowControl.getState(VariantType.IOS, Priority.NORMAL)).isEqualTo(TokenLoaderFlowControl.State.NORMAL);
+    }
+
+    @Test
+    public void testStateIsTrackedPerLane() {
+        flowControl.onQueueFull(VariantType.ANDROID, Priority.NORMAL, configuration);
+        assertThat(flowControl.batchesToLoad(VariantType.ANDROID, Priority.HIGH, configuration)).isEqualTo(8);
+        assertThat(flowControl.remainingBackoff(VariantType.ANDROID, Priority.HIGH)).isZero();
+        assertThat(flowControl.getState(VariantType.ANDROID, Priority.HIGH)).isEqualTo(TokenLoaderFlowControl.State.NORMAL);
+
+        // both iOS variant types share the same token batch queues
+        flowControl.onQueueFull(VariantType.IOS_TOKEN, Priority.HIGH, configuration);
+        assertThat(flowControl.getState(VariantType.IOS, Priority.HIGH)).isEqualTo(TokenLoaderFlowControl.State.BACKING_OFF);
+        assertThat(flowControl.getState(VariantType.IOS, Priority.NORMAL)).isEqualTo(TokenLoaderFlowControl.State.NORMAL);
+    }
+
+    @Test
+    public void testRecoversWhenQueueDrains() {
+        flowControl.onQueueFull(VariantType.ANDROID, Priority.NORMAL, configuration);
+        flowControl.onQueueFull(VariantType.ANDROID, Priority.NORMAL, configuration);
+        assertThat(flowControl.batchesToLoad(VariantType.ANDROID, Priority.NORMAL, configuration)).isEqualTo(2);
+
+        flowControl.onBatchesQueued(VariantType.ANDROID, Priority.NORMAL, configuration, 50);
+        assertThat(flowControl.getState(VariantType.ANDROID, Priority.NORMAL)).isEqualTo(TokenLoaderFlowControl.State.RECOVERING);
+        assertThat(flowControl.shouldSampleQueueDepth(VariantType.ANDROID, Priority.NORMAL)).isTrue();
+        assertThat(flowControl.batchesToLoad(VariantType.ANDROID, Priority.NORMAL, configuration)).isEqualTo(2);
+
+        for (int depth = 100; flowControl.getState(VariantType.ANDROID, Priority.NORMAL) != TokenLoaderFlowControl.State.NORMAL; depth -= 5) {
+            flowControl.onBatchesQueued(VariantType.ANDROID, Priority.NORMAL, configuration, depth);
+        }
+        assertThat(flowControl.batchesToLoad(VariantType.ANDROID, Priority.NORMAL, configuration)).isEqualTo(8);
+
+        // the backoff starts over after the recovery
+        assertThat(flowControl.onQueueFull(VariantType.ANDROID, Priority.NORMAL, configuration)).isEqualTo(100);
+    }
+
+    @Test
+    public void testDoesNotGrowWhileQueueIsFilling() {
+        flowControl.onQueueFull(VariantType.ANDROID, Priority.NORMAL, configuration);
+
+        flowControl.onBatchesQueued(VariantType.ANDROID, Priority.NORMAL, configuration, 10);
+        flowControl.onBatchesQueued(VariantType.ANDROID, Priority.NORMAL, configuration, 20);
+        flowControl.onBatchesQueued(VariantType.ANDROID, Priority.NORMAL, configuration, 30);
+        flowControl.onBatchesQueued(VariantType.ANDROID, Priority.NORMAL, configuration, 40);
+
+        assertThat(flowControl.batchesToLoad(VariantType.ANDROID, Priority.NORMAL, configuration)).isEqualTo(4);
+        assertThat(flowControl.getState(VariantType.ANDROID, Priority.NORMAL)).isEqualTo(TokenLoaderFlowControl.State.RECOVERING);
+    }
+}
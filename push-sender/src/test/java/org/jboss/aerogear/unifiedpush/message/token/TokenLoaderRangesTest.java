@@ -0,0 +1,41 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.token;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class TokenLoaderRangesTest {
+
+    @Test
+    public void testConfiguredRangesAreKept() {
+        assertThat(TokenLoader.rangesOf(1)).isEqualTo(1);
+        assertThat(TokenLoader.rangesOf(16)).isEqualTo(16);
+    }
+
+    @Test
+    public void testTooManyRangesAreLimited() {
+        assertThat(TokenLoader.rangesOf(1000)).isEqualTo(TokenLoader.MAX_RANGES);
+    }
+
+    @Test
+    public void testSerialIdsOfLastRangeFitIntoInt() {
+        // the serial IDs of the batches of the last range start at MAX_RANGES * 10000000 and must not overflow
+        assertThat((long) TokenLoader.MAX_RANGES * 10000000 + 10000000).isLessThanOrEqualTo(Integer.MAX_VALUE);
+    }
+}
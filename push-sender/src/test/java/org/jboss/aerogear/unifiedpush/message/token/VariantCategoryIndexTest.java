@@ -0,0 +1,99 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.token;
+
+import org.jboss.aerogear.unifiedpush.dto.DeviceTokenCategory;
+import org.jboss.aerogear.unifiedpush.event.InstallationsChangedEvent;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VariantCategoryIndexTest {
+
+    private VariantCategoryIndex index;
+
+    @Before
+    public void setUp() {
+        index = VariantCategoryIndex.build(Arrays.asList(
+                new DeviceTokenCategory("a", "iPhone", "football"),
+                new DeviceTokenCategory("a", "iPhone", "soccer"),
+                new DeviceTokenCategory("b", "Android", "soccer"),
+                new DeviceTokenCategory("c", "iPad", null),
+                new DeviceTokenCategory("d", "Android", "football")).iterator(), 10, 0);
+    }
+
+    @Test
+    public void findsAllTokensWithoutCriteria() {
+        assertThat(index.find(null, null, 10, null, null)).containsExactly("a", "b", "c", "d");
+    }
+
+    @Test
+    public void findsTokensInAnyCategoryOfAnyDeviceType() {
+        assertThat(index.find(Arrays.asList("soccer", "football"), null, 10, null, null)).containsExactly("a", "b", "d");
+        assertThat(index.find(Arrays.asList("soccer", "football"), Collections.singletonList("Android"), 10, null, null)).containsExactly("b", "d");
+        assertThat(index.find(Collections.singletonList("tennis"), null, 10, null, null)).isEmpty();
+    }
+
+    @Test
+    public void findsBatchesOfRange() {
+        assertThat(index.find(null, null, 2, null, null)).containsExactly("a", "b");
+        assertThat(index.find(null, null, 2, "b", null)).containsExactly("c", "d");
+        assertThat(index.find(null, null, 10, "a", "c")).containsExactly("b", "c");
+    }
+
+    @Test
+    public void changedTokensOverrideSnapshot() {
+        index.apply(new InstallationsChangedEvent("variant")
+                .registered("bb", "Android", Collections.singletonList("soccer"))
+                .registered("c", "iPad", Collections.singletonList("soccer"))
+                .removed("a"));
+
+        assertThat(index.getChanges()).isEqualTo(3);
+        assertThat(index.find(Collections.singletonList("soccer"), null, 10, null, null)).containsExactly("b", "bb", "c");
+        assertThat(index.find(null, null, 10, null, null)).containsExactly("b", "bb", "c", "d");
+    }
+
+    @Test
+    public void sortsTokensRegardlessOfTheDatabaseCollation() {
+        // case insensitive collation, where "a" < "B" < "c" although "B" < "a" < "c" by code point
+        final VariantCategoryIndex collated = VariantCategoryIndex.build(Arrays.asList(
+                new DeviceTokenCategory("a", "iPhone", "football"),
+                new DeviceTokenCategory("B", "Android", "soccer"),
+                new DeviceTokenCategory("B", "Android", "football"),
+                new DeviceTokenCategory("c", "iPad", "soccer"),
+                new DeviceTokenCategory("a", "iPhone", "tennis")).iterator(), 10, 0);
+
+        assertThat(collated.find(null, null, 10, null, null)).containsExactly("B", "a", "c");
+        assertThat(collated.find(Collections.singletonList("football"), null, 10, null, null)).containsExactly("B", "a");
+        assertThat(collated.find(Collections.singletonList("tennis"), null, 10, null, null)).containsExactly("a");
+        assertThat(collated.find(null, Collections.singletonList("iPad"), 10, null, null)).containsExactly("c");
+        assertThat(collated.find(null, null, 1, "B", null)).containsExactly("a");
+        assertThat(collated.find(null, null, 10, "B", "c")).containsExactly("a", "c");
+    }
+
+    @Test
+    public void tooManyTokens() {
+        assertThat(VariantCategoryIndex.build(Arrays.asList(
+                new DeviceTokenCategory("a", "iPhone", "football"),
+                new DeviceTokenCategory("a", "iPhone", "soccer"),
+                new DeviceTokenCategory("b", "Android", null)).iterator(), 1, 0)).isNull();
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.message.util;
+
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.message.Priority;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class QueueUtilsTest {
+
+    @Test
+    public void testNormalPriorityUsesDefaultQueues() {
+        assertThat(QueueUtils.selectPushQueue(VariantType.IOS, Priority.NORMAL)).isEqualTo("APNsPushMessageQueue");
+        assertThat(QueueUtils.selectTokenQueue(VariantType.ANDROID, Priority.NORMAL)).isEqualTo("GCMTokenBatchQueue");
+        assertThat(QueueUtils.selectTokenQueue(VariantType.WEB_PUSH)).isEqualTo("WebTokenBatchQueue");
+    }
+
+    @Test
+    public void testHighPriorityUsesSeparateLane() {
+        assertThat(QueueUtils.selectPushQueue(VariantType.IOS_TOKEN, Priority.HIGH)).isEqualTo("APNsHighPriorityPushMessageQueue");
+        assertThat(QueueUtils.selectPushQueue(VariantType.ANDROID, Priority.HIGH)).isEqualTo("GCMHighPriorityPushMessageQueue");
+        assertThat(QueueUtils.selectTokenQueue(VariantType.WEB_PUSH, Priority.HIGH)).isEqualTo("WebHighPriorityTokenBatchQueue");
+    }
+
+    @Test
+    public void testMissingPriorityIsNormal() {
+        assertThat(QueueUtils.selectPushQueue(VariantType.ANDROID, null)).isEqualTo("GCMPushMessageQueue");
+    }
+}
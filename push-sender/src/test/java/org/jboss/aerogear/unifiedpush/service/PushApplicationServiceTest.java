@@ -16,7 +16,11 @@
  */
 package org.jboss.aerogear.unifiedpush.service;
 
+import org.jboss.aerogear.unifiedpush.api.AndroidVariant;
 import org.jboss.aerogear.unifiedpush.api.PushApplication;
+import org.jboss.aerogear.unifiedpush.api.UsageCounter;
+import org.jboss.aerogear.unifiedpush.api.VariantType;
+import org.jboss.aerogear.unifiedpush.dao.UsageCounterDao;
 import org.jboss.aerogear.unifiedpush.test.archive.UnifiedPushArchive;
 import org.jboss.arquillian.container.test.api.Deployment;
 import org.jboss.arquillian.junit.Arquillian;
@@ -28,6 +32,7 @@ import org.junit.runner.RunWith;
 
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
+import java.util.Map;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -39,6 +44,9 @@ public class PushApplicationServiceTest extends AbstractBaseServiceTest {
     @Inject
     EntityManager entityManager;
 
+    @Inject
+    UsageCounterDao usageCounterDao;
+
     @Override
     protected void specificSetup() {
         entityManager.getTransaction().begin();
@@ -206,4 +214,29 @@ public class PushApplicationServiceTest extends AbstractBaseServiceTest {
         assertThat(searchApplicationService.findAllPushApplicationsForDeveloper(0, 10).getResultList()).isNotEmpty();
         assertThat(searchApplicationService.findAllPushApplicationsForDeveloper(0, 10).getResultList()).hasSize(1);
     }
+
+    @Test
+    public void countInstallationsByTypeFromUsageCounters() {
+        PushApplication pa = new PushApplication();
+        pa.setName("EJB Container");
+        final String uuid = UUID.randomUUID().toString();
+        pa.setPushApplicationID(uuid);
+
+        pushApplicationService.addPushApplication(pa);
+
+        AndroidVariant variant = new AndroidVariant();
+        variant.setGoogleKey("KEY...");
+        variant.setName("Android");
+        pushApplicationService.addVariant(pushApplicationService.findByPushApplicationID(uuid), variant);
+
+        // without a counter, the installations are counted
+        assertThat(pushApplicationService.countInstallationsByType(uuid).get(VariantType.ANDROID.getTypeName())).isZero();
+
+        usageCounterDao.create(new UsageCounter(UsageCounter.installationsOfVariant(variant.getVariantID()), 42));
+
+        final Map<String, Long> result = pushApplicationService.countInstallationsByType(uuid);
+        assertThat(result.get(variant.getVariantID())).isEqualTo(42L);
+        assertThat(result.get(VariantType.ANDROID.getTypeName())).isEqualTo(42L);
+        assertThat(result.get(VariantType.IOS.getTypeName())).isZero();
+    }
 }
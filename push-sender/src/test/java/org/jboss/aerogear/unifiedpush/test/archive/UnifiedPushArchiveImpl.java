@@ -65,6 +65,9 @@ public class UnifiedPushArchiveImpl extends UnifiedPushArchiveBase {
                 .addPackage(org.jboss.aerogear.unifiedpush.message.holder.AbstractMessageHolder.class.getPackage())
                 .addPackage(org.jboss.aerogear.unifiedpush.message.exception.MessageDeliveryException.class.getPackage())
                 .addClasses(AbstractJMSMessageProducer.class, AbstractJMSMessageListener.class)
+                .addClasses(QueueConsumers.class)
+                // package-private
+                .addClass("org.jboss.aerogear.unifiedpush.message.jms.ConsumerConcurrencyLimit")
                 .addClasses(AbstractJMSTest.class, JmsClient.class)
                 .addClasses(DispatchToQueue.class, Dequeue.class);
     }
@@ -97,7 +100,8 @@ public class UnifiedPushArchiveImpl extends UnifiedPushArchiveBase {
     @Override
     public UnifiedPushArchive withDAOs() {
         return addPackage(org.jboss.aerogear.unifiedpush.dao.PushApplicationDao.class.getPackage())
-                .addPackage(org.jboss.aerogear.unifiedpush.dto.Count.class.getPackage());
+                .addPackage(org.jboss.aerogear.unifiedpush.dto.Count.class.getPackage())
+                .addPackage(org.jboss.aerogear.unifiedpush.event.UsageCountersChangedEvent.class.getPackage());
     }
 
     @Override
@@ -108,6 +112,7 @@ public class UnifiedPushArchiveImpl extends UnifiedPushArchiveBase {
                 .addAsResource("META-INF/org/jboss/aerogear/unifiedpush/api/Category.hbm.xml", "org/jboss/aerogear/unifiedpush/api/Category.hbm.xml")
                 .addAsResource("META-INF/org/jboss/aerogear/unifiedpush/api/FlatPushMessageInformation.hbm.xml", "org/jboss/aerogear/unifiedpush/api/FlatPushMessageInformation.hbm.xml")
                 .addAsResource("META-INF/org/jboss/aerogear/unifiedpush/api/VariantErrorStatus.hbm.xml", "org/jboss/aerogear/unifiedpush/api/VariantErrorStatus.hbm.xml")
+                .addAsResource("META-INF/org/jboss/aerogear/unifiedpush/api/UsageCounter.hbm.xml", "org/jboss/aerogear/unifiedpush/api/UsageCounter.hbm.xml")
                 .addMavenDependencies("org.hibernate:hibernate-core")
                 .addMavenDependencies("org.apache.derby:derby")
                 .addMavenDependencies("org.keycloak:keycloak-core")
@@ -19,6 +19,7 @@ package org.jboss.aerogear.unifiedpush.service;
 import org.jboss.aerogear.unifiedpush.api.Installation;
 import org.jboss.aerogear.unifiedpush.api.Variant;
 import org.jboss.aerogear.unifiedpush.dao.ResultsStream;
+import org.jboss.aerogear.unifiedpush.dto.DeviceTokenCategory;
 
 import java.util.List;
 import java.util.Set;
@@ -70,6 +71,15 @@ public interface ClientInstallationService {
      */
     Installation findById(String primaryKey);
 
+    /**
+     * Returns the Installation entity, matching the given primaryKey, along with its categories.
+     *
+     * @param primaryKey the PK for the installation
+     *
+     * @return the installation entity
+     */
+    Installation findByIdWithCategories(String primaryKey);
+
     /**
      * Removes the given installation entity.
      *
@@ -136,6 +146,42 @@ public interface ClientInstallationService {
      */
     ResultsStream.QueryBuilder<String> findAllDeviceTokenForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes, int maxResults, String lastTokenFromPreviousBatch);
 
+    /**
+     * Used for (Android/iOS) Sender API. Queries the available device-tokens of a range of the token keyspace of a given variant, based on provided criteria.
+     *
+     * @param variantID the variantID for the filter
+     * @param categories applied categories for the filter
+     * @param aliases applied aliases for the filter
+     * @param deviceTypes applied deviceTypes for the filter
+     * @param maxResults number of maxResults for the filter
+     * @param lastTokenFromPreviousBatch identifier of the last fetched token
+     * @param lastTokenOfRange the last (inclusive) token of the range, or null if the range is not bounded
+     *
+     * @return list of device tokens that matches this filter
+     */
+    ResultsStream.QueryBuilder<String> findAllDeviceTokenForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes, int maxResults, String lastTokenFromPreviousBatch, String lastTokenOfRange);
+
+    /**
+     * Finder for building an index of the categories of a given variant: loads the device tokens of all enabled installations of the variant,
+     * along with their device type and categories, ordered by device token.
+     *
+     * @param variantID the variantID for the filter
+     *
+     * @return the device tokens of the variant with their device type and categories
+     */
+    ResultsStream.QueryBuilder<DeviceTokenCategory> findAllDeviceTokenCategoriesForVariantID(String variantID);
+
+    /**
+     * Splits the token keyspace of a given variant into ranges of about the same size, so that the tokens of each range can be loaded independently.
+     *
+     * @param variantID the variantID for the filter
+     * @param maxRanges the maximum number of ranges
+     * @param minRangeSize the minimum number of installations in a range
+     *
+     * @return the last (inclusive) token of every range but the last one, in ascending order; empty if the variant is too small to be split
+     */
+    List<String> findDeviceTokenRangeBoundariesForVariantID(String variantID, int maxRanges, int minRangeSize);
+
     /**
      * Used to query all old GCM tokens, which do not contain a ':' char.
      * Queries the available device-tokens for a given variant, based on provided criteria.
@@ -95,5 +95,17 @@ public interface PushSearchService {
      */
     PageResult<Installation, Count> findAllInstallationsByVariantForDeveloper(String variantID, Integer page, Integer pageSize, String search);
 
+    /**
+     * Find the installations for the variant specified that follow the given installation, ordered by their id.
+     *
+     * @param variantID the id of the variant to find the installations for
+     * @param lastInstallationID the id of the last installation of the previous page, or null for the first page
+     * @param pageSize the size of the pages
+     * @param search any value of the device metadata (see {@link org.jboss.aerogear.unifiedpush.dao.InstallationDao#findInstallationsByVariantForDeveloper(String, String, Integer, Integer, String)})
+     *
+     * @return page result containing the list plus an approximate total number of rows, that is cached for a while
+     */
+    PageResult<Installation, Count> findAllInstallationsByVariantForDeveloperAfter(String variantID, String lastInstallationID, Integer pageSize, String search);
+
 
 }
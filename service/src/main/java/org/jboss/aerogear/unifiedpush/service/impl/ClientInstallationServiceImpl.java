@@ -19,11 +19,16 @@ package org.jboss.aerogear.unifiedpush.service.impl;
 import org.jboss.aerogear.unifiedpush.api.AndroidVariant;
 import org.jboss.aerogear.unifiedpush.api.Category;
 import org.jboss.aerogear.unifiedpush.api.Installation;
+import org.jboss.aerogear.unifiedpush.api.UsageCounter;
 import org.jboss.aerogear.unifiedpush.api.Variant;
 import org.jboss.aerogear.unifiedpush.api.VariantType;
 import org.jboss.aerogear.unifiedpush.dao.CategoryDao;
 import org.jboss.aerogear.unifiedpush.dao.InstallationDao;
 import org.jboss.aerogear.unifiedpush.dao.ResultsStream;
+import org.jboss.aerogear.unifiedpush.dto.DeviceTokenCategory;
+import org.jboss.aerogear.unifiedpush.dto.InstallationToken;
+import org.jboss.aerogear.unifiedpush.event.InstallationsChangedEvent;
+import org.jboss.aerogear.unifiedpush.event.UsageCountersChangedEvent;
 import org.jboss.aerogear.unifiedpush.service.ClientInstallationService;
 import org.jboss.aerogear.unifiedpush.service.annotations.LoggedIn;
 import org.jboss.aerogear.unifiedpush.service.util.FCMTopicManager;
@@ -33,9 +38,14 @@ import org.slf4j.LoggerFactory;
 import javax.ejb.AsyncResult;
 import javax.ejb.Asynchronous;
 import javax.ejb.Stateless;
+import javax.enterprise.event.Event;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
@@ -59,6 +69,12 @@ public class ClientInstallationServiceImpl implements ClientInstallationService
     @LoggedIn
     private Instance<String> developer;
 
+    @Inject
+    private Event<UsageCountersChangedEvent> usageCountersChanged;
+
+    @Inject
+    private Event<InstallationsChangedEvent> installationsChanged;
+
     @Override
     @Asynchronous
     public Future<Void> addInstallation(Variant variant, Installation entity) {
@@ -75,6 +91,8 @@ public class ClientInstallationServiceImpl implements ClientInstallationService
 
             // store the installation:
             storeInstallationAndSetReferences(variant, entity);
+            usageCountersChanged.fire(countInstallations(new UsageCountersChangedEvent(), variant.getVariantID(), variant.getDeveloper(), 1));
+            installationsChanged.fire(changed(new InstallationsChangedEvent(variant.getVariantID()), entity));
         } else {
             // We only update the metadata, if the device is enabled:
             if (installation.isEnabled()) {
@@ -100,6 +118,7 @@ public class ClientInstallationServiceImpl implements ClientInstallationService
         }
 
         Set<String> existingTokens = installationDao.findAllDeviceTokenForVariantID(variant.getVariantID());
+        int stored = 0;
 
         // clear out:
         installationDao.flushAndClear();
@@ -115,6 +134,7 @@ public class ClientInstallationServiceImpl implements ClientInstallationService
                 logger.trace("Importing device with token: {}", current.getDeviceToken());
 
                 storeInstallationAndSetReferences(variant, current);
+                stored++;
 
                 // and add a reference to the existing tokens set, to ensure the JSON file contains no duplicates:
                 existingTokens.add(current.getDeviceToken());
@@ -131,6 +151,10 @@ public class ClientInstallationServiceImpl implements ClientInstallationService
         }
         // clear out:
         installationDao.flushAndClear();
+        // a single event for the whole import
+        usageCountersChanged.fire(countInstallations(new UsageCountersChangedEvent(), variant.getVariantID(), variant.getDeveloper(), stored));
+        // the imported installations are not tracked one by one
+        installationsChanged.fire(InstallationsChangedEvent.invalidation(variant.getVariantID()));
         return new AsyncResult<>(null);
     }
 
@@ -138,9 +162,10 @@ public class ClientInstallationServiceImpl implements ClientInstallationService
     public void  removeInstallations(
             List<Installation> installations) {
 
-        // uh..., fancy method reference :)
-        installations.forEach(this::removeInstallation);
-
+        removeInstallationTokens(installationDao.findInstallationTokensByIds(installations.stream()
+                .map(Installation::getId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList())));
     }
 
     @Override
@@ -151,6 +176,11 @@ public class ClientInstallationServiceImpl implements ClientInstallationService
 
     @Override
     public void updateInstallation(Installation installationToUpdate, Installation postedInstallation) {
+        final InstallationsChangedEvent event = new InstallationsChangedEvent(installationToUpdate.getVariant().getVariantID());
+        if (!installationToUpdate.getDeviceToken().equals(postedInstallation.getDeviceToken())) {
+            event.removed(installationToUpdate.getDeviceToken());
+        }
+
         // copy the "updateable" values:
         mergeCategories(installationToUpdate, postedInstallation.getCategories());
 
@@ -165,6 +195,7 @@ public class ClientInstallationServiceImpl implements ClientInstallationService
 
         // update it:
         updateInstallation(installationToUpdate);
+        installationsChanged.fire(changed(event, installationToUpdate));
 
         // unsubscribe Android devices from topics that device should no longer be subscribed to
         if (installationToUpdate.getVariant().getType() == VariantType.ANDROID) {
@@ -177,28 +208,57 @@ public class ClientInstallationServiceImpl implements ClientInstallationService
         return installationDao.find(primaryKey);
     }
 
+    @Override
+    public Installation findByIdWithCategories(String primaryKey) {
+        return installationDao.findWithCategories(primaryKey);
+    }
+
     @Override
     public void  removeInstallation(Installation installation) {
-        installationDao.delete(installation);
+        if (installation != null) {
+            removeInstallations(Collections.singletonList(installation));
+        }
     }
 
     @Override
     @Asynchronous
     public Future<Void>  removeInstallationsForVariantByDeviceTokens(String variantID, Set<String> deviceTokens) {
-        // collect inactive installations for the given variant:
-        List<Installation> inactiveInstallations = installationDao.findInstallationsForVariantByDeviceTokens(variantID, deviceTokens);
-        // get rid of them
-        this.removeInstallations(inactiveInstallations);
+        // collect inactive installations for the given variant, and get rid of them:
+        removeInstallationTokens(installationDao.findInstallationTokensForVariantByDeviceTokens(variantID, deviceTokens));
         return new AsyncResult<>(null);
     }
 
     @Override
     @Asynchronous
     public Future<Void>  removeInstallationForVariantByDeviceToken(String variantID, String deviceToken) {
-        removeInstallation(findInstallationForVariantByDeviceToken(variantID, deviceToken));
+        removeInstallationTokens(installationDao.findInstallationTokensForVariantByDeviceTokens(variantID, Collections.singleton(deviceToken)));
         return new AsyncResult<>(null);
     }
 
+    /*
+     * Helper to delete the given installations, without loading them and their categories
+     */
+    private void removeInstallationTokens(List<InstallationToken> installationTokens) {
+        if (installationTokens.isEmpty()) {
+            return;
+        }
+
+        final int deleted = installationDao.deleteByIds(installationTokens.stream().map(InstallationToken::getId).collect(Collectors.toList()));
+
+        // the bulk deletion fires no entity events, the removed installations are reported here
+        final UsageCountersChangedEvent event = new UsageCountersChangedEvent();
+        final Map<String, InstallationsChangedEvent> changes = new HashMap<>();
+        for (InstallationToken installationToken : installationTokens) {
+            countInstallations(event, installationToken.getVariantID(), installationToken.getDeveloper(), -1);
+            changes.computeIfAbsent(installationToken.getVariantID(), InstallationsChangedEvent::new)
+                    .removed(installationToken.getDeviceToken());
+        }
+        // some of the installations were deleted concurrently (e.g. a token reported as invalid by two batches) and counted there,
+        // which installations is unknown
+        usageCountersChanged.fire(deleted == installationTokens.size() ? event : UsageCountersChangedEvent.reconciliation());
+        changes.values().forEach(installationsChanged::fire);
+    }
+
     @Override
     public Installation findInstallationForVariantByDeviceToken(String variantID, String deviceToken) {
         return installationDao.findInstallationForVariantByDeviceToken(variantID, deviceToken);
@@ -233,6 +293,21 @@ public class ClientInstallationServiceImpl implements ClientInstallationService
         return installationDao.findAllDeviceTokenForVariantIDByCriteria(variantID, categories, aliases, deviceTypes, maxResults, lastTokenFromPreviousBatch, false);
     }
 
+    @Override
+    public ResultsStream.QueryBuilder<String> findAllDeviceTokenForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes, int maxResults, String lastTokenFromPreviousBatch, String lastTokenOfRange) {
+        return installationDao.findAllDeviceTokenForVariantIDByCriteria(variantID, categories, aliases, deviceTypes, maxResults, lastTokenFromPreviousBatch, lastTokenOfRange, false);
+    }
+
+    @Override
+    public ResultsStream.QueryBuilder<DeviceTokenCategory> findAllDeviceTokenCategoriesForVariantID(String variantID) {
+        return installationDao.findAllDeviceTokenCategoriesForVariantID(variantID);
+    }
+
+    @Override
+    public List<String> findDeviceTokenRangeBoundariesForVariantID(String variantID, int maxRanges, int minRangeSize) {
+        return installationDao.findDeviceTokenRangeBoundariesForVariantID(variantID, maxRanges, minRangeSize);
+    }
+
     @Override
     public ResultsStream.QueryBuilder<String> findAllOldGoogleCloudMessagingDeviceTokenForVariantIDByCriteria(String variantID, List<String> categories, List<String> aliases, List<String> deviceTypes, int maxResults, String lastTokenFromPreviousBatch) {
         return installationDao.findAllDeviceTokenForVariantIDByCriteria(variantID, categories, aliases, deviceTypes, maxResults, lastTokenFromPreviousBatch, true);
@@ -267,6 +342,25 @@ public class ClientInstallationServiceImpl implements ClientInstallationService
         }
     }
 
+    /*
+     * Helper to add the installations stored or removed for the given variant to the changed usage counters
+     */
+    private static UsageCountersChangedEvent countInstallations(UsageCountersChangedEvent event, String variantID, String developer, long delta) {
+        return event.add(UsageCounter.installationsOfVariant(variantID), delta)
+                .add(UsageCounter.installationsOfDeveloper(developer), delta)
+                .add(UsageCounter.TOTAL_INSTALLATIONS, delta);
+    }
+
+    /*
+     * Helper to add the current state of the given installation to the changed installations
+     */
+    private static InstallationsChangedEvent changed(InstallationsChangedEvent event, Installation installation) {
+        if (installation.isEnabled()) {
+            return event.registered(installation.getDeviceToken(), installation.getDeviceType(), convertToNames(installation.getCategories()));
+        }
+        return event.removed(installation.getDeviceToken());
+    }
+
     private static List<String> convertToNames(Set<Category> categories) {
         return categories.stream().map(Category::getName).collect(Collectors.toList());
     }
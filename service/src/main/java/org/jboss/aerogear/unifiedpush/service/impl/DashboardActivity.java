@@ -0,0 +1,187 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.service.impl;
+
+import org.jboss.aerogear.unifiedpush.dao.FlatPushMessageInformationDao;
+import org.jboss.aerogear.unifiedpush.dto.PushMessageActivity;
+import org.jboss.aerogear.unifiedpush.event.PushMessageStoredEvent;
+import org.jboss.aerogear.unifiedpush.event.VariantErrorRecordedEvent;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Read model of the "active" and "warnings" panels of the dashboard, so that they do not query the whole push message history on every request.
+ *
+ * <ul>
+ *     <li>the latest push messages are kept in a small ring buffer, along with the name and developer of their push application</li>
+ *     <li>the IDs of the variants with warnings are kept in a set</li>
+ * </ul>
+ *
+ * Both are loaded from the database, and reloaded once they are older than <tt>aerogear.dashboard.refresh.seconds</tt>, so that messages
+ * of other nodes, removed push applications and purged errors show up. In between, the push messages and errors of this node
+ * are added as soon as their transaction succeeded, except the push messages of push applications that are not part of the buffer,
+ * which show up with the next reload.
+ */
+@ApplicationScoped
+public class DashboardActivity {
+
+    // system property names used to tune the read model
+    public static final String AEROGEAR_DASHBOARD_ACTIVITY_SIZE = "aerogear.dashboard.activity.size";
+    public static final String AEROGEAR_DASHBOARD_REFRESH_SECONDS = "aerogear.dashboard.refresh.seconds";
+
+    private final int size = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_DASHBOARD_ACTIVITY_SIZE, 100);
+    private final long refreshNanos = TimeUnit.SECONDS.toNanos(ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_DASHBOARD_REFRESH_SECONDS, 60));
+
+    // guarded by this
+    private final Deque<PushMessageActivity> latestActivity = new ArrayDeque<>();
+    private final Map<String, PushMessageActivity> pushApplications = new HashMap<>();
+    private final Set<String> variantsWithWarnings = new HashSet<>();
+    private long loadedAt;
+    private boolean loaded;
+
+    // held by the single caller that reloads the model
+    private final AtomicBoolean loading = new AtomicBoolean();
+
+    @Inject
+    private FlatPushMessageInformationDao flatPushMessageInformationDao;
+
+    /**
+     * Adds a push message of this node to the latest activity. Push messages of push applications that are not part of the buffer
+     * yet (so that their name is not known) are left to the next reload, rather than reloading the buffer for each of them.
+     *
+     * @param event the stored push message
+     */
+    public void pushMessageStored(@Observes(during = TransactionPhase.AFTER_SUCCESS) PushMessageStoredEvent event) {
+        synchronized (this) {
+            final PushMessageActivity pushApplication = pushApplications.get(event.getPushApplicationID());
+            if (pushApplication == null) {
+                return;
+            }
+            latestActivity.addFirst(new PushMessageActivity(pushApplication.getPushApplicationID(), pushApplication.getPushApplicationName(),
+                    pushApplication.getDeveloper(), event.getSubmitDate()));
+            if (latestActivity.size() > size) {
+                latestActivity.removeLast();
+            }
+        }
+    }
+
+    /**
+     * Adds a variant of this node to the variants with warnings.
+     *
+     * @param event the recorded error
+     */
+    public void variantErrorRecorded(@Observes(during = TransactionPhase.AFTER_SUCCESS) VariantErrorRecordedEvent event) {
+        synchronized (this) {
+            variantsWithWarnings.add(event.getVariantID());
+        }
+    }
+
+    /**
+     * Returns the most recent push messages, from the buffer if it holds enough of them.
+     *
+     * @param loginName the username, or null for the push messages of all users (used for admin role)
+     * @param maxResults number of max items in the returned list
+     *
+     * @return list of submissions, the most recent first
+     */
+    public List<PushMessageActivity> findLatestActivity(String loginName, int maxResults) {
+        if (!loadIfOutdated()) {
+            return flatPushMessageInformationDao.findLatestPushMessageActivity(loginName, maxResults);
+        }
+
+        final List<PushMessageActivity> activity = new ArrayList<>(maxResults);
+        final boolean complete;
+        synchronized (this) {
+            for (PushMessageActivity submission : latestActivity) {
+                if (activity.size() == maxResults) {
+                    break;
+                }
+                if (loginName == null || loginName.equals(submission.getDeveloper())) {
+                    activity.add(submission);
+                }
+            }
+            // older push messages of the user may have been evicted from a full buffer
+            complete = activity.size() == maxResults || latestActivity.size() < size;
+        }
+        return complete ? activity : flatPushMessageInformationDao.findLatestPushMessageActivity(loginName, maxResults);
+    }
+
+    /**
+     * Returns the IDs of the variants that show errors/issues for previous message sends.
+     *
+     * @return set of variant ids
+     */
+    public Set<String> findVariantIDsWithWarnings() {
+        if (!loadIfOutdated()) {
+            return new HashSet<>(flatPushMessageInformationDao.findVariantIDsWithWarnings());
+        }
+
+        synchronized (this) {
+            return new HashSet<>(variantsWithWarnings);
+        }
+    }
+
+    /**
+     * Reloads the model if it is outdated. A single caller reloads it, the others read the outdated model meanwhile.
+     *
+     * @return false if the model was never loaded, since another caller is loading it for the first time
+     */
+    private boolean loadIfOutdated() {
+        synchronized (this) {
+            if (loaded && System.nanoTime() - loadedAt < refreshNanos) {
+                return true;
+            }
+        }
+        if (!loading.compareAndSet(false, true)) {
+            synchronized (this) {
+                return loaded;
+            }
+        }
+        try {
+            final List<PushMessageActivity> activity = flatPushMessageInformationDao.findLatestPushMessageActivity(null, size);
+            final List<String> warnings = flatPushMessageInformationDao.findVariantIDsWithWarnings();
+
+            synchronized (this) {
+                latestActivity.clear();
+                latestActivity.addAll(activity);
+                pushApplications.clear();
+                activity.forEach(submission -> pushApplications.putIfAbsent(submission.getPushApplicationID(), submission));
+                variantsWithWarnings.clear();
+                variantsWithWarnings.addAll(warnings);
+                loadedAt = System.nanoTime();
+                loaded = true;
+            }
+            return true;
+        } finally {
+            loading.set(false);
+        }
+    }
+}
@@ -18,10 +18,13 @@ package org.jboss.aerogear.unifiedpush.service.impl;
 
 import org.jboss.aerogear.unifiedpush.api.Variant;
 import org.jboss.aerogear.unifiedpush.dao.VariantDao;
+import org.jboss.aerogear.unifiedpush.event.InstallationsChangedEvent;
+import org.jboss.aerogear.unifiedpush.event.UsageCountersChangedEvent;
 import org.jboss.aerogear.unifiedpush.service.GenericVariantService;
 import org.jboss.aerogear.unifiedpush.service.annotations.LoggedIn;
 
 import javax.ejb.Stateless;
+import javax.enterprise.event.Event;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 
@@ -35,10 +38,18 @@ public class GenericVariantServiceImpl implements GenericVariantService {
     @LoggedIn
     private Instance<String> loginName;
 
+    @Inject
+    private Event<UsageCountersChangedEvent> usageCountersChanged;
+
+    @Inject
+    private Event<InstallationsChangedEvent> installationsChanged;
+
     @Override
     public void addVariant(Variant variant) {
         variant.setDeveloper(loginName.get());
         variantDao.create(variant);
+        // the counters of the new entity are created by the reconciliation
+        usageCountersChanged.fire(UsageCountersChangedEvent.reconciliation());
     }
 
     @Override
@@ -54,5 +65,8 @@ public class GenericVariantServiceImpl implements GenericVariantService {
     @Override
     public void removeVariant(Variant variant) {
         variantDao.delete(variant);
+        // the cascaded removals are not counted one by one
+        usageCountersChanged.fire(UsageCountersChangedEvent.reconciliation());
+        installationsChanged.fire(InstallationsChangedEvent.invalidation(variant.getVariantID()));
     }
 }
@@ -17,15 +17,24 @@
 package org.jboss.aerogear.unifiedpush.service.impl;
 
 import org.jboss.aerogear.unifiedpush.api.PushApplication;
+import org.jboss.aerogear.unifiedpush.api.UsageCounter;
 import org.jboss.aerogear.unifiedpush.api.Variant;
+import org.jboss.aerogear.unifiedpush.api.VariantType;
 import org.jboss.aerogear.unifiedpush.dao.PushApplicationDao;
+import org.jboss.aerogear.unifiedpush.dao.UsageCounterDao;
+import org.jboss.aerogear.unifiedpush.event.InstallationsChangedEvent;
+import org.jboss.aerogear.unifiedpush.event.UsageCountersChangedEvent;
 import org.jboss.aerogear.unifiedpush.service.PushApplicationService;
 import org.jboss.aerogear.unifiedpush.service.annotations.LoggedIn;
 
 import javax.ejb.Stateless;
+import javax.enterprise.event.Event;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 @Stateless
 public class PushApplicationServiceImpl implements PushApplicationService {
@@ -33,10 +42,19 @@ public class PushApplicationServiceImpl implements PushApplicationService {
     @Inject
     private PushApplicationDao pushApplicationDao;
 
+    @Inject
+    private UsageCounterDao usageCounterDao;
+
     @Inject
     @LoggedIn
     private Instance<String> loginName;
 
+    @Inject
+    private Event<UsageCountersChangedEvent> usageCountersChanged;
+
+    @Inject
+    private Event<InstallationsChangedEvent> installationsChanged;
+
     public PushApplicationServiceImpl() {
     }
 
@@ -52,6 +70,8 @@ public class PushApplicationServiceImpl implements PushApplicationService {
             pushApp.setDeveloper(loginName.get());
             pushApplicationDao.create(pushApp);
             pushApplicationDao.flushAndClear();
+            // the counters of the new entity are created by the reconciliation
+            usageCountersChanged.fire(UsageCountersChangedEvent.reconciliation());
         } catch (RuntimeException e) {
             throw new RuntimeException("Transaction failed for app with ID: " + id, e);
         }
@@ -68,9 +88,37 @@ public class PushApplicationServiceImpl implements PushApplicationService {
         pushApplicationDao.update(pushApp);
     }
 
+    /**
+     * Reads the installations of every variant from the maintained usage counters, and only counts the installations
+     * of the push application if a counter is missing (e.g. right after the variant was created).
+     */
     @Override
     public Map<String, Long> countInstallationsByType(String pushApplicationID) {
-        return pushApplicationDao.countInstallationsByType(pushApplicationID);
+        final PushApplication pushApp = findByPushApplicationID(pushApplicationID);
+        if (pushApp == null) {
+            return pushApplicationDao.countInstallationsByType(pushApplicationID);
+        }
+
+        final List<String> counterIDs = pushApp.getVariants().stream()
+                .map(variant -> UsageCounter.installationsOfVariant(variant.getVariantID()))
+                .collect(Collectors.toList());
+        final Map<String, Long> counters = usageCounterDao.findValues(counterIDs);
+        if (counters.size() < counterIDs.size()) {
+            return pushApplicationDao.countInstallationsByType(pushApplicationID);
+        }
+
+        final Map<String, Long> results = new HashMap<>();
+        for (VariantType type : VariantType.values()) {
+            results.put(type.getTypeName(), 0L);
+        }
+        for (Variant variant : pushApp.getVariants()) {
+            final long count = counters.get(UsageCounter.installationsOfVariant(variant.getVariantID()));
+            if (count > 0) {
+                results.merge(variant.getType().getTypeName(), count, Long::sum);
+                results.put(variant.getVariantID(), count);
+            }
+        }
+        return results;
     }
 
     @Override
@@ -80,7 +128,11 @@ public class PushApplicationServiceImpl implements PushApplicationService {
 
     @Override
     public void removePushApplication(PushApplication pushApp) {
+        final List<String> variantIDs = pushApp.getVariants().stream().map(Variant::getVariantID).collect(Collectors.toList());
         pushApplicationDao.delete(pushApp);
+        // the cascaded removals are not counted one by one
+        usageCountersChanged.fire(UsageCountersChangedEvent.reconciliation());
+        variantIDs.forEach(variantID -> installationsChanged.fire(InstallationsChangedEvent.invalidation(variantID)));
     }
 
 }
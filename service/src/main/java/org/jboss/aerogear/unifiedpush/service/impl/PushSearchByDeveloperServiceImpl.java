@@ -18,24 +18,31 @@ package org.jboss.aerogear.unifiedpush.service.impl;
 
 import org.jboss.aerogear.unifiedpush.api.Installation;
 import org.jboss.aerogear.unifiedpush.api.PushApplication;
+import org.jboss.aerogear.unifiedpush.api.UsageCounter;
+import org.jboss.aerogear.unifiedpush.dao.AggregateCache;
 import org.jboss.aerogear.unifiedpush.dao.FlatPushMessageInformationDao;
-import org.jboss.aerogear.unifiedpush.api.FlatPushMessageInformation;
 import org.jboss.aerogear.unifiedpush.dao.InstallationDao;
 import org.jboss.aerogear.unifiedpush.dao.PageResult;
 import org.jboss.aerogear.unifiedpush.dao.PushApplicationDao;
+import org.jboss.aerogear.unifiedpush.dao.UsageCounterDao;
 import org.jboss.aerogear.unifiedpush.dao.VariantDao;
 import org.jboss.aerogear.unifiedpush.dto.Count;
+import org.jboss.aerogear.unifiedpush.dto.PushMessageActivity;
 import org.jboss.aerogear.unifiedpush.service.PushSearchService;
 import org.jboss.aerogear.unifiedpush.service.annotations.LoggedIn;
 import org.jboss.aerogear.unifiedpush.service.dashboard.Application;
 import org.jboss.aerogear.unifiedpush.service.dashboard.ApplicationVariant;
 import org.jboss.aerogear.unifiedpush.service.dashboard.DashboardData;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
 
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * Implementation of the <code>PushSearchService</code> internally used for 'developer' role,
@@ -43,6 +50,9 @@ import java.util.List;
  */
 public class PushSearchByDeveloperServiceImpl implements PushSearchService {
 
+    private static final AggregateCache<Count> installationCounts = new AggregateCache<>(
+            ConfigurationUtils.tryGetGlobalIntegerProperty(AggregateCache.AEROGEAR_AGGREGATE_CACHE_SECONDS, 60));
+
     @Inject
     private PushApplicationDao pushApplicationDao;
 
@@ -55,6 +65,12 @@ public class PushSearchByDeveloperServiceImpl implements PushSearchService {
     @Inject
     private FlatPushMessageInformationDao flatPushMessageInformationDao;
 
+    @Inject
+    private UsageCounterDao usageCounterDao;
+
+    @Inject
+    private DashboardActivity dashboardActivity;
+
     @Inject
     @LoggedIn
     private Instance<String> loginName;
@@ -76,14 +92,18 @@ public class PushSearchByDeveloperServiceImpl implements PushSearchService {
     }
 
     /**
-     * Receives the dashboard data for the given user
+     * Receives the dashboard data for the given user, from the maintained usage counters if they are available
      */
     @Override
     public DashboardData loadDashboardData() {
+        final String developer = loginName.get();
+        final String applicationsCounter = UsageCounter.pushApplicationsOfDeveloper(developer);
+        final String installationsCounter = UsageCounter.installationsOfDeveloper(developer);
+        final Map<String, Long> counters = usageCounterDao.findValues(Arrays.asList(applicationsCounter, installationsCounter));
 
-        long totalApps = totalApplicationNumber();
-        long totalDevices = totalDeviceNumber();
-        long totalMessages = totalMessages();
+        long totalApps = counters.containsKey(applicationsCounter) ? counters.get(applicationsCounter) : totalApplicationNumber();
+        long totalDevices = counters.containsKey(installationsCounter) ? counters.get(installationsCounter) : totalDeviceNumber();
+        long totalMessages = totalMessages(developer);
 
 
         final DashboardData data = new DashboardData();
@@ -113,7 +133,7 @@ public class PushSearchByDeveloperServiceImpl implements PushSearchService {
      */
     @Override
     public List<Application> getLatestActivity(int maxResults) {
-        return wrapApplication(flatPushMessageInformationDao.findLatestActivity(loginName.get(), maxResults));
+        return wrapApplication(dashboardActivity.findLatestActivity(loginName.get(), maxResults));
     }
 
     @Override
@@ -121,8 +141,26 @@ public class PushSearchByDeveloperServiceImpl implements PushSearchService {
         return installationDao.findInstallationsByVariantForDeveloper(variantID,loginName.get(), page, pageSize, search);
     }
 
-    private long totalMessages() {
-        return flatPushMessageInformationDao.getNumberOfPushMessagesForLoginName(loginName.get());
+    @Override
+    public PageResult<Installation, Count> findAllInstallationsByVariantForDeveloperAfter(String variantID, String lastInstallationID, Integer pageSize, String search) {
+        final String developer = loginName.get();
+        final List<Installation> installations = installationDao.findInstallationsByVariantForDeveloperAfter(variantID, developer, lastInstallationID, pageSize, search);
+        final Count count = installationCounts.get(developer + ":" + variantID + ":" + search,
+                () -> new Count(installationDao.countInstallationsByVariantForDeveloper(variantID, developer, search)));
+
+        return new PageResult<>(installations, count);
+    }
+
+    private long totalMessages(String developer) {
+        // the push messages are counted per push application
+        final List<String> messagesCounters = pushApplicationDao.findAllPushApplicationIDsForDeveloper(developer).stream()
+                .map(UsageCounter::pushMessagesOfPushApplication)
+                .collect(Collectors.toList());
+        final Map<String, Long> counters = usageCounterDao.findValues(messagesCounters);
+        if (counters.size() < messagesCounters.size()) {
+            return flatPushMessageInformationDao.getNumberOfPushMessagesForLoginName(developer);
+        }
+        return counters.values().stream().mapToLong(Long::longValue).sum();
     }
 
     private long totalDeviceNumber() {
@@ -146,14 +184,12 @@ public class PushSearchByDeveloperServiceImpl implements PushSearchService {
         return applicationVariants;
     }
 
-    private List<Application> wrapApplication(List<FlatPushMessageInformation> pushMessageInformations) {
-        final List<Application> applications = new ArrayList<>(pushMessageInformations.size());
+    private static List<Application> wrapApplication(List<PushMessageActivity> activity) {
+        final List<Application> applications = new ArrayList<>(activity.size());
 
-        pushMessageInformations.forEach(pushMessageInformation -> {
-            final String applicationName = pushApplicationDao.findByPushApplicationID(pushMessageInformation.getPushApplicationId()).getName();
-            final Application application = new Application(applicationName, pushMessageInformation.getPushApplicationId(), pushMessageInformation.getSubmitDate());
-            applications.add(application);
-        });
+        // push messages of deleted push applications are already skipped
+        activity.forEach(submission -> applications.add(
+                new Application(submission.getPushApplicationName(), submission.getPushApplicationID(), submission.getSubmitDate())));
         return applications;
     }
 }
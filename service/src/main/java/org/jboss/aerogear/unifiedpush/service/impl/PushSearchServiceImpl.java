@@ -18,22 +18,29 @@ package org.jboss.aerogear.unifiedpush.service.impl;
 
 import org.jboss.aerogear.unifiedpush.api.Installation;
 import org.jboss.aerogear.unifiedpush.api.PushApplication;
-import org.jboss.aerogear.unifiedpush.api.FlatPushMessageInformation;
+import org.jboss.aerogear.unifiedpush.api.UsageCounter;
+import org.jboss.aerogear.unifiedpush.dao.AggregateCache;
 import org.jboss.aerogear.unifiedpush.dao.FlatPushMessageInformationDao;
 import org.jboss.aerogear.unifiedpush.dao.InstallationDao;
 import org.jboss.aerogear.unifiedpush.dao.PageResult;
 import org.jboss.aerogear.unifiedpush.dao.PushApplicationDao;
+import org.jboss.aerogear.unifiedpush.dao.UsageCounterDao;
 import org.jboss.aerogear.unifiedpush.dao.VariantDao;
 import org.jboss.aerogear.unifiedpush.dto.Count;
+import org.jboss.aerogear.unifiedpush.dto.PushMessageActivity;
 import org.jboss.aerogear.unifiedpush.service.PushSearchService;
 import org.jboss.aerogear.unifiedpush.service.dashboard.Application;
 import org.jboss.aerogear.unifiedpush.service.dashboard.ApplicationVariant;
 import org.jboss.aerogear.unifiedpush.service.dashboard.DashboardData;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
 
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Implementation of the <code>PushSearchService</code> internally used for 'admin' role,
@@ -41,6 +48,9 @@ import java.util.List;
  */
 public class PushSearchServiceImpl implements PushSearchService {
 
+    private static final AggregateCache<Count> installationCounts = new AggregateCache<>(
+            ConfigurationUtils.tryGetGlobalIntegerProperty(AggregateCache.AEROGEAR_AGGREGATE_CACHE_SECONDS, 60));
+
     @Inject
     private PushApplicationDao pushApplicationDao;
 
@@ -53,6 +63,12 @@ public class PushSearchServiceImpl implements PushSearchService {
     @Inject
     private FlatPushMessageInformationDao flatPushMessageInformationDao;
 
+    @Inject
+    private UsageCounterDao usageCounterDao;
+
+    @Inject
+    private DashboardActivity dashboardActivity;
+
     @Override
     public PageResult<PushApplication, Count> findAllPushApplicationsForDeveloper(Integer page, Integer pageSize) {
         return pushApplicationDao.findAll(page, pageSize);
@@ -73,16 +89,27 @@ public class PushSearchServiceImpl implements PushSearchService {
         return installationDao.findInstallationsByVariant(variantID, page, pageSize, search);
     }
 
+    @Override
+    public PageResult<Installation, Count> findAllInstallationsByVariantForDeveloperAfter(String variantID, String lastInstallationID, Integer pageSize, String search) {
+        final List<Installation> installations = installationDao.findInstallationsByVariantForDeveloperAfter(variantID, null, lastInstallationID, pageSize, search);
+        final Count count = installationCounts.get(variantID + ":" + search,
+                () -> new Count(installationDao.countInstallationsByVariantForDeveloper(variantID, null, search)));
+
+        return new PageResult<>(installations, count);
+    }
+
 
     /**
-     * Receives the dashboard data for the given user
+     * Receives the dashboard data for the given user, from the maintained usage counters if they are available
      */
     @Override
     public DashboardData loadDashboardData() {
+        final Map<String, Long> counters = usageCounterDao.findValues(Arrays.asList(
+                UsageCounter.TOTAL_PUSH_APPLICATIONS, UsageCounter.TOTAL_INSTALLATIONS, UsageCounter.TOTAL_PUSH_MESSAGES));
 
-        long totalApps = totalApplicationNumber();
-        long totalDevices = totalDeviceNumber();
-        long totalMessages = totalMessages();
+        long totalApps = counters.containsKey(UsageCounter.TOTAL_PUSH_APPLICATIONS) ? counters.get(UsageCounter.TOTAL_PUSH_APPLICATIONS) : totalApplicationNumber();
+        long totalDevices = counters.containsKey(UsageCounter.TOTAL_INSTALLATIONS) ? counters.get(UsageCounter.TOTAL_INSTALLATIONS) : totalDeviceNumber();
+        long totalMessages = counters.containsKey(UsageCounter.TOTAL_PUSH_MESSAGES) ? counters.get(UsageCounter.TOTAL_PUSH_MESSAGES) : totalMessages();
 
 
         final DashboardData data = new DashboardData();
@@ -99,12 +126,12 @@ public class PushSearchServiceImpl implements PushSearchService {
      */
     @Override
     public List<ApplicationVariant> getVariantsWithWarnings() {
-        final List<String> warningIDs = flatPushMessageInformationDao.findVariantIDsWithWarnings();
+        final Set<String> warningIDs = dashboardActivity.findVariantIDsWithWarnings();
         if (warningIDs.isEmpty()) {
             return Collections.emptyList();
         }
 
-        return wrapApplicationVariant(pushApplicationDao.findByVariantIds(warningIDs));
+        return wrapApplicationVariant(pushApplicationDao.findByVariantIds(new ArrayList<>(warningIDs)));
     }
 
     /**
@@ -112,7 +139,7 @@ public class PushSearchServiceImpl implements PushSearchService {
      */
     @Override
     public List<Application> getLatestActivity(int maxResults) {
-        return wrapApplication(flatPushMessageInformationDao.findLatestActivity(maxResults));
+        return wrapApplication(dashboardActivity.findLatestActivity(null, maxResults));
     }
 
     private long totalMessages() {
@@ -139,19 +166,12 @@ public class PushSearchServiceImpl implements PushSearchService {
         return applicationVariants;
     }
 
-    private List<Application> wrapApplication(List<FlatPushMessageInformation> pushMessageInformations) {
-        final List<Application> applications = new ArrayList<>(pushMessageInformations.size());
+    private static List<Application> wrapApplication(List<PushMessageActivity> activity) {
+        final List<Application> applications = new ArrayList<>(activity.size());
 
-        pushMessageInformations.forEach(pushMessageInformation -> {
-            final PushApplication pushApplication = pushApplicationDao.findByPushApplicationID(pushMessageInformation.getPushApplicationId());
-
-            // make sure this is really there, and has not been deleted
-            if (pushApplication != null) {
-                final String applicationName = pushApplication.getName();
-                final Application application = new Application(applicationName, pushMessageInformation.getPushApplicationId(), pushMessageInformation.getSubmitDate());
-                applications.add(application);
-            }
-        });
+        // push messages of deleted push applications are already skipped
+        activity.forEach(submission -> applications.add(
+                new Application(submission.getPushApplicationName(), submission.getPushApplicationID(), submission.getSubmitDate())));
         return applications;
     }
 }
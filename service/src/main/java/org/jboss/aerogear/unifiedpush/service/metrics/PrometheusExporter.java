@@ -2,6 +2,8 @@ package org.jboss.aerogear.unifiedpush.service.metrics;
 
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
 import io.prometheus.client.exporter.common.TextFormat;
 import io.prometheus.client.hotspot.DefaultExports;
 
@@ -38,6 +40,160 @@ public class PrometheusExporter {
             .help("Total number of iOS push batch requests.")
             .register();
 
+    private static final Gauge tokenLoaderState = Gauge.build()
+            .name("aerogear_ups_token_loader_state")
+            .help("State of the token loader per token batch queue (0 = normal, 1 = backing off, 2 = recovering).")
+            .labelNames("queue")
+            .register();
+
+    private static final Gauge tokenLoaderBatchesToLoad = Gauge.build()
+            .name("aerogear_ups_token_loader_batches_to_load")
+            .help("Number of token batches loaded in one token-loading transaction, per token batch queue.")
+            .labelNames("queue")
+            .register();
+
+    private static final Gauge tokenLoaderBackoff = Gauge.build()
+            .name("aerogear_ups_token_loader_backoff_milliseconds")
+            .help("Current delay applied before token loading is retried on a full token batch queue, per token batch queue.")
+            .labelNames("queue")
+            .register();
+
+    private static final Gauge tokenBatchQueueDepth = Gauge.build()
+            .name("aerogear_ups_token_batch_queue_depth")
+            .help("Last sampled number of messages per token batch queue.")
+            .labelNames("queue")
+            .register();
+
+    private static final Histogram tokenBatchQueueingDelay = Histogram.build()
+            .name("aerogear_ups_token_batch_queueing_delay_seconds")
+            .help("Time a token batch spent in the token batch queue before it was dispatched, per push application.")
+            .labelNames("push_application")
+            .buckets(0.1, 0.5, 1, 5, 10, 30, 60, 300, 900)
+            .register();
+
+    private static final Gauge tokenBatchesInFlight = Gauge.build()
+            .name("aerogear_ups_token_batches_in_flight")
+            .help("Number of token batches queued but not yet dispatched, per push application.")
+            .labelNames("push_application")
+            .register();
+
+    private static final Gauge rateLimiterAvailablePermits = Gauge.build()
+            .name("aerogear_ups_rate_limiter_available_permits")
+            .help("Permits available in the outbound rate limiter, negative while sending is held back, per push network or variant.")
+            .labelNames("limiter")
+            .register();
+
+    private static final Counter rateLimiterThrottledSeconds = Counter.build()
+            .name("aerogear_ups_rate_limiter_throttled_seconds_total")
+            .help("Total time sending was held back by the outbound rate limiter, per push network or variant.")
+            .labelNames("limiter")
+            .register();
+
+    private static final Counter apnsNotifications = Counter.build()
+            .name("aerogear_ups_apns_notifications_total")
+            .help("Total number of notifications handled by the APNs clients, per client and result (sent, accepted, rejected, write_failure).")
+            .labelNames("client", "result")
+            .register();
+
+    private static final Gauge apnsConnections = Gauge.build()
+            .name("aerogear_ups_apns_connections")
+            .help("Number of open connections to APNs, per client.")
+            .labelNames("client")
+            .register();
+
+    private static final Counter apnsConnectionFailures = Counter.build()
+            .name("aerogear_ups_apns_connection_failures_total")
+            .help("Total number of failed attempts to connect to APNs, per client.")
+            .labelNames("client")
+            .register();
+
+    private static final Counter apnsProviderTokenRejections = Counter.build()
+            .name("aerogear_ups_apns_provider_token_rejections_total")
+            .help("Total number of notifications rejected by APNs because of the provider (JWT) token, per signing key and reason.")
+            .labelNames("signing_key", "reason")
+            .register();
+
+    private static final Counter apnsSigningKeyLoads = Counter.build()
+            .name("aerogear_ups_apns_signing_key_loads_total")
+            .help("Total number of times a .p8 signing key was parsed, per signing key.")
+            .labelNames("signing_key")
+            .register();
+
+    private static final Gauge drainDuration = Gauge.build()
+            .name("aerogear_ups_drain_duration_seconds")
+            .help("Time the last shutdown waited for push deliveries in flight.")
+            .register();
+
+    private static final Gauge drainRequeuedTokens = Gauge.build()
+            .name("aerogear_ups_drain_requeued_tokens")
+            .help("Number of device tokens handed back to the token batch queues during the last shutdown.")
+            .register();
+
+    private static final Counter supersededMessages = Counter.build()
+            .name("aerogear_ups_superseded_messages_total")
+            .help("Total number of times delivery of a message was stopped, since it was superseded by a newer message with the same consolidation key, per push application and stage.")
+            .labelNames("push_application", "stage")
+            .register();
+
+    private static final Counter scheduledMessages = Counter.build()
+            .name("aerogear_ups_scheduled_messages_total")
+            .help("Total number of push messages with a delivery time in the future, per event (scheduled, dispatched, discarded, failed).")
+            .labelNames("event")
+            .register();
+
+    private static final Histogram scheduledDispatchDelay = Histogram.build()
+            .name("aerogear_ups_scheduled_dispatch_delay_seconds")
+            .help("Time between the delivery time of a scheduled push message and its submission for delivery.")
+            .buckets(0.5, 1, 5, 10, 30, 60, 300, 900)
+            .register();
+
+    private static final Counter idempotentRequests = Counter.build()
+            .name("aerogear_ups_idempotent_requests_total")
+            .help("Total number of send requests that were not processed, since a request with the same Idempotency-Key was seen before, per outcome.")
+            .labelNames("outcome")
+            .register();
+
+    private static final Counter consumedMessages = Counter.build()
+            .name("aerogear_ups_jms_consumed_messages_total")
+            .help("Total number of messages consumed from a JMS queue, per queue.")
+            .labelNames("queue")
+            .register();
+
+    private static final Counter consumerBusySeconds = Counter.build()
+            .name("aerogear_ups_jms_consumer_busy_seconds_total")
+            .help("Total time spent by the consumers of a JMS queue processing its messages, per queue.")
+            .labelNames("queue")
+            .register();
+
+    private static final Gauge consumerQueueDepth = Gauge.build()
+            .name("aerogear_ups_jms_queue_depth")
+            .help("Last sampled number of messages in a JMS queue, per queue.")
+            .labelNames("queue")
+            .register();
+
+    private static final Gauge consumerConcurrencyLimit = Gauge.build()
+            .name("aerogear_ups_jms_consumer_limit")
+            .help("Number of consumers of a JMS queue allowed to process messages at the same time on this node, per queue.")
+            .labelNames("queue")
+            .register();
+
+    private static final Counter fastPathMessages = Counter.build()
+            .name("aerogear_ups_fast_path_messages_total")
+            .help("Total number of push messages (per variant type) that took the fast path, per outcome (sent, too_many_tokens, failed).")
+            .labelNames("outcome")
+            .register();
+
+    private static final Gauge usageCounterDrift = Gauge.build()
+            .name("aerogear_ups_usage_counter_drift")
+            .help("Sum of the differences between the maintained usage counters and the actual numbers found by the last reconciliation, per kind of counter (variant, application, developer, total).")
+            .labelNames("kind")
+            .register();
+
+    private static final Counter usageCounterReconciliations = Counter.build()
+            .name("aerogear_ups_usage_counter_reconciliations_total")
+            .help("Total number of reconciliations of the maintained usage counters.")
+            .register();
+
     public static PrometheusExporter instance() {
         return INSTANCE;
     }
@@ -66,6 +222,95 @@ public class PrometheusExporter {
         totalPushAndroidRequests.inc();
     }
 
+    public void setTokenLoaderState(String queue, int state, int batchesToLoad, long backoffMillis) {
+        tokenLoaderState.labels(queue).set(state);
+        tokenLoaderBatchesToLoad.labels(queue).set(batchesToLoad);
+        tokenLoaderBackoff.labels(queue).set(backoffMillis);
+    }
+
+    public void setTokenBatchQueueDepth(String queue, int depth) {
+        tokenBatchQueueDepth.labels(queue).set(depth);
+    }
+
+    public void observeTokenBatchQueueingDelay(String pushApplicationId, long delayMillis) {
+        tokenBatchQueueingDelay.labels(pushApplicationId).observe(delayMillis / 1000.0);
+    }
+
+    public void setTokenBatchesInFlight(String pushApplicationId, int inFlight) {
+        tokenBatchesInFlight.labels(pushApplicationId).set(inFlight);
+    }
+
+    public void setRateLimiterAvailablePermits(String limiter, double permits) {
+        rateLimiterAvailablePermits.labels(limiter).set(permits);
+    }
+
+    public void increaseRateLimiterThrottledTime(String limiter, double seconds) {
+        rateLimiterThrottledSeconds.labels(limiter).inc(seconds);
+    }
+
+    public void increaseApnsNotifications(String clientID, String result) {
+        apnsNotifications.labels(clientID, result).inc();
+    }
+
+    public void changeApnsConnections(String clientID, int delta) {
+        apnsConnections.labels(clientID).inc(delta);
+    }
+
+    public void increaseApnsConnectionFailures(String clientID) {
+        apnsConnectionFailures.labels(clientID).inc();
+    }
+
+    public void increaseApnsProviderTokenRejections(String signingKey, String reason) {
+        apnsProviderTokenRejections.labels(signingKey, reason).inc();
+    }
+
+    public void increaseApnsSigningKeyLoads(String signingKey) {
+        apnsSigningKeyLoads.labels(signingKey).inc();
+    }
+
+    public void recordDrain(long durationMillis, long requeuedTokens) {
+        drainDuration.set(durationMillis / 1000.0);
+        drainRequeuedTokens.set(requeuedTokens);
+    }
+
+    public void increaseSupersededMessages(String pushApplicationId, String stage) {
+        supersededMessages.labels(pushApplicationId, stage).inc();
+    }
+
+    public void increaseScheduledMessages(String event) {
+        scheduledMessages.labels(event).inc();
+    }
+
+    public void observeScheduledDispatchDelay(long delayMillis) {
+        scheduledDispatchDelay.observe(delayMillis / 1000.0);
+    }
+
+    public void increaseIdempotentRequests(String outcome) {
+        idempotentRequests.labels(outcome).inc();
+    }
+
+    public void increaseConsumedMessages(String queue, long messages, long busyNanos) {
+        consumedMessages.labels(queue).inc(messages);
+        consumerBusySeconds.labels(queue).inc(busyNanos / 1e9);
+    }
+
+    public void setConsumerState(String queue, int depth, int limit) {
+        consumerQueueDepth.labels(queue).set(depth);
+        consumerConcurrencyLimit.labels(queue).set(limit);
+    }
+
+    public void increaseFastPathMessages(String outcome) {
+        fastPathMessages.labels(outcome).inc();
+    }
+
+    public void setUsageCounterDrift(String kind, long drift) {
+        usageCounterDrift.labels(kind).set(drift);
+    }
+
+    public void increaseUsageCounterReconciliations() {
+        usageCounterReconciliations.inc();
+    }
+
     public StreamingOutput metrics() {
 
         return output -> {
@@ -16,17 +16,26 @@
  */
 package org.jboss.aerogear.unifiedpush.service.metrics;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
 
 import javax.ejb.Stateless;
+import javax.enterprise.event.Event;
 import javax.inject.Inject;
 
 import org.jboss.aerogear.unifiedpush.api.FlatPushMessageInformation;
+import org.jboss.aerogear.unifiedpush.api.UsageCounter;
 import org.jboss.aerogear.unifiedpush.api.Variant;
 import org.jboss.aerogear.unifiedpush.api.VariantErrorStatus;
+import org.jboss.aerogear.unifiedpush.dao.AggregateCache;
 import org.jboss.aerogear.unifiedpush.dao.FlatPushMessageInformationDao;
 import org.jboss.aerogear.unifiedpush.dao.PageResult;
 import org.jboss.aerogear.unifiedpush.dto.MessageMetrics;
+import org.jboss.aerogear.unifiedpush.event.PushMessageStoredEvent;
+import org.jboss.aerogear.unifiedpush.event.UsageCountersChangedEvent;
+import org.jboss.aerogear.unifiedpush.event.VariantErrorRecordedEvent;
 import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
 import org.jboss.aerogear.unifiedpush.utils.DateUtils;
 import org.slf4j.Logger;
@@ -44,13 +53,44 @@ public class PushMessageMetricsService {
     // system property name used as the configurable maximum days the message information objects are stored
     public static final String AEROGEAR_METRICS_STORAGE_MAX_DAYS = "aerogear.metrics.storage.days";
 
+    // length of the search_text column
+    private static final int MAX_SEARCH_TEXT_LENGTH = 1024;
+
+    private static final AggregateCache<MessageMetrics> messageMetrics = new AggregateCache<>(
+            ConfigurationUtils.tryGetGlobalIntegerProperty(AggregateCache.AEROGEAR_AGGREGATE_CACHE_SECONDS, 60));
+
     @Inject
     private FlatPushMessageInformationDao flatPushMessageInformationDao;
 
+    @Inject
+    private Event<UsageCountersChangedEvent> usageCountersChanged;
+
+    @Inject
+    private Event<PushMessageStoredEvent> pushMessageStored;
+
+    @Inject
+    private Event<VariantErrorRecordedEvent> variantErrorRecorded;
+
     public FlatPushMessageInformation storeNewRequestFrom(String pushAppId, String json, String ipAddress, String clientIdentifier) {
+        return storeNewRequestFrom(pushAppId, json, ipAddress, clientIdentifier, null);
+    }
+
+    /**
+     * Stores a new push message request.
+     *
+     * @param pushAppId the push app ID
+     * @param json the JSON representation of the push message
+     * @param ipAddress the address of the sender
+     * @param clientIdentifier the name of the sender client
+     * @param searchText the lower case alert and criteria of the push message, searched instead of its JSON; null searches the JSON
+     *
+     * @return the stored push message information
+     */
+    public FlatPushMessageInformation storeNewRequestFrom(String pushAppId, String json, String ipAddress, String clientIdentifier, String searchText) {
         final FlatPushMessageInformation information = new FlatPushMessageInformation();
 
         information.setRawJsonMessage(json);
+        information.setSearchText(toSearchText(searchText, json));
         information.setIpAddress(ipAddress);
         information.setPushApplicationId(pushAppId);
         information.setClientIdentifier(clientIdentifier);
@@ -58,10 +98,23 @@ public class PushMessageMetricsService {
         logger.trace("starting to track a new Push Message request in the database");
         flatPushMessageInformationDao.create(information);
         flatPushMessageInformationDao.flushAndClear();
+        messageMetrics.invalidate(pushAppId + ":");
+        usageCountersChanged.fire(new UsageCountersChangedEvent()
+                .add(UsageCounter.pushMessagesOfPushApplication(pushAppId), 1)
+                .add(UsageCounter.TOTAL_PUSH_MESSAGES, 1));
+        pushMessageStored.fire(new PushMessageStoredEvent(pushAppId, information.getSubmitDate()));
 
         return information;
     }
 
+    private static String toSearchText(String searchText, String json) {
+        final String text = searchText != null ? searchText : json == null ? null : json.toLowerCase(Locale.ROOT);
+        if (text != null && text.length() > MAX_SEARCH_TEXT_LENGTH) {
+            return text.substring(0, MAX_SEARCH_TEXT_LENGTH);
+        }
+        return text;
+    }
+
     public void updatePushMessageInformation(FlatPushMessageInformation pushMessageInformation) {
         flatPushMessageInformationDao.update(pushMessageInformation);
     }
@@ -70,15 +123,61 @@ public class PushMessageMetricsService {
         final VariantErrorStatus ves = new VariantErrorStatus(pushMessageInformation, variant, errorMessage);
         pushMessageInformation.getErrors().add(ves);
         try {
-            flatPushMessageInformationDao.update(pushMessageInformation);
+            // only the error is stored, merging the push message would load all of its errors
+            flatPushMessageInformationDao.saveError(ves);
+            variantErrorRecorded.fire(new VariantErrorRecordedEvent(variant.getVariantID()));
         } catch (Exception e) {
             logger.info("Failed to save pushMessageInformation: {}", e.getMessage());
             logger.debug("Details:", e);
         }
     }
 
+    /**
+     * Returns a page of the push messages of the given push application, ordered by date.
+     *
+     * @param pushApplicationID the push app ID
+     * @param search the value of the alert or criteria of a push notification
+     * @param sorting true for ascending, false for descending order
+     * @param page the number of the page
+     * @param pageSize the number of push messages of the page
+     *
+     * @return the push messages plus their metrics, that are cached until a push message is stored for the push application
+     * or for a while (the open counters of the cached metrics are approximate)
+     */
     public PageResult<FlatPushMessageInformation, MessageMetrics> findAllFlatsForPushApplication(String pushApplicationID, String search, boolean sorting, Integer page, Integer pageSize) {
-        return flatPushMessageInformationDao.findAllForPushApplication(pushApplicationID, search, sorting, page, pageSize);
+        return new PageResult<>(flatPushMessageInformationDao.findAllForPushApplicationByParams(pushApplicationID, search, sorting, page, pageSize),
+                findMessageMetrics(pushApplicationID, search));
+    }
+
+    /**
+     * Returns the push messages of the given push application that follow the given one, ordered by date.
+     *
+     * @param pushApplicationID the push app ID
+     * @param search the value of the alert or criteria of a push notification
+     * @param sorting true for ascending, false for descending order
+     * @param lastPushMessageID the ID of the last push message of the previous page, or null for the first page
+     * @param pageSize the number of push messages of the page
+     *
+     * @return the push messages plus their metrics, cached as for {@link #findAllFlatsForPushApplication}; no push messages
+     * if the last push message no longer exists
+     */
+    public PageResult<FlatPushMessageInformation, MessageMetrics> findFlatsForPushApplicationAfter(String pushApplicationID, String search, boolean sorting, String lastPushMessageID, Integer pageSize) {
+        final MessageMetrics metrics = findMessageMetrics(pushApplicationID, search);
+
+        FlatPushMessageInformation last = null;
+        if (lastPushMessageID != null) {
+            last = flatPushMessageInformationDao.find(lastPushMessageID);
+            if (last == null || !pushApplicationID.equals(last.getPushApplicationId())) {
+                return new PageResult<>(Collections.emptyList(), metrics);
+            }
+        }
+
+        return new PageResult<>(flatPushMessageInformationDao.findAllForPushApplicationAfter(pushApplicationID, search, sorting, last, pageSize), metrics);
+    }
+
+    private MessageMetrics findMessageMetrics(String pushApplicationID, String search) {
+        return messageMetrics.get(pushApplicationID + ":" + search,
+                () -> flatPushMessageInformationDao.findMessageMetricsForPushApplicationByParams(pushApplicationID, search, true, null, null));
     }
 
     /**
@@ -99,7 +198,17 @@ public class PushMessageMetricsService {
     public void deleteOutdatedFlatPushInformationData() {
         final Date historyDate = DateUtils.calculatePastDate(ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_METRICS_STORAGE_MAX_DAYS, 30));
         logger.trace("Delete all until {}", historyDate.getTime());
+        final Map<String, Long> outdated = flatPushMessageInformationDao.countPushInformationOlderThan(historyDate);
         flatPushMessageInformationDao.deletePushInformationOlderThan(historyDate);
+        outdated.keySet().forEach(pushApplicationID -> messageMetrics.invalidate(pushApplicationID + ":"));
+
+        final UsageCountersChangedEvent event = new UsageCountersChangedEvent();
+        outdated.forEach((pushApplicationID, count) -> event
+                .add(UsageCounter.pushMessagesOfPushApplication(pushApplicationID), -count)
+                .add(UsageCounter.TOTAL_PUSH_MESSAGES, -count));
+        if (!event.isEmpty()) {
+            usageCountersChanged.fire(event);
+        }
     }
 
     public FlatPushMessageInformation getPushMessageInformation(String id) {
@@ -0,0 +1,90 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.service.metrics;
+
+import org.jboss.aerogear.unifiedpush.api.UsageCounter;
+import org.jboss.aerogear.unifiedpush.dao.UsageCounterDao;
+
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the {@link UsageCounter usage counters} for {@link UsageCounters}, each update in a transaction of its own,
+ * so that {@link UsageCounters} knows whether the changes it handed over were stored.
+ */
+@Stateless
+public class UsageCounterWriter {
+
+    @Inject
+    private UsageCounterDao usageCounterDao;
+
+    /**
+     * Adds the given changes to the counters, in a new transaction.
+     *
+     * @param deltas the changes, by the id of the counter
+     * @return the ids of the counters that do not exist (yet), their changes are dropped
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public Set<String> increment(Map<String, Long> deltas) {
+        final Set<String> missing = new HashSet<>();
+        deltas.forEach((id, delta) -> {
+            if (!usageCounterDao.increment(id, delta)) {
+                missing.add(id);
+            }
+        });
+        return missing;
+    }
+
+    /**
+     * Replaces the counters with the actual numbers, in a new transaction that holds the reconciliation lock,
+     * unless another node started to reconcile them since the given time.
+     *
+     * @param requestedAt the time in milliseconds the reconciliation was requested
+     * @return the corrected drift by kind of counter (see {@link UsageCounters}), or null if another node reconciled the counters
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public Map<String, Long> reconcile(long requestedAt) {
+        final UsageCounter lock = usageCounterDao.lockReconciliation();
+        if (lock.getValue() >= requestedAt) {
+            return null;
+        }
+        lock.setValue(System.currentTimeMillis());
+
+        final Map<String, Long> actualValues = usageCounterDao.countActualValues();
+        final Map<String, Long> drift = new HashMap<>();
+        for (UsageCounter counter : usageCounterDao.findAll()) {
+            final Long actual = actualValues.remove(counter.getId());
+            if (actual == null) {
+                // the counted variant, push application or developer is gone
+                drift.merge(UsageCounters.kindOf(counter.getId()), Math.abs(counter.getValue()), Long::sum);
+                usageCounterDao.delete(counter);
+            } else if (actual != counter.getValue()) {
+                drift.merge(UsageCounters.kindOf(counter.getId()), Math.abs(actual - counter.getValue()), Long::sum);
+                counter.setValue(actual);
+                usageCounterDao.update(counter);
+            }
+        }
+        actualValues.forEach((id, actual) -> usageCounterDao.create(new UsageCounter(id, actual)));
+        return drift;
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.service.metrics;
+
+import org.jboss.aerogear.unifiedpush.api.UsageCounter;
+import org.jboss.aerogear.unifiedpush.event.UsageCountersChangedEvent;
+import org.jboss.aerogear.unifiedpush.system.ConfigurationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.Timeout;
+import javax.ejb.Timer;
+import javax.ejb.TimerConfig;
+import javax.ejb.TimerService;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maintains the {@link UsageCounter usage counters} read by the dashboard, instead of counting the installations,
+ * push messages and push applications on every request.
+ *
+ * <ul>
+ *     <li>the changes of committed transactions are collected in memory and periodically added to the counters, with a single update per counter</li>
+ *     <li>shortly after startup, periodically and whenever a counter is missing, all counters are reconciled with the actual numbers,
+ *     by a single node of the cluster at a time (see {@link org.jboss.aerogear.unifiedpush.dao.UsageCounterDao#lockReconciliation()})</li>
+ * </ul>
+ *
+ * Changes that could not be added to the counters are kept for the next update, and the changes collected so far are added
+ * once more when the server shuts down.
+ *
+ * Changes that are not counted one by one (e.g. the removal of a push application along with its variants and installations)
+ * request a reconciliation, so that the counters are only off for a short while.
+ *
+ * Every reconciliation exports the drift it corrected, per kind of counter, to Prometheus (see {@link PrometheusExporter#setUsageCounterDrift(String, long)}):
+ * a drift that keeps growing points at changes that are not counted.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class UsageCounters {
+
+    private static final Logger logger = LoggerFactory.getLogger(UsageCounters.class);
+
+    // system property names used to tune the counters
+    public static final String AEROGEAR_COUNTERS_FLUSH_INTERVAL = "aerogear.counters.flush.interval";
+    public static final String AEROGEAR_COUNTERS_RECONCILE_INTERVAL = "aerogear.counters.reconcile.interval";
+
+    private static final long STARTUP_DELAY = TimeUnit.SECONDS.toMillis(10);
+    private static final String FLUSH = "flush";
+    private static final String RECONCILE = "reconcile";
+    private static final List<String> KINDS = Arrays.asList("variant", "application", "developer", "total");
+
+    // seconds between two updates of the counters
+    private final int flushInterval = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_COUNTERS_FLUSH_INTERVAL, 5);
+    // minutes between two reconciliations, 0 disables the periodic reconciliation
+    private final int reconcileInterval = ConfigurationUtils.tryGetGlobalIntegerProperty(AEROGEAR_COUNTERS_RECONCILE_INTERVAL, 60);
+
+    private final ConcurrentMap<String, AtomicLong> pendingDeltas = new ConcurrentHashMap<>();
+    private final AtomicBoolean reconciliationRequested = new AtomicBoolean();
+
+    @Resource
+    private TimerService timerService;
+
+    @Inject
+    private UsageCounterWriter usageCounterWriter;
+
+    @PostConstruct
+    public void scheduleTimers() {
+        timerService.createSingleActionTimer(STARTUP_DELAY, new TimerConfig(RECONCILE, false));
+
+        final long flush = TimeUnit.SECONDS.toMillis(flushInterval);
+        timerService.createIntervalTimer(flush, flush, new TimerConfig(FLUSH, false));
+        if (reconcileInterval > 0) {
+            final long reconcile = TimeUnit.MINUTES.toMillis(reconcileInterval);
+            timerService.createIntervalTimer(reconcile, reconcile, new TimerConfig(RECONCILE, false));
+        }
+    }
+
+    /**
+     * Collects the changes of a committed transaction, until the next update of the counters.
+     *
+     * @param event the changed counters
+     */
+    public void collectChanges(@Observes(during = TransactionPhase.AFTER_SUCCESS) UsageCountersChangedEvent event) {
+        event.getDeltas().forEach((id, delta) -> pendingDeltas.computeIfAbsent(id, key -> new AtomicLong()).addAndGet(delta));
+        if (event.isReconciliationRequested()) {
+            reconciliationRequested.set(true);
+        }
+    }
+
+    /**
+     * Adds the changes collected so far to the counters, before the server shuts down.
+     */
+    @PreDestroy
+    public synchronized void flushOnShutdown() {
+        flush();
+    }
+
+    @Timeout
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public synchronized void onTimeout(Timer timer) {
+        if (RECONCILE.equals(timer.getInfo()) || reconciliationRequested.getAndSet(false)) {
+            reconcile();
+        } else {
+            flush();
+        }
+    }
+
+    /**
+     * Adds the collected changes to the counters, or keeps them for the next update if they could not be added.
+     */
+    private void flush() {
+        final Map<String, Long> deltas = new HashMap<>();
+        pendingDeltas.forEach((id, pending) -> {
+            final long delta = pending.getAndSet(0);
+            if (delta != 0) {
+                deltas.put(id, delta);
+            }
+        });
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        final Set<String> missing;
+        try {
+            missing = usageCounterWriter.increment(deltas);
+        } catch (RuntimeException e) {
+            // the transaction was rolled back, none of the changes was added
+            logger.warn("Failed to update the usage counters, will retry", e);
+            addPendingDeltas(deltas, 1);
+            return;
+        }
+        if (!missing.isEmpty()) {
+            logger.debug("Usage counters {} do not exist, reconciling the counters", missing);
+            reconciliationRequested.set(true);
+        }
+    }
+
+    /**
+     * Replaces the counters with the actual numbers, subtracts the changes collected before as they are part of these numbers,
+     * and exports the drift.
+     */
+    private void reconcile() {
+        final Map<String, Long> counted = new HashMap<>();
+        pendingDeltas.forEach((id, pending) -> counted.put(id, pending.get()));
+
+        final Map<String, Long> drift;
+        try {
+            drift = usageCounterWriter.reconcile(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            logger.warn("Failed to reconcile the usage counters", e);
+            return;
+        }
+        // also part of the numbers when another node reconciled the counters in the meantime
+        addPendingDeltas(counted, -1);
+
+        if (drift == null) {
+            logger.debug("The usage counters were reconciled by another node");
+            return;
+        }
+        logger.debug("Reconciled the usage counters, drift of {}", drift);
+        KINDS.forEach(kind -> PrometheusExporter.instance().setUsageCounterDrift(kind, drift.getOrDefault(kind, 0L)));
+        PrometheusExporter.instance().increaseUsageCounterReconciliations();
+    }
+
+    private void addPendingDeltas(Map<String, Long> deltas, long sign) {
+        deltas.forEach((id, delta) -> pendingDeltas.computeIfAbsent(id, key -> new AtomicLong()).addAndGet(sign * delta));
+    }
+
+    /*
+     * The kind of a counter is the prefix of its id, the totals have none (see UsageCounter)
+     */
+    static String kindOf(String counterID) {
+        final int separator = counterID.indexOf(':');
+        return separator < 0 ? "total" : counterID.substring(0, separator);
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * JBoss, Home of Professional Open Source
+ * Copyright Red Hat, Inc., and individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * 	http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.aerogear.unifiedpush.service.impl;
+
+import org.jboss.aerogear.unifiedpush.api.UsageCounter;
+import org.jboss.aerogear.unifiedpush.dao.InstallationDao;
+import org.jboss.aerogear.unifiedpush.dto.InstallationToken;
+import org.jboss.aerogear.unifiedpush.event.InstallationsChangedEvent;
+import org.jboss.aerogear.unifiedpush.event.UsageCountersChangedEvent;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.enterprise.event.Event;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ClientInstallationServiceImplTest {
+
+    private static final Set<String> TOKENS = new HashSet<>(Arrays.asList("token-1", "token-2"));
+
+    @Mock
+    private InstallationDao installationDao;
+
+    @Mock
+    private Event<UsageCountersChangedEvent> usageCountersChanged;
+
+    @Mock
+    private Event<InstallationsChangedEvent> installationsChanged;
+
+    @InjectMocks
+    private ClientInstallationServiceImpl clientInstallationService;
+
+    @Test
+    public void countsTheInstallationsOfABulkDelete() {
+        when(installationDao.findInstallationTokensForVariantByDeviceTokens("variant", TOKENS)).thenReturn(Arrays.asList(
+                new InstallationToken("1", "token-1", "variant", "me"),
+                new InstallationToken("2", "token-2", "variant", "me")));
+        when(installationDao.deleteByIds(Matchers.<String>anyCollection())).thenReturn(2);
+
+        clientInstallationService.removeInstallationsForVariantByDeviceTokens("variant", TOKENS);
+
+        final UsageCountersChangedEvent counters = firedUsageCounters();
+        assertThat(counters.isReconciliationRequested()).isFalse();
+        assertThat(counters.getDeltas().get(UsageCounter.installationsOfVariant("variant"))).isEqualTo(-2L);
+        assertThat(counters.getDeltas().get(UsageCounter.installationsOfDeveloper("me"))).isEqualTo(-2L);
+        assertThat(counters.getDeltas().get(UsageCounter.TOTAL_INSTALLATIONS)).isEqualTo(-2L);
+
+        final ArgumentCaptor<InstallationsChangedEvent> changes = ArgumentCaptor.forClass(InstallationsChangedEvent.class);
+        verify(installationsChanged).fire(changes.capture());
+        assertThat(changes.getValue().getVariantID()).isEqualTo("variant");
+        assertThat(changes.getValue().getRemoved()).containsOnly("token-1", "token-2");
+    }
+
+    @Test
+    public void reconcilesTheCountersWhenInstallationsWereDeletedConcurrently() {
+        when(installationDao.findInstallationTokensForVariantByDeviceTokens("variant", TOKENS)).thenReturn(Arrays.asList(
+                new InstallationToken("1", "token-1", "variant", "me"),
+                new InstallationToken("2", "token-2", "variant", "me")));
+        when(installationDao.deleteByIds(Matchers.<String>anyCollection())).thenReturn(1);
+
+        clientInstallationService.removeInstallationsForVariantByDeviceTokens("variant", TOKENS);
+
+        final UsageCountersChangedEvent counters = firedUsageCounters();
+        assertThat(counters.isReconciliationRequested()).isTrue();
+        assertThat(counters.getDeltas()).isEmpty();
+    }
+
+    private UsageCountersChangedEvent firedUsageCounters() {
+        final ArgumentCaptor<UsageCountersChangedEvent> counters = ArgumentCaptor.forClass(UsageCountersChangedEvent.class);
+        verify(usageCountersChanged).fire(counters.capture());
+        return counters.getValue();
+    }
+}